@@ -0,0 +1,34 @@
+package com.moshe.client.benchmarks;
+
+import java.io.*;
+import java.util.Base64;
+import java.util.Random;
+
+// Test data shared by the benchmarks
+final class BenchmarkFiles {
+
+    private BenchmarkFiles() {
+    }
+
+    // Creates a temporary file of `size` incompressible bytes
+    static File create(long size) throws IOException {
+        File file = File.createTempFile("bench", ".bin");
+        file.deleteOnExit();
+
+        byte[] block = new byte[1024 * 1024];
+        new Random(42).nextBytes(block);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            for (long written = 0; written < size; written += block.length) {
+                out.write(block, 0, (int) Math.min(block.length, size - written));
+            }
+        }
+        return file;
+    }
+
+    // A random 128-bit AES key, Base64-encoded as the server sends it
+    static String randomAesKey() {
+        byte[] key = new byte[16];
+        new Random(7).nextBytes(key);
+        return Base64.getEncoder().encodeToString(key);
+    }
+}
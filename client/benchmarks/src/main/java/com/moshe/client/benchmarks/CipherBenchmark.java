@@ -0,0 +1,65 @@
+package com.moshe.client.benchmarks;
+
+import com.moshe.client.CipherMode;
+import com.moshe.client.Crypt;
+import com.moshe.client.FileStreamer;
+import com.moshe.client.utils.CRCUtils;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Checksum;
+import org.openjdk.jmh.annotations.*;
+
+// Encrypting a streamed file: AES-CBC plus the CRC32 the client later compares with the server's,
+// vs AES-GCM records the server authenticates itself. The "bytes" counter is the number of plain
+// bytes encrypted per second. GCM also saves the two round trips of the CRC check per file,
+// which only shows on the network.
+//
+// Run: java -jar target/benchmarks.jar CipherBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class CipherBenchmark {
+
+    @Param({"65536", "104857600"})
+    public long fileSize;
+
+    @Param({"cbc", "gcm"})
+    public String cipher;
+
+    private File file;
+    private FileStreamer streamer;
+    private boolean gcm;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Plain {
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        file = BenchmarkFiles.create(fileSize);
+
+        Crypt crypt = new Crypt();
+        crypt.setEncodedAesKey(BenchmarkFiles.randomAesKey());
+        gcm = CipherMode.fromName(cipher) == CipherMode.GCM;
+        streamer = new FileStreamer(crypt, false);
+        streamer.setCipherMode(CipherMode.fromName(cipher));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public long streamFile(Plain plain) throws Exception {
+        Checksum checksum = gcm ? null : CRCUtils.newChecksum(false);
+        streamer.stream(file, fileSize, new FramingBenchmark.CountingOutputStream(), checksum);
+        plain.bytes += fileSize;
+        return checksum == null ? 0 : checksum.getValue();
+    }
+}
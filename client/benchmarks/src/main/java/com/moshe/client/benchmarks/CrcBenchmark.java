@@ -0,0 +1,59 @@
+package com.moshe.client.benchmarks;
+
+import com.moshe.client.utils.CRCUtils;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Checksum;
+import org.openjdk.jmh.annotations.*;
+
+// Checksums of CRCUtils, CRC32 vs CRC32C, over a file read through a stream, a file read through
+// mapped windows, and bytes already in memory. With the file in the page cache the difference
+// between the file variants is the copy into the Java heap.
+//
+// Run: java -jar target/benchmarks.jar CrcBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class CrcBenchmark {
+
+    @Param({"67108864"})
+    public long fileSize;
+
+    @Param({"false", "true"})
+    public boolean crc32c;
+
+    private File file;
+    private byte[] content;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        file = BenchmarkFiles.create(fileSize);
+        content = Files.readAllBytes(file.toPath());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public String streamedFile() throws Exception {
+        return CRCUtils.calculateFileChecksum(file.getPath(), crc32c);
+    }
+
+    @Benchmark
+    public String mappedFile() throws Exception {
+        return CRCUtils.calculateMappedFileChecksum(file.getPath(), crc32c);
+    }
+
+    @Benchmark
+    public long inMemory() {
+        Checksum checksum = CRCUtils.newChecksum(crc32c);
+        checksum.update(content, 0, content.length);
+        return checksum.getValue();
+    }
+}
@@ -0,0 +1,66 @@
+package com.moshe.client.benchmarks;
+
+import com.moshe.client.Crypt;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Cipher;
+import org.openjdk.jmh.annotations.*;
+
+// Per-file cost of the cryptography a small file goes through: encrypting its content in one call
+// and decrypting a session key with RSA. Run with -t N to share one Crypt between N threads,
+// like the sessions of the concurrent uploader.
+//
+// Run: java -jar target/benchmarks.jar CryptBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class CryptBenchmark {
+
+    @Param({"1024", "16384"})
+    public int contentSize;
+
+    private Crypt crypt;
+    private byte[] content;
+    private String encryptedAesKey;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        crypt = new Crypt();
+        crypt.generateRSAKeyPair();
+        String aesKey = BenchmarkFiles.randomAesKey();
+        crypt.setEncodedAesKey(aesKey);
+
+        content = new byte[contentSize];
+        new Random(1).nextBytes(content);
+
+        // The AES key as the server sends it, encrypted with the client's public key
+        PublicKey publicKey = KeyFactory.getInstance("RSA")
+                .generatePublic(new X509EncodedKeySpec(Base64.getDecoder().decode(crypt.getPublicKey())));
+        Cipher rsa = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+        rsa.init(Cipher.ENCRYPT_MODE, publicKey);
+        encryptedAesKey = Base64.getEncoder().encodeToString(rsa.doFinal(aesKey.getBytes()));
+    }
+
+    @Benchmark
+    public byte[] encryptContent() throws Exception {
+        return crypt.encryptAESBytes(content);
+    }
+
+    // As protocol versions before RAW_CONTENT_VERSION send it, Base64-encoded
+    @Benchmark
+    public String encryptContentBase64() throws Exception {
+        return crypt.encryptAES(content);
+    }
+
+    @Benchmark
+    public String decryptSessionKey() throws Exception {
+        return crypt.decryptRSA(encryptedAesKey);
+    }
+}
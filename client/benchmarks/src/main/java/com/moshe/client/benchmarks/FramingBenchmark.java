@@ -0,0 +1,71 @@
+package com.moshe.client.benchmarks;
+
+import com.moshe.client.Crypt;
+import com.moshe.client.FileStreamer;
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Encrypted file body on the wire: Base64 (protocol v3) vs raw ciphertext (v4).
+// The "bytes" counter is the number of bytes written to the socket per second.
+//
+// Run: java -jar target/benchmarks.jar FramingBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class FramingBenchmark {
+
+    @Param({"104857600", "1073741824"})
+    public long fileSize;
+
+    @Param({"base64", "raw"})
+    public String encoding;
+
+    private File file;
+    private FileStreamer streamer;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Wire {
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        file = BenchmarkFiles.create(fileSize);
+
+        Crypt crypt = new Crypt();
+        crypt.setEncodedAesKey(BenchmarkFiles.randomAesKey());
+        streamer = new FileStreamer(crypt, encoding.equals("base64"));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public void streamFile(Wire wire) throws Exception {
+        CountingOutputStream out = new CountingOutputStream();
+        streamer.stream(file, fileSize, out);
+        wire.bytes += out.count;
+    }
+
+    // Discards everything written to it, counting the bytes
+    static class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.moshe.client.benchmarks;
+
+import com.moshe.client.HeaderCodec;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Per-chunk cost of the framing around a resumable chunk: encoding the request header and chunk
+// payload, and decoding the response header and chunk acknowledgement. `allocating` builds them
+// the way the client did before HeaderCodec, a byte array and a ByteBuffer per field group and a
+// String per ID; `codec` encodes into reused buffers.
+//
+// Run: java -jar target/benchmarks.jar HeaderCodecBenchmark -prof gc
+// and compare gc.alloc.rate.norm (bytes allocated per operation).
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 3)
+@Measurement(iterations = 3, time = 5)
+@Fork(1)
+public class HeaderCodecBenchmark {
+
+    private static final String CLIENT_ID = "0123456789abcdef";
+    private static final String FILE_ID = "fedcba9876543210";
+    private static final int CODE = 1031;
+
+    private final byte[] clientId = CLIENT_ID.getBytes(StandardCharsets.UTF_8);
+    private final byte[] fileId = FILE_ID.getBytes(StandardCharsets.UTF_8);
+    private final ByteBuffer header = ByteBuffer.allocate(HeaderCodec.REQUEST_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer payload = ByteBuffer.allocate(64).order(ByteOrder.LITTLE_ENDIAN);
+
+    // A response header and chunk acknowledgement as the server sends them
+    private final ByteBuffer respondHeader = ByteBuffer.allocate(HeaderCodec.RESPOND_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer ack = ByteBuffer.allocate(36).order(ByteOrder.LITTLE_ENDIAN);
+    private long offset;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        HeaderCodec.putRespondHeader(respondHeader, 10, 2109, 36);
+        respondHeader.flip();
+        ack.put(fileId).putLong(1 << 20).putInt(0).putLong(2 << 20).flip();
+    }
+
+    @Benchmark
+    public int encodeAllocating() {
+        offset += 1 << 20;
+        ByteBuffer chunk = ByteBuffer.allocate(36).order(ByteOrder.LITTLE_ENDIAN);
+        chunk.put(fixed(FILE_ID, 16));
+        chunk.putLong(offset).putInt(1 << 20).putInt((1 << 20) + 16).putInt(1);
+        byte[] chunkBytes = chunk.array();
+
+        ByteBuffer request = ByteBuffer.allocate(HeaderCodec.REQUEST_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        request.put(fixed(CLIENT_ID, 16));
+        request.put((byte) 10).putShort((short) CODE).putInt(chunkBytes.length);
+        ByteBuffer[] buffers = {ByteBuffer.wrap(request.array()), ByteBuffer.wrap(chunkBytes)};
+        return buffers[0].remaining() + buffers[1].remaining();
+    }
+
+    @Benchmark
+    public int encodeCodec() {
+        offset += 1 << 20;
+        payload.clear();
+        HeaderCodec.putChunkPayload(payload, fileId, offset, 1 << 20, (1 << 20) + 16, 1);
+        payload.flip();
+        header.clear();
+        HeaderCodec.putRequestHeader(header, clientId, 10, CODE, payload.remaining());
+        header.flip();
+        return header.remaining() + payload.remaining();
+    }
+
+    @Benchmark
+    public long decodeAllocating() {
+        ByteBuffer headerBuffer = ByteBuffer.wrap(copy(respondHeader)).order(ByteOrder.LITTLE_ENDIAN);
+        int code = Short.toUnsignedInt(headerBuffer.getShort(1));
+        byte[] body = copy(ack);
+        ByteBuffer buffer = ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] idBytes = new byte[16];
+        buffer.get(idBytes);
+        String id = new String(idBytes, StandardCharsets.UTF_8).trim();
+        long ackOffset = buffer.getLong();
+        int status = buffer.getInt();
+        return ackOffset + status + code + id.length();
+    }
+
+    @Benchmark
+    public long decodeCodec() {
+        int code = HeaderCodec.respondCode(respondHeader);
+        return HeaderCodec.chunkAckOffset(ack) + HeaderCodec.chunkAckStatus(ack) + code;
+    }
+
+    private static byte[] fixed(String value, int size) {
+        byte[] bytes = new byte[size];
+        byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(valueBytes, 0, bytes, 0, Math.min(valueBytes.length, size));
+        return bytes;
+    }
+
+    // The bytes a read into a fresh array would hold
+    private static byte[] copy(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,169 @@
+package com.moshe.client.benchmarks;
+
+import com.moshe.client.Constants;
+import com.moshe.client.HeaderCodec;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.Cipher;
+
+// Stand-in for the server in upload benchmarks, on the loopback interface of the same JVM. It
+// speaks just enough of the protocol for registration, RSA login and resumable uploads, and
+// discards the content it receives without decrypting or verifying it, so the measured time is
+// the client's own. Every chunk is acknowledged as stored.
+final class LoopbackServer implements Closeable {
+
+    private static final byte[] CLIENT_ID = "benchmarkclient0".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FILE_ID = "benchmarkupload0".getBytes(StandardCharsets.UTF_8);
+
+    private final ServerSocket serverSocket;
+    private final String aesKey;
+    // Public keys by client name, for the AES key of a login
+    private final Map<String, PublicKey> publicKeys = new ConcurrentHashMap<>();
+    private final AtomicLong bytesReceived = new AtomicLong();
+
+    LoopbackServer(String aesKey) throws IOException {
+        this.aesKey = aesKey;
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptLoop, "loopback-server");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    // Bytes of requests received over all connections
+    long bytesReceived() {
+        return bytesReceived.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                Thread handler = new Thread(() -> handle(socket), "loopback-connection");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), Constants.STREAM_CHUNK_SIZE));
+             OutputStream out = new BufferedOutputStream(s.getOutputStream())) {
+            byte[] headerBytes = new byte[HeaderCodec.REQUEST_HEADER_SIZE];
+            ByteBuffer header = ByteBuffer.wrap(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+            byte[] skipBuffer = new byte[Constants.STREAM_CHUNK_SIZE];
+            while (true) {
+                try {
+                    in.readFully(headerBytes);
+                } catch (EOFException e) {
+                    return;
+                }
+                int code = HeaderCodec.requestCode(header);
+                byte[] payload = new byte[HeaderCodec.requestPayloadSize(header)];
+                in.readFully(payload);
+                bytesReceived.addAndGet(headerBytes.length + payload.length);
+
+                ByteBuffer request = ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN);
+                switch (code) {
+                    case Constants.REQUEST_REGISTER:
+                        respond(out, Constants.RESPOND_REGISTER_SUCCESS, ByteBuffer.wrap(CLIENT_ID));
+                        break;
+                    case Constants.REQUEST_SENDING_PUBKEY:
+                        String name = HeaderCodec.getFixed(payload, 0, 255);
+                        byte[] publicKey = Base64.getDecoder().decode(
+                                new String(payload, 255, payload.length - 255, StandardCharsets.UTF_8).trim());
+                        publicKeys.put(name, KeyFactory.getInstance("RSA")
+                                .generatePublic(new X509EncodedKeySpec(publicKey)));
+                        respond(out, Constants.RESPOND_SENDING_ENCKEY, keyPayload(name));
+                        break;
+                    case Constants.REQUEST_LOGIN:
+                        respond(out, Constants.RESPOND_LOGIN_CONFIRMED, keyPayload(HeaderCodec.getFixed(payload, 0, 255)));
+                        break;
+                    case Constants.REQUEST_RESUME_FILE:
+                        // [16B clientId][16B fileId][8B offset][4B flags], always from the start
+                        int flags = request.getInt(16) & (Constants.FLAG_CRC32C | Constants.FLAG_AES_GCM);
+                        ByteBuffer resume = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+                        resume.put(CLIENT_ID).put(FILE_ID).putLong(0).putInt(flags).flip();
+                        respond(out, Constants.RESPOND_RESUME_OFFSET, resume);
+                        break;
+                    case Constants.REQUEST_SENDING_FILE_CHUNK:
+                        long offset = request.getLong(16);
+                        int length = request.getInt(24);
+                        int contentSize = request.getInt(28);
+                        boolean gcm = (request.getInt(32) & Constants.FLAG_AES_GCM) != 0;
+                        skip(in, contentSize + (gcm ? 0 : 4), skipBuffer);
+                        ByteBuffer ack = ByteBuffer.allocate(Constants.CHUNK_ACK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                        ack.put(FILE_ID).putLong(offset).putInt(Constants.CHUNK_STORED).putLong(offset + length).flip();
+                        respond(out, Constants.RESPOND_CHUNK_ACCEPTED, ack);
+                        break;
+                    case Constants.REQUEST_COMMIT_FILE:
+                        respond(out, Constants.RESPOND_MESSAGE_CONFIRMED, ByteBuffer.wrap(CLIENT_ID));
+                        break;
+                    default:
+                        // Not supported here, the client would wait for content handling we don't do
+                        respond(out, Constants.RESPOND_INTERNAL_ERROR, ByteBuffer.allocate(0));
+                        return;
+                }
+            }
+        } catch (Exception e) {
+            // The client went away, or sent something this stand-in doesn't understand
+        }
+    }
+
+    // AES key response: [16B clientId][16B ticket][4B lifetime][Base64 RSA-encrypted AES key].
+    // No session ticket is issued, its lifetime is zero.
+    private ByteBuffer keyPayload(String name) throws Exception {
+        PublicKey publicKey = publicKeys.get(name);
+        if (publicKey == null) throw new IOException("Unknown client " + name);
+        Cipher rsa = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+        rsa.init(Cipher.ENCRYPT_MODE, publicKey);
+        byte[] encryptedKey = Base64.getEncoder()
+                .encode(rsa.doFinal(aesKey.getBytes(StandardCharsets.US_ASCII)));
+
+        ByteBuffer payload = ByteBuffer.allocate(16 + Constants.TICKET_SIZE + 4 + encryptedKey.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        payload.put(CLIENT_ID).put(new byte[Constants.TICKET_SIZE]).putInt(0).put(encryptedKey).flip();
+        return payload;
+    }
+
+    private void respond(OutputStream out, int code, ByteBuffer payload) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HeaderCodec.RESPOND_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        HeaderCodec.putRespondHeader(header, Constants.CLIENT_VERSION, code, payload.remaining());
+        out.write(header.array());
+        out.write(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+        out.flush();
+    }
+
+    private void skip(DataInputStream in, long count, byte[] buffer) throws IOException {
+        bytesReceived.addAndGet(count);
+        while (count > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, count));
+            if (n == -1) throw new EOFException();
+            count -= n;
+        }
+    }
+}
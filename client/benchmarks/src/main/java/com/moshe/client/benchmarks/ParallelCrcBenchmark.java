@@ -0,0 +1,57 @@
+package com.moshe.client.benchmarks;
+
+import com.moshe.client.utils.CRCUtils;
+import com.moshe.client.utils.ParallelChecksum;
+import java.io.File;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// ParallelChecksum on 1 to 8 threads against the sequential mapped checksum of CRCUtils, over a
+// file in the page cache. The speedup levels off at the number of cores, or earlier once the
+// memory bandwidth is used up; compare the threads rows with -p threads=... on the target machine.
+//
+// Run: java -jar target/benchmarks.jar ParallelCrcBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class ParallelCrcBenchmark {
+
+    @Param({"268435456"})
+    public long fileSize;
+
+    @Param({"false", "true"})
+    public boolean crc32c;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private File file;
+    private ForkJoinPool pool;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        file = BenchmarkFiles.create(fileSize);
+        pool = new ForkJoinPool(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pool.shutdown();
+        file.delete();
+    }
+
+    @Benchmark
+    public int parallel() throws Exception {
+        return ParallelChecksum.checksum(file.toPath(), crc32c, pool);
+    }
+
+    // Doesn't depend on threads, the baseline of every row
+    @Benchmark
+    public String sequentialMapped() throws Exception {
+        return CRCUtils.calculateMappedFileChecksum(file.getPath(), crc32c);
+    }
+}
@@ -0,0 +1,72 @@
+package com.moshe.client.benchmarks;
+
+import com.moshe.client.CipherMode;
+import com.moshe.client.Crypt;
+import com.moshe.client.FileStreamer;
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// Encrypting a streamed file as one AES/CBC/PKCS5Padding chain, which only one core can compute,
+// vs AES-GCM records sealed on the sending thread ("gcm") or on a pool of 2 to 8 threads
+// ("gcm:N"). The "bytes" counter is the number of plain bytes encrypted per second; the parallel
+// rows level off at the number of cores, the network then takes over as the limit.
+//
+// Run: java -jar target/benchmarks.jar ParallelEncryptBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class ParallelEncryptBenchmark {
+
+    @Param({"104857600"})
+    public long fileSize;
+
+    // Cipher, and for GCM the number of threads records are sealed on
+    @Param({"cbc", "gcm", "gcm:2", "gcm:4", "gcm:8"})
+    public String cipher;
+
+    private File file;
+    private FileStreamer streamer;
+    private ExecutorService pool;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Plain {
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        file = BenchmarkFiles.create(fileSize);
+
+        Crypt crypt = new Crypt();
+        crypt.setEncodedAesKey(BenchmarkFiles.randomAesKey());
+        String[] mode = cipher.split(":");
+        streamer = new FileStreamer(crypt, false);
+        streamer.setCipherMode(CipherMode.fromName(mode[0]));
+        if (mode.length > 1) {
+            int threads = Integer.parseInt(mode[1]);
+            pool = Executors.newFixedThreadPool(threads);
+            streamer.setEncryptPool(pool, threads);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (pool != null) pool.shutdownNow();
+        file.delete();
+    }
+
+    @Benchmark
+    public long streamFile(Plain plain) throws Exception {
+        FramingBenchmark.CountingOutputStream out = new FramingBenchmark.CountingOutputStream();
+        streamer.stream(file, fileSize, out);
+        plain.bytes += fileSize;
+        return out.count;
+    }
+}
@@ -0,0 +1,53 @@
+package com.moshe.client.benchmarks;
+
+import com.moshe.client.Crypt;
+import com.moshe.client.FileStreamer;
+import com.moshe.client.ReadStrategy;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+import org.openjdk.jmh.annotations.*;
+
+// Streaming upload of a file already in the page cache with each FileStreamer read strategy,
+// checksum included, raw ciphertext discarded.
+//
+// Run: java -jar target/benchmarks.jar ReadStrategyBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class ReadStrategyBenchmark {
+
+    @Param({"104857600"})
+    public long fileSize;
+
+    @Param({"HEAP", "DIRECT", "MAPPED"})
+    public ReadStrategy readStrategy;
+
+    private File file;
+    private FileStreamer streamer;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        file = BenchmarkFiles.create(fileSize);
+
+        Crypt crypt = new Crypt();
+        crypt.setEncodedAesKey(BenchmarkFiles.randomAesKey());
+        streamer = new FileStreamer(crypt, false);
+        streamer.setReadStrategy(readStrategy);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public long streamFile() throws Exception {
+        CRC32 checksum = new CRC32();
+        streamer.stream(file, fileSize, new FramingBenchmark.CountingOutputStream(), checksum);
+        return checksum.getValue();
+    }
+}
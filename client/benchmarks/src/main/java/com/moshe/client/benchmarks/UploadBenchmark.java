@@ -0,0 +1,70 @@
+package com.moshe.client.benchmarks;
+
+import com.moshe.client.CipherMode;
+import com.moshe.client.Client;
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+// End-to-end resumable upload through the client, against LoopbackServer in the same JVM: file
+// reads, encryption, chunk framing and the socket, without a real server's cost. The "bytes"
+// counter is the number of file bytes uploaded per second.
+//
+// Run: java -jar target/benchmarks.jar UploadBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+@Fork(1)
+public class UploadBenchmark {
+
+    @Param({"1048576", "104857600"})
+    public long fileSize;
+
+    @Param({"65536", "1048576", "8388608"})
+    public int chunkSize;
+
+    @Param({"gcm", "cbc"})
+    public String cipher;
+
+    private File file;
+    private LoopbackServer server;
+    private Client client;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Uploaded {
+        public long bytes;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        file = BenchmarkFiles.create(fileSize);
+        server = new LoopbackServer(BenchmarkFiles.randomAesKey());
+
+        client = new Client();
+        client.setServer("127.0.0.1", server.port());
+        client.setClientName("benchmark");
+        client.setPersistent(false);
+        client.setChunkSize(chunkSize);
+        client.setCipherMode(CipherMode.fromName(cipher));
+        client.setTransferFileName(file.getPath());
+        if (!client.connectToServer() || !client.registerClient() || !client.shareKey()) {
+            throw new IllegalStateException("Could not log in to the loopback server");
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        client.close();
+        server.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public void upload(Uploaded uploaded) throws Exception {
+        if (!client.transferFile()) throw new IllegalStateException("Upload failed");
+        uploaded.bytes += fileSize;
+    }
+}
@@ -0,0 +1,14 @@
+package com.moshe.client;
+
+// How file content is encrypted
+public enum CipherMode {
+    // AES-CBC over the whole content, checked afterwards with a CRC round trip
+    CBC,
+    // AES-GCM records, each with its own nonce and tag, authenticated by the server as they arrive.
+    // Used when the server supports GCM_VERSION, CBC otherwise.
+    GCM;
+
+    public static CipherMode fromName(String name) {
+        return valueOf(name.toUpperCase());
+    }
+}
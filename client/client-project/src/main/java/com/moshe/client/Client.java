@@ -1,12 +1,35 @@
 package com.moshe.client;
 
 import com.moshe.client.Payloads.*;
+import com.moshe.client.jfr.ChunkEncryptEvent;
+import com.moshe.client.jfr.ChunkSendEvent;
+import com.moshe.client.jfr.ConnectEvent;
+import com.moshe.client.jfr.CrcVerifyEvent;
+import com.moshe.client.jfr.HandshakeEvent;
+import com.moshe.client.jfr.ServerWaitEvent;
 import java.io.*;
-import java.net.*;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Supplier;
+import java.util.zip.Checksum;
 import com.moshe.client.utils.CRCUtils;
+import com.moshe.client.utils.ChunkingUtils;
+import com.moshe.client.utils.DeltaUtils;
+import com.moshe.client.utils.Logger;
+import com.moshe.client.utils.TempFileUtils;
 
 public class Client {
 
@@ -19,18 +42,66 @@ public class Client {
     private String clientName = "";
     private String transferFileName = "";
     private boolean registered = false;
+    private boolean streaming = false;
+    private boolean crc32c = false;
+    private boolean resumable = true;
+    private ReadStrategy readStrategy = ReadStrategy.HEAP;
+    private CipherMode cipherMode = CipherMode.GCM;
+    private boolean useTickets = true;
+    private boolean dedup = false;
+    private boolean delta = false;
+    private int chunkSize = Constants.RESUME_CHUNK_SIZE;
+    // Whether registration and session tickets are saved to the files in Constants
+    private boolean persistent = true;
+    // Whether each step is printed, off when thousands of clients run in one process
+    private boolean logging = true;
+    private TransferMetrics metrics = TransferMetrics.NONE;
+    // Chunks and files sent again and reconnects for the current file, for the metrics
+    private int fileRetries;
+    // Code of the last request written, named in the ServerWaitEvent of the response to it
+    private volatile int lastRequestCode;
+    private Compressor compressor;
+    private SessionTicket ticket;
+    // Threads GCM records are sealed on, shared with the additional sessions, none by default
+    private ExecutorService encryptPool;
+    private int encryptThreads = 1;
+
+    // Protocol version agreed with the server: lower of ours and the one in its last response
+    private volatile int protocolVersion = Constants.CLIENT_VERSION;
 
     // Networking fields
-    private Socket socket;
-    private DataInputStream input;
-    private DataOutputStream output;
-
-    // Cryptographic handler (RSA + AES)
+    private TransportType transportType = TransportType.SOCKET;
+    private Transport transport;
+
+    // Reused for every request and response, each used by one thread at a time. Fixed-layout
+    // payloads (chunk headers, chunk acknowledgements) are encoded in place, nothing is allocated
+    // per chunk.
+    private final ByteBuffer requestHeaderBuffer = ByteBuffer.allocate(HeaderCodec.REQUEST_HEADER_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer respondHeaderBuffer = ByteBuffer.allocate(HeaderCodec.RESPOND_HEADER_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer requestPayloadBuffer = ByteBuffer.allocate(FIXED_PAYLOAD_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer respondPayloadBuffer = ByteBuffer.allocate(FIXED_PAYLOAD_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer checksumBuffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+    // Arrays handed to the transport's gathering write, instead of a varargs array per request
+    private final ByteBuffer[] headerOnly = {requestHeaderBuffer};
+    private final ByteBuffer[] headerAndPayload = {requestHeaderBuffer, null};
+    // Client ID encoded for request headers, again only when the ID differs from this one
+    private String encodedClientID;
+    private final byte[] clientIDBytes = new byte[HeaderCodec.CLIENT_ID_SIZE];
+
+    // Cryptographic handler (RSA + AES), shares the parsed RSA keys with the client's other sessions
     private Crypt crypt = new Crypt();
+    // Decrypts downloads, created on the first one
+    private FileReceiver fileReceiver;
 
     // Constants used across methods
     private static final int MAX_RETRY_COUNT = Constants.MAX_RETRY_COUNT;
-    private static final int CLIENT_VERSION = Constants.CLIENT_VERSION;
+    private static final int FIXED_PAYLOAD_SIZE = 64;
+    private static final byte[] EMPTY_PAYLOAD = new byte[0];
+    private static final SecureRandom RANDOM = new SecureRandom();
 
     // Constructor: initializes client with default values
     public Client() {
@@ -39,11 +110,176 @@ public class Client {
         this.clientID = "";
     }
 
+    // Opens another connection for the same client, logged in with its own session key.
+    // Used to send ranges of one file over several connections in parallel.
+    public Client openSession() throws Exception {
+        Client session = new Client();
+        session.serverIP = serverIP;
+        session.serverPort = serverPort;
+        session.clientID = clientID;
+        session.clientName = clientName;
+        session.transferFileName = transferFileName;
+        session.registered = registered;
+        session.streaming = streaming;
+        session.crc32c = crc32c;
+        session.resumable = resumable;
+        session.readStrategy = readStrategy;
+        session.cipherMode = cipherMode;
+        session.useTickets = useTickets;
+        session.compressor = compressor;
+        session.dedup = dedup;
+        session.delta = delta;
+        session.chunkSize = chunkSize;
+        session.persistent = persistent;
+        session.logging = logging;
+        session.metrics = metrics;
+        session.encryptPool = encryptPool;
+        session.encryptThreads = encryptThreads;
+        session.ticket = ticket;
+        session.transportType = transportType;
+        session.crypt = crypt.forSession();
+
+        if (!session.connectToServer() || !session.login()) {
+            session.close();
+            throw new IOException("Failed to open an additional session");
+        }
+        return session;
+    }
+
     // Check if the client is registered
     public boolean isRegistered() {
         return registered;
     }
 
+    public String getTransferFileName() {
+        return transferFileName;
+    }
+
+    // Selects the next file to send, the session stays the same
+    public void setTransferFileName(String transferFileName) {
+        this.transferFileName = transferFileName;
+    }
+
+    // Name the file is stored under on the server, without the local directory
+    private String remoteFileName() {
+        return new File(transferFileName).getName();
+    }
+
+    // Selects the chunked streaming upload instead of buffering the whole file
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    // Asks the server to verify streamed files with CRC32C instead of CRC32
+    public void setCrc32c(boolean crc32c) {
+        this.crc32c = crc32c;
+    }
+
+    // Selects resumable chunked uploads, used when the server supports them
+    public void setResumable(boolean resumable) {
+        this.resumable = resumable;
+    }
+
+    // Whether sendFileResumable can be used with this server
+    public boolean supportsResume() {
+        return resumable && protocolVersion >= Constants.RESUME_VERSION;
+    }
+
+    // Selects how file content is encrypted, GCM is used when the server supports it
+    public void setCipherMode(CipherMode cipherMode) {
+        this.cipherMode = cipherMode;
+    }
+
+    // Whether file content is sent as authenticated GCM records, which the server verifies
+    // itself instead of returning a CRC for the client to check
+    public boolean usesGcm() {
+        return cipherMode == CipherMode.GCM && protocolVersion >= Constants.GCM_VERSION;
+    }
+
+    // Selects the compression applied to compressible files before encryption, null for none
+    public void setCompressor(Compressor compressor) {
+        this.compressor = compressor;
+    }
+
+    // Whether files may be sent compressed to this server
+    public boolean usesCompression() {
+        return compressor != null && protocolVersion >= Constants.COMPRESSION_VERSION;
+    }
+
+    // Selects deduplicated uploads, which skip the chunks the server already holds
+    public void setDedup(boolean dedup) {
+        this.dedup = dedup;
+    }
+
+    // Whether transferFile uses sendFileDedup with this server
+    public boolean usesDedup() {
+        return dedup && protocolVersion >= Constants.DEDUP_VERSION;
+    }
+
+    // Selects delta uploads against the copy of each file the server holds
+    public void setDelta(boolean delta) {
+        this.delta = delta;
+    }
+
+    // Whether transferFile uses sendFileDelta with this server
+    public boolean usesDelta() {
+        return delta && protocolVersion >= Constants.DELTA_VERSION;
+    }
+
+    // Selects whether login presents the saved session ticket instead of going through RSA
+    public void setUseTickets(boolean useTickets) {
+        this.useTickets = useTickets;
+    }
+
+    // Selects the size of the chunks resumable uploads are verified in
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize <= 0) throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        this.chunkSize = chunkSize;
+    }
+
+    // Selects whether the client's identity and session tickets are saved to disk. Off for clients
+    // that only live in memory, like the ones of benchmarks and load tests, set up with
+    // setServer() and setClientName() instead of readSetting().
+    public void setPersistent(boolean persistent) {
+        this.persistent = persistent;
+    }
+
+    // Selects whether the client prints its progress
+    public void setLogging(boolean logging) {
+        this.logging = logging;
+    }
+
+    // Where the time and bytes of every phase are recorded, shared with the additional sessions
+    public void setMetrics(TransferMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // Seals the GCM records of streamed files on `threads` threads of `pool`, which belongs to the
+    // caller, or on the sending thread if null
+    public void setEncryptPool(ExecutorService pool, int threads) {
+        this.encryptPool = pool;
+        this.encryptThreads = threads;
+    }
+
+    public void setServer(String serverIP, int serverPort) {
+        this.serverIP = serverIP;
+        this.serverPort = serverPort;
+    }
+
+    public void setClientName(String clientName) {
+        this.clientName = clientName;
+    }
+
+    // Selects how the client connects to the server
+    public void setTransportType(TransportType transportType) {
+        this.transportType = transportType;
+    }
+
+    // Selects how streamed files are read from disk
+    public void setReadStrategy(ReadStrategy readStrategy) {
+        this.readStrategy = readStrategy;
+    }
+
     // Reads server and client settings from local files
     public boolean readSetting() {
         // Read server IP, port, client name, and filename from transfer.info
@@ -83,66 +319,147 @@ public class Client {
                 String privateKey = br.readLine();
                 if (privateKey == null) return false;
                 crypt.setPrivateKey(privateKey);
-            } catch (IOException e) {
+            } catch (IOException | GeneralSecurityException e) {
                 log("READ SETTINGS", "Error reading private key file: " + e.getMessage());
                 return false;
             }
+            ticket = SessionTicket.load(Constants.TICKET_FILE);
         }
         return true;
     }
 
     // Establishes connection with the server
     public boolean connectToServer() {
+        long start = metrics.start();
+        ConnectEvent event = new ConnectEvent();
+        event.begin();
         try {
-            socket = new Socket(serverIP, serverPort);
-            input = new DataInputStream(socket.getInputStream());
-            output = new DataOutputStream(socket.getOutputStream());
+            transport = Transport.connect(transportType, serverIP, serverPort);
+            if (metrics.enabled) transport = new MeteredTransport(transport, metrics);
+            metrics.record(metrics.connect, start);
+            event.success = true;
             log("CONNECTION", "Success.");
             return true;
         } catch (IOException e) {
             log("CONNECTION", "Fail: " + e.getMessage());
             return false;
+        } finally {
+            if (event.shouldCommit()) {
+                event.host = serverIP;
+                event.port = serverPort;
+                event.transport = transportType.name();
+                event.commit();
+            }
         }
     }
 
-    // Helper method to read exactly `length` bytes from input stream
+    // Replaces a lost connection with a new one and logs in again
+    public boolean reconnect() throws Exception {
+        close();
+        return connectToServer() && login();
+    }
+
+    // Closes the connection, ending the session
+    public void close() {
+        try {
+            if (transport != null) transport.close();
+        } catch (IOException e) {
+            log("CONNECTION", "Close failed: " + e.getMessage());
+        }
+    }
+
+    // Helper method to read exactly `length` bytes from the server
     private byte[] readExactly(int length) throws IOException {
         byte[] buffer = new byte[length];
-        int totalRead = 0;
-        while (totalRead < length) {
-            int bytesRead = input.read(buffer, totalRead, length - totalRead);
-            if (bytesRead == -1) {
-                throw new IOException("Stream closed before reading fully");
-            }
-            totalRead += bytesRead;
-        }
+        transport.readFully(ByteBuffer.wrap(buffer));
         return buffer;
     }
 
     // Sends request to server (header + optional payload)
-    private void sendRequest(Request request) throws IOException {
-        byte[] headerBytes = request.header.toBytes();
-        output.write(headerBytes);
+    private void sendRequest(int code, byte[] payload) throws IOException {
+        writeRequest(code, payload);
+        transport.flush();
+    }
+
+    private void writeRequest(int code, byte[] payload) throws IOException {
+        writeRequest(code, payload.length > 0 ? ByteBuffer.wrap(payload) : null);
+    }
 
-        if (request.payload != null && request.payload.length > 0) {
-            output.write(request.payload);
+    // Writes request to the output buffer without flushing, so more data can follow it.
+    // Header and the payload's remaining bytes are handed to the transport together, as one
+    // gathering write.
+    private void writeRequest(int code, ByteBuffer payload) throws IOException {
+        if (!clientID.equals(encodedClientID)) {
+            Arrays.fill(clientIDBytes, (byte) 0);
+            byte[] id = clientID.getBytes(StandardCharsets.UTF_8);
+            System.arraycopy(id, 0, clientIDBytes, 0, Math.min(id.length, clientIDBytes.length));
+            encodedClientID = clientID;
+        }
+        requestHeaderBuffer.clear();
+        // The version agreed with the server so far, as the server echoes it back
+        HeaderCodec.putRequestHeader(requestHeaderBuffer, clientIDBytes, protocolVersion, code,
+                payload != null ? payload.remaining() : 0);
+        requestHeaderBuffer.flip();
+        lastRequestCode = code;
+
+        ChunkSendEvent event = new ChunkSendEvent();
+        event.begin();
+        long size = requestHeaderBuffer.remaining() + (payload != null ? payload.remaining() : 0);
+        if (payload != null && payload.hasRemaining()) {
+            headerAndPayload[1] = payload;
+            transport.write(headerAndPayload);
+            headerAndPayload[1] = null;
+        } else {
+            transport.write(headerOnly);
+        }
+        if (event.shouldCommit()) {
+            event.fileName = remoteFileName();
+            event.size = size;
+            event.requestCode = code;
+            event.commit();
         }
-        output.flush();
+    }
+
+    // Reads a response header, returning its code and leaving it in respondHeaderBuffer
+    private int receiveRespondHeader() throws IOException {
+        ServerWaitEvent event = new ServerWaitEvent();
+        event.begin();
+        respondHeaderBuffer.clear();
+        transport.readFully(respondHeaderBuffer);
+        respondHeaderBuffer.flip();
+        protocolVersion = Math.min(Constants.CLIENT_VERSION, HeaderCodec.respondVersion(respondHeaderBuffer));
+        int code = HeaderCodec.respondCode(respondHeaderBuffer);
+        if (event.shouldCommit()) {
+            event.fileName = remoteFileName();
+            event.requestCode = lastRequestCode;
+            event.responseCode = code;
+            event.commit();
+        }
+        return code;
     }
 
     // This method reads a response from the input stream, parses the header and payload,
     // and returns a Respond object containing both.
-    private Respond receiveRespond() throws IOException {
-        byte[] headerBuf = readExactly(7);
-        RespondHeader header = RespondHeader.fromBytes(headerBuf);
-
-        byte[] payload = new byte[0];
+    // Package-private for PipelinedUploader, which reads responses on their own thread.
+    Respond receiveRespond() throws IOException {
+        receiveRespondHeader();
+        RespondHeader header = RespondHeader.fromBytes(respondHeaderBuffer);
+        byte[] payload = header.payloadSize > 0 ? readExactly(header.payloadSize) : EMPTY_PAYLOAD;
+        return new Respond(header, payload);
+    }
 
-        if (header.payloadSize > 0) {
-            payload = readExactly(header.payloadSize);
+    // Reads a response with a fixed-layout payload into respondPayloadBuffer, returning its code.
+    // The payload is valid until the next response.
+    private int receiveFixedRespond() throws IOException {
+        int code = receiveRespondHeader();
+        int payloadSize = HeaderCodec.respondPayloadSize(respondHeaderBuffer);
+        if (payloadSize < 0 || payloadSize > respondPayloadBuffer.capacity()) {
+            throw new IOException("Unexpected payload of " + payloadSize + " bytes, server responded " + code);
         }
-
-        return new Respond(header, payload);
+        respondPayloadBuffer.clear().limit(payloadSize);
+        transport.readFully(respondPayloadBuffer);
+        respondPayloadBuffer.flip();
+        return code;
     }
 
     // Builds a fixed-length payload from string (zero-padded)
@@ -159,9 +476,14 @@ public class Client {
         return buildFixedSizePayload(clientName, 255);
     }
 
-    // Builds file name payload (255 bytes)
-    private byte[] buildRequestFileNamePayload() {
-        return buildFixedSizePayload(transferFileName, 255);
+    // Whether the server expects the encrypted file body Base64-encoded
+    private boolean isBase64Content() {
+        return protocolVersion < Constants.RAW_CONTENT_VERSION;
+    }
+
+    // Builds file name payload (255 bytes) with the name a file is stored under on the server
+    private byte[] buildRequestFileNamePayload(String filePath) {
+        return buildFixedSizePayload(new File(filePath).getName(), 255);
     }
 
     // Builds share key payload: [name (255) + public key (variable length)]
@@ -177,7 +499,8 @@ public class Client {
     // Encrypts and builds file transfer payload
     private byte[] buildRequestSendFilePayload() throws Exception {
         File file = new File(transferFileName);
-        long fileSize = file.length();
+        CRCUtils.FileStamp stamp = CRCUtils.FileStamp.of(transferFileName);
+        long fileSize = stamp.size;
         if (fileSize > Integer.MAX_VALUE) throw new IOException("File too large");
 
         // Read the file content into byte array
@@ -187,76 +510,342 @@ public class Client {
             if (read != fileSize) throw new IOException("Failed to read entire file");
         }
 
-        // Encrypt file content using AES, result is base64 string
-        String encryptedContent = crypt.encryptAES(fileContent);
+        // Checksum the content while it's in memory, checkAccept won't need to read the file again
+        long start = metrics.start();
+        CrcVerifyEvent crcEvent = new CrcVerifyEvent();
+        crcEvent.begin();
+        Checksum checksum = CRCUtils.newChecksum(false);
+        checksum.update(fileContent, 0, fileContent.length);
+        CRCUtils.cacheFileChecksum(transferFileName, stamp, false, checksum.getValue());
+        metrics.record(metrics.crc, start);
+        if (crcEvent.shouldCommit()) {
+            crcEvent.fileName = remoteFileName();
+            crcEvent.size = fileSize;
+            crcEvent.commit();
+        }
 
-        // Use US_ASCII to safely convert base64 string to bytes
-        byte[] encryptedBytes = encryptedContent.getBytes(StandardCharsets.US_ASCII);
+        start = metrics.start();
+        ChunkEncryptEvent encryptEvent = new ChunkEncryptEvent();
+        encryptEvent.begin();
+        byte[] encryptedBytes;
+        if (isBase64Content()) {
+            // Encrypt file content using AES, result is base64 string
+            String encryptedContent = crypt.encryptAES(fileContent);
+
+            // Use US_ASCII to safely convert base64 string to bytes
+            encryptedBytes = encryptedContent.getBytes(StandardCharsets.US_ASCII);
+        } else {
+            // Raw ciphertext, no Base64 inflation
+            encryptedBytes = crypt.encryptAESBytes(fileContent);
+        }
+        metrics.record(metrics.encrypt, start);
+        if (encryptEvent.shouldCommit()) {
+            encryptEvent.fileName = remoteFileName();
+            encryptEvent.size = fileSize;
+            encryptEvent.cipher = CipherMode.CBC.name();
+            encryptEvent.commit();
+        }
 
         // Build final payload: [4B fileSize][255B fileName][N B encryptedContent]
         int payloadSize = 4 + 255 + encryptedBytes.length;
-        ByteBuffer buffer = ByteBuffer.allocate(payloadSize);
+        ByteBuffer buffer = ByteBuffer.allocate(payloadSize).order(ByteOrder.LITTLE_ENDIAN);
         buffer.putInt((int) fileSize);
-        buffer.put(buildFixedSizePayload(transferFileName, 255));
+        buffer.put(buildFixedSizePayload(remoteFileName(), 255));
         buffer.put(encryptedBytes);
 
         return buffer.array();
     }
 
+    // Builds streamed file payload: [8B fileSize][8B contentSize][4B flags][255B fileName]
+    // The ciphertext itself follows the payload and is written by FileStreamer.
+    private byte[] buildRequestSendFileStreamPayload(long fileSize, long contentSize, int flags) {
+        ByteBuffer buffer = ByteBuffer.allocate(Constants.STREAM_PAYLOAD_SIZE);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(fileSize);
+        buffer.putLong(contentSize);
+        buffer.putInt(flags);
+        buffer.put(buildFixedSizePayload(remoteFileName(), 255));
+        return buffer.array();
+    }
+
+    // Builds download payload: [8B offset][8B length][4B flags][255B fileName][downloadId]
+    private byte[] buildRequestDownloadPayload(String fileName, long offset, long length, byte[] downloadId) {
+        ByteBuffer buffer = ByteBuffer.allocate(Constants.DOWNLOAD_PAYLOAD_SIZE + downloadId.length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(offset);
+        buffer.putLong(length);
+        buffer.putInt(Constants.FLAG_AES_GCM);
+        buffer.put(buildFixedSizePayload(fileName, 255));
+        buffer.put(downloadId);
+        return buffer.array();
+    }
+
+    // Builds range payload: [8B fileSize][8B offset][8B rangeSize][8B contentSize][4B flags][255B fileName]
+    private byte[] buildRequestSendFileRangePayload(long fileSize, long offset, long rangeSize) {
+        ByteBuffer buffer = ByteBuffer.allocate(Constants.RANGE_PAYLOAD_SIZE);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(fileSize);
+        buffer.putLong(offset);
+        buffer.putLong(rangeSize);
+        buffer.putLong(FileStreamer.contentSize(rangeSize, isBase64Content()));
+        buffer.putInt(0); // ranges are always verified with CRC32
+        buffer.put(buildFixedSizePayload(remoteFileName(), 255));
+        return buffer.array();
+    }
+
+    // Builds commit payload: [8B fileSize][255B fileName]
+    private byte[] buildRequestCommitFilePayload(long fileSize) {
+        ByteBuffer buffer = ByteBuffer.allocate(Constants.COMMIT_PAYLOAD_SIZE);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(fileSize);
+        buffer.put(buildFixedSizePayload(remoteFileName(), 255));
+        return buffer.array();
+    }
+
+    // Builds resume query payload: [8B fileSize][8B lastModified][4B flags][255B fileName]
+    private byte[] buildRequestResumeFilePayload(CRCUtils.FileStamp stamp) {
+        ByteBuffer buffer = ByteBuffer.allocate(Constants.RESUME_PAYLOAD_SIZE);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(stamp.size);
+        buffer.putLong(stamp.lastModified.toMillis());
+        buffer.putInt((crc32c ? Constants.FLAG_CRC32C : 0) | (usesGcm() ? Constants.FLAG_AES_GCM : 0)
+                | (usesCompression() ? compressor.flag() : 0));
+        buffer.put(buildFixedSizePayload(remoteFileName(), 255));
+        return buffer.array();
+    }
+
+    // Builds session resumption payload: [16B ticket][255B name][12B nonce][16B tag].
+    // The tag authenticates [ticket][client ID][challenge] under the ticket's AES key.
+    private byte[] buildRequestResumeSessionPayload(SessionTicket saved, byte[] challenge) throws Exception {
+        byte[] ticketId = buildFixedSizePayload(saved.getId(), Constants.TICKET_SIZE);
+        byte[] aad = ByteBuffer.allocate(32 + Constants.RESUME_CHALLENGE_SIZE)
+                .put(ticketId).put(buildFixedSizePayload(clientID, 16)).put(challenge).array();
+        byte[] proof = new byte[Constants.GCM_NONCE_SIZE + Constants.GCM_TAG_SIZE];
+        crypt.sealAESGcm(new byte[0], 0, 0, aad, proof);
+
+        ByteBuffer buffer = ByteBuffer.allocate(Constants.RESUME_SESSION_PAYLOAD_SIZE);
+        buffer.put(ticketId);
+        buffer.put(buildRequestNamePayload());
+        buffer.put(proof);
+        return buffer.array();
+    }
+
+    // Builds dedup manifest payload: [8B fileSize][4B chunkCount][255B fileName],
+    // then [32B SHA-256][4B length] for every chunk
+    private byte[] buildRequestDedupManifestPayload(long fileSize, List<ChunkingUtils.Chunk> chunks) {
+        ByteBuffer buffer = ByteBuffer.allocate(Constants.DEDUP_MANIFEST_SIZE + chunks.size() * Constants.DEDUP_ENTRY_SIZE);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(fileSize);
+        buffer.putInt(chunks.size());
+        buffer.put(buildFixedSizePayload(remoteFileName(), 255));
+        for (ChunkingUtils.Chunk chunk : chunks) {
+            buffer.put(chunk.hash);
+            buffer.putInt(chunk.length);
+        }
+        return buffer.array();
+    }
+
+    // Builds delta payload: [16B deltaId][8B fileSize][8B deltaSize][8B contentSize][4B flags][32B SHA-256]
+    private byte[] buildRequestSendDeltaPayload(String deltaId, DeltaUtils.Delta delta, long deltaSize,
+                                                long contentSize, int flags) {
+        ByteBuffer buffer = ByteBuffer.allocate(Constants.DELTA_PAYLOAD_SIZE);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(buildFixedSizePayload(deltaId, 16));
+        buffer.putLong(delta.fileSize);
+        buffer.putLong(deltaSize);
+        buffer.putLong(contentSize);
+        buffer.putInt(flags);
+        buffer.put(delta.hash);
+        return buffer.array();
+    }
+
+    // What the GCM records of the transfer `transferId` are bound to, nothing for servers before
+    // BOUND_AAD_VERSION
+    private byte[] recordBinding(byte[] transferId) {
+        return protocolVersion >= Constants.BOUND_AAD_VERSION ? transferId : new byte[0];
+    }
+
+    // Binding of a whole-file upload, which has no ID: the start of the SHA-256 of its name field
+    private byte[] fileNameBinding() throws GeneralSecurityException {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(buildFixedSizePayload(remoteFileName(), 255));
+        return Arrays.copyOf(digest, Constants.RECORD_BINDING_SIZE);
+    }
+
+    // A streamer for the content of the current file, sent with the request `requestCode`
+    private FileStreamer newFileStreamer(CipherMode mode, int requestCode) {
+        FileStreamer streamer = new FileStreamer(crypt, isBase64Content());
+        streamer.setReadStrategy(readStrategy);
+        streamer.setCipherMode(mode);
+        streamer.setMetrics(metrics);
+        streamer.setEncryptPool(encryptPool, encryptThreads);
+        streamer.setEventLabels(remoteFileName(), requestCode);
+        return streamer;
+    }
+
+    // Parses the range description of a download: [8B fileSize][8B offset][8B length][8B contentSize][4B flags]
+    private RespondFileContentPayload parseFileContentPayload(ByteBuffer payload) {
+        ByteBuffer buffer = payload.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        return new RespondFileContentPayload(buffer.getLong(), buffer.getLong(), buffer.getLong(),
+                buffer.getLong(), buffer.getInt());
+    }
+
     // Parses client ID from server's response
     private RespondClientIDPayload parseClientIDPayload(byte[] payload) {
-        String clientId = new String(payload, StandardCharsets.UTF_8).trim();
+        String clientId = HeaderCodec.getFixed(payload, 0, payload.length);
         return new RespondClientIDPayload(clientId);
     }
 
-    // Parses shared AES key response and decrypts the AES key
+    // Parses shared AES key response and decrypts the AES key.
+    // From TICKET_VERSION the client ID is followed by a session ticket and its lifetime.
     private RespondShareKeyPayload parseShareKeyPayload(byte[] payload) throws Exception {
-        if (payload.length < 16) throw new IllegalArgumentException("Payload too short");
-
-        byte[] clientIdBytes = Arrays.copyOfRange(payload, 0, 16);
-        String clientId = new String(clientIdBytes, StandardCharsets.UTF_8).trim();
+        int keyOffset = protocolVersion >= Constants.TICKET_VERSION ? 16 + Constants.TICKET_SIZE + 4 : 16;
+        if (payload.length < keyOffset) throw new IllegalArgumentException("Payload too short");
 
-        byte[] encryptedKeyBytes = Arrays.copyOfRange(payload, 16, payload.length);
-        String encryptedAesKey = new String(encryptedKeyBytes, StandardCharsets.UTF_8).trim();
+        String clientId = HeaderCodec.getFixed(payload, 0, 16);
+        String encryptedAesKey = HeaderCodec.getFixed(payload, keyOffset, payload.length - keyOffset).trim();
 
+        long start = metrics.start();
         String decodedAesKey = crypt.decryptRSA(encryptedAesKey);
+        metrics.record(metrics.rsa, start);
 
-        return new RespondShareKeyPayload(clientId, decodedAesKey);
+        if (keyOffset == 16) return new RespondShareKeyPayload(clientId, decodedAesKey);
+
+        String ticketId = new String(payload, 16, Constants.TICKET_SIZE, StandardCharsets.UTF_8);
+        int lifetime = ByteBuffer.wrap(payload, 16 + Constants.TICKET_SIZE, 4).order(ByteOrder.LITTLE_ENDIAN).getInt();
+        return new RespondShareKeyPayload(clientId, decodedAesKey, lifetime > 0 ? ticketId : null, lifetime);
     }
 
     // Parses file acceptance response from server
-    private RespondFileAcceptPayload parseFileAcceptPayload(byte[] payload) {
+    RespondFileAcceptPayload parseFileAcceptPayload(byte[] payload) {
         ByteBuffer buffer = ByteBuffer.wrap(payload);
 
-        byte[] clientIdBytes = new byte[16];
-        buffer.get(clientIdBytes);
-        String clientId = new String(clientIdBytes, StandardCharsets.UTF_8).trim();
+        String clientId = HeaderCodec.getFixed(payload, buffer.position(), 16);
+        buffer.position(buffer.position() + 16);
 
         int contentSize = buffer.getInt();
 
-        byte[] fileNameBytes = new byte[255];
-        buffer.get(fileNameBytes);
-        String fileName = new String(fileNameBytes, StandardCharsets.UTF_8).trim();
+        String fileName = HeaderCodec.getFixed(payload, buffer.position(), 255);
+        buffer.position(buffer.position() + 255);
 
         int checksum = buffer.getInt();
         String checksumHex = String.format("%08x", checksum);
 
-        return new RespondFileAcceptPayload(clientId, contentSize, fileName, checksumHex);
+        // Flags the server honored, absent in responses from older servers
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        int flags = buffer.remaining() >= 4 ? buffer.getInt() : 0;
+
+        return new RespondFileAcceptPayload(clientId, contentSize, fileName, checksumHex, flags);
+    }
+
+    // Parses range acceptance: [16B clientId][8B offset][8B rangeSize][4B checksum][4B flags]
+    private RespondRangeAcceptPayload parseRangeAcceptPayload(byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        String clientId = HeaderCodec.getFixed(payload, buffer.position(), 16);
+        buffer.position(buffer.position() + 16);
+
+        long offset = buffer.getLong();
+        long rangeSize = buffer.getLong();
+        long checksum = Integer.toUnsignedLong(buffer.getInt());
+        int flags = buffer.getInt();
+
+        return new RespondRangeAcceptPayload(clientId, offset, rangeSize, checksum, flags);
+    }
+
+    // Parses resume offset: [16B clientId][16B fileId][8B offset][4B flags]
+    private RespondResumeOffsetPayload parseResumeOffsetPayload(byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        String clientId = HeaderCodec.getFixed(payload, buffer.position(), 16);
+        buffer.position(buffer.position() + 16);
+
+        String fileId = HeaderCodec.getFixed(payload, buffer.position(), 16);
+        buffer.position(buffer.position() + 16);
+
+        long offset = buffer.getLong();
+        int flags = buffer.getInt();
+
+        return new RespondResumeOffsetPayload(clientId, fileId, offset, flags);
+    }
+
+    // Parses missing chunks: [16B manifestId][4B count][4B index]...
+    private RespondMissingChunksPayload parseMissingChunksPayload(byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        String manifestId = HeaderCodec.getFixed(payload, buffer.position(), 16);
+        buffer.position(buffer.position() + 16);
+
+        int[] indexes = new int[buffer.getInt()];
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = buffer.getInt();
+        }
+
+        return new RespondMissingChunksPayload(manifestId, indexes);
+    }
+
+    // Parses delta signatures: [16B deltaId][8B baseSize][4B blockSize][4B blockCount],
+    // then [4B Adler-32][16B SHA-256 prefix] for every block
+    private RespondDeltaSignaturesPayload parseDeltaSignaturesPayload(byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        String deltaId = HeaderCodec.getFixed(payload, buffer.position(), 16);
+        buffer.position(buffer.position() + 16);
+
+        long baseSize = buffer.getLong();
+        int blockSize = buffer.getInt();
+        int count = buffer.getInt();
+        if (blockSize <= 0 || blockSize > Constants.DELTA_MAX_BLOCK
+                || buffer.remaining() != (long) count * (4 + Constants.DELTA_STRONG_HASH_SIZE)) {
+            throw new IllegalArgumentException("Malformed delta signatures");
+        }
+
+        int[] weak = new int[count];
+        byte[][] strong = new byte[count][Constants.DELTA_STRONG_HASH_SIZE];
+        for (int i = 0; i < count; i++) {
+            weak[i] = buffer.getInt();
+            buffer.get(strong[i]);
+        }
+
+        return new RespondDeltaSignaturesPayload(deltaId, new DeltaUtils.Signature(baseSize, blockSize, weak, strong));
+    }
+
+    // A step of the handshake that ends with a session key
+    private interface HandshakeStep {
+        boolean run() throws Exception;
+    }
+
+    // Runs one step of the handshake, sending `requestCode`, inside a HandshakeEvent
+    private boolean handshake(int requestCode, HandshakeStep step) throws Exception {
+        HandshakeEvent event = new HandshakeEvent();
+        event.begin();
+        boolean success = false;
+        try {
+            success = step.run();
+            return success;
+        } finally {
+            if (event.shouldCommit()) {
+                event.clientName = clientName;
+                event.requestCode = requestCode;
+                event.success = success;
+                event.commit();
+            }
+        }
     }
 
     // Sends registration request and receives client ID from server
     public boolean registerClient() throws Exception {
-        log("REGISTER", "Starting registration...");
-        RequestHeader header = new RequestHeader();
-        header.setClientID(clientID);
-        header.version = CLIENT_VERSION;
-        header.code = Constants.REQUEST_REGISTER;
+        return handshake(Constants.REQUEST_REGISTER, this::register);
+    }
 
+    private boolean register() throws Exception {
+        long start = metrics.start();
+        log("REGISTER", "Starting registration...");
         byte[] payload = buildRequestNamePayload();
-        header.payloadSize = payload.length;
-
-        Request request = new Request(header, payload);
-        sendRequest(request);
+        sendRequest(Constants.REQUEST_REGISTER, payload);
         Respond respond = receiveRespond();
 
         if (respond.header.code != Constants.RESPOND_REGISTER_SUCCESS || respond.payload.length == 0) {
@@ -268,8 +857,20 @@ public class Client {
         clientID = respPayload.getClientId();
 
         // Generate RSA key pair
+        long keyStart = metrics.start();
         crypt.generateRSAKeyPair();
+        metrics.record(metrics.rsa, keyStart);
+
+        if (persistent) saveIdentity();
+
+        metrics.record(metrics.register, start);
+        log("REGISTER", "Success.");
+        registered = true;
+        return true;
+    }
 
+    // Saves client ID, name and private key for the next runs
+    private void saveIdentity() throws IOException {
         // Save client ID and name
         try (BufferedWriter bw = new BufferedWriter(new FileWriter(Constants.ME_FILE))) {
             bw.write(clientName);
@@ -283,25 +884,17 @@ public class Client {
             bw.write(crypt.getPrivateKey());
             bw.newLine();
         }
-
-        log("REGISTER", "Success.");
-        registered = true;
-        return true;
     }
 
     // Sends public RSA key and receives AES key encrypted with it
     public boolean shareKey() throws Exception {
-        log("SHARE KEY", "Sending public key...");
-        RequestHeader header = new RequestHeader();
-        header.setClientID(clientID);
-        header.version = CLIENT_VERSION;
-        header.code = Constants.REQUEST_SENDING_PUBKEY;
+        return handshake(Constants.REQUEST_SENDING_PUBKEY, this::sendPublicKey);
+    }
 
+    private boolean sendPublicKey() throws Exception {
+        log("SHARE KEY", "Sending public key...");
         byte[] payload = buildRequestShareKeyPayload();
-        header.payloadSize = payload.length;
-
-        Request request = new Request(header, payload);
-        sendRequest(request);
+        sendRequest(Constants.REQUEST_SENDING_PUBKEY, payload);
 
         Respond respond = receiveRespond();
         if (respond.header.code != Constants.RESPOND_SENDING_ENCKEY || respond.payload.length == 0) {
@@ -312,24 +905,82 @@ public class Client {
         // Set AES key
         RespondShareKeyPayload respPayload = parseShareKeyPayload(respond.payload);
         crypt.setEncodedAesKey(respPayload.getEncodedAesKey());
+        keepTicket(respPayload);
 
         log("SHARE KEY", "Success.");
         return true;
     }
 
-    // Sends login request and receives AES key again (same as in shareKey)
+    // Logs in with the saved session ticket while it's valid, skipping RSA, and with
+    // loginWithRsa() otherwise or if the server doesn't accept the ticket
     public boolean login() throws Exception {
-        log("LOGIN", "Attempting to login...");
-        RequestHeader header = new RequestHeader();
-        header.setClientID(clientID);
-        header.version = CLIENT_VERSION;
-        header.code = Constants.REQUEST_LOGIN;
+        long start = metrics.start();
+        boolean success = loginWithTicketOrRsa();
+        if (success) metrics.record(metrics.login, start);
+        return success;
+    }
 
-        byte[] payload = buildRequestNamePayload();
-        header.payloadSize = payload.length;
+    private boolean loginWithTicketOrRsa() throws Exception {
+        SessionTicket saved = ticket;
+        if (useTickets && saved != null && saved.isValid()) {
+            try {
+                if (handshake(Constants.REQUEST_RESUME_SESSION, () -> resumeSession(saved))) return true;
+            } catch (IOException e) {
+                // Servers before RESUME_CHALLENGE_VERSION drop the connection on the unknown request
+                log("LOGIN", "Session ticket not supported: " + e.getMessage());
+                close();
+                if (!connectToServer()) return false;
+            }
+            ticket = null;
+            if (persistent) SessionTicket.delete(Constants.TICKET_FILE);
+        }
+        return handshake(Constants.REQUEST_LOGIN, this::loginWithRsa);
+    }
+
+    // Presents a session ticket to continue with its AES key (REQUEST_RESUME_SESSION), sealing
+    // the challenge the server sent for it (REQUEST_RESUME_CHALLENGE)
+    private boolean resumeSession(SessionTicket saved) throws Exception {
+        log("LOGIN", "Resuming session...");
+        sendRequest(Constants.REQUEST_RESUME_CHALLENGE, EMPTY_PAYLOAD);
+        Respond challenge = receiveRespond();
+        if (challenge.header.code != Constants.RESPOND_RESUME_CHALLENGE
+                || challenge.payload.length != Constants.RESUME_CHALLENGE_SIZE) {
+            log("LOGIN", "Fail: Unexpected server response to the challenge request.");
+            return false;
+        }
+        crypt.setEncodedAesKey(saved.getEncodedAesKey());
 
-        Request request = new Request(header, payload);
-        sendRequest(request);
+        byte[] payload = buildRequestResumeSessionPayload(saved, challenge.payload);
+        sendRequest(Constants.REQUEST_RESUME_SESSION, payload);
+
+        Respond respond = receiveRespond();
+        if (respond.header.code != Constants.RESPOND_SESSION_RESUMED) {
+            log("LOGIN", "Session ticket rejected.");
+            return false;
+        }
+        log("LOGIN", "Success. Session resumed.");
+        return true;
+    }
+
+    // Keeps the session ticket that came with a new AES key, for the next connections
+    private void keepTicket(RespondShareKeyPayload respPayload) {
+        if (respPayload.getTicketId() == null) return;
+
+        long expiresAt = System.currentTimeMillis() + respPayload.getTicketLifetime() * 1000L;
+        ticket = new SessionTicket(respPayload.getTicketId(), expiresAt, respPayload.getEncodedAesKey());
+        if (!persistent) return;
+        try {
+            ticket.save(Constants.TICKET_FILE);
+        } catch (IOException e) {
+            log("LOGIN", "Could not save session ticket: " + e.getMessage());
+        }
+    }
+
+    // Sends login request and receives AES key again (same as in shareKey)
+    private boolean loginWithRsa() throws Exception {
+        log("LOGIN", "Attempting to login...");
+        byte[] payload = buildRequestNamePayload();
+        sendRequest(Constants.REQUEST_LOGIN, payload);
 
         Respond respond = receiveRespond();
         if (respond.header.code != Constants.RESPOND_LOGIN_CONFIRMED || respond.payload.length == 0) {
@@ -339,6 +990,7 @@ public class Client {
 
         RespondShareKeyPayload respPayload = parseShareKeyPayload(respond.payload);
         crypt.setEncodedAesKey(respPayload.getEncodedAesKey());
+        keepTicket(respPayload);
 
         log("LOGIN", "Success.");
         return true;
@@ -346,60 +998,505 @@ public class Client {
 
     // Encrypts and sends file to server
     public boolean sendFile() throws Exception {
-        log("SEND FILE", "Sending file...");
-        RequestHeader header = new RequestHeader();
-        header.setClientID(clientID);
-        header.version = CLIENT_VERSION;
-        header.code = Constants.REQUEST_SENDING_FILE;
+        // The single-buffer payload can't hold files over 2 GB, those are always streamed.
+        // GCM records and compression only exist in the streamed format.
+        if (streaming || usesGcm() || usesCompression() || new File(transferFileName).length() > Integer.MAX_VALUE) {
+            return sendFileStream();
+        }
 
+        log("SEND FILE", "Sending file...");
         byte[] payload = buildRequestSendFilePayload();
-        header.payloadSize = payload.length;
+        sendRequest(Constants.REQUEST_SENDING_FILE, payload);
 
-        Request request = new Request(header, payload);
-        sendRequest(request);
+        log("SEND FILE", "Success.");
+        return true;
+    }
+
+    // Streams file to server in fixed-size encrypted chunks (REQUEST_SENDING_FILE_STREAM)
+    public boolean sendFileStream() throws Exception {
+        log("SEND FILE", "Streaming file...");
+        File file = new File(transferFileName);
+        CRCUtils.FileStamp stamp = CRCUtils.FileStamp.of(transferFileName);
+        long fileSize = stamp.size;
+
+        // GCM content is authenticated by the server, no checksum is needed to verify it
+        boolean gcm = usesGcm();
+        FileStreamer streamer = newFileStreamer(gcm ? CipherMode.GCM : CipherMode.CBC,
+                Constants.REQUEST_SENDING_FILE_STREAM);
+        streamer.setRecordBinding(recordBinding(fileNameBinding()));
+        int flags = gcm ? Constants.FLAG_AES_GCM : crc32c ? Constants.FLAG_CRC32C : 0;
+        // The checksum is computed in the same pass that reads the file, to encrypt or compress it
+        Checksum checksum = gcm ? null : CRCUtils.newChecksum(crc32c);
+
+        // Compressed content is written to a temporary file first, its size goes in the payload
+        File content = file;
+        if (usesCompression() && Compression.isCompressible(file, compressor)) {
+            content = Compression.compressToTempFile(file, compressor, checksum);
+            flags |= compressor.flag();
+        }
+        try {
+            long contentLength = content == file ? fileSize : content.length();
+            byte[] payload = buildRequestSendFileStreamPayload(fileSize, streamer.contentSize(contentLength), flags);
+            writeRequest(Constants.REQUEST_SENDING_FILE_STREAM, payload);
+            streamer.stream(content, contentLength, transport.outputStream(), content == file ? checksum : null);
+            // Cached before the last bytes leave, a pipelined reader may get the server's CRC right after
+            if (checksum != null) CRCUtils.cacheFileChecksum(transferFileName, stamp, crc32c, checksum.getValue());
+            transport.flush();
+        } finally {
+            if (content != file) content.delete();
+        }
 
         log("SEND FILE", "Success.");
         return true;
     }
 
+    // Streams one range of the file as an independent ciphertext (REQUEST_SENDING_FILE_RANGE).
+    // `checksum` is fed the range's plain content.
+    public void sendFileRange(long fileSize, long offset, long rangeSize, Checksum checksum) throws Exception {
+        byte[] payload = buildRequestSendFileRangePayload(fileSize, offset, rangeSize);
+        writeRequest(Constants.REQUEST_SENDING_FILE_RANGE, payload);
+        // Ranges stay CBC, they are verified by comparing the range checksums
+        newFileStreamer(CipherMode.CBC, Constants.REQUEST_SENDING_FILE_RANGE)
+                .stream(new File(transferFileName), offset, rangeSize, transport.outputStream(), checksum);
+        transport.flush();
+    }
+
+    // Receives the server's checksum of a range sent with sendFileRange
+    public RespondRangeAcceptPayload receiveRangeAccept() throws IOException {
+        Respond respond = receiveRespond();
+        if (respond.header.code != Constants.RESPOND_RANGE_ACCEPTED || respond.payload.length == 0) {
+            throw new IOException("Range not accepted, server responded " + respond.header.code);
+        }
+        return parseRangeAcceptPayload(respond.payload);
+    }
+
+    // Tells the server all ranges of the file arrived and matched, so it records the file
+    public boolean commitFile(long fileSize) throws IOException {
+        byte[] payload = buildRequestCommitFilePayload(fileSize);
+        sendRequest(Constants.REQUEST_COMMIT_FILE, payload);
+
+        long start = metrics.start();
+        Respond respond = receiveRespond();
+        metrics.record(metrics.confirm, start);
+        if (respond.header.code != Constants.RESPOND_MESSAGE_CONFIRMED) {
+            log("COMMIT", "Fail. Server could not assemble the file.");
+            return false;
+        }
+        log("COMMIT", "Success. File transfer completed.");
+        return true;
+    }
+
+    // Sends the current file in chunks the server verifies one by one, starting after the bytes it
+    // already holds from an earlier attempt. Only rejected chunks are sent again. An IOException
+    // means the connection was lost, the upload can continue after reconnect().
+    public boolean sendFileResumable() throws Exception {
+        File file = new File(transferFileName);
+        CRCUtils.FileStamp stamp = CRCUtils.FileStamp.of(transferFileName);
+        long fileSize = stamp.size;
+
+        RespondResumeOffsetPayload resume = resumeFile(stamp);
+        byte[] fileId = buildFixedSizePayload(resume.getFileId(), 16);
+        // The server reports the flags it honors, older ones drop FLAG_AES_GCM and the compression
+        int flags = resume.getFlags() & (Constants.FLAG_CRC32C | Constants.FLAG_AES_GCM | Constants.COMPRESSION_MASK);
+        // Whether to compress is decided once per file, from a few samples of it
+        Compression.ChunkCompressor chunkCompressor = (flags & Constants.COMPRESSION_MASK) != 0
+                && Compression.isCompressible(file, compressor) ? new Compression.ChunkCompressor(compressor) : null;
+        flags &= ~Constants.COMPRESSION_MASK;
+        if (resume.getOffset() > 0) {
+            log("RESUME", () -> "Server holds " + resume.getOffset() + " of " + fileSize + " bytes, resuming.");
+        }
+
+        Deque<Long> pending = new ArrayDeque<>();
+        for (long offset = resume.getOffset(); offset < fileSize; offset += chunkSize) {
+            pending.add(offset);
+        }
+
+        // Chunks are acknowledged in the order they were sent, a window of them is kept in flight
+        boolean gcm = (flags & Constants.FLAG_AES_GCM) != 0;
+        FileStreamer streamer = newFileStreamer(gcm ? CipherMode.GCM : CipherMode.CBC,
+                Constants.REQUEST_SENDING_FILE_CHUNK);
+        streamer.setRecordBinding(recordBinding(fileId));
+        Map<Long, Integer> rejections = new HashMap<>();
+        int inFlight = 0;
+        while (!pending.isEmpty() || inFlight > 0) {
+            while (inFlight < Constants.RESUME_WINDOW && !pending.isEmpty()) {
+                long offset = pending.poll();
+                int length = (int) Math.min(chunkSize, fileSize - offset);
+                sendFileChunk(streamer, chunkCompressor, file, fileId, offset, length, flags);
+                inFlight++;
+            }
+            transport.flush();
+
+            // Acknowledgement: [16B fileId][8B offset][4B status][8B verifiedOffset]
+            long start = metrics.start();
+            int code = receiveFixedRespond();
+            metrics.record(metrics.confirm, start);
+            if (code != Constants.RESPOND_CHUNK_ACCEPTED || respondPayloadBuffer.remaining() < Constants.CHUNK_ACK_SIZE) {
+                throw new IOException("Chunk not accepted, server responded " + code);
+            }
+            inFlight--;
+            long ackOffset = HeaderCodec.chunkAckOffset(respondPayloadBuffer);
+            if (HeaderCodec.chunkAckStatus(respondPayloadBuffer) != Constants.CHUNK_STORED) {
+                int count = rejections.merge(ackOffset, 1, Integer::sum);
+                if (count > MAX_RETRY_COUNT) {
+                    log("SEND CHUNK", "Fail. Chunk at " + ackOffset + " rejected " + count + " times.");
+                    return false;
+                }
+                log("SEND CHUNK", (gcm ? "Authentication failed" : "CRC mismatch")
+                        + " in chunk at " + ackOffset + ", resending.");
+                fileRetries++;
+                pending.addFirst(ackOffset);
+            }
+        }
+        return commitFile(fileSize);
+    }
+
+    // Asks the server how many verified bytes of the file it holds (REQUEST_RESUME_FILE).
+    // The file is identified by name, size and modification time; a changed file starts over.
+    private RespondResumeOffsetPayload resumeFile(CRCUtils.FileStamp stamp) throws IOException {
+        byte[] payload = buildRequestResumeFilePayload(stamp);
+        sendRequest(Constants.REQUEST_RESUME_FILE, payload);
+
+        Respond respond = receiveRespond();
+        if (respond.header.code != Constants.RESPOND_RESUME_OFFSET || respond.payload.length == 0) {
+            throw new IOException("Resume not accepted, server responded " + respond.header.code);
+        }
+        return parseResumeOffsetPayload(respond.payload);
+    }
+
+    // Writes one chunk as an independent ciphertext followed by the checksum of its plain bytes,
+    // or as GCM records without a checksum (REQUEST_SENDING_FILE_CHUNK). With a `chunkCompressor`
+    // the chunk is compressed first if that makes it smaller. Not flushed, so several chunks can
+    // be in flight.
+    private void sendFileChunk(FileStreamer streamer, Compression.ChunkCompressor chunkCompressor, File file,
+                               byte[] fileId, long offset, int length, int flags) throws Exception {
+        boolean gcm = (flags & Constants.FLAG_AES_GCM) != 0;
+        Checksum checksum = gcm ? null : CRCUtils.newChecksum((flags & Constants.FLAG_CRC32C) != 0);
+        ByteBuffer compressed = null;
+        if (chunkCompressor != null) {
+            compressed = chunkCompressor.compress(file, offset, length, checksum);
+            if (compressed != null) {
+                flags |= chunkCompressor.flag();
+            } else if (checksum != null) {
+                // Sent as it is, the checksum is computed again while it's read
+                checksum.reset();
+            }
+        }
+
+        int contentLength = compressed != null ? compressed.remaining() : length;
+        requestPayloadBuffer.clear();
+        HeaderCodec.putChunkPayload(requestPayloadBuffer, fileId, offset, length,
+                (int) streamer.contentSize(contentLength), flags);
+        requestPayloadBuffer.flip();
+        writeRequest(Constants.REQUEST_SENDING_FILE_CHUNK, requestPayloadBuffer);
+
+        if (compressed != null) {
+            streamer.stream(compressed, offset, transport.outputStream());
+        } else {
+            streamer.stream(file, offset, length, transport.outputStream(), checksum);
+        }
+        if (gcm) return;
+        checksumBuffer.clear();
+        checksumBuffer.putInt(0, (int) checksum.getValue());
+        transport.write(checksumBuffer);
+    }
+
+    // Sends the current file as a delta against the copy the server holds under its name, literal
+    // bytes for what changed and block references for the rest, rsync-style. The server rebuilds
+    // the file and checks it against its SHA-256; a rejected delta is computed again from fresh
+    // signatures, up to MAX_RETRY_COUNT times.
+    public boolean sendFileDelta() throws Exception {
+        File file = new File(transferFileName);
+        for (int retries = 0; ; retries++) {
+            RespondDeltaSignaturesPayload signatures = requestDeltaSignatures();
+            DeltaUtils.Signature base = signatures.getSignature();
+            log("DELTA", () -> "Server holds " + base.blockCount() + " blocks of " + base.blockSize + " bytes.");
+            if (base.blockCount() == 0) {
+                // Nothing to copy from, the delta would be the whole file as one literal
+                log("DELTA", "No copy on the server, sending the whole file.");
+                return supportsResume() ? sendFileResumable() : transferWholeFile();
+            }
+
+            File deltaFile = TempFileUtils.createPrivateTempFile("upload", ".delta");
+            try {
+                DeltaUtils.Delta delta;
+                try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(deltaFile.toPath()),
+                        Constants.STREAM_CHUNK_SIZE)) {
+                    delta = DeltaUtils.writeDelta(file, base, out);
+                }
+                log("DELTA", () -> "Delta of " + deltaFile.length() + " bytes for " + delta.fileSize + " bytes.");
+                sendDelta(signatures.getDeltaId(), delta, deltaFile);
+            } finally {
+                deltaFile.delete();
+            }
+
+            if (checkAuthenticated()) return true;
+            if (retries >= MAX_RETRY_COUNT) return false;
+            log("DELTA", "Delta rejected, resending.");
+            fileRetries++;
+        }
+    }
+
+    // Asks for the signature of the server's copy of the current file (REQUEST_DELTA_SIGNATURES)
+    private RespondDeltaSignaturesPayload requestDeltaSignatures() throws IOException {
+        byte[] payload = buildFixedSizePayload(remoteFileName(), 255);
+        sendRequest(Constants.REQUEST_DELTA_SIGNATURES, payload);
+
+        Respond respond = receiveRespond();
+        if (respond.header.code != Constants.RESPOND_DELTA_SIGNATURES || respond.payload.length == 0) {
+            throw new IOException("Delta not accepted, server responded " + respond.header.code);
+        }
+        return parseDeltaSignaturesPayload(respond.payload);
+    }
+
+    // Encrypts and sends a delta written by DeltaUtils (REQUEST_SENDING_DELTA), compressed first
+    // if it's compressible
+    private void sendDelta(String deltaId, DeltaUtils.Delta delta, File deltaFile) throws Exception {
+        // The server checks the rebuilt file against its hash, CBC content needs no checksum
+        boolean gcm = usesGcm();
+        FileStreamer streamer = newFileStreamer(gcm ? CipherMode.GCM : CipherMode.CBC,
+                Constants.REQUEST_SENDING_DELTA);
+        streamer.setRecordBinding(recordBinding(buildFixedSizePayload(deltaId, 16)));
+        int flags = gcm ? Constants.FLAG_AES_GCM : 0;
+
+        File content = deltaFile;
+        if (usesCompression() && Compression.isCompressible(deltaFile, compressor)) {
+            content = Compression.compressToTempFile(deltaFile, compressor, null);
+            flags |= compressor.flag();
+        }
+        try {
+            long contentLength = content.length();
+            byte[] payload = buildRequestSendDeltaPayload(deltaId, delta, deltaFile.length(),
+                    streamer.contentSize(contentLength), flags);
+            writeRequest(Constants.REQUEST_SENDING_DELTA, payload);
+            streamer.stream(content, contentLength, transport.outputStream());
+            transport.flush();
+        } finally {
+            if (content != deltaFile) content.delete();
+        }
+    }
+
+    // Sends the current file as content-defined chunks, only those the server doesn't hold yet
+    // from an earlier upload of this client. Chunks that fail verification on the server are
+    // reported again on commit and resent, up to MAX_RETRY_COUNT times. An IOException means the
+    // connection was lost, the chunks stored so far are kept for the next attempt.
+    public boolean sendFileDedup() throws Exception {
+        File file = new File(transferFileName);
+        List<ChunkingUtils.Chunk> chunks = ChunkingUtils.split(file);
+        long fileSize = 0;
+        for (ChunkingUtils.Chunk chunk : chunks) {
+            fileSize += chunk.length;
+        }
+
+        RespondMissingChunksPayload missing = sendDedupManifest(fileSize, chunks);
+        byte[] manifestId = buildFixedSizePayload(missing.getManifestId(), 16);
+        log("DEDUP", missing.getIndexes().length + " of " + chunks.size() + " chunks missing on the server.");
+
+        boolean gcm = usesGcm();
+        int flags = gcm ? Constants.FLAG_AES_GCM : 0;
+        FileStreamer streamer = newFileStreamer(gcm ? CipherMode.GCM : CipherMode.CBC,
+                Constants.REQUEST_SENDING_DEDUP_CHUNK);
+        streamer.setRecordBinding(recordBinding(manifestId));
+        Compression.ChunkCompressor chunkCompressor = usesCompression() && Compression.isCompressible(file, compressor)
+                ? new Compression.ChunkCompressor(compressor) : null;
+
+        for (int retries = 0; ; retries++) {
+            // The server answers only the commit, every missing chunk is written before it
+            for (int index : missing.getIndexes()) {
+                sendDedupChunk(streamer, chunkCompressor, file, manifestId, index, chunks.get(index), flags);
+            }
+
+            sendRequest(Constants.REQUEST_COMMIT_DEDUP, manifestId);
+
+            long start = metrics.start();
+            Respond respond = receiveRespond();
+            metrics.record(metrics.confirm, start);
+            if (respond.header.code == Constants.RESPOND_MESSAGE_CONFIRMED) {
+                log("COMMIT", "Success. File transfer completed.");
+                return true;
+            }
+            if (respond.header.code != Constants.RESPOND_MISSING_CHUNKS || respond.payload.length == 0) {
+                log("COMMIT", "Fail. Server could not assemble the file.");
+                return false;
+            }
+            missing = parseMissingChunksPayload(respond.payload);
+            if (retries >= MAX_RETRY_COUNT) {
+                log("COMMIT", "Fail. " + missing.getIndexes().length + " chunks still missing.");
+                return false;
+            }
+            log("SEND CHUNK", missing.getIndexes().length + " chunks failed verification, resending.");
+            fileRetries++;
+        }
+    }
+
+    // Sends the chunk list of the file (REQUEST_DEDUP_MANIFEST), the server answers with the
+    // chunks it lacks
+    private RespondMissingChunksPayload sendDedupManifest(long fileSize, List<ChunkingUtils.Chunk> chunks)
+            throws IOException {
+        byte[] payload = buildRequestDedupManifestPayload(fileSize, chunks);
+        sendRequest(Constants.REQUEST_DEDUP_MANIFEST, payload);
+
+        Respond respond = receiveRespond();
+        if (respond.header.code != Constants.RESPOND_MISSING_CHUNKS || respond.payload.length == 0) {
+            throw new IOException("Manifest not accepted, server responded " + respond.header.code);
+        }
+        return parseMissingChunksPayload(respond.payload);
+    }
+
+    // Writes one chunk of a manifest as an independent ciphertext (REQUEST_SENDING_DEDUP_CHUNK),
+    // compressed first if that makes it smaller. The server verifies it against its hash, so no
+    // checksum follows. Not flushed.
+    private void sendDedupChunk(FileStreamer streamer, Compression.ChunkCompressor chunkCompressor, File file,
+                                byte[] manifestId, int index, ChunkingUtils.Chunk chunk, int flags) throws Exception {
+        ByteBuffer compressed = chunkCompressor != null
+                ? chunkCompressor.compress(file, chunk.offset, chunk.length, null) : null;
+        if (compressed != null) flags |= chunkCompressor.flag();
+
+        int contentLength = compressed != null ? compressed.remaining() : chunk.length;
+        requestPayloadBuffer.clear();
+        HeaderCodec.putDedupChunkPayload(requestPayloadBuffer, manifestId, index,
+                (int) streamer.contentSize(contentLength), flags);
+        requestPayloadBuffer.flip();
+        writeRequest(Constants.REQUEST_SENDING_DEDUP_CHUNK, requestPayloadBuffer);
+
+        if (compressed != null) {
+            streamer.stream(compressed, chunk.offset, transport.outputStream());
+        } else {
+            streamer.stream(file, chunk.offset, chunk.length, transport.outputStream(), null);
+        }
+    }
+
+    // Whether stored files can be downloaded from this server
+    public boolean supportsDownload() {
+        return protocolVersion >= Constants.DOWNLOAD_VERSION;
+    }
+
+    // Downloads the file stored under `fileName` to `target` over this connection, decrypting it as it
+    // arrives. Returns false if the server has no such file and throws if any of it failed
+    // authentication, either way leaving an existing target as it was.
+    public boolean downloadFile(String fileName, File target) throws IOException {
+        log("DOWNLOAD", () -> "Downloading " + fileName + "...");
+        boolean received = FileReceiver.downloadTo(target,
+                channel -> downloadRange(fileName, 0, Constants.DOWNLOAD_TO_END, channel) != null);
+        if (!received) {
+            log("DOWNLOAD", "Fail. The server has no file named " + fileName + ".");
+            return false;
+        }
+        log("DOWNLOAD", () -> "Success. " + target.length() + " bytes written to " + target.getPath() + ".");
+        return true;
+    }
+
+    // Requests `length` bytes of a stored file from `offset`, DOWNLOAD_TO_END for the rest of it, and
+    // writes them to the same offset in `channel` (REQUEST_DOWNLOAD_FILE). Returns the range the
+    // server sent along with the file's size, or null if it has no such file. Throws if a record of
+    // the range failed authentication, once the whole range was read.
+    public RespondFileContentPayload downloadRange(String fileName, long offset, long length, FileChannel channel)
+            throws IOException {
+        if (!supportsDownload()) {
+            throw new IOException("The server doesn't support downloads (protocol version " + protocolVersion + ")");
+        }
+        // A fresh ID per range, records of an earlier download can't be played back as this one
+        byte[] downloadId = new byte[Constants.RECORD_BINDING_SIZE];
+        RANDOM.nextBytes(downloadId);
+        downloadId = recordBinding(downloadId);
+        sendRequest(Constants.REQUEST_DOWNLOAD_FILE, buildRequestDownloadPayload(fileName, offset, length, downloadId));
+
+        // [8B fileSize][8B offset][8B length][8B contentSize][4B flags], then the records
+        int code = receiveFixedRespond();
+        if (code == Constants.RESPOND_FILE_NOT_FOUND) return null;
+        if (code != Constants.RESPOND_FILE_CONTENT || respondPayloadBuffer.remaining() < Constants.FILE_CONTENT_SIZE) {
+            throw new IOException("Download not accepted, server responded " + code);
+        }
+        RespondFileContentPayload content = parseFileContentPayload(respondPayloadBuffer);
+        if (content.getOffset() != offset || (content.getFlags() & Constants.FLAG_AES_GCM) == 0
+                || content.getContentSize() != FileReceiver.contentSize(content.getLength())) {
+            throw new IOException("Unexpected range at " + content.getOffset() + " of " + content.getLength()
+                    + " bytes in " + content.getContentSize() + " content bytes");
+        }
+
+        if (fileReceiver == null) fileReceiver = new FileReceiver(crypt, metrics);
+        if (!fileReceiver.receive(transport, channel, offset, content.getLength(), downloadId)) {
+            throw new IOException("Range at " + offset + " failed authentication");
+        }
+        return content;
+    }
+
     // Verifies CRC returned from server and responds accordingly
     public boolean checkAccept(int retries) throws Exception {
+        long start = metrics.start();
         Respond respond = receiveRespond();
+        metrics.record(metrics.confirm, start);
         if (respond.header.code != Constants.RESPOND_FILE_ACCEPTED || respond.payload.length == 0) {
             log("CHECK ACCEPT", "Fail. Internal server error.");
             return false;
         }
 
         RespondFileAcceptPayload respPayload = parseFileAcceptPayload(respond.payload);
-        String fileCRC = CRCUtils.calculateFileCRC32(transferFileName);
-
-        RequestHeader header = new RequestHeader();
-        header.setClientID(clientID);
-        header.version = CLIENT_VERSION;
 
         // Compare CRC from server and local file
-        if (respPayload.getCheckSumHex().equalsIgnoreCase(fileCRC)) {
+        boolean valid = isChecksumMatch(transferFileName, respPayload);
+        int code;
+        if (valid) {
             log("CHECK ACCEPT", "Success.");
-            header.code = Constants.REQUEST_VALID_CRC;
+            code = Constants.REQUEST_VALID_CRC;
         } else {
             log("CHECK ACCEPT", "Fail. CRC mismatch.");
-            header.code = (retries < MAX_RETRY_COUNT)
+            code = (retries < MAX_RETRY_COUNT)
                     ? Constants.REQUEST_INVALID_CRC
                     : Constants.REQUEST_LAST_INVALID_CRC;
         }
+        sendCrcResult(transferFileName, code);
 
-        byte[] payload = buildRequestFileNamePayload();
-        header.payloadSize = payload.length;
+        return valid;
+    }
+
+    // Whether the checksum the server computed for a file matches the local one
+    public boolean isChecksumMatch(String filePath, RespondFileAcceptPayload accept) throws IOException {
+        // Normally cached while the file was sent, so this costs no extra I/O
+        boolean serverCrc32c = (accept.getFlags() & Constants.FLAG_CRC32C) != 0;
+        long start = metrics.start();
+        CrcVerifyEvent event = new CrcVerifyEvent();
+        event.begin();
+        String fileCRC = CRCUtils.cachedFileChecksum(filePath, serverCrc32c);
+        metrics.record(metrics.crc, start);
+        if (event.shouldCommit()) {
+            event.fileName = new File(filePath).getName();
+            event.size = new File(filePath).length();
+            event.crc32c = serverCrc32c;
+            event.commit();
+        }
+        return accept.getCheckSumHex().equalsIgnoreCase(fileCRC);
+    }
 
-        Request request = new Request(header, payload);
-        sendRequest(request);
+    // Tells the server the outcome of its CRC for a file: REQUEST_VALID_CRC, REQUEST_INVALID_CRC
+    // (the file will be sent again) or REQUEST_LAST_INVALID_CRC
+    public void sendCrcResult(String filePath, int code) throws IOException {
+        byte[] payload = buildRequestFileNamePayload(filePath);
+        sendRequest(code, payload);
+    }
 
-        return respPayload.getCheckSumHex().equalsIgnoreCase(fileCRC);
+    // Outcome of a GCM upload: the server confirms the file if every record authenticated
+    public boolean checkAuthenticated() throws IOException {
+        long start = metrics.start();
+        Respond respond = receiveRespond();
+        metrics.record(metrics.confirm, start);
+        if (respond.header.code == Constants.RESPOND_FILE_REJECTED) {
+            log("CHECK ACCEPT", "Fail. Server could not authenticate the file.");
+            return false;
+        }
+        if (respond.header.code != Constants.RESPOND_MESSAGE_CONFIRMED || respond.payload.length == 0) {
+            log("CHECK ACCEPT", "Fail. Internal server error.");
+            return false;
+        }
+        log("CONFIRM", "Success. File transfer completed.");
+        return true;
     }
 
     // Final confirmation after CRC is accepted by server
     public boolean confirmCRC(int retries) throws IOException {
+        long start = metrics.start();
         Respond respond = receiveRespond();
+        metrics.record(metrics.confirm, start);
         if (respond.header.code != Constants.RESPOND_MESSAGE_CONFIRMED || respond.payload.length == 0) {
             log("CONFIRM", "Fail. Internal server error.");
             return false;
@@ -411,8 +1508,109 @@ public class Client {
         return true;
     }
 
-    // Helper logging method
+    // Sends the current file in verified chunks, deduplicated chunks with --dedup or as a delta with
+    // --delta. After a lost connection the client reconnects and continues from the bytes the server
+    // already holds, up to MAX_RETRY_COUNT times.
+    public boolean transferFile() throws Exception {
+        fileRetries = 0;
+        boolean success = false;
+        try {
+            success = !supportsResume() && !usesDedup() && !usesDelta() ? transferWholeFile() : transferResumable();
+            return success;
+        } finally {
+            metrics.fileDone(success, fileRetries);
+        }
+    }
+
+    private boolean transferResumable() throws Exception {
+        log("TRANSFER", () -> "Starting file transfer of " + transferFileName + "...");
+        int reconnects = 0;
+        while (true) {
+            try {
+                if (usesDelta()) return sendFileDelta();
+                return usesDedup() ? sendFileDedup() : sendFileResumable();
+            } catch (IOException e) {
+                log("TRANSFER", "Connection lost: " + e.getMessage());
+            }
+
+            do {
+                if (++reconnects > MAX_RETRY_COUNT) {
+                    log("TRANSFER", "Giving up after " + MAX_RETRY_COUNT + " reconnects.");
+                    return false;
+                }
+                Thread.sleep(Constants.RETRY_DELAY_MS);
+                log("TRANSFER", "Reconnecting, attempt #" + reconnects);
+                fileRetries++;
+            } while (!tryReconnect());
+        }
+    }
+
+    private boolean tryReconnect() throws Exception {
+        try {
+            return reconnect();
+        } catch (IOException e) {
+            log("TRANSFER", "Reconnect failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // Sends the whole file in one request, retrying up to MAX_RETRY_COUNT times on CRC errors.
+    // Used with --no-resume and with servers older than RESUME_VERSION.
+    private boolean transferWholeFile() throws Exception {
+        log("TRANSFER", () -> "Starting file transfer of " + transferFileName + "...");
+        int retryCount = 0;
+        while (retryCount < MAX_RETRY_COUNT) {
+            fileRetries = retryCount++;
+            debug("TRANSFER", () -> "Attempt #" + (fileRetries + 1));
+
+            debug("TRANSFER", "Sending file...");
+            if (!sendFile()) {
+                log("TRANSFER", "sendFile() failed. Retrying...");
+                continue;
+            }
+
+            // The server authenticated GCM content itself, there's no CRC to compare
+            if (usesGcm()) {
+                if (!checkAuthenticated()) {
+                    log("TRANSFER", "checkAuthenticated() failed. Retrying...");
+                    continue;
+                }
+                log("TRANSFER", "File transfer completed successfully.");
+                return true;
+            }
+
+            debug("TRANSFER", "Checking if server accepted the file...");
+            if (!checkAccept(retryCount)) {
+                log("TRANSFER", "checkAccept() failed. Retrying...");
+                continue;
+            }
+
+            debug("TRANSFER", "Confirming CRC...");
+            if (!confirmCRC(retryCount)) {
+                log("TRANSFER", "confirmCRC() failed. Retrying...");
+                continue;
+            }
+
+            log("TRANSFER", "File transfer completed successfully.");
+            return true;
+        }
+        return false;
+    }
+
+    // Helper logging methods, silent when logging is off for this client or below the Logger's level
     private void log(String header, String content) {
-        System.out.println("[" + header + "] : " + content);
+        if (logging) Logger.log(header, content);
+    }
+
+    private void log(String header, Supplier<String> content) {
+        if (logging) Logger.log(header, content);
+    }
+
+    private void debug(String header, String content) {
+        if (logging) Logger.debug(header, content);
+    }
+
+    private void debug(String header, Supplier<String> content) {
+        if (logging) Logger.debug(header, content);
     }
 }
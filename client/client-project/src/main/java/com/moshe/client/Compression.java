@@ -0,0 +1,141 @@
+package com.moshe.client;
+
+import com.moshe.client.utils.TempFileUtils;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.Checksum;
+
+// Compression of file content before it's encrypted. The compressed size has to be known before
+// the content is sent, so content is compressed ahead: a chunk in memory, a whole file into a
+// private temporary file. Content that doesn't shrink is sent as it is.
+public class Compression {
+
+    // Samples taken to decide whether a file is worth compressing
+    private static final int SAMPLE_COUNT = 4;
+    private static final int SAMPLE_SIZE = 16 * 1024;
+    // Compressed samples must be at most this share of their size, already compressed formats
+    // (archives, images, video) come out at around 1.0
+    private static final double MAX_SAMPLE_RATIO = 0.9;
+
+    private Compression() {
+    }
+
+    // Compressor selected by --compress, null for none
+    public static Compressor forName(String name) {
+        switch (name.toLowerCase()) {
+            case "none":
+                return null;
+            case "deflate":
+                return new DeflateCompressor();
+            default:
+                throw new IllegalArgumentException("Unknown compression: " + name);
+        }
+    }
+
+    // Compresses a few samples spread over the file and tells whether they shrank enough for
+    // the whole file to be worth compressing
+    public static boolean isCompressible(File file, Compressor compressor) throws IOException {
+        long size = file.length();
+        if (size == 0) return false;
+
+        byte[] sample = new byte[SAMPLE_SIZE];
+        CountingOutputStream counter = new CountingOutputStream();
+        long sampled = 0;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             OutputStream out = compressor.compress(counter)) {
+            int samples = (int) Math.min(SAMPLE_COUNT, (size + SAMPLE_SIZE - 1) / SAMPLE_SIZE);
+            for (int i = 0; i < samples; i++) {
+                long position = samples == 1 ? 0 : (size - SAMPLE_SIZE) * i / (samples - 1);
+                int n = channel.read(ByteBuffer.wrap(sample), Math.max(0, position));
+                if (n <= 0) break;
+                out.write(sample, 0, n);
+                sampled += n;
+            }
+        }
+        return counter.count <= sampled * MAX_SAMPLE_RATIO;
+    }
+
+    // Compresses the whole file into a temporary file only the owner can read, feeding `checksum`
+    // the plain content. The caller deletes the result.
+    public static File compressToTempFile(File file, Compressor compressor, Checksum checksum) throws IOException {
+        File temp = TempFileUtils.createPrivateTempFile("upload", ".z");
+        try (InputStream in = new FileInputStream(file);
+             OutputStream fileOut = new BufferedOutputStream(Files.newOutputStream(temp.toPath()),
+                     Constants.STREAM_CHUNK_SIZE);
+             OutputStream out = compressor.compress(fileOut)) {
+            byte[] buffer = new byte[Constants.STREAM_CHUNK_SIZE];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                if (checksum != null) checksum.update(buffer, 0, n);
+                out.write(buffer, 0, n);
+            }
+        } catch (IOException e) {
+            temp.delete();
+            throw e;
+        }
+        return temp;
+    }
+
+    // Compresses chunks of a file in memory, reusing its buffers from one chunk to the next
+    public static class ChunkCompressor {
+        private final Compressor compressor;
+        private byte[] plain = new byte[0];
+        private final ExposedByteArrayOutputStream compressed = new ExposedByteArrayOutputStream();
+
+        public ChunkCompressor(Compressor compressor) {
+            this.compressor = compressor;
+        }
+
+        public int flag() {
+            return compressor.flag();
+        }
+
+        // Reads `length` bytes of the file at `offset` and compresses them, feeding `checksum` the
+        // plain bytes. Returns the compressed bytes, valid until the next call, or null if they
+        // aren't smaller than the plain ones.
+        public ByteBuffer compress(File file, long offset, int length, Checksum checksum) throws IOException {
+            if (plain.length < length) plain = new byte[length];
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.wrap(plain, 0, length);
+                while (buffer.hasRemaining()) {
+                    if (channel.read(buffer, offset + buffer.position()) == -1) {
+                        throw new IOException("File changed during transfer");
+                    }
+                }
+            }
+            if (checksum != null) checksum.update(plain, 0, length);
+
+            compressed.reset();
+            try (OutputStream out = compressor.compress(compressed)) {
+                out.write(plain, 0, length);
+            }
+            if (compressed.size() >= length) return null;
+            return ByteBuffer.wrap(compressed.buffer(), 0, compressed.size());
+        }
+    }
+
+    // Gives access to its buffer, so the compressed bytes aren't copied once more
+    private static class ExposedByteArrayOutputStream extends ByteArrayOutputStream {
+        byte[] buffer() {
+            return buf;
+        }
+    }
+
+    // Discards everything written to it, counting the bytes
+    private static class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.moshe.client;
+
+import java.io.OutputStream;
+
+// A compression format applied to file content before it's encrypted. Other formats (LZ4, Zstd)
+// plug in by implementing this with a codec ID of their own, known to the server.
+public interface Compressor {
+
+    // Codec ID sent in the stream flags, a value within Constants.COMPRESSION_MASK
+    int flag();
+
+    // Compresses everything written to the returned stream into `out`. Closing the returned stream
+    // ends the compressed data but leaves `out` open.
+    OutputStream compress(OutputStream out);
+}
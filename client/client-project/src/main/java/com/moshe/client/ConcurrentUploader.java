@@ -0,0 +1,114 @@
+package com.moshe.client;
+
+import com.moshe.client.utils.Logger;
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+// Uploads many files at once, each over a session taken from a pool, so a batch of small files
+// is bound by the server's throughput instead of one round trip after another.
+// Files run on virtual threads where the JDK has them (21+), a session waiting on the server then
+// holds no platform thread; older JDKs use a fixed pool of `concurrency` threads. At most
+// `concurrency` files are in flight: queuing the next one waits for a free slot, so a directory of
+// tens of thousands of files is never queued up front.
+public class ConcurrentUploader implements AutoCloseable {
+
+    private final Client primary;
+    private final int concurrency;
+    private final ExecutorService executor;
+    private final Semaphore slots;
+
+    // Sessions not sending a file right now, and the ones opened here (closed with the uploader)
+    private final BlockingQueue<Client> idle = new LinkedBlockingQueue<>();
+    private final List<Client> opened = new CopyOnWriteArrayList<>();
+
+    public ConcurrentUploader(Client primary, int concurrency) {
+        this.primary = primary;
+        this.concurrency = concurrency;
+        this.executor = newExecutor(concurrency);
+        this.slots = new Semaphore(concurrency);
+        idle.add(primary);
+    }
+
+    // A virtual thread per task when available, looked up reflectively to keep building for Java 11
+    static ExecutorService newExecutor(int concurrency) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            Logger.log("CONCURRENT", "Using virtual threads.");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            Logger.log("CONCURRENT", "Virtual threads unavailable, using " + concurrency + " platform threads.");
+            return Executors.newFixedThreadPool(concurrency);
+        }
+    }
+
+    // Sends all files, recording each one's outcome in `stats`. Returns once all of them finished.
+    public void upload(List<String> files, TransferStats stats) throws InterruptedException {
+        for (String file : files) {
+            slots.acquire();
+            try {
+                executor.execute(() -> {
+                    try {
+                        send(file, stats);
+                    } finally {
+                        slots.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                slots.release();
+                throw e;
+            }
+        }
+        slots.acquire(concurrency);
+        slots.release(concurrency);
+    }
+
+    private void send(String file, TransferStats stats) {
+        long start = System.nanoTime();
+        boolean sent = false;
+        Client session = null;
+        try {
+            session = takeSession();
+            session.setTransferFileName(file);
+            sent = session.transferFile();
+        } catch (Exception e) {
+            Logger.log("CONCURRENT", "Fail: " + file + ": " + e.getMessage());
+            // A failed session is in an unknown protocol state, the next file gets a new one
+            if (session != null) session.close();
+            session = null;
+        } finally {
+            if (session != null) idle.add(session);
+        }
+        stats.add(file, new File(file).length(), System.nanoTime() - start, sent);
+    }
+
+    // An idle session, or a new one. Each file in flight holds one session and returns it before
+    // its slot, so no more than `concurrency` sessions are ever opened.
+    private Client takeSession() throws Exception {
+        Client session = idle.poll();
+        if (session == null) {
+            session = primary.openSession();
+            opened.add(session);
+        }
+        return session;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            // The files still in flight fail once their sessions are closed below
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        // The primary session belongs to the caller
+        for (Client session : opened) {
+            session.close();
+        }
+        Logger.log("CONCURRENT", "Opened " + opened.size() + " additional sessions.");
+    }
+}
@@ -8,6 +8,19 @@ public class Constants {
     public static final int REQUEST_VALID_CRC = 1029;
     public static final int REQUEST_INVALID_CRC = 1030;
     public static final int REQUEST_LAST_INVALID_CRC = 1031;
+    public static final int REQUEST_SENDING_FILE_STREAM = 1032;
+    public static final int REQUEST_SENDING_FILE_RANGE = 1033;
+    public static final int REQUEST_COMMIT_FILE = 1034;
+    public static final int REQUEST_RESUME_FILE = 1035;
+    public static final int REQUEST_SENDING_FILE_CHUNK = 1036;
+    public static final int REQUEST_RESUME_SESSION = 1037;
+    public static final int REQUEST_DEDUP_MANIFEST = 1038;
+    public static final int REQUEST_SENDING_DEDUP_CHUNK = 1039;
+    public static final int REQUEST_COMMIT_DEDUP = 1040;
+    public static final int REQUEST_DELTA_SIGNATURES = 1041;
+    public static final int REQUEST_SENDING_DELTA = 1042;
+    public static final int REQUEST_DOWNLOAD_FILE = 1043;
+    public static final int REQUEST_RESUME_CHALLENGE = 1044;
 
     public static final int RESPOND_REGISTER_SUCCESS = 2100;
     public static final int RESPOND_REGISTER_FAIL = 2101;
@@ -16,11 +29,140 @@ public class Constants {
     public static final int RESPOND_MESSAGE_CONFIRMED = 2104;
     public static final int RESPOND_LOGIN_CONFIRMED = 2105;
     public static final int RESPOND_LOGIN_REJECTED = 2106;
+    public static final int RESPOND_RANGE_ACCEPTED = 2107;
+    public static final int RESPOND_RESUME_OFFSET = 2108;
+    public static final int RESPOND_CHUNK_ACCEPTED = 2109;
+    public static final int RESPOND_FILE_REJECTED = 2110;
+    public static final int RESPOND_SESSION_RESUMED = 2111;
+    public static final int RESPOND_MISSING_CHUNKS = 2112;
+    public static final int RESPOND_DELTA_SIGNATURES = 2113;
+    public static final int RESPOND_FILE_CONTENT = 2114;
+    public static final int RESPOND_FILE_NOT_FOUND = 2115;
+    public static final int RESPOND_RESUME_CHALLENGE = 2116;
+    public static final int RESPOND_INTERNAL_ERROR = 2200;
 
-    public static final int CLIENT_VERSION = 3;
+    public static final int CLIENT_VERSION = 13;
+    // First protocol version that sends the encrypted file body as raw bytes instead of Base64
+    public static final int RAW_CONTENT_VERSION = 4;
+    // First protocol version with resumable, chunk-verified uploads
+    public static final int RESUME_VERSION = 5;
+    // First protocol version that accepts AES-GCM content
+    public static final int GCM_VERSION = 6;
+    // First protocol version that issues session tickets with the AES key
+    public static final int TICKET_VERSION = 7;
+    // First protocol version that accepts compressed content
+    public static final int COMPRESSION_VERSION = 8;
+    // First protocol version with deduplicated uploads
+    public static final int DEDUP_VERSION = 9;
+    // First protocol version with delta uploads against the server's copy of a file
+    public static final int DELTA_VERSION = 10;
+    // First protocol version that sends stored files back to their clients
+    public static final int DOWNLOAD_VERSION = 11;
+    // First protocol version that binds GCM records to the transfer they belong to
+    public static final int BOUND_AAD_VERSION = 12;
+    // First protocol version whose session tickets are presented in answer to a server challenge.
+    // Servers accept no other proof, older clients fall back to logging in with RSA.
+    public static final int RESUME_CHALLENGE_VERSION = 13;
     public static final int MAX_RETRY_COUNT = 3;
+    public static final long RETRY_DELAY_MS = 1000;
     public static final String TRANSFER_FILE = "transfer.info";
     public static final String ME_FILE = "me.info";
     public static final String PRIVATE_KEY_FILE = "priv.key";
-}
+    public static final String TICKET_FILE = "ticket.info";
+
+    // Session tickets: the AES key response carries [16B ticket][4B lifetime in seconds] after the
+    // client ID, a zero lifetime when the server issues none. A ticket is presented by asking for a
+    // challenge, REQUEST_RESUME_CHALLENGE answered with RESPOND_RESUME_CHALLENGE [16B challenge],
+    // then sending [16B ticket][255B name][12B nonce][16B tag], the GCM tag of nothing under the
+    // ticket's AES key with [ticket][client ID][challenge] as authenticated data. It proves the
+    // client holds the key, and being bound to a challenge used once it can't be played again.
+    public static final int TICKET_SIZE = 16;
+    public static final int RESUME_CHALLENGE_SIZE = 16;
+    public static final int RESUME_SESSION_PAYLOAD_SIZE = 16 + 255 + 12 + 16;
+
+    // Streamed uploads: prefix is [8B fileSize][8B contentSize][4B flags][255B fileName]
+    public static final int STREAM_CHUNK_SIZE = 64 * 1024;
+    public static final int STREAM_PAYLOAD_SIZE = 8 + 8 + 4 + 255;
+    public static final long MAPPED_WINDOW_SIZE = 64L * 1024 * 1024;
+
+    // Parallel uploads: files are split into ranges sent over several connections.
+    // Range prefix is [8B fileSize][8B offset][8B rangeSize][8B contentSize][4B flags][255B fileName],
+    // commit payload is [8B fileSize][255B fileName].
+    public static final long PARALLEL_RANGE_SIZE = 16L * 1024 * 1024;
+    public static final int RANGE_PAYLOAD_SIZE = 8 + 8 + 8 + 8 + 4 + 255;
+    public static final int COMMIT_PAYLOAD_SIZE = 8 + 255;
+
+    // Resumable uploads: the resume query is [8B fileSize][8B lastModified][4B flags][255B fileName],
+    // each chunk prefix is [16B fileId][8B offset][4B length][4B contentSize][4B flags], followed by
+    // the ciphertext and a 4B checksum of the plain chunk. Up to RESUME_WINDOW chunks are sent
+    // before waiting for the oldest one's acknowledgement.
+    public static final int RESUME_CHUNK_SIZE = 1024 * 1024;
+    public static final int RESUME_WINDOW = 8;
+    public static final int RESUME_PAYLOAD_SIZE = 8 + 8 + 4 + 255;
+    public static final int CHUNK_PAYLOAD_SIZE = 16 + 8 + 4 + 4 + 4;
+    public static final int CHUNK_ACK_SIZE = 16 + 8 + 4 + 8;
+
+    // Pipelined batches: most files sent but not yet confirmed by the server
+    public static final int PIPELINE_DEPTH = 8;
 
+    // Chunk acknowledgement status
+    public static final int CHUNK_STORED = 0;
+    public static final int CHUNK_REJECTED = 1;
+
+    // Stream flags, echoed back by the server in RESPOND_FILE_ACCEPTED for the ones it honored
+    public static final int FLAG_CRC32C = 0x1;
+    // Content is a series of AES-GCM records instead of one CBC ciphertext
+    public static final int FLAG_AES_GCM = 0x2;
+    // Codec the content was compressed with before it was encrypted, none if zero.
+    // The content size in the payload is the size of the encrypted compressed bytes.
+    public static final int COMPRESSION_MASK = 0xF0;
+    public static final int COMPRESSION_DEFLATE = 0x10;
+
+    // AES-GCM records: each STREAM_CHUNK_SIZE bytes of plain content (the last one shorter, an empty
+    // content is one empty record) are sent as [12B nonce][ciphertext][16B tag]. The record's
+    // authenticated data is [8B offset in the file][1B final], so records can't be reordered,
+    // moved or cut off unnoticed. From BOUND_AAD_VERSION it ends in the [16B binding] of the
+    // transfer, so under one key a record of a file can't pass for the same offset of another: the
+    // upload, manifest or delta ID the server issued, the random ID of the download the client
+    // sent, or for whole-file uploads, which have no round trip to get an ID, the first 16 bytes of
+    // the SHA-256 of the [255B fileName] field.
+    public static final int GCM_NONCE_SIZE = 12;
+    public static final int GCM_TAG_SIZE = 16;
+    public static final int RECORD_BINDING_SIZE = 16;
+
+    // Deduplicated uploads: the file is split into content-defined chunks of DEDUP_MIN_CHUNK to
+    // DEDUP_MAX_CHUNK bytes. The manifest, [8B fileSize][4B chunkCount][255B fileName] followed
+    // by [32B SHA-256][4B length] per chunk, is answered with the chunks the server lacks:
+    // [16B manifestId][4B count][4B index]... Each is then sent as [16B manifestId][4B index]
+    // [4B contentSize][4B flags] and its ciphertext, and REQUEST_COMMIT_DEDUP [16B manifestId]
+    // is answered with RESPOND_MESSAGE_CONFIRMED, or the chunks still missing.
+    public static final int DEDUP_MIN_CHUNK = 16 * 1024;
+    public static final int DEDUP_AVG_CHUNK = 64 * 1024;
+    public static final int DEDUP_MAX_CHUNK = 256 * 1024;
+    public static final int DEDUP_MANIFEST_SIZE = 8 + 4 + 255;
+    public static final int DEDUP_ENTRY_SIZE = 32 + 4;
+    public static final int DEDUP_CHUNK_PAYLOAD_SIZE = 16 + 4 + 4 + 4;
+
+    // Delta uploads: REQUEST_DELTA_SIGNATURES [255B fileName] is answered with the signature of the
+    // server's copy, [16B deltaId][8B baseSize][4B blockSize][4B blockCount] followed by [4B Adler-32]
+    // [16B SHA-256 prefix] per block. The delta, [16B deltaId][8B fileSize][8B deltaSize][8B contentSize]
+    // [4B flags][32B SHA-256 of the new file] and its ciphertext, is answered like a GCM upload:
+    // RESPOND_MESSAGE_CONFIRMED, or RESPOND_FILE_REJECTED if the rebuilt file doesn't match.
+    public static final byte DELTA_LITERAL = 0;
+    public static final byte DELTA_COPY = 1;
+    public static final int DELTA_STRONG_HASH_SIZE = 16;
+    public static final int DELTA_MAX_BLOCK = 64 * 1024;
+    public static final int DELTA_SIGNATURES_HEADER_SIZE = 16 + 8 + 4 + 4;
+    public static final int DELTA_PAYLOAD_SIZE = 16 + 8 + 8 + 8 + 4 + 32;
+
+    // Downloads: REQUEST_DOWNLOAD_FILE [8B offset][8B length][4B flags][255B fileName], from
+    // BOUND_AAD_VERSION followed by the [16B downloadId] the records are bound to, is answered with
+    // RESPOND_FILE_NOT_FOUND, or RESPOND_FILE_CONTENT [8B fileSize][8B offset][8B length][8B contentSize]
+    // [4B flags] followed by the range as GCM records. The range is cut at the end of the file, a
+    // length of DOWNLOAD_TO_END asks for all of it. The final byte of the records' authenticated data
+    // also carries GCM_FROM_SERVER, so a record sent by the client can't be played back to it.
+    public static final long DOWNLOAD_TO_END = -1L;
+    public static final int DOWNLOAD_PAYLOAD_SIZE = 8 + 8 + 4 + 255;
+    public static final int FILE_CONTENT_SIZE = 8 + 8 + 8 + 8 + 4;
+    public static final int GCM_FROM_SERVER = 0x2;
+}
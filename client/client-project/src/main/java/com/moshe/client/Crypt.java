@@ -4,19 +4,67 @@ import java.nio.charset.StandardCharsets;
 import java.security.*;
 import java.security.spec.*;
 import java.util.Base64;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.crypto.*;
 import javax.crypto.spec.*;
 
+// RSA and AES operations of a client. Keys are parsed once when they're set, and every thread
+// reuses its own Cipher instances, so one Crypt can be used by several threads at once.
 public class Crypt {
 
+    // Ciphers of the calling thread, initialized again for every use. Cipher.getInstance looks
+    // the algorithm up through the providers, too slow to repeat for every small file.
+    private static final ThreadLocal<Cipher> RSA_CIPHER = ThreadLocal.withInitial(() -> newCipher("RSA/ECB/PKCS1Padding"));
+    private static final ThreadLocal<Cipher> AES_CBC_CIPHER = ThreadLocal.withInitial(() -> newCipher("AES/CBC/PKCS5Padding"));
+    private static final ThreadLocal<Cipher> AES_GCM_CIPHER = ThreadLocal.withInitial(() -> newCipher("AES/GCM/NoPadding"));
+
+    // AES CBC requires an IV (initialization vector); here we use 16 zero-bytes
+    private static final IvParameterSpec ZERO_IV = new IvParameterSpec(new byte[16]);
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
     // RSA public key encoded in Base64
-    private String publicKeyBase64;
+    private volatile String publicKeyBase64;
+
+    // RSA private key, parsed and encoded in Base64
+    private volatile PrivateKey privateKey;
+    private volatile String privateKeyBase64;
+
+    // AES key of the current session
+    private volatile AesKey aesKey;
+
+    // An AES key with the state of its GCM nonces, replaced as a whole when the key changes
+    private static class AesKey {
+        final String encoded;
+        final SecretKeySpec spec;
+        // GCM nonces are a random 8-byte prefix chosen with the key and a 4-byte counter. A session
+        // ticket brings the same key back in later runs, the prefix keeps their nonces apart.
+        final byte[] noncePrefix = new byte[8];
+        final AtomicLong nonceCounter = new AtomicLong();
+
+        AesKey(String encoded) {
+            this.encoded = encoded;
+            this.spec = new SecretKeySpec(Base64.getDecoder().decode(encoded), "AES");
+            RANDOM.nextBytes(noncePrefix);
+        }
+    }
 
-    // RSA private key encoded in Base64
-    private String privateKeyBase64;
+    private static Cipher newCipher(String transformation) {
+        try {
+            return Cipher.getInstance(transformation);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cipher " + transformation + " not available", e);
+        }
+    }
 
-    // AES key encoded in Base64
-    private String encodedAesKey;
+    // A Crypt for another session of the same client: same RSA keys, its own AES key
+    public Crypt forSession() {
+        Crypt session = new Crypt();
+        session.publicKeyBase64 = publicKeyBase64;
+        session.privateKey = privateKey;
+        session.privateKeyBase64 = privateKeyBase64;
+        return session;
+    }
 
     // Return the Base64-encoded RSA public key
     public String getPublicKey() {
@@ -28,19 +76,22 @@ public class Crypt {
         return privateKeyBase64;
     }
 
-    // Set the RSA private key from a Base64 string
-    public void setPrivateKey(String privateKeyBase64) {
+    // Set the RSA private key from a Base64 string in PKCS#8 format
+    public void setPrivateKey(String privateKeyBase64) throws GeneralSecurityException {
+        PKCS8EncodedKeySpec keySpec = new PKCS8EncodedKeySpec(Base64.getDecoder().decode(privateKeyBase64));
+        this.privateKey = KeyFactory.getInstance("RSA").generatePrivate(keySpec);
         this.privateKeyBase64 = privateKeyBase64;
     }
 
     // Return the Base64-encoded AES key
     public String getEncodedAesKey() {
-        return encodedAesKey;
+        AesKey key = aesKey;
+        return key == null ? null : key.encoded;
     }
 
     // Set the AES key from a Base64 string
     public void setEncodedAesKey(String encodedAesKey) {
-        this.encodedAesKey = encodedAesKey;
+        this.aesKey = new AesKey(encodedAesKey);
     }
 
     // Generates a new RSA key pair (public/private)
@@ -51,25 +102,17 @@ public class Crypt {
         KeyPair keyPair = keyGen.generateKeyPair();  // Create key pair
 
         PublicKey pubKey = keyPair.getPublic();
-        PrivateKey privKey = keyPair.getPrivate();
+        privateKey = keyPair.getPrivate();
 
         // Store the keys as Base64 strings
         publicKeyBase64 = Base64.getEncoder().encodeToString(pubKey.getEncoded());
-        privateKeyBase64 = Base64.getEncoder().encodeToString(privKey.getEncoded());
+        privateKeyBase64 = Base64.getEncoder().encodeToString(privateKey.getEncoded());
     }
 
     // Decrypts a Base64-encoded string using RSA private key
     public String decryptRSA(String content) throws Exception {
-        // Decode the Base64 private key back into raw bytes
-        byte[] privateKeyBytes = Base64.getDecoder().decode(privateKeyBase64);
-
-        // Reconstruct the private key from bytes using PKCS#8 format
-        PKCS8EncodedKeySpec keySpec = new PKCS8EncodedKeySpec(privateKeyBytes);
-        KeyFactory kf = KeyFactory.getInstance("RSA");
-        PrivateKey privateKey = kf.generatePrivate(keySpec);
-
         // Prepare the RSA cipher for decryption using standard padding
-        Cipher cipher = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+        Cipher cipher = RSA_CIPHER.get();
         cipher.init(Cipher.DECRYPT_MODE, privateKey);
 
         // Decode the input content (encrypted) and decrypt it
@@ -80,24 +123,59 @@ public class Crypt {
         return new String(decryptedBytes, StandardCharsets.UTF_8);
     }
 
-    // Encrypts a byte array using AES (CBC mode, PKCS#5 padding)
-    public String encryptAES(byte[] content) throws Exception {
-        // Decode the Base64 AES key back into bytes
-        byte[] aesKey = Base64.getDecoder().decode(encodedAesKey);
+    // Returns a new cipher initialized for AES encryption (CBC mode, PKCS#5 padding), owned by the
+    // caller for chunked encryption with Cipher.update/doFinal. Unlike the thread's shared cipher,
+    // it keeps its state while the same thread encrypts anything else in between.
+    public Cipher newAESEncryptCipher() throws Exception {
+        Cipher cipher = newCipher("AES/CBC/PKCS5Padding");
+        initAESEncryptCipher(cipher);
+        return cipher;
+    }
 
-        // AES CBC requires an IV (initialization vector); here we use 16 zero-bytes
-        byte[] iv = new byte[16];
+    // Initializes a cipher from newAESEncryptCipher again, to encrypt another stream with it
+    public void initAESEncryptCipher(Cipher cipher) throws Exception {
+        cipher.init(Cipher.ENCRYPT_MODE, aesKey.spec, ZERO_IV);
+    }
 
-        // Setup AES key and IV for the cipher
-        SecretKeySpec keySpec = new SecretKeySpec(aesKey, "AES");
-        IvParameterSpec ivSpec = new IvParameterSpec(iv);
+    // Encrypts a byte array using AES (CBC mode, PKCS#5 padding), returns the raw ciphertext
+    public byte[] encryptAESBytes(byte[] content) throws Exception {
+        Cipher cipher = AES_CBC_CIPHER.get();
+        initAESEncryptCipher(cipher);
+        return cipher.doFinal(content);
+    }
 
-        // Initialize cipher for AES encryption
-        Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
-        cipher.init(Cipher.ENCRYPT_MODE, keySpec, ivSpec);
+    // Encrypts `len` bytes of `plain` as one AES-GCM record, [12B nonce][ciphertext][16B tag], into `out`.
+    // `aad` is authenticated along with it but not sent. Returns the size of the record.
+    public int sealAESGcm(byte[] plain, int off, int len, byte[] aad, byte[] out) throws Exception {
+        AesKey key = aesKey;
+        System.arraycopy(key.noncePrefix, 0, out, 0, key.noncePrefix.length);
+        long counter = key.nonceCounter.getAndIncrement();
+        if (counter > 0xFFFFFFFFL) throw new IllegalStateException("GCM nonces of the session key exhausted");
+        for (int i = 0; i < 4; i++) {
+            out[8 + i] = (byte) (counter >>> (8 * i));
+        }
+
+        Cipher cipher = AES_GCM_CIPHER.get();
+        GCMParameterSpec params = new GCMParameterSpec(Constants.GCM_TAG_SIZE * 8, out, 0, Constants.GCM_NONCE_SIZE);
+        cipher.init(Cipher.ENCRYPT_MODE, key.spec, params);
+        cipher.updateAAD(aad);
+        return Constants.GCM_NONCE_SIZE + cipher.doFinal(plain, off, len, out, Constants.GCM_NONCE_SIZE);
+    }
 
+    // Decrypts one AES-GCM record of `len` bytes, [12B nonce][ciphertext][16B tag], into `out`.
+    // Returns the number of plain bytes; throws AEADBadTagException if the record or `aad` was altered.
+    public int openAESGcm(byte[] record, int off, int len, byte[] aad, byte[] out) throws GeneralSecurityException {
+        Cipher cipher = AES_GCM_CIPHER.get();
+        GCMParameterSpec params = new GCMParameterSpec(Constants.GCM_TAG_SIZE * 8, record, off, Constants.GCM_NONCE_SIZE);
+        cipher.init(Cipher.DECRYPT_MODE, aesKey.spec, params);
+        cipher.updateAAD(aad);
+        return cipher.doFinal(record, off + Constants.GCM_NONCE_SIZE, len - Constants.GCM_NONCE_SIZE, out, 0);
+    }
+
+    // Encrypts a byte array using AES (CBC mode, PKCS#5 padding)
+    public String encryptAES(byte[] content) throws Exception {
         // Encrypt the content
-        byte[] encryptedBytes = cipher.doFinal(content);
+        byte[] encryptedBytes = encryptAESBytes(content);
 
         // Return the result encoded as Base64
         return Base64.getEncoder().encodeToString(encryptedBytes);  // ✅ SAFE FOR UTF-8 TRANSFER
@@ -0,0 +1,45 @@
+package com.moshe.client;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+// Deflate in the zlib format, as Python's zlib module reads it
+public class DeflateCompressor implements Compressor {
+
+    // Compression happens on the upload path, speed matters more than the last few percent
+    private final int level;
+
+    public DeflateCompressor() {
+        this(Deflater.BEST_SPEED);
+    }
+
+    public DeflateCompressor(int level) {
+        this.level = level;
+    }
+
+    @Override
+    public int flag() {
+        return Constants.COMPRESSION_DEFLATE;
+    }
+
+    @Override
+    public OutputStream compress(OutputStream out) {
+        Deflater deflater = new Deflater(level);
+        // The stream doesn't end its own Deflater if it was given one
+        return new DeflaterOutputStream(new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                deflater.end();
+                flush();
+            }
+        }, deflater, Constants.STREAM_CHUNK_SIZE);
+    }
+}
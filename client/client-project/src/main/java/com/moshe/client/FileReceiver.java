@@ -0,0 +1,117 @@
+package com.moshe.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.crypto.AEADBadTagException;
+
+// Reads the GCM records of a downloaded range off the connection and writes each one to its place
+// in a file once it's authenticated, so heap use stays constant whatever the file size.
+// One per session, its buffers are reused from one range to the next.
+class FileReceiver {
+
+    private static final int RECORD_OVERHEAD = Constants.GCM_NONCE_SIZE + Constants.GCM_TAG_SIZE;
+
+    private final Crypt crypt;
+    private final TransferMetrics metrics;
+    private final byte[] record = new byte[Constants.STREAM_CHUNK_SIZE + RECORD_OVERHEAD];
+    private final byte[] plain = new byte[Constants.STREAM_CHUNK_SIZE];
+
+    FileReceiver(Crypt crypt, TransferMetrics metrics) {
+        this.crypt = crypt;
+        this.metrics = metrics;
+    }
+
+    // Writes a download to the channel, returns whether all of it arrived and authenticated
+    interface DownloadWriter<E extends Exception> {
+        boolean write(FileChannel channel) throws E;
+    }
+
+    // Downloads through `writer` into a temporary file next to `target`, moved over the target in
+    // one step only once the whole download authenticated. A download that failed or that the
+    // server refused leaves an existing target as it was.
+    static <E extends Exception> boolean downloadTo(File target, DownloadWriter<E> writer) throws IOException, E {
+        Path destination = target.getAbsoluteFile().toPath();
+        Path partial = createPartial(destination);
+        try {
+            boolean complete;
+            try (FileChannel channel = FileChannel.open(partial, StandardOpenOption.WRITE)) {
+                complete = writer.write(channel);
+            }
+            if (complete) {
+                Files.move(partial, destination, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return complete;
+        } finally {
+            // Already gone once moved
+            Files.deleteIfExists(partial);
+        }
+    }
+
+    // Created like the target would be rather than with Files.createTempFile, which would leave the
+    // downloaded file readable by its owner only
+    private static Path createPartial(Path destination) throws IOException {
+        while (true) {
+            Path partial = destination.resolveSibling("." + destination.getFileName() + "."
+                    + Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".part");
+            try {
+                return Files.createFile(partial);
+            } catch (FileAlreadyExistsException e) {
+                // Another download's, try another name
+            }
+        }
+    }
+
+    // Size of the records of `length` plain bytes, an empty range is one empty record
+    static long contentSize(long length) {
+        long records = Math.max(1, (length + Constants.STREAM_CHUNK_SIZE - 1) / Constants.STREAM_CHUNK_SIZE);
+        return length + records * RECORD_OVERHEAD;
+    }
+
+    // Receives the records of `length` bytes starting at `offset` in the file and writes them at the
+    // same offset in `channel`. Returns false if a record failed authentication; the rest of the
+    // range is still read, to stay in sync with the server, but not written. The records' authenticated
+    // data ends in `binding`, the ID of the download.
+    boolean receive(Transport transport, FileChannel channel, long offset, long length, byte[] binding)
+            throws IOException {
+        byte[] aad = new byte[9 + binding.length];
+        boolean authenticated = true;
+        long end = offset + length;
+        long position = offset;
+        while (true) {
+            int n = (int) Math.min(Constants.STREAM_CHUNK_SIZE, end - position);
+            boolean last = position + n == end;
+            transport.readFully(ByteBuffer.wrap(record, 0, n + RECORD_OVERHEAD));
+            if (authenticated) {
+                HeaderCodec.putRecordAad(aad, position, (last ? 1 : 0) | Constants.GCM_FROM_SERVER, binding);
+                try {
+                    long start = metrics.start();
+                    int plainSize = crypt.openAESGcm(record, 0, n + RECORD_OVERHEAD, aad, plain);
+                    metrics.record(metrics.decrypt, start);
+                    write(channel, plainSize, position);
+                } catch (AEADBadTagException e) {
+                    authenticated = false;
+                } catch (GeneralSecurityException e) {
+                    throw new IOException("Could not decrypt the record at " + position, e);
+                }
+            }
+            position += n;
+            if (last) return authenticated;
+        }
+    }
+
+    private void write(FileChannel channel, int length, long position) throws IOException {
+        ByteBuffer bytes = ByteBuffer.wrap(plain, 0, length);
+        while (bytes.hasRemaining()) {
+            position += channel.write(bytes, position);
+        }
+    }
+}
@@ -0,0 +1,493 @@
+package com.moshe.client;
+
+import com.moshe.client.jfr.ChunkEncryptEvent;
+import com.moshe.client.jfr.ChunkSendEvent;
+import com.moshe.client.jfr.CrcVerifyEvent;
+import com.moshe.client.utils.CRCUtils;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+import javax.crypto.Cipher;
+
+// Encrypts a file chunk by chunk and writes the ciphertext straight to an output stream,
+// so heap use stays constant whatever the file size.
+// The ciphertext is sent raw, or Base64-encoded for servers older than RAW_CONTENT_VERSION.
+// Content is one AES-CBC ciphertext, or a series of AES-GCM records of chunkSize plain bytes each.
+// GCM records don't depend on each other, given a pool they're sealed on several cores at once.
+public class FileStreamer {
+
+    private final Crypt crypt;
+    private final boolean base64;
+    private final int chunkSize;
+    private ReadStrategy readStrategy = ReadStrategy.HEAP;
+    private CipherMode cipherMode = CipherMode.CBC;
+    private TransferMetrics metrics = TransferMetrics.NONE;
+    private String fileName = "";
+    private int requestCode;
+    // Seals GCM records in parallel when set, at most 2 * encryptThreads of them in flight
+    private ExecutorService encryptPool;
+    private int encryptThreads = 1;
+    // Ends the authenticated data of every GCM record, empty for servers before BOUND_AAD_VERSION
+    private byte[] recordBinding = new byte[0];
+    // CBC cipher of this streamer, initialized again for every stream
+    private Cipher cbcCipher;
+
+    public FileStreamer(Crypt crypt, boolean base64) {
+        this(crypt, base64, Constants.STREAM_CHUNK_SIZE);
+    }
+
+    public FileStreamer(Crypt crypt, boolean base64, int chunkSize) {
+        this.crypt = crypt;
+        this.base64 = base64;
+        this.chunkSize = chunkSize;
+    }
+
+    public void setReadStrategy(ReadStrategy readStrategy) {
+        this.readStrategy = readStrategy;
+    }
+
+    public void setCipherMode(CipherMode cipherMode) {
+        this.cipherMode = cipherMode;
+    }
+
+    // Times the checksum and the encryption of every chunk
+    public void setMetrics(TransferMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // Binds the GCM records of the next streams to a transfer, see Constants.RECORD_BINDING_SIZE
+    public void setRecordBinding(byte[] recordBinding) {
+        this.recordBinding = recordBinding.clone();
+    }
+
+    // Seals GCM records on `threads` threads of `pool` instead of the calling thread, null for none.
+    // The records are still written in order by the calling thread.
+    public void setEncryptPool(ExecutorService pool, int threads) {
+        this.encryptPool = pool;
+        this.encryptThreads = threads;
+    }
+
+    // File name and request code the JFR events of the chunks carry
+    public void setEventLabels(String fileName, int requestCode) {
+        this.fileName = fileName;
+        this.requestCode = requestCode;
+    }
+
+    // Number of bytes the ciphertext of a file of `fileSize` bytes takes on the wire
+    public static long contentSize(long fileSize, boolean base64) {
+        // PKCS#5 padding always adds 1..16 bytes
+        long cipherSize = (fileSize / 16 + 1) * 16;
+        return base64 ? (cipherSize + 2) / 3 * 4 : cipherSize;
+    }
+
+    // Number of bytes `length` bytes of content take on the wire with this streamer's cipher mode
+    public long contentSize(long length) {
+        if (cipherMode != CipherMode.GCM) return contentSize(length, base64);
+
+        long records = Math.max(1, (length + chunkSize - 1) / chunkSize);
+        long sealedSize = length + records * (Constants.GCM_NONCE_SIZE + Constants.GCM_TAG_SIZE);
+        return base64 ? (sealedSize + 2) / 3 * 4 : sealedSize;
+    }
+
+    // Reads exactly `fileSize` bytes of the file, encrypts them and writes the ciphertext to `out`
+    public void stream(File file, long fileSize, OutputStream out) throws Exception {
+        stream(file, fileSize, out, null);
+    }
+
+    // Same as above, also feeding the plain content to `checksum` in the same pass
+    public void stream(File file, long fileSize, OutputStream out, Checksum checksum) throws Exception {
+        stream(file, 0, fileSize, out, checksum);
+    }
+
+    // Encrypts `length` bytes of the file starting at `offset` as an independent ciphertext
+    public void stream(File file, long offset, long length, OutputStream out, Checksum checksum) throws Exception {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+             OutputStream encoder = base64
+                     ? Base64.getEncoder().wrap(new NonClosingOutputStream(out))
+                     : new NonClosingOutputStream(out)) {
+            ContentEncryptor encryptor = newEncryptor(offset, length, encoder, checksum);
+
+            if (readStrategy != ReadStrategy.MAPPED || !streamMapped(channel, offset, length, encryptor)) {
+                streamBuffered(channel, offset, length, encryptor);
+            }
+            encryptor.finish();
+        }
+    }
+
+    // Encrypts content already in memory, such as a compressed chunk, as an independent ciphertext.
+    // GCM records are authenticated as if the content started at `offset` in the file.
+    public void stream(ByteBuffer content, long offset, OutputStream out) throws Exception {
+        try (OutputStream encoder = base64
+                ? Base64.getEncoder().wrap(new NonClosingOutputStream(out))
+                : new NonClosingOutputStream(out)) {
+            ContentEncryptor encryptor = newEncryptor(offset, content.remaining(), encoder, null);
+            ByteBuffer chunk = content.duplicate();
+            while (chunk.position() < content.limit()) {
+                chunk.limit(Math.min(chunk.position() + chunkSize, content.limit()));
+                encryptor.update(chunk);
+            }
+            encryptor.finish();
+        }
+    }
+
+    private ContentEncryptor newEncryptor(long offset, long length, OutputStream out, Checksum checksum)
+            throws Exception {
+        ContentEncryptor encryptor;
+        if (cipherMode != CipherMode.GCM) {
+            if (cbcCipher == null) {
+                cbcCipher = crypt.newAESEncryptCipher();
+            } else {
+                crypt.initAESEncryptCipher(cbcCipher);
+            }
+            encryptor = new CbcEncryptor(cbcCipher, chunkSize, out, checksum, metrics);
+        } else if (encryptPool != null && length > chunkSize) {
+            encryptor = new ParallelGcmEncryptor(crypt, chunkSize, offset, length, out, checksum, metrics,
+                    recordBinding, encryptPool, 2 * encryptThreads);
+        } else {
+            encryptor = new GcmRecordEncryptor(crypt, chunkSize, offset, length, out, checksum, metrics,
+                    recordBinding);
+        }
+        encryptor.fileName = fileName;
+        encryptor.requestCode = requestCode;
+        return encryptor;
+    }
+
+    // Reads the file chunk by chunk into a heap or direct buffer
+    private void streamBuffered(FileChannel channel, long offset, long length, ContentEncryptor encryptor)
+            throws Exception {
+        ByteBuffer chunk = readStrategy == ReadStrategy.DIRECT
+                ? ByteBuffer.allocateDirect(chunkSize)
+                : ByteBuffer.allocate(chunkSize);
+
+        long position = offset;
+        long remaining = length;
+        while (remaining > 0) {
+            chunk.clear().limit((int) Math.min(chunkSize, remaining));
+            while (chunk.hasRemaining()) {
+                int read = channel.read(chunk, position);
+                if (read == -1) throw new IOException("File changed during transfer");
+                position += read;
+            }
+            chunk.flip();
+            remaining -= chunk.remaining();
+
+            encryptor.update(chunk);
+        }
+    }
+
+    // Maps the file window by window and encrypts straight from the page cache.
+    // Returns false if the file can't be mapped, before anything was sent.
+    private boolean streamMapped(FileChannel channel, long offset, long length, ContentEncryptor encryptor)
+            throws Exception {
+        long end = offset + length;
+        long position = offset;
+        while (position < end) {
+            long windowSize = Math.min(Constants.MAPPED_WINDOW_SIZE, end - position);
+            MappedByteBuffer window;
+            try {
+                window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+            } catch (IOException | UnsupportedOperationException e) {
+                if (position == offset) return false;
+                throw e;
+            }
+
+            while (window.position() < window.capacity()) {
+                window.limit(Math.min(window.position() + chunkSize, window.capacity()));
+                encryptor.update(window);
+            }
+            position += windowSize;
+        }
+        return true;
+    }
+
+    // Checksums and encrypts the chunks read from the file, writing the result to the output
+    private abstract static class ContentEncryptor {
+        final OutputStream out;
+        final TransferMetrics metrics;
+        private final Checksum checksum;
+        // Carried by the JFR events
+        String fileName;
+        int requestCode;
+
+        ContentEncryptor(OutputStream out, Checksum checksum, TransferMetrics metrics) {
+            this.out = out;
+            this.checksum = checksum;
+            this.metrics = metrics;
+        }
+
+        // Consumes the remaining bytes of `chunk`
+        void update(ByteBuffer chunk) throws Exception {
+            // The checksum reads direct and mapped buffers in place
+            if (checksum != null) {
+                long start = metrics.start();
+                CrcVerifyEvent event = new CrcVerifyEvent();
+                event.begin();
+                int size = chunk.remaining();
+                CRCUtils.update(checksum, chunk);
+                metrics.record(metrics.crc, start);
+                if (event.shouldCommit()) {
+                    event.fileName = fileName;
+                    event.size = size;
+                    event.crc32c = checksum instanceof CRC32C;
+                    event.commit();
+                }
+            }
+            encrypt(chunk);
+        }
+
+        void encrypted(ChunkEncryptEvent event, int size, CipherMode cipher) {
+            if (event.shouldCommit()) {
+                event.fileName = fileName;
+                event.size = size;
+                event.cipher = cipher.name();
+                event.commit();
+            }
+        }
+
+        // Writes encrypted content to the output, inside a ChunkSendEvent
+        void send(byte[] bytes, int len) throws IOException {
+            ChunkSendEvent event = new ChunkSendEvent();
+            event.begin();
+            out.write(bytes, 0, len);
+            if (event.shouldCommit()) {
+                event.fileName = fileName;
+                event.size = len;
+                event.requestCode = requestCode;
+                event.commit();
+            }
+        }
+
+        abstract void encrypt(ByteBuffer chunk) throws Exception;
+
+        // Writes what's left once all content went through update()
+        abstract void finish() throws Exception;
+    }
+
+    // One CBC ciphertext over the whole content
+    private static class CbcEncryptor extends ContentEncryptor {
+        private final Cipher cipher;
+        private final byte[] encrypted;
+        private byte[] plain;
+
+        CbcEncryptor(Cipher cipher, int chunkSize, OutputStream out, Checksum checksum, TransferMetrics metrics) {
+            super(out, checksum, metrics);
+            this.cipher = cipher;
+            this.encrypted = new byte[cipher.getOutputSize(chunkSize)];
+        }
+
+        @Override
+        void encrypt(ByteBuffer chunk) throws Exception {
+            // SunJCE's Cipher.update(ByteBuffer, ByteBuffer) copies off-heap input through a 4 KB
+            // temporary array; one bulk copy into a reusable array is measurably faster
+            int len = chunk.remaining();
+            long start = metrics.start();
+            ChunkEncryptEvent event = new ChunkEncryptEvent();
+            event.begin();
+            int n;
+            if (chunk.hasArray()) {
+                n = cipher.update(chunk.array(), chunk.arrayOffset() + chunk.position(), len, encrypted);
+                chunk.position(chunk.limit());
+            } else {
+                if (plain == null) plain = new byte[encrypted.length];
+                chunk.get(plain, 0, len);
+                n = cipher.update(plain, 0, len, encrypted);
+            }
+            metrics.record(metrics.encrypt, start);
+            encrypted(event, len, CipherMode.CBC);
+            send(encrypted, n);
+        }
+
+        @Override
+        void finish() throws Exception {
+            int n = cipher.doFinal(encrypted, 0);
+            send(encrypted, n);
+        }
+    }
+
+    // GCM records of a fixed plain size, whatever size the chunks read from the file have,
+    // so the server knows where each record ends from the content length alone
+    private static class GcmRecordEncryptor extends ContentEncryptor {
+        private final Crypt crypt;
+        private final byte[] plain;
+        private final byte[] sealed;
+        private final byte[] aad;
+        private final byte[] binding;
+        private final long end;
+        // File offset of the record being filled, and how much of it is
+        private long position;
+        private int filled;
+        private boolean sealedAny;
+
+        GcmRecordEncryptor(Crypt crypt, int chunkSize, long offset, long length, OutputStream out,
+                           Checksum checksum, TransferMetrics metrics, byte[] binding) {
+            super(out, checksum, metrics);
+            this.crypt = crypt;
+            this.plain = new byte[chunkSize];
+            this.sealed = new byte[Constants.GCM_NONCE_SIZE + chunkSize + Constants.GCM_TAG_SIZE];
+            this.aad = new byte[9 + binding.length];
+            this.binding = binding;
+            this.position = offset;
+            this.end = offset + length;
+        }
+
+        @Override
+        void encrypt(ByteBuffer chunk) throws Exception {
+            while (chunk.hasRemaining()) {
+                int n = Math.min(plain.length - filled, chunk.remaining());
+                chunk.get(plain, filled, n);
+                filled += n;
+                if (filled == plain.length) seal();
+            }
+        }
+
+        @Override
+        void finish() throws Exception {
+            // Empty content still gets its final record, so a truncated stream can't pass for it
+            if (filled > 0 || !sealedAny) seal();
+        }
+
+        private void seal() throws Exception {
+            boolean last = position + filled == end;
+            HeaderCodec.putRecordAad(aad, position, last ? 1 : 0, binding);
+
+            long start = metrics.start();
+            ChunkEncryptEvent event = new ChunkEncryptEvent();
+            event.begin();
+            int n = crypt.sealAESGcm(plain, 0, filled, aad, sealed);
+            metrics.record(metrics.encrypt, start);
+            encrypted(event, filled, CipherMode.GCM);
+            send(sealed, n);
+
+            position += filled;
+            filled = 0;
+            sealedAny = true;
+        }
+    }
+
+    // The same GCM records, sealed by the threads of a pool while the next ones are read from the
+    // file. Every record has its own nonce, so they can be sealed in any order, but they're
+    // written in file order since the server reads them as a stream. A bounded number of records
+    // is in flight, their buffers are reused once written.
+    private static class ParallelGcmEncryptor extends ContentEncryptor {
+        private final Crypt crypt;
+        private final int chunkSize;
+        private final long end;
+        private final ExecutorService pool;
+        private final int maxPending;
+        private final byte[] binding;
+        // Records being sealed, oldest first, and records written and free for reuse
+        private final ArrayDeque<Future<Record>> pending = new ArrayDeque<>();
+        private final ArrayDeque<Record> free = new ArrayDeque<>();
+        // Record being filled, and the file offset it starts at
+        private Record current;
+        private long position;
+        private boolean sealedAny;
+
+        private class Record {
+            final byte[] plain = new byte[chunkSize];
+            final byte[] sealed = new byte[Constants.GCM_NONCE_SIZE + chunkSize + Constants.GCM_TAG_SIZE];
+            final byte[] aad = new byte[9 + binding.length];
+            int filled;
+            int sealedLength;
+
+            Record seal() throws Exception {
+                long start = metrics.start();
+                ChunkEncryptEvent event = new ChunkEncryptEvent();
+                event.begin();
+                sealedLength = crypt.sealAESGcm(plain, 0, filled, aad, sealed);
+                metrics.record(metrics.encrypt, start);
+                encrypted(event, filled, CipherMode.GCM);
+                return this;
+            }
+        }
+
+        ParallelGcmEncryptor(Crypt crypt, int chunkSize, long offset, long length, OutputStream out,
+                             Checksum checksum, TransferMetrics metrics, byte[] binding, ExecutorService pool,
+                             int maxPending) {
+            super(out, checksum, metrics);
+            this.crypt = crypt;
+            this.binding = binding;
+            this.chunkSize = chunkSize;
+            this.position = offset;
+            this.end = offset + length;
+            this.pool = pool;
+            this.maxPending = maxPending;
+        }
+
+        @Override
+        void encrypt(ByteBuffer chunk) throws Exception {
+            while (chunk.hasRemaining()) {
+                if (current == null) current = free.isEmpty() ? new Record() : free.poll();
+                int n = Math.min(chunkSize - current.filled, chunk.remaining());
+                chunk.get(current.plain, current.filled, n);
+                current.filled += n;
+                if (current.filled == chunkSize) submit();
+            }
+        }
+
+        @Override
+        void finish() throws Exception {
+            // Empty content still gets its final record, as with GcmRecordEncryptor
+            if (current != null || !sealedAny) {
+                if (current == null) current = new Record();
+                submit();
+            }
+            while (!pending.isEmpty()) {
+                writeOldest();
+            }
+        }
+
+        // Hands the current record to the pool, once its position is in the AAD
+        private void submit() throws Exception {
+            Record record = current;
+            current = null;
+            boolean last = position + record.filled == end;
+            HeaderCodec.putRecordAad(record.aad, position, last ? 1 : 0, binding);
+            position += record.filled;
+            sealedAny = true;
+
+            if (pending.size() == maxPending) writeOldest();
+            pending.add(pool.submit(record::seal));
+        }
+
+        private void writeOldest() throws Exception {
+            Record record;
+            try {
+                record = pending.poll().get();
+            } catch (ExecutionException e) {
+                // The records after a failed one are never written, the stream is abandoned
+                for (Future<Record> future : pending) future.cancel(false);
+                throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }
+            send(record.sealed, record.sealedLength);
+            record.filled = 0;
+            free.add(record);
+        }
+    }
+
+    // Lets the Base64 encoder flush its final block on close without closing the socket stream
+    private static class NonClosingOutputStream extends FilterOutputStream {
+        NonClosingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.moshe.client;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+// Encodes and decodes request and response headers, and the fixed-layout payloads sent with every
+// chunk, straight into and out of caller-supplied buffers. Fields are little-endian whatever the
+// buffer's byte order, and nothing is allocated per message.
+//
+// Request header:  [16B clientId][1B version][2B code][4B payloadSize]
+// Response header: [1B version][2B code][4B payloadSize]
+public final class HeaderCodec {
+
+    public static final int REQUEST_HEADER_SIZE = 23;
+    public static final int RESPOND_HEADER_SIZE = 7;
+    public static final int CLIENT_ID_SIZE = 16;
+
+    private HeaderCodec() {
+    }
+
+    // Writes a request header at the buffer's position, advancing it
+    public static void putRequestHeader(ByteBuffer buffer, byte[] clientId, int version, int code, int payloadSize) {
+        putFixed(buffer, clientId, CLIENT_ID_SIZE);
+        buffer.put((byte) version);
+        putShort(buffer, code);
+        putInt(buffer, payloadSize);
+    }
+
+    // Writes a response header at the buffer's position, advancing it
+    public static void putRespondHeader(ByteBuffer buffer, int version, int code, int payloadSize) {
+        buffer.put((byte) version);
+        putShort(buffer, code);
+        putInt(buffer, payloadSize);
+    }
+
+    // Fields of the request header at the buffer's position, the position doesn't move
+    public static int requestVersion(ByteBuffer buffer) {
+        return buffer.get(buffer.position() + CLIENT_ID_SIZE) & 0xFF;
+    }
+
+    public static int requestCode(ByteBuffer buffer) {
+        return getShort(buffer, buffer.position() + CLIENT_ID_SIZE + 1);
+    }
+
+    public static int requestPayloadSize(ByteBuffer buffer) {
+        return getInt(buffer, buffer.position() + CLIENT_ID_SIZE + 3);
+    }
+
+    // Fields of the response header at the buffer's position, the position doesn't move
+    public static int respondVersion(ByteBuffer buffer) {
+        return buffer.get(buffer.position()) & 0xFF;
+    }
+
+    public static int respondCode(ByteBuffer buffer) {
+        return getShort(buffer, buffer.position() + 1);
+    }
+
+    public static int respondPayloadSize(ByteBuffer buffer) {
+        return getInt(buffer, buffer.position() + 3);
+    }
+
+    // Builds chunk payload: [16B fileId][8B offset][4B length][4B contentSize][4B flags]
+    public static void putChunkPayload(ByteBuffer buffer, byte[] fileId, long offset, int length, int contentSize,
+                                       int flags) {
+        putFixed(buffer, fileId, 16);
+        putLong(buffer, offset);
+        putInt(buffer, length);
+        putInt(buffer, contentSize);
+        putInt(buffer, flags);
+    }
+
+    // Builds dedup chunk payload: [16B manifestId][4B index][4B contentSize][4B flags]
+    public static void putDedupChunkPayload(ByteBuffer buffer, byte[] manifestId, int index, int contentSize,
+                                            int flags) {
+        putFixed(buffer, manifestId, 16);
+        putInt(buffer, index);
+        putInt(buffer, contentSize);
+        putInt(buffer, flags);
+    }
+
+    // Writes the authenticated data of a GCM record, [8B offset][1B flags][binding], into `aad`
+    // of 9 + binding.length bytes. The binding is empty before BOUND_AAD_VERSION.
+    public static void putRecordAad(byte[] aad, long offset, int flags, byte[] binding) {
+        ByteBuffer buffer = ByteBuffer.wrap(aad).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putLong(offset);
+        buffer.put((byte) flags);
+        buffer.put(binding);
+    }
+
+    // Fields of a chunk acknowledgement at the buffer's position:
+    // [16B fileId][8B offset][4B status][8B verifiedOffset]
+    public static long chunkAckOffset(ByteBuffer buffer) {
+        return getLong(buffer, buffer.position() + 16);
+    }
+
+    public static int chunkAckStatus(ByteBuffer buffer) {
+        return getInt(buffer, buffer.position() + 24);
+    }
+
+    public static long chunkAckVerifiedOffset(ByteBuffer buffer) {
+        return getLong(buffer, buffer.position() + 28);
+    }
+
+    // Writes `value` zero-padded or truncated to `size` bytes
+    public static void putFixed(ByteBuffer buffer, byte[] value, int size) {
+        int length = Math.min(value.length, size);
+        buffer.put(value, 0, length);
+        for (int i = length; i < size; i++) {
+            buffer.put((byte) 0);
+        }
+    }
+
+    // Reads a zero-padded string field, up to its first zero byte
+    public static String getFixed(byte[] payload, int offset, int size) {
+        int end = offset;
+        while (end < offset + size && payload[end] != 0) {
+            end++;
+        }
+        return new String(payload, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static boolean littleEndian(ByteBuffer buffer) {
+        return buffer.order() == ByteOrder.LITTLE_ENDIAN;
+    }
+
+    private static void putShort(ByteBuffer buffer, int value) {
+        short s = (short) value;
+        buffer.putShort(littleEndian(buffer) ? s : Short.reverseBytes(s));
+    }
+
+    private static void putInt(ByteBuffer buffer, int value) {
+        buffer.putInt(littleEndian(buffer) ? value : Integer.reverseBytes(value));
+    }
+
+    private static void putLong(ByteBuffer buffer, long value) {
+        buffer.putLong(littleEndian(buffer) ? value : Long.reverseBytes(value));
+    }
+
+    private static int getShort(ByteBuffer buffer, int index) {
+        short s = buffer.getShort(index);
+        return Short.toUnsignedInt(littleEndian(buffer) ? s : Short.reverseBytes(s));
+    }
+
+    private static int getInt(ByteBuffer buffer, int index) {
+        int value = buffer.getInt(index);
+        return littleEndian(buffer) ? value : Integer.reverseBytes(value);
+    }
+
+    private static long getLong(ByteBuffer buffer, int index) {
+        long value = buffer.getLong(index);
+        return littleEndian(buffer) ? value : Long.reverseBytes(value);
+    }
+}
@@ -1,19 +1,58 @@
 package com.moshe.client;
 
+import com.moshe.client.jfr.ProfileRecording;
+import com.moshe.client.metrics.SimpleMetricsRegistry;
+import com.moshe.client.utils.FileListUtils;
 import com.moshe.client.utils.Logger;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class Main {
     public static void main(String[] args) {
         Client client = new Client();
         System.out.println("Current dir: " + System.getProperty("user.dir"));
+        SimpleMetricsRegistry metrics = null;
+        ProfileRecording profile = null;
+        ExecutorService encryptPool = null;
+        Options options = null;
 
         try {
+            options = Options.parse(args);
+            options.applyTo(client);
+            Logger.setLevel(options.logLevel);
+            if (options.metricsFile != null) {
+                metrics = new SimpleMetricsRegistry();
+                client.setMetrics(new TransferMetrics(metrics));
+            }
+            if (options.encryptThreads > 1) {
+                encryptPool = Executors.newFixedThreadPool(options.encryptThreads);
+                client.setEncryptPool(encryptPool, options.encryptThreads);
+            }
+            if (options.profileFile != null) {
+                profile = new ProfileRecording(Paths.get(options.profileFile));
+                profile.start();
+            }
+
             Logger.log("MAIN", "Reading settings...");
             if (!client.readSetting()) {
                 Logger.log("MAIN", "Failed to read settings.");
                 return;
             }
 
+            // Files given on the command line replace the one from transfer.info. Downloaded files
+            // are named as they're stored on the server, not matched against local ones.
+            List<String> files = options.files.isEmpty()
+                    ? Collections.singletonList(client.getTransferFileName())
+                    : options.download ? options.files : FileListUtils.expand(options.files);
+
             Logger.log("MAIN", "Connecting to server...");
             if (!client.connectToServer()) {
                 Logger.log("MAIN", "Failed to connect to server.");
@@ -35,38 +74,79 @@ public class Main {
                 return;
             }
 
-            Logger.log("MAIN", "Starting file transfer...");
-            int retryCount = 0;
-            while (retryCount < Constants.MAX_RETRY_COUNT) {
-                Logger.log("MAIN", "Attempt #" + (retryCount + 1));
-                retryCount++;
-
-                Logger.log("MAIN", "Sending file...");
-                if (!client.sendFile()) {
-                    Logger.log("MAIN", "sendFile() failed. Retrying...");
-                    continue;
+            // By default all files go back-to-back over the same connection and session key
+            TransferStats stats = new TransferStats();
+            long batchStart = System.nanoTime();
+            if (options.download) {
+                download(client, files, options, stats);
+            } else if (options.pipeline) {
+                new PipelinedUploader(client).upload(files, stats);
+            } else if (options.concurrency > 1) {
+                try (ConcurrentUploader uploader = new ConcurrentUploader(client, options.concurrency)) {
+                    uploader.upload(files, stats);
                 }
-
-                Logger.log("MAIN", "Checking if server accepted the file...");
-                if (!client.checkAccept(retryCount)) {
-                    Logger.log("MAIN", "checkAccept() failed. Retrying...");
-                    continue;
-                }
-
-                Logger.log("MAIN", "Confirming CRC...");
-                if (!client.confirmCRC(retryCount)) {
-                    Logger.log("MAIN", "confirmCRC() failed. Retrying...");
-                    continue;
+            } else {
+                try (ParallelUploader uploader = options.streams > 1 ? new ParallelUploader(client, options.streams) : null) {
+                    for (String file : files) {
+                        client.setTransferFileName(file);
+                        long start = System.nanoTime();
+                        boolean sent = uploader != null ? uploader.upload() : client.transferFile();
+                        stats.add(file, new File(file).length(), System.nanoTime() - start, sent);
+                    }
                 }
-
-                Logger.log("MAIN", "File transfer completed successfully.");
-                break;
             }
+            stats.print(System.nanoTime() - batchStart);
 
         } catch (Exception e) {
             Logger.log("EXCEPTION", "Unhandled exception: " + e.getMessage());
             e.printStackTrace();
+        } finally {
+            client.close();
+            if (encryptPool != null) encryptPool.shutdownNow();
+            if (metrics != null) writeMetrics(metrics, options.metricsFile);
+            if (profile != null) stopProfile(profile);
         }
     }
-}
 
+    // Writes the recording and prints the time per phase
+    private static void stopProfile(ProfileRecording profile) {
+        try {
+            profile.stop();
+        } catch (IOException e) {
+            Logger.log("MAIN", "Could not write the recording: " + e.getMessage());
+        }
+    }
+
+    // Writes the metrics of the run in the Prometheus text format, for node_exporter's textfile
+    // collector or a look at the phases of a slow run
+    private static void writeMetrics(SimpleMetricsRegistry metrics, String path) {
+        try (Writer out = Files.newBufferedWriter(Paths.get(path), StandardCharsets.UTF_8)) {
+            metrics.writePrometheus(out);
+            Logger.log("MAIN", "Metrics written to " + path);
+        } catch (IOException e) {
+            Logger.log("MAIN", "Could not write metrics to " + path + ": " + e.getMessage());
+        }
+    }
+
+    // Downloads the files stored under the given names into the download directory
+    private static void download(Client client, List<String> files, Options options, TransferStats stats)
+            throws Exception {
+        if (!client.supportsDownload()) {
+            Logger.log("MAIN", "The server doesn't support downloads.");
+            return;
+        }
+        File directory = new File(options.downloadDir);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+        try (ParallelDownloader downloader = options.streams > 1 ? new ParallelDownloader(client, options.streams) : null) {
+            for (String file : files) {
+                String fileName = new File(file).getName();
+                File target = new File(directory, fileName);
+                long start = System.nanoTime();
+                boolean received = downloader != null ? downloader.download(fileName, target) : client.downloadFile(fileName, target);
+                stats.add(fileName, target.length(), System.nanoTime() - start, received);
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.moshe.client;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+// Counts the bytes going over a transport and times how long writes block, for TransferMetrics.
+// Only used when metrics are enabled.
+class MeteredTransport implements Transport {
+
+    private final Transport transport;
+    private final TransferMetrics metrics;
+    private final OutputStream output;
+
+    MeteredTransport(Transport transport, TransferMetrics metrics) {
+        this.transport = transport;
+        this.metrics = metrics;
+        this.output = new MeteredOutputStream(transport.outputStream());
+    }
+
+    @Override
+    public void write(ByteBuffer... buffers) throws IOException {
+        long bytes = 0;
+        for (ByteBuffer buffer : buffers) {
+            bytes += buffer.remaining();
+        }
+        long start = metrics.start();
+        transport.write(buffers);
+        metrics.record(metrics.send, start);
+        metrics.bytesSent.increment(bytes);
+    }
+
+    @Override
+    public OutputStream outputStream() {
+        return output;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        long start = metrics.start();
+        transport.flush();
+        metrics.record(metrics.send, start);
+    }
+
+    @Override
+    public void readFully(ByteBuffer dst) throws IOException {
+        int bytes = dst.remaining();
+        transport.readFully(dst);
+        metrics.bytesReceived.increment(bytes);
+    }
+
+    @Override
+    public void close() throws IOException {
+        transport.close();
+    }
+
+    private class MeteredOutputStream extends FilterOutputStream {
+        MeteredOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = metrics.start();
+            out.write(b, off, len);
+            metrics.record(metrics.send, start);
+            metrics.bytesSent.increment(len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            MeteredTransport.this.flush();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.moshe.client;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+
+// Transport over a non-blocking SocketChannel. Reads and writes wait for readiness on a Selector
+// of their own, so a reader and a writer thread don't contend, and go through reusable direct
+// buffers the kernel copies straight from and to.
+public class NioTransport implements Transport {
+
+    private final SocketChannel channel;
+    private final Selector readSelector;
+    private final Selector writeSelector;
+
+    // Bytes waiting to be written (write mode) and bytes received but not consumed yet (read mode)
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(Constants.STREAM_CHUNK_SIZE);
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(Constants.STREAM_CHUNK_SIZE);
+    // Handed to the channel when only the write buffer is written, instead of an array per flush
+    private final ByteBuffer[] writeBufferOnly = {writeBuffer};
+
+    private final OutputStream output = new OutputStream() {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            NioTransport.this.write(ByteBuffer.wrap(b, off, len));
+        }
+
+        @Override
+        public void flush() throws IOException {
+            NioTransport.this.flush();
+        }
+    };
+
+    private NioTransport(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        channel.configureBlocking(false);
+        readSelector = Selector.open();
+        writeSelector = Selector.open();
+        channel.register(readSelector, SelectionKey.OP_READ);
+        channel.register(writeSelector, SelectionKey.OP_WRITE);
+        readBuffer.limit(0);
+    }
+
+    public static NioTransport connect(String host, int port) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress(host, port));
+        try {
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            return new NioTransport(channel);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer... buffers) throws IOException {
+        long total = 0;
+        for (ByteBuffer buffer : buffers) {
+            total += buffer.remaining();
+        }
+        if (total <= writeBuffer.remaining()) {
+            for (ByteBuffer buffer : buffers) {
+                writeBuffer.put(buffer);
+            }
+            return;
+        }
+
+        // Too large to buffer: the pending bytes and the new ones leave in one gathering write
+        ByteBuffer[] all = new ByteBuffer[buffers.length + 1];
+        all[0] = writeBuffer.flip();
+        System.arraycopy(buffers, 0, all, 1, buffers.length);
+        writeAll(all);
+        writeBuffer.clear();
+    }
+
+    @Override
+    public OutputStream outputStream() {
+        return output;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        writeBuffer.flip();
+        writeAll(writeBufferOnly);
+        writeBuffer.clear();
+    }
+
+    private void writeAll(ByteBuffer[] buffers) throws IOException {
+        long remaining = 0;
+        for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+        }
+        while (remaining > 0) {
+            long written = channel.write(buffers);
+            if (written == 0) {
+                await(writeSelector);
+            }
+            remaining -= written;
+        }
+    }
+
+    @Override
+    public void readFully(ByteBuffer dst) throws IOException {
+        while (dst.hasRemaining()) {
+            if (readBuffer.hasRemaining()) {
+                // Copies what fits by narrowing the read buffer's limit for a moment
+                int limit = readBuffer.limit();
+                readBuffer.limit(readBuffer.position() + Math.min(dst.remaining(), readBuffer.remaining()));
+                dst.put(readBuffer);
+                readBuffer.limit(limit);
+                continue;
+            }
+
+            // Large payloads are read in place, small reads are batched through the buffer
+            int n;
+            if (dst.remaining() >= readBuffer.capacity()) {
+                n = channel.read(dst);
+            } else {
+                readBuffer.clear();
+                n = channel.read(readBuffer);
+                readBuffer.flip();
+            }
+            if (n == -1) throw new EOFException("Stream closed before reading fully");
+            if (n == 0) await(readSelector);
+        }
+    }
+
+    // Blocks until the channel is ready for the selector's operation, or closed by another thread
+    private void await(Selector selector) throws IOException {
+        try {
+            selector.select();
+            if (!channel.isOpen()) throw new ClosedChannelException();
+            selector.selectedKeys().clear();
+        } catch (ClosedSelectorException e) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            channel.close();
+        } finally {
+            readSelector.close();
+            writeSelector.close();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.moshe.client;
+
+import com.moshe.client.utils.Logger;
+import java.util.ArrayList;
+import java.util.List;
+
+// Command line options of Main
+public class Options {
+    public boolean stream = false;
+    public boolean crc32c = false;
+    public boolean resume = true;
+    public boolean tickets = true;
+    public boolean dedup = false;
+    public boolean delta = false;
+    public ReadStrategy readStrategy = ReadStrategy.HEAP;
+    public TransportType transport = TransportType.SOCKET;
+    public CipherMode cipher = CipherMode.GCM;
+    public Compressor compressor = null;
+
+    // Number of parallel connections each file is uploaded over
+    public int streams = 1;
+
+    // Send files back-to-back without waiting for each file's responses
+    public boolean pipeline = false;
+
+    // Number of files sent at once, each over its own session
+    public int concurrency = 1;
+
+    // Number of threads GCM records are sealed on
+    public int encryptThreads = 1;
+
+    // Download the files from the server into downloadDir instead of uploading them
+    public boolean download = false;
+    public String downloadDir = "downloads";
+
+    // Lines below this level aren't printed
+    public Logger.Level logLevel = Logger.Level.INFO;
+
+    // File the metrics are written to in the Prometheus text format at the end of the run, if any
+    public String metricsFile = null;
+
+    // File the run is recorded to with JDK Flight Recorder, if any
+    public String profileFile = null;
+
+    // Files, directories or glob patterns to send in one session instead of the file in transfer.info
+    public List<String> files = new ArrayList<>();
+
+    public static Options parse(String[] args) {
+        Options options = new Options();
+        for (String arg : args) {
+            if (arg.equals("--stream")) {
+                options.stream = true;
+            } else if (arg.equals("--crc32c")) {
+                options.crc32c = true;
+            } else if (arg.equals("--no-resume")) {
+                options.resume = false;
+            } else if (arg.equals("--no-ticket")) {
+                options.tickets = false;
+            } else if (arg.equals("--dedup")) {
+                options.dedup = true;
+            } else if (arg.equals("--delta")) {
+                options.delta = true;
+            } else if (arg.startsWith("--read=")) {
+                options.readStrategy = ReadStrategy.fromName(valueOf(arg));
+            } else if (arg.startsWith("--transport=")) {
+                options.transport = TransportType.fromName(valueOf(arg));
+            } else if (arg.startsWith("--cipher=")) {
+                options.cipher = CipherMode.fromName(valueOf(arg));
+            } else if (arg.startsWith("--compress=")) {
+                options.compressor = Compression.forName(valueOf(arg));
+            } else if (arg.startsWith("--streams=")) {
+                options.streams = Integer.parseInt(valueOf(arg));
+                if (options.streams < 1) throw new IllegalArgumentException("--streams must be at least 1");
+            } else if (arg.startsWith("--concurrency=")) {
+                options.concurrency = Integer.parseInt(valueOf(arg));
+                if (options.concurrency < 1) throw new IllegalArgumentException("--concurrency must be at least 1");
+            } else if (arg.startsWith("--encrypt-threads=")) {
+                options.encryptThreads = Integer.parseInt(valueOf(arg));
+                if (options.encryptThreads < 1) throw new IllegalArgumentException("--encrypt-threads must be at least 1");
+            } else if (arg.equals("--download")) {
+                options.download = true;
+            } else if (arg.startsWith("--download-dir=")) {
+                options.download = true;
+                options.downloadDir = valueOf(arg);
+            } else if (arg.startsWith("--log-level=")) {
+                options.logLevel = Logger.Level.fromName(valueOf(arg));
+            } else if (arg.startsWith("--metrics=")) {
+                options.metricsFile = valueOf(arg);
+            } else if (arg.equals("--profile")) {
+                options.profileFile = "client.jfr";
+            } else if (arg.startsWith("--profile=")) {
+                options.profileFile = valueOf(arg);
+            } else if (arg.equals("--pipeline")) {
+                options.pipeline = true;
+            } else if (arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            } else {
+                options.files.add(arg);
+            }
+        }
+        int modes = (options.pipeline ? 1 : 0) + (options.streams > 1 ? 1 : 0) + (options.concurrency > 1 ? 1 : 0);
+        if (modes > 1) {
+            throw new IllegalArgumentException("Only one of --pipeline, --streams and --concurrency can be used");
+        }
+        // Dedup and delta uploads are sent by transferFile, the pipelined and parallel uploaders send
+        // files their own way
+        if ((options.dedup || options.delta) && (options.pipeline || options.streams > 1)) {
+            throw new IllegalArgumentException("--dedup and --delta can't be used with --pipeline or --streams");
+        }
+        if (options.download && (options.pipeline || options.concurrency > 1 || options.dedup || options.delta)) {
+            throw new IllegalArgumentException("--download can only be combined with --streams");
+        }
+        if (options.encryptThreads > 1 && options.cipher != CipherMode.GCM) {
+            throw new IllegalArgumentException("--encrypt-threads only applies to --cipher=gcm");
+        }
+        if (options.dedup && options.delta) {
+            throw new IllegalArgumentException("Only one of --dedup and --delta can be used");
+        }
+        return options;
+    }
+
+    // Value of a --name=value option
+    private static String valueOf(String arg) {
+        return arg.substring(arg.indexOf('=') + 1);
+    }
+
+    // Applies the options that configure the client itself
+    public void applyTo(Client client) {
+        client.setStreaming(stream);
+        client.setCrc32c(crc32c);
+        client.setResumable(resume);
+        client.setUseTickets(tickets);
+        client.setDedup(dedup);
+        client.setDelta(delta);
+        client.setReadStrategy(readStrategy);
+        client.setTransportType(transport);
+        client.setCipherMode(cipher);
+        client.setCompressor(compressor);
+    }
+}
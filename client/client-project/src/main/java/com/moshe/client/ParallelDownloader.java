@@ -0,0 +1,91 @@
+package com.moshe.client;
+
+import com.moshe.client.Payloads.RespondFileContentPayload;
+import com.moshe.client.utils.Logger;
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+
+// Downloads a file as ranges over several connections of the same client in parallel. Each
+// range is decrypted and written in place at its offset as it arrives, through one shared
+// FileChannel, so the file is never held in memory.
+public class ParallelDownloader implements AutoCloseable {
+
+    private final Client primary;
+    private final long rangeSize;
+    private final ExecutorService executor;
+    private final SessionPool sessions;
+
+    public ParallelDownloader(Client primary, int streams) {
+        this(primary, streams, Constants.PARALLEL_RANGE_SIZE);
+    }
+
+    public ParallelDownloader(Client primary, int streams, long rangeSize) {
+        this.primary = primary;
+        this.rangeSize = rangeSize;
+        this.executor = Executors.newFixedThreadPool(streams);
+        this.sessions = new SessionPool(primary, streams);
+    }
+
+    // Downloads the file stored under `fileName` to `target`. Returns false, leaving an existing
+    // target as it was, if the server has no such file or any range of it failed.
+    public boolean download(String fileName, File target) throws Exception {
+        return FileReceiver.downloadTo(target, channel -> downloadRanges(fileName, channel));
+    }
+
+    private boolean downloadRanges(String fileName, FileChannel channel) throws Exception {
+        // The first range comes with the file's size, the rest is split among all connections
+        RespondFileContentPayload first = primary.downloadRange(fileName, 0, rangeSize, channel);
+        if (first == null) {
+            Logger.log("PARALLEL", "Fail. The server has no file named " + fileName + ".");
+            return false;
+        }
+        long fileSize = first.getFileSize();
+
+        Queue<long[]> ranges = new ConcurrentLinkedQueue<>();
+        for (long offset = first.getLength(); offset < fileSize; offset += rangeSize) {
+            ranges.add(new long[]{offset, Math.min(rangeSize, fileSize - offset)});
+        }
+        if (ranges.isEmpty()) return true;
+
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (Client session : sessions.open()) {
+            results.add(executor.submit(() -> downloadRanges(session, fileName, fileSize, ranges, channel)));
+        }
+
+        boolean success = true;
+        try {
+            for (Future<Boolean> result : results) {
+                success &= result.get();
+            }
+        } catch (ExecutionException e) {
+            Logger.log("PARALLEL", "Fail: " + e.getCause().getMessage());
+            sessions.abort(ranges, results);
+            return false;
+        }
+        return success;
+    }
+
+    private boolean downloadRanges(Client session, String fileName, long fileSize, Queue<long[]> ranges,
+                                   FileChannel channel) throws Exception {
+        long[] range;
+        while ((range = ranges.poll()) != null) {
+            RespondFileContentPayload content = session.downloadRange(fileName, range[0], range[1], channel);
+            // The file was removed or replaced since the first range
+            if (content == null || content.getFileSize() != fileSize || content.getLength() != range[1]) {
+                Logger.log("PARALLEL", "Fail. " + fileName + " changed on the server during the download.");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        sessions.close();
+    }
+}
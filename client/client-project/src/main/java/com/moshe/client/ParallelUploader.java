@@ -0,0 +1,107 @@
+package com.moshe.client;
+
+import com.moshe.client.Payloads.RespondRangeAcceptPayload;
+import com.moshe.client.utils.CRCUtils;
+import com.moshe.client.utils.Logger;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.zip.Checksum;
+
+// Uploads a file as ranges over several connections of the same client in parallel.
+// The server writes each range in place at its offset and returns its checksum;
+// once every range matched, the file is committed on the primary connection.
+public class ParallelUploader implements AutoCloseable {
+
+    private final Client primary;
+    private final long rangeSize;
+    private final ExecutorService executor;
+    private final SessionPool sessions;
+
+    public ParallelUploader(Client primary, int streams) {
+        this(primary, streams, Constants.PARALLEL_RANGE_SIZE);
+    }
+
+    public ParallelUploader(Client primary, int streams, long rangeSize) {
+        this.primary = primary;
+        this.rangeSize = rangeSize;
+        this.executor = Executors.newFixedThreadPool(streams);
+        this.sessions = new SessionPool(primary, streams);
+    }
+
+    // Sends the primary client's current file, returns true once the server committed it
+    public boolean upload() throws Exception {
+        String fileName = primary.getTransferFileName();
+        long fileSize = new File(fileName).length();
+
+        List<Client> open = sessions.open();
+        for (Client session : open) {
+            session.setTransferFileName(fileName);
+        }
+
+        // Workers pull ranges from a shared queue, so faster connections take more of them.
+        // An empty file is still sent as one empty range so the server creates it.
+        Queue<long[]> ranges = new ConcurrentLinkedQueue<>();
+        long offset = 0;
+        do {
+            long length = Math.min(rangeSize, fileSize - offset);
+            ranges.add(new long[]{offset, length});
+            offset += length;
+        } while (offset < fileSize);
+
+        // Results are taken as the workers finish, so one that gave up stops the others right away
+        CompletionService<Boolean> completion = new ExecutorCompletionService<>(executor);
+        List<Future<Boolean>> results = new ArrayList<>();
+        for (Client session : open) {
+            results.add(completion.submit(() -> sendRanges(session, fileSize, ranges)));
+        }
+
+        try {
+            for (int i = 0; i < results.size(); i++) {
+                if (!completion.take().get()) {
+                    Logger.log("PARALLEL", "Fail. A range was rejected " + Constants.MAX_RETRY_COUNT + " times.");
+                    sessions.abort(ranges, results);
+                    return false;
+                }
+            }
+        } catch (ExecutionException e) {
+            Logger.log("PARALLEL", "Fail: " + e.getCause().getMessage());
+            sessions.abort(ranges, results);
+            return false;
+        }
+        return primary.commitFile(fileSize);
+    }
+
+    private boolean sendRanges(Client session, long fileSize, Queue<long[]> ranges) throws Exception {
+        long[] range;
+        while ((range = ranges.poll()) != null) {
+            if (!sendRange(session, fileSize, range[0], range[1])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Sends one range, resending it until the server's checksum matches, up to MAX_RETRY_COUNT times
+    private boolean sendRange(Client session, long fileSize, long offset, long length) throws Exception {
+        for (int attempt = 1; attempt <= Constants.MAX_RETRY_COUNT; attempt++) {
+            Checksum checksum = CRCUtils.newChecksum(false);
+            session.sendFileRange(fileSize, offset, length, checksum);
+
+            RespondRangeAcceptPayload accept = session.receiveRangeAccept();
+            if (accept.getOffset() == offset && accept.getChecksum() == checksum.getValue()) {
+                return true;
+            }
+            Logger.log("PARALLEL", "CRC mismatch in range at " + offset + ", attempt #" + attempt);
+        }
+        return false;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+        sessions.close();
+    }
+}
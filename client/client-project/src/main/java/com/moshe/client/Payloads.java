@@ -1,5 +1,7 @@
 package com.moshe.client;
 
+import com.moshe.client.utils.DeltaUtils;
+
 public class Payloads {
 
     public static class RespondClientIDPayload {
@@ -17,10 +19,28 @@ public class Payloads {
     public static class RespondShareKeyPayload {
         private final String clientId;
         private final String encodedAesKey;
+        // Session ticket issued with the key, null if none
+        private final String ticketId;
+        private final int ticketLifetime;
 
         public RespondShareKeyPayload(String clientId, String encodedAesKey) {
+            this(clientId, encodedAesKey, null, 0);
+        }
+
+        public RespondShareKeyPayload(String clientId, String encodedAesKey, String ticketId, int ticketLifetime) {
             this.clientId = clientId;
             this.encodedAesKey = encodedAesKey;
+            this.ticketId = ticketId;
+            this.ticketLifetime = ticketLifetime;
+        }
+
+        public String getTicketId() {
+            return ticketId;
+        }
+
+        // Seconds the ticket is accepted for
+        public int getTicketLifetime() {
+            return ticketLifetime;
         }
 
         public String getClientId() {
@@ -32,17 +52,122 @@ public class Payloads {
         }
     }
 
+    public static class RespondRangeAcceptPayload {
+        private final String clientId;
+        private final long offset;
+        private final long rangeSize;
+        private final long checksum;
+        private final int flags;
+
+        public RespondRangeAcceptPayload(String clientId, long offset, long rangeSize, long checksum, int flags) {
+            this.clientId = clientId;
+            this.offset = offset;
+            this.rangeSize = rangeSize;
+            this.checksum = checksum;
+            this.flags = flags;
+        }
+
+        public String getClientId() {
+            return clientId;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getRangeSize() {
+            return rangeSize;
+        }
+
+        public long getChecksum() {
+            return checksum;
+        }
+
+        public int getFlags() {
+            return flags;
+        }
+    }
+
+    public static class RespondFileContentPayload {
+        private final long fileSize;
+        private final long offset;
+        private final long length;
+        private final long contentSize;
+        private final int flags;
+
+        public RespondFileContentPayload(long fileSize, long offset, long length, long contentSize, int flags) {
+            this.fileSize = fileSize;
+            this.offset = offset;
+            this.length = length;
+            this.contentSize = contentSize;
+            this.flags = flags;
+        }
+
+        public long getFileSize() {
+            return fileSize;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public long getContentSize() {
+            return contentSize;
+        }
+
+        public int getFlags() {
+            return flags;
+        }
+    }
+
+    public static class RespondResumeOffsetPayload {
+        private final String clientId;
+        private final String fileId;
+        private final long offset;
+        private final int flags;
+
+        public RespondResumeOffsetPayload(String clientId, String fileId, long offset, int flags) {
+            this.clientId = clientId;
+            this.fileId = fileId;
+            this.offset = offset;
+            this.flags = flags;
+        }
+
+        public String getClientId() {
+            return clientId;
+        }
+
+        public String getFileId() {
+            return fileId;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getFlags() {
+            return flags;
+        }
+    }
+
     public static class RespondFileAcceptPayload {
         private final String clientId;
         private final int contentSize;
         private final String transferFileName;
         private final String checkSumHex;
+        private final int flags;
 
-        public RespondFileAcceptPayload(String clientId, int contentSize, String transferFileName, String checkSumHex) {
+        public RespondFileAcceptPayload(String clientId, int contentSize, String transferFileName, String checkSumHex,
+                                        int flags) {
             this.clientId = clientId;
             this.contentSize = contentSize;
             this.transferFileName = transferFileName;
             this.checkSumHex = checkSumHex;
+            this.flags = flags;
         }
 
         public String getClientId() {
@@ -60,6 +185,47 @@ public class Payloads {
         public String getCheckSumHex() {
             return checkSumHex;
         }
+
+        public int getFlags() {
+            return flags;
+        }
     }
-}
 
+    public static class RespondMissingChunksPayload {
+        private final String manifestId;
+        private final int[] indexes;
+
+        public RespondMissingChunksPayload(String manifestId, int[] indexes) {
+            this.manifestId = manifestId;
+            this.indexes = indexes;
+        }
+
+        public String getManifestId() {
+            return manifestId;
+        }
+
+        // Positions in the manifest of the chunks the server lacks
+        public int[] getIndexes() {
+            return indexes;
+        }
+    }
+
+    public static class RespondDeltaSignaturesPayload {
+        private final String deltaId;
+        private final DeltaUtils.Signature signature;
+
+        public RespondDeltaSignaturesPayload(String deltaId, DeltaUtils.Signature signature) {
+            this.deltaId = deltaId;
+            this.signature = signature;
+        }
+
+        public String getDeltaId() {
+            return deltaId;
+        }
+
+        // Blocks of the server's copy of the file, none if it has no copy
+        public DeltaUtils.Signature getSignature() {
+            return signature;
+        }
+    }
+}
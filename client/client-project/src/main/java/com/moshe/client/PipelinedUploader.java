@@ -0,0 +1,179 @@
+package com.moshe.client;
+
+import com.moshe.client.Payloads.RespondFileAcceptPayload;
+import com.moshe.client.utils.Logger;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+// Sends a batch of files over one session without stopping for each file's round trips.
+// The next file goes out while the RESPOND_FILE_ACCEPTED of the previous ones is still in flight,
+// and a reader thread answers the CRC checks as the responses arrive. The server handles requests
+// of a connection in order, so responses are matched to files in the order they were sent.
+// GCM files have no CRC check, the server confirms or rejects them right away.
+public class PipelinedUploader {
+
+    private static final long POLL_MS = 50;
+
+    private final Client client;
+    private final Semaphore window;
+
+    // Both threads write requests, one request at a time
+    private final Object sendLock = new Object();
+
+    private final BlockingQueue<Transfer> toSend = new LinkedBlockingQueue<>();
+    // Sent files waiting for RESPOND_FILE_ACCEPTED, then for RESPOND_MESSAGE_CONFIRMED
+    private final BlockingQueue<Transfer> awaitingAccept = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Transfer> awaitingConfirm = new LinkedBlockingQueue<>();
+
+    private volatile Exception failure;
+
+    private static class Transfer {
+        final String fileName;
+        long start;
+        int attempts;
+        boolean valid;
+        volatile boolean finished;
+
+        Transfer(String fileName) {
+            this.fileName = fileName;
+        }
+    }
+
+    public PipelinedUploader(Client client) {
+        this(client, Constants.PIPELINE_DEPTH);
+    }
+
+    // `depth` is the most files sent but not yet confirmed
+    public PipelinedUploader(Client client, int depth) {
+        this.client = client;
+        this.window = new Semaphore(depth);
+    }
+
+    // Sends all files, recording each one's outcome in `stats`
+    public void upload(List<String> files, TransferStats stats) throws InterruptedException {
+        List<Transfer> transfers = new ArrayList<>();
+        for (String file : files) {
+            transfers.add(new Transfer(file));
+        }
+        toSend.addAll(transfers);
+
+        CountDownLatch done = new CountDownLatch(transfers.size());
+        Thread reader = new Thread(() -> readResponses(done, stats), "pipeline-reader");
+        reader.setDaemon(true);
+        reader.start();
+
+        try {
+            while (done.getCount() > 0 && failure == null) {
+                // Rejected files come back to this queue from the reader
+                Transfer transfer = toSend.poll(POLL_MS, TimeUnit.MILLISECONDS);
+                if (transfer == null) continue;
+                while (!window.tryAcquire(POLL_MS, TimeUnit.MILLISECONDS)) {
+                    if (failure != null) break;
+                }
+                if (failure != null) break;
+
+                if (transfer.attempts++ == 0) transfer.start = System.nanoTime();
+                synchronized (sendLock) {
+                    awaitingAccept.add(transfer);
+                    client.setTransferFileName(transfer.fileName);
+                    client.sendFile();
+                }
+            }
+        } catch (Exception e) {
+            failure = e;
+            // Unblocks the reader
+            client.close();
+        }
+        reader.join();
+
+        if (failure != null) {
+            Logger.log("PIPELINE", "Fail: " + failure.getMessage());
+            for (Transfer transfer : transfers) {
+                if (!transfer.finished) stats.add(transfer.fileName, new File(transfer.fileName).length(), 0, false);
+            }
+        }
+    }
+
+    private void readResponses(CountDownLatch done, TransferStats stats) {
+        try {
+            while (done.getCount() > 0) {
+                Respond respond = client.receiveRespond();
+                if (respond.header.code == Constants.RESPOND_FILE_ACCEPTED) {
+                    onAccepted(client.parseFileAcceptPayload(respond.payload));
+                } else if (respond.header.code == Constants.RESPOND_MESSAGE_CONFIRMED) {
+                    Transfer transfer = client.usesGcm() ? onAuthenticated(true) : awaitingConfirm.poll();
+                    if (transfer == null) throw new IOException("Confirmation without a pending file");
+                    finish(transfer, stats);
+                    done.countDown();
+                } else if (respond.header.code == Constants.RESPOND_FILE_REJECTED) {
+                    Transfer transfer = onAuthenticated(false);
+                    if (transfer != null) {
+                        finish(transfer, stats);
+                        done.countDown();
+                    }
+                } else {
+                    throw new IOException("Unexpected server response " + respond.header.code);
+                }
+            }
+        } catch (Exception e) {
+            if (failure == null) failure = e;
+            client.close();
+        }
+    }
+
+    // Checks the server's CRC of the oldest file sent and answers it
+    private void onAccepted(RespondFileAcceptPayload accept) throws IOException {
+        Transfer transfer = awaitingAccept.poll();
+        if (transfer == null || !new File(transfer.fileName).getName().equals(accept.getTransferFileName())) {
+            throw new IOException("Response for unexpected file " + accept.getTransferFileName());
+        }
+
+        int code;
+        transfer.valid = client.isChecksumMatch(transfer.fileName, accept);
+        if (transfer.valid) {
+            code = Constants.REQUEST_VALID_CRC;
+        } else if (transfer.attempts < Constants.MAX_RETRY_COUNT) {
+            Logger.log("PIPELINE", "CRC mismatch for " + transfer.fileName + ", resending.");
+            code = Constants.REQUEST_INVALID_CRC;
+        } else {
+            code = Constants.REQUEST_LAST_INVALID_CRC;
+        }
+
+        // Only the valid and the last invalid CRC are confirmed by the server
+        if (code != Constants.REQUEST_INVALID_CRC) awaitingConfirm.add(transfer);
+        synchronized (sendLock) {
+            client.sendCrcResult(transfer.fileName, code);
+        }
+        if (code == Constants.REQUEST_INVALID_CRC) {
+            window.release();
+            toSend.add(transfer);
+        }
+    }
+
+    // Settles the oldest GCM file sent. A rejected one is sent again unless out of attempts,
+    // then null is returned; otherwise the file is finished.
+    private Transfer onAuthenticated(boolean valid) throws IOException {
+        Transfer transfer = awaitingAccept.poll();
+        if (transfer == null) throw new IOException("Response without a pending file");
+
+        transfer.valid = valid;
+        if (!valid && transfer.attempts < Constants.MAX_RETRY_COUNT) {
+            Logger.log("PIPELINE", "Authentication failed for " + transfer.fileName + ", resending.");
+            window.release();
+            toSend.add(transfer);
+            return null;
+        }
+        return transfer;
+    }
+
+    private void finish(Transfer transfer, TransferStats stats) {
+        transfer.finished = true;
+        window.release();
+        stats.add(transfer.fileName, new File(transfer.fileName).length(), System.nanoTime() - transfer.start,
+                transfer.valid);
+        Logger.log("PIPELINE", () -> transfer.fileName + (transfer.valid ? ": transfer completed." : ": failed."));
+    }
+}
@@ -0,0 +1,16 @@
+package com.moshe.client;
+
+// How FileStreamer reads the source file
+public enum ReadStrategy {
+    // FileChannel reads into a heap array, works everywhere
+    HEAP,
+    // FileChannel reads into a reusable direct buffer, skipping the JDK's temporary copy
+    DIRECT,
+    // Memory-mapped windows of the file, read straight from the page cache.
+    // Falls back to HEAP when the file can't be mapped.
+    MAPPED;
+
+    public static ReadStrategy fromName(String name) {
+        return valueOf(name.toUpperCase());
+    }
+}
@@ -15,26 +15,32 @@ public class RespondHeader {
     }
 
     public byte[] toBytes() {
-        ByteBuffer buffer = ByteBuffer.allocate(7);
-        buffer.put(version);
-        buffer.putShort((short) code);
-        buffer.putInt(payloadSize);
+        ByteBuffer buffer = ByteBuffer.allocate(HeaderCodec.RESPOND_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        writeTo(buffer);
         return buffer.array();
     }
 
-    public static RespondHeader fromBytes(byte[] data) {
-        if (data.length < 7) {
-            throw new IllegalArgumentException("Invalid RespondHeader byte array length");
-        }
+    // Writes the header at the buffer's position, advancing it
+    public void writeTo(ByteBuffer buffer) {
+        HeaderCodec.putRespondHeader(buffer, version & 0xFF, code, payloadSize);
+    }
 
-        ByteBuffer buffer = ByteBuffer.wrap(data);
-        buffer.order(ByteOrder.LITTLE_ENDIAN);
+    // Parses a header from the buffer's position, advancing it. Used with a reusable buffer.
+    public static RespondHeader fromBytes(ByteBuffer buffer) {
+        if (buffer.remaining() < HeaderCodec.RESPOND_HEADER_SIZE) {
+            throw new IllegalArgumentException("Invalid RespondHeader buffer length");
+        }
 
         RespondHeader header = new RespondHeader();
-        header.version = buffer.get();
-        header.code = Short.toUnsignedInt(buffer.getShort());
-        header.payloadSize = buffer.getInt();
+        header.version = (byte) HeaderCodec.respondVersion(buffer);
+        header.code = HeaderCodec.respondCode(buffer);
+        header.payloadSize = HeaderCodec.respondPayloadSize(buffer);
 
+        buffer.position(buffer.position() + HeaderCodec.RESPOND_HEADER_SIZE);
         return header;
     }
+
+    public static RespondHeader fromBytes(byte[] data) {
+        return fromBytes(ByteBuffer.wrap(data));
+    }
 }
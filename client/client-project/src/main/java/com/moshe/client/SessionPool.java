@@ -0,0 +1,63 @@
+package com.moshe.client;
+
+import com.moshe.client.utils.Logger;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+// The connections a file's ranges are spread over by ParallelUploader and ParallelDownloader: the
+// primary client plus additional sessions of it, opened on first use and kept for the next files.
+class SessionPool {
+
+    private final Client primary;
+    private final int streams;
+    private final List<Client> sessions = new ArrayList<>();
+
+    SessionPool(Client primary, int streams) {
+        this.primary = primary;
+        this.streams = streams;
+    }
+
+    // The primary session first, then the additional ones
+    List<Client> open() throws Exception {
+        if (sessions.isEmpty()) {
+            sessions.add(primary);
+            for (int i = 1; i < streams; i++) {
+                sessions.add(primary.openSession());
+            }
+            Logger.log("PARALLEL", "Opened " + streams + " connections.");
+        }
+        return sessions;
+    }
+
+    // Stops the other workers once one of them failed or gave up: no more ranges are handed out and
+    // every connection is closed under them, which ends a blocking read or write. Once all of them
+    // have finished, the sessions are in an unknown protocol state: the additional ones are opened
+    // again for the next file and the primary one reconnects.
+    void abort(Queue<long[]> ranges, List<Future<Boolean>> results) throws Exception {
+        ranges.clear();
+        primary.close();
+        close();
+        for (Future<Boolean> result : results) {
+            try {
+                result.get();
+            } catch (ExecutionException e) {
+                // Expected, its connection was closed
+            }
+        }
+        if (!primary.reconnect()) {
+            throw new IOException("Could not reconnect after a failed range");
+        }
+    }
+
+    // Closes the additional sessions, the primary one belongs to the caller
+    void close() {
+        for (Client session : sessions) {
+            if (session != primary) session.close();
+        }
+        sessions.clear();
+    }
+}
@@ -0,0 +1,77 @@
+package com.moshe.client;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+
+// A ticket the server issued with a session key. Until it expires, a new connection presents it
+// to continue with the same AES key instead of logging in with RSA again.
+// Saved in ticket.info next to me.info: [ticket][expiry, epoch ms][Base64 AES key], one per line.
+// The key is the session's own, so on POSIX file systems only the owner may read or write the file.
+public class SessionTicket {
+    private final String id;
+    private final long expiresAt;
+    private final String encodedAesKey;
+
+    public SessionTicket(String id, long expiresAt, String encodedAesKey) {
+        this.id = id;
+        this.expiresAt = expiresAt;
+        this.encodedAesKey = encodedAesKey;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getEncodedAesKey() {
+        return encodedAesKey;
+    }
+
+    // Whether the server still accepts the ticket, as far as the local clock can tell
+    public boolean isValid() {
+        return System.currentTimeMillis() < expiresAt;
+    }
+
+    // Reads the saved ticket, null if there's none or it's unreadable
+    public static SessionTicket load(String path) {
+        try (BufferedReader br = new BufferedReader(new FileReader(path))) {
+            String id = br.readLine();
+            String expiresAt = br.readLine();
+            String encodedAesKey = br.readLine();
+            if (id == null || expiresAt == null || encodedAesKey == null) return null;
+            return new SessionTicket(id, Long.parseLong(expiresAt), encodedAesKey);
+        } catch (IOException | NumberFormatException e) {
+            return null;
+        }
+    }
+
+    // Replaces the saved ticket. Written to a temporary file first, so sessions saving at the same
+    // time never leave a mix of two tickets behind.
+    public void save(String path) throws IOException {
+        Path target = Paths.get(path).toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), "ticket", ".tmp", ownerOnly(target));
+        try (BufferedWriter bw = Files.newBufferedWriter(temp)) {
+            bw.write(id);
+            bw.newLine();
+            bw.write(Long.toString(expiresAt));
+            bw.newLine();
+            bw.write(encodedAesKey);
+            bw.newLine();
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static FileAttribute<?>[] ownerOnly(Path path) {
+        if (!path.getFileSystem().supportedFileAttributeViews().contains("posix")) return new FileAttribute<?>[0];
+        return new FileAttribute<?>[]{PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------"))};
+    }
+
+    // Removes the saved ticket once the server rejected it
+    public static void delete(String path) {
+        new File(path).delete();
+    }
+}
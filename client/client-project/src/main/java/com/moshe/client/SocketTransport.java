@@ -0,0 +1,69 @@
+package com.moshe.client;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+// Transport over a blocking socket
+public class SocketTransport implements Transport {
+
+    private final Socket socket;
+    private final InputStream input;
+    private final OutputStream output;
+
+    private SocketTransport(Socket socket) throws IOException {
+        this.socket = socket;
+        this.input = socket.getInputStream();
+        this.output = new BufferedOutputStream(socket.getOutputStream(), Constants.STREAM_CHUNK_SIZE);
+    }
+
+    public static SocketTransport connect(String host, int port) throws IOException {
+        Socket socket = new Socket(host, port);
+        // Requests are flushed whole, Nagle's algorithm would only hold back the small ones
+        socket.setTcpNoDelay(true);
+        return new SocketTransport(socket);
+    }
+
+    @Override
+    public void write(ByteBuffer... buffers) throws IOException {
+        for (ByteBuffer buffer : buffers) {
+            if (buffer.hasArray()) {
+                output.write(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+                buffer.position(buffer.limit());
+            } else {
+                byte[] bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                output.write(bytes);
+            }
+        }
+    }
+
+    @Override
+    public OutputStream outputStream() {
+        return output;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        output.flush();
+    }
+
+    @Override
+    public void readFully(ByteBuffer dst) throws IOException {
+        byte[] bytes = dst.hasArray() ? dst.array() : new byte[dst.remaining()];
+        int offset = dst.hasArray() ? dst.arrayOffset() + dst.position() : 0;
+        int length = dst.remaining();
+        for (int read = 0; read < length; ) {
+            int n = input.read(bytes, offset + read, length - read);
+            if (n == -1) throw new EOFException("Stream closed before reading fully");
+            read += n;
+        }
+        if (dst.hasArray()) dst.position(dst.limit());
+        else dst.put(bytes);
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
@@ -0,0 +1,68 @@
+package com.moshe.client;
+
+import com.moshe.client.metrics.MetricsRegistry;
+import com.moshe.client.metrics.MetricsRegistry.Counter;
+import com.moshe.client.metrics.MetricsRegistry.DistributionSummary;
+import com.moshe.client.metrics.MetricsRegistry.Timer;
+import java.util.concurrent.TimeUnit;
+
+// The meters of a client's phases, looked up once from the registry and shared by all sessions
+// of the client. With MetricsRegistry.NONE nothing is timed and the transport isn't wrapped.
+public final class TransferMetrics {
+
+    public static final TransferMetrics NONE = new TransferMetrics(MetricsRegistry.NONE);
+
+    private static final double[] RETRY_BUCKETS = {0, 1, 2, 3, 5, 10};
+
+    final boolean enabled;
+    final Timer connect;
+    final Timer register;
+    final Timer login;
+    final Timer rsa;
+    final Timer encrypt;
+    final Timer decrypt;
+    final Timer send;
+    final Timer crc;
+    final Timer confirm;
+    final Counter bytesSent;
+    final Counter bytesReceived;
+    final Counter filesUploaded;
+    final Counter filesFailed;
+    final Counter retries;
+    final DistributionSummary retriesPerFile;
+
+    public TransferMetrics(MetricsRegistry registry) {
+        enabled = registry != MetricsRegistry.NONE;
+        connect = registry.timer("sft.client.connect", "Time to open a connection to the server");
+        register = registry.timer("sft.client.register", "Time to register, including generating the RSA key pair");
+        login = registry.timer("sft.client.login", "Time to log in with RSA or a session ticket");
+        rsa = registry.timer("sft.client.rsa", "Time spent generating RSA key pairs and decrypting AES keys");
+        encrypt = registry.timer("sft.client.encrypt", "Time to encrypt one chunk or GCM record of a file");
+        decrypt = registry.timer("sft.client.decrypt", "Time to authenticate and decrypt one downloaded GCM record");
+        send = registry.timer("sft.client.send", "Time blocked writing to the connection, per write or flush");
+        crc = registry.timer("sft.client.crc", "Time to checksum one chunk of a file");
+        confirm = registry.timer("sft.client.confirm", "Time waiting for the server to verify a chunk or file");
+        bytesSent = registry.counter("sft.client.bytes.sent", "Bytes written to the server");
+        bytesReceived = registry.counter("sft.client.bytes.received", "Bytes read from the server");
+        filesUploaded = registry.counter("sft.client.files.uploaded", "Files uploaded");
+        filesFailed = registry.counter("sft.client.files.failed", "Files that could not be uploaded");
+        retries = registry.counter("sft.client.retries", "Chunks and files sent again, and reconnects");
+        retriesPerFile = registry.summary("sft.client.file.retries", "Retries per uploaded file", RETRY_BUCKETS);
+    }
+
+    // Start time for record(), 0 when disabled, saving the clock reads
+    long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    void record(Timer timer, long start) {
+        if (enabled) timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    // Outcome of one upload, with the retries it took
+    void fileDone(boolean success, int fileRetries) {
+        (success ? filesUploaded : filesFailed).increment(1);
+        retries.increment(fileRetries);
+        retriesPerFile.record(fileRetries);
+    }
+}
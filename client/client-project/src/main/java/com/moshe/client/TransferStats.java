@@ -0,0 +1,47 @@
+package com.moshe.client;
+
+import com.moshe.client.utils.Logger;
+import java.util.ArrayList;
+import java.util.List;
+
+// Per-file and total throughput of the files sent in one run
+public class TransferStats {
+
+    private static class Entry {
+        final String fileName;
+        final long bytes;
+        final long nanos;
+        final boolean success;
+
+        Entry(String fileName, long bytes, long nanos, boolean success) {
+            this.fileName = fileName;
+            this.bytes = bytes;
+            this.nanos = nanos;
+            this.success = success;
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    public synchronized void add(String fileName, long bytes, long nanos, boolean success) {
+        entries.add(new Entry(fileName, bytes, nanos, success));
+    }
+
+    public synchronized void print(long totalNanos) {
+        long totalBytes = 0;
+        int failed = 0;
+        for (Entry entry : entries) {
+            Logger.log("SUMMARY", String.format("%s: %s, %d bytes in %.3f s (%.2f MB/s)",
+                    entry.fileName, entry.success ? "OK" : "FAILED", entry.bytes,
+                    entry.nanos / 1e9, megabytesPerSecond(entry.bytes, entry.nanos)));
+            if (entry.success) totalBytes += entry.bytes;
+            else failed++;
+        }
+        Logger.log("SUMMARY", String.format("Total: %d files (%d failed), %d bytes in %.3f s (%.2f MB/s)",
+                entries.size(), failed, totalBytes, totalNanos / 1e9, megabytesPerSecond(totalBytes, totalNanos)));
+    }
+
+    private static double megabytesPerSecond(long bytes, long nanos) {
+        return nanos == 0 ? 0 : bytes / (1024.0 * 1024.0) / (nanos / 1e9);
+    }
+}
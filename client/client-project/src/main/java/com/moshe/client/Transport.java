@@ -0,0 +1,27 @@
+package com.moshe.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+// Connection to the server that requests and responses go over.
+// One thread may write while another one reads, as the pipelined mode does.
+public interface Transport extends Closeable {
+
+    // Writes the remaining bytes of the buffers in order, e.g. a request header and its payload.
+    // Small writes are buffered until flush(), large ones go out in one gathering write.
+    void write(ByteBuffer... buffers) throws IOException;
+
+    // Buffered stream for data following a request, such as a streamed file body
+    OutputStream outputStream();
+
+    void flush() throws IOException;
+
+    // Reads until `dst` is full
+    void readFully(ByteBuffer dst) throws IOException;
+
+    static Transport connect(TransportType type, String host, int port) throws IOException {
+        return type == TransportType.NIO ? NioTransport.connect(host, port) : SocketTransport.connect(host, port);
+    }
+}
@@ -0,0 +1,13 @@
+package com.moshe.client;
+
+// How the client connects to the server
+public enum TransportType {
+    // Blocking java.net.Socket with buffered streams
+    SOCKET,
+    // Non-blocking SocketChannel driven by a Selector, with reusable direct buffers
+    NIO;
+
+    public static TransportType fromName(String name) {
+        return valueOf(name.toUpperCase());
+    }
+}
@@ -0,0 +1,25 @@
+package com.moshe.client.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// Emitted by FileStreamer for every chunk it encrypts, and by Client for a file encrypted whole
+@Name("com.moshe.client.ChunkEncrypt")
+@Label("Chunk Encrypt")
+@Category({"Secure File Transfer", "Client"})
+@Description("Encrypting one chunk or GCM record of a file")
+public class ChunkEncryptEvent extends Event {
+    @Label("File Name")
+    public String fileName;
+
+    @Label("Size")
+    @DataAmount(DataAmount.BYTES)
+    public long size;
+
+    @Label("Cipher")
+    public String cipher;
+}
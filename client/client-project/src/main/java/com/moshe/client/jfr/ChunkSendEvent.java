@@ -0,0 +1,26 @@
+package com.moshe.client.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// Emitted for every write to the transport: a request with its payload, or encrypted content.
+// The time is how long the write blocked, not including the encryption.
+@Name("com.moshe.client.ChunkSend")
+@Label("Chunk Send")
+@Category({"Secure File Transfer", "Client"})
+@Description("Writing a request or a chunk of file content to the connection")
+public class ChunkSendEvent extends Event {
+    @Label("File Name")
+    public String fileName;
+
+    @Label("Size")
+    @DataAmount(DataAmount.BYTES)
+    public long size;
+
+    @Label("Request Code")
+    public int requestCode;
+}
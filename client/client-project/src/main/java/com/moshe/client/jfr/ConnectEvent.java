@@ -0,0 +1,26 @@
+package com.moshe.client.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// Emitted by Client.connectToServer, also for the additional sessions of parallel transfers
+@Name("com.moshe.client.Connect")
+@Label("Connect")
+@Category({"Secure File Transfer", "Client"})
+@Description("Opening a connection to the server")
+public class ConnectEvent extends Event {
+    @Label("Host")
+    public String host;
+
+    @Label("Port")
+    public int port;
+
+    @Label("Transport")
+    public String transport;
+
+    @Label("Success")
+    public boolean success;
+}
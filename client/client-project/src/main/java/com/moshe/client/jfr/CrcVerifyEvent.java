@@ -0,0 +1,25 @@
+package com.moshe.client.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// Emitted for every chunk checksummed while it's sent, and for a file checksummed whole
+@Name("com.moshe.client.CrcVerify")
+@Label("CRC Verify")
+@Category({"Secure File Transfer", "Client"})
+@Description("Computing the checksum of a chunk or file the server verifies")
+public class CrcVerifyEvent extends Event {
+    @Label("File Name")
+    public String fileName;
+
+    @Label("Size")
+    @DataAmount(DataAmount.BYTES)
+    public long size;
+
+    @Label("CRC32C")
+    public boolean crc32c;
+}
@@ -0,0 +1,24 @@
+package com.moshe.client.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// Emitted by Client for REQUEST_REGISTER, REQUEST_SENDING_PUBKEY, REQUEST_LOGIN and
+// REQUEST_RESUME_SESSION, from the request to the session key being set
+@Name("com.moshe.client.Handshake")
+@Label("Handshake")
+@Category({"Secure File Transfer", "Client"})
+@Description("Registering, sharing the public key or logging in, including the RSA work")
+public class HandshakeEvent extends Event {
+    @Label("Client Name")
+    public String clientName;
+
+    @Label("Request Code")
+    public int requestCode;
+
+    @Label("Success")
+    public boolean success;
+}
@@ -0,0 +1,98 @@
+package com.moshe.client.jfr;
+
+import com.moshe.client.utils.Logger;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import jdk.jfr.Event;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+// Records the client's events, along with the JDK's file reads and writes for the disk's share,
+// into a .jfr file for --profile. Once stopped, prints where the time of the run went per phase.
+// The file opens in JDK Mission Control for the events themselves.
+public class ProfileRecording {
+
+    private static final List<Class<? extends Event>> EVENTS = Arrays.asList(ConnectEvent.class,
+            HandshakeEvent.class, ChunkEncryptEvent.class, ChunkSendEvent.class, CrcVerifyEvent.class,
+            ServerWaitEvent.class);
+    private static final List<String> JDK_EVENTS = Arrays.asList("jdk.FileRead", "jdk.FileWrite");
+
+    private static class Phase {
+        final String name;
+        long count;
+        long nanos;
+        long bytes;
+
+        Phase(String name) {
+            this.name = name;
+        }
+    }
+
+    private final Path destination;
+    private final Recording recording = new Recording();
+    private long startNanos;
+
+    public ProfileRecording(Path destination) {
+        this.destination = destination;
+        recording.setName("Secure File Transfer client");
+        // Every chunk is recorded, stack traces would cost more than the chunks themselves
+        for (Class<? extends Event> type : EVENTS) {
+            recording.enable(type).withoutStackTrace();
+        }
+        for (String name : JDK_EVENTS) {
+            recording.enable(name).withThreshold(Duration.ZERO).withoutStackTrace();
+        }
+    }
+
+    public void start() throws IOException {
+        recording.setDestination(destination);
+        recording.start();
+        startNanos = System.nanoTime();
+    }
+
+    // Stops recording, which writes the file, and prints the time of every phase
+    public void stop() throws IOException {
+        long runNanos = System.nanoTime() - startNanos;
+        recording.stop();
+        recording.close();
+        printBreakdown(RecordingFile.readAllEvents(destination), runNanos);
+    }
+
+    private void printBreakdown(List<RecordedEvent> events, long runNanos) {
+        Map<String, Phase> phases = new LinkedHashMap<>();
+        for (RecordedEvent event : events) {
+            String name = event.getEventType().getLabel();
+            Phase phase = phases.computeIfAbsent(name, Phase::new);
+            phase.count++;
+            phase.nanos += event.getDuration().toNanos();
+            phase.bytes += bytes(event);
+        }
+        List<Phase> sorted = new ArrayList<>(phases.values());
+        sorted.sort((a, b) -> Long.compare(b.nanos, a.nanos));
+
+        Logger.log("PROFILE", String.format("%d events in %.3f s written to %s",
+                events.size(), runNanos / 1e9, destination));
+        Logger.log("PROFILE", String.format("%-14s %9s %11s %8s %11s", "phase", "count", "total ms", "of run", "MB"));
+        for (Phase phase : sorted) {
+            Logger.log("PROFILE", String.format("%-14s %9d %11.1f %7.1f%% %11.2f", phase.name, phase.count,
+                    phase.nanos / 1e6, 100.0 * phase.nanos / runNanos, phase.bytes / 1048576.0));
+        }
+        // Handshakes contain their own sends and waits, and events of parallel sessions overlap
+        Logger.log("PROFILE", "A handshake includes its sends and waits, and phases on several threads at once "
+                + "can add up to more than 100% of the run.");
+    }
+
+    private static long bytes(RecordedEvent event) {
+        for (String field : new String[]{"size", "bytesRead", "bytesWritten"}) {
+            if (event.hasField(field)) return Math.max(0, event.getLong(field));
+        }
+        return 0;
+    }
+}
@@ -0,0 +1,23 @@
+package com.moshe.client.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// Emitted by Client for every response, from waiting for its header until the header arrived
+@Name("com.moshe.client.ServerWait")
+@Label("Server Wait")
+@Category({"Secure File Transfer", "Client"})
+@Description("Waiting for the response to a request")
+public class ServerWaitEvent extends Event {
+    @Label("File Name")
+    public String fileName;
+
+    @Label("Request Code")
+    public int requestCode;
+
+    @Label("Response Code")
+    public int responseCode;
+}
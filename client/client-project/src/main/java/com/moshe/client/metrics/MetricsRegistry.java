@@ -0,0 +1,51 @@
+package com.moshe.client.metrics;
+
+import java.util.concurrent.TimeUnit;
+
+// Where the client's meters come from. The meters and their methods follow Micrometer's, so
+// MicrometerMetricsRegistry hands them to any Micrometer registry, and SimpleMetricsRegistry keeps
+// them in memory for a Prometheus text dump. Asking twice for the same name returns the same meter.
+// Names are dot-separated and in base units (seconds, bytes), as Micrometer expects.
+public interface MetricsRegistry {
+
+    interface Counter {
+        void increment(double amount);
+    }
+
+    interface Timer {
+        void record(long amount, TimeUnit unit);
+    }
+
+    interface DistributionSummary {
+        void record(double amount);
+    }
+
+    Counter counter(String name, String description);
+
+    Timer timer(String name, String description);
+
+    // `buckets` are the upper bounds a histogram of the values is kept for, where supported
+    DistributionSummary summary(String name, String description, double... buckets);
+
+    // Discards everything, the default
+    MetricsRegistry NONE = new MetricsRegistry() {
+        private final Counter counter = amount -> { };
+        private final Timer timer = (amount, unit) -> { };
+        private final DistributionSummary summary = amount -> { };
+
+        @Override
+        public Counter counter(String name, String description) {
+            return counter;
+        }
+
+        @Override
+        public Timer timer(String name, String description) {
+            return timer;
+        }
+
+        @Override
+        public DistributionSummary summary(String name, String description, double... buckets) {
+            return summary;
+        }
+    };
+}
@@ -0,0 +1,38 @@
+package com.moshe.client.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+// Registers the client's meters with a Micrometer registry, to publish them wherever the
+// application already sends its metrics. micrometer-core is an optional dependency of the client,
+// an application using this class brings its own.
+public class MicrometerMetricsRegistry implements MetricsRegistry {
+
+    private final MeterRegistry registry;
+
+    public MicrometerMetricsRegistry(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    @Override
+    public Counter counter(String name, String description) {
+        return io.micrometer.core.instrument.Counter.builder(name)
+                .description(description)
+                .register(registry)::increment;
+    }
+
+    @Override
+    public Timer timer(String name, String description) {
+        return io.micrometer.core.instrument.Timer.builder(name)
+                .description(description)
+                .publishPercentileHistogram()
+                .register(registry)::record;
+    }
+
+    @Override
+    public DistributionSummary summary(String name, String description, double... buckets) {
+        return io.micrometer.core.instrument.DistributionSummary.builder(name)
+                .description(description)
+                .serviceLevelObjectives(buckets)
+                .register(registry)::record;
+    }
+}
@@ -0,0 +1,162 @@
+package com.moshe.client.metrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+// Keeps the meters in memory and writes them in the Prometheus text format, named as Micrometer's
+// Prometheus registry would name them: dots become underscores, timers are histograms in seconds
+// and counters end in _total. Meters are updated without locks, from any number of threads.
+public class SimpleMetricsRegistry implements MetricsRegistry {
+
+    // Upper bounds of the timer buckets, in seconds: from a small request on loopback to a large file
+    static final double[] TIMER_BUCKETS = {0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05,
+            0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+
+    private abstract static class Meter {
+        final String name;
+        final String description;
+
+        Meter(String name, String description) {
+            this.name = name;
+            this.description = description;
+        }
+
+        abstract void write(Appendable out) throws IOException;
+
+        void writeHeader(Appendable out, String type) throws IOException {
+            out.append("# HELP ").append(name).append(' ').append(description).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        }
+    }
+
+    private static class SimpleCounter extends Meter implements Counter {
+        private final DoubleAdder total = new DoubleAdder();
+
+        SimpleCounter(String name, String description) {
+            super(name, description);
+        }
+
+        @Override
+        public void increment(double amount) {
+            total.add(amount);
+        }
+
+        @Override
+        void write(Appendable out) throws IOException {
+            writeHeader(out, "counter");
+            out.append(name).append(' ').append(format(total.sum())).append('\n');
+        }
+    }
+
+    // Counts of the values per bucket, plus their count and sum
+    private static class Histogram extends Meter implements DistributionSummary {
+        private final double[] bounds;
+        // The last bucket has no upper bound (+Inf)
+        private final AtomicLongArray buckets;
+        private final LongAdder count = new LongAdder();
+        private final DoubleAdder sum = new DoubleAdder();
+
+        Histogram(String name, String description, double[] bounds) {
+            super(name, description);
+            this.bounds = bounds.clone();
+            this.buckets = new AtomicLongArray(bounds.length + 1);
+        }
+
+        @Override
+        public void record(double amount) {
+            int bucket = 0;
+            while (bucket < bounds.length && amount > bounds[bucket]) bucket++;
+            buckets.incrementAndGet(bucket);
+            count.increment();
+            sum.add(amount);
+        }
+
+        @Override
+        void write(Appendable out) throws IOException {
+            writeHeader(out, "histogram");
+            // Prometheus buckets are cumulative, each one counts the values up to its bound
+            long cumulative = 0;
+            for (int i = 0; i <= bounds.length; i++) {
+                cumulative += buckets.get(i);
+                String bound = i < bounds.length ? format(bounds[i]) : "+Inf";
+                out.append(name).append("_bucket{le=\"").append(bound).append("\"} ")
+                        .append(Long.toString(cumulative)).append('\n');
+            }
+            out.append(name).append("_sum ").append(format(sum.sum())).append('\n');
+            out.append(name).append("_count ").append(Long.toString(count.sum())).append('\n');
+        }
+    }
+
+    private static class SimpleTimer implements Timer {
+        private final Histogram seconds;
+
+        SimpleTimer(Histogram seconds) {
+            this.seconds = seconds;
+        }
+
+        @Override
+        public void record(long amount, TimeUnit unit) {
+            seconds.record(unit.toNanos(amount) / 1e9);
+        }
+    }
+
+    // In registration order, so related meters stay together in the dump
+    private final Map<String, Meter> meters = new LinkedHashMap<>();
+    private final Map<String, SimpleTimer> timers = new LinkedHashMap<>();
+
+    @Override
+    public synchronized Counter counter(String name, String description) {
+        return (Counter) meters.computeIfAbsent(prometheusName(name) + "_total",
+                key -> new SimpleCounter(key, description));
+    }
+
+    @Override
+    public synchronized Timer timer(String name, String description) {
+        return timers.computeIfAbsent(name, key -> {
+            Histogram seconds = new Histogram(prometheusName(name) + "_seconds", description, TIMER_BUCKETS);
+            meters.put(seconds.name, seconds);
+            return new SimpleTimer(seconds);
+        });
+    }
+
+    @Override
+    public synchronized DistributionSummary summary(String name, String description, double... buckets) {
+        return (DistributionSummary) meters.computeIfAbsent(prometheusName(name),
+                key -> new Histogram(key, description, buckets));
+    }
+
+    // Writes every meter in the Prometheus text exposition format (version 0.0.4)
+    public synchronized void writePrometheus(Appendable out) throws IOException {
+        for (Meter meter : meters.values()) {
+            meter.write(out);
+        }
+    }
+
+    public String scrape() {
+        StringBuilder out = new StringBuilder();
+        try {
+            writePrometheus(out);
+        } catch (IOException e) {
+            // A StringBuilder doesn't throw
+            throw new UncheckedIOException(e);
+        }
+        return out.toString();
+    }
+
+    private static String prometheusName(String name) {
+        return name.replaceAll("[^a-zA-Z0-9_:]", "_");
+    }
+
+    // Whole numbers without a fraction, the rest without an exponent
+    private static String format(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) return Long.toString((long) value);
+        return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+}
@@ -1,27 +1,160 @@
 package com.moshe.client.utils;
 
+import com.moshe.client.Constants;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
 
 public class CRCUtils {
 
+    // Checksums computed while files were read for sending, valid while size and mtime don't change
+    private static final Map<String, CachedChecksum> cache = new ConcurrentHashMap<>();
+
+    public static Checksum newChecksum(boolean crc32c) {
+        return crc32c ? new CRC32C() : new CRC32();
+    }
+
+    // Eight lowercase hex digits, as the server sends checksums
+    public static String toHex(long crc) {
+        String hex = Long.toHexString(crc & 0xFFFFFFFFL);
+        return hex.length() == 8 ? hex : "00000000".substring(hex.length()) + hex;
+    }
+
     public static String calculateFileCRC32(String filePath) throws IOException {
-        CRC32 crc = new CRC32();
+        return toHex(fileChecksum(filePath, false));
+    }
+
+    // Checksum of a whole file. Files of several segments are checksummed on all cores with
+    // ParallelChecksum, smaller ones in one pass on this thread.
+    public static int fileChecksum(String filePath, boolean crc32c) throws IOException {
+        if (new File(filePath).length() >= 2 * ParallelChecksum.SEGMENT_SIZE) {
+            return ParallelChecksum.checksum(new File(filePath).toPath(), crc32c);
+        }
+        return (int) streamedFileChecksum(filePath, crc32c);
+    }
+
+    // Checksums the file in one pass through a heap buffer
+    public static String calculateFileChecksum(String filePath, boolean crc32c) throws IOException {
+        return toHex(streamedFileChecksum(filePath, crc32c));
+    }
+
+    private static long streamedFileChecksum(String filePath, boolean crc32c) throws IOException {
+        Checksum crc = newChecksum(crc32c);
         try (FileInputStream fis = new FileInputStream(filePath)) {
-            byte[] buffer = new byte[4096];
+            byte[] buffer = new byte[64 * 1024];
             int bytesRead;
             while ((bytesRead = fis.read(buffer)) != -1) {
                 crc.update(buffer, 0, bytesRead);
             }
         }
-        return String.format("%08x", crc.getValue());
+        return crc.getValue();
+    }
+
+    // Checksums the file through memory-mapped windows, no copy into the Java heap
+    public static String calculateMappedFileChecksum(String filePath, boolean crc32c) throws IOException {
+        Checksum crc = newChecksum(crc32c);
+        try (FileChannel channel = FileChannel.open(new File(filePath).toPath(), StandardOpenOption.READ)) {
+            long size = channel.size();
+            for (long position = 0; position < size; ) {
+                long windowSize = Math.min(Constants.MAPPED_WINDOW_SIZE, size - position);
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+                crc.update(window);
+                position += windowSize;
+            }
+        }
+        return toHex(crc.getValue());
     }
 
     public static String calculateCRC32(byte[] data) {
         CRC32 crc = new CRC32();
         crc.update(data);
-        return String.format("%08x", crc.getValue());
+        return toHex(crc.getValue());
+    }
+
+    // Checksums the remaining bytes of a heap, direct or mapped buffer
+    public static String calculateCRC32(ByteBuffer data) {
+        CRC32 crc = new CRC32();
+        update(crc, data);
+        return toHex(crc.getValue());
+    }
+
+    // Feeds the remaining bytes of the buffer to the checksum, leaving its position unchanged
+    public static void update(Checksum checksum, ByteBuffer buffer) {
+        int position = buffer.position();
+        checksum.update(buffer);
+        buffer.position(position);
     }
-}
 
+    // Stores a checksum computed in the same pass that read the file.
+    // `stamp` must be taken before the read, so a file modified meanwhile is not trusted later.
+    public static void cacheFileChecksum(String filePath, FileStamp stamp, boolean crc32c, long value) {
+        cache.put(cacheKey(filePath, crc32c), new CachedChecksum(stamp, value));
+    }
+
+    // Returns the file's checksum from the cache, reading the file only if it changed since then
+    public static String cachedFileChecksum(String filePath, boolean crc32c) throws IOException {
+        FileStamp stamp = FileStamp.of(filePath);
+        CachedChecksum cached = cache.get(cacheKey(filePath, crc32c));
+        if (cached != null && cached.stamp.equals(stamp)) {
+            return toHex(cached.value);
+        }
+
+        int checksum = fileChecksum(filePath, crc32c);
+        cacheFileChecksum(filePath, stamp, crc32c, checksum & 0xFFFFFFFFL);
+        return toHex(checksum);
+    }
+
+    private static String cacheKey(String filePath, boolean crc32c) {
+        return new File(filePath).getAbsolutePath() + (crc32c ? "#crc32c" : "#crc32");
+    }
+
+    // Size and modification time of a file, identifying its content for the cache
+    public static class FileStamp {
+        public final long size;
+        public final FileTime lastModified;
+
+        private FileStamp(long size, FileTime lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public static FileStamp of(String filePath) throws IOException {
+            BasicFileAttributes attrs = Files.readAttributes(new File(filePath).toPath(), BasicFileAttributes.class);
+            return new FileStamp(attrs.size(), attrs.lastModifiedTime());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FileStamp)) return false;
+            FileStamp other = (FileStamp) o;
+            return size == other.size && lastModified.equals(other.lastModified);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(size) * 31 + lastModified.hashCode();
+        }
+    }
+
+    private static class CachedChecksum {
+        final FileStamp stamp;
+        final long value;
+
+        CachedChecksum(FileStamp stamp, long value) {
+            this.stamp = stamp;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.moshe.client.utils;
+
+import com.moshe.client.Constants;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+// Splits files into content-defined chunks: a boundary is placed where a rolling hash of the last
+// bytes matches a pattern, so an insertion or deletion only moves the boundaries around it and
+// the chunks after it keep their hashes (FastCDC's gear hash with normalized chunking).
+public class ChunkingUtils {
+
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+    // Gear table of the rolling hash. Fixed, boundaries must fall in the same places in every run.
+    private static final long[] GEAR = new long[256];
+
+    // Before the average size a boundary needs more matching bits, after it fewer, which keeps
+    // chunk sizes close to the average
+    private static final long MASK_SMALL = maskOfBits(Integer.numberOfTrailingZeros(Constants.DEDUP_AVG_CHUNK) + 2);
+    private static final long MASK_LARGE = maskOfBits(Integer.numberOfTrailingZeros(Constants.DEDUP_AVG_CHUNK) - 2);
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x5EC0DEDL);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    // The gear hash shifts left, its top bits depend on the most bytes
+    private static long maskOfBits(int bits) {
+        return -1L << (64 - bits);
+    }
+
+    public static class Chunk {
+        public final long offset;
+        public final int length;
+        // SHA-256 of the chunk's bytes
+        public final byte[] hash;
+
+        Chunk(long offset, int length, byte[] hash) {
+            this.offset = offset;
+            this.length = length;
+            this.hash = hash;
+        }
+    }
+
+    // Reads the file once, returning its chunks in order. An empty file has none.
+    public static List<Chunk> split(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+
+        List<Chunk> chunks = new ArrayList<>();
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        long chunkStart = 0;
+        long position = 0;
+        long hash = 0;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            int n;
+            while ((n = channel.read(ByteBuffer.wrap(buffer))) > 0) {
+                // Start of the current chunk's bytes within the buffer
+                int start = 0;
+                for (int i = 0; i < n; i++) {
+                    hash = (hash << 1) + GEAR[buffer[i] & 0xFF];
+                    long size = position + i + 1 - chunkStart;
+                    if (size < Constants.DEDUP_MIN_CHUNK) continue;
+
+                    long mask = size < Constants.DEDUP_AVG_CHUNK ? MASK_SMALL : MASK_LARGE;
+                    if ((hash & mask) == 0 || size >= Constants.DEDUP_MAX_CHUNK) {
+                        digest.update(buffer, start, i + 1 - start);
+                        chunks.add(new Chunk(chunkStart, (int) size, digest.digest()));
+                        chunkStart += size;
+                        start = i + 1;
+                        hash = 0;
+                    }
+                }
+                digest.update(buffer, start, n - start);
+                position += n;
+            }
+        }
+        if (position > chunkStart) {
+            chunks.add(new Chunk(chunkStart, (int) (position - chunkStart), digest.digest()));
+        }
+        return chunks;
+    }
+}
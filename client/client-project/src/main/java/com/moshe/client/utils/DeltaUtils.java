@@ -0,0 +1,296 @@
+package com.moshe.client.utils;
+
+import com.moshe.client.Constants;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Adler32;
+
+// Delta encoding of a file against an earlier version the server holds, as rsync does. The server
+// sends a signature of its version: for every block an Adler-32 checksum, cheap to roll over the
+// new file one byte at a time, and a truncated SHA-256 confirming a checksum match. The delta is a
+// series of instructions rebuilding the new file:
+//   [DELTA_LITERAL][4B length][bytes]      bytes the old version doesn't have
+//   [DELTA_COPY][4B block][4B count]       `count` blocks of the old version starting at `block`
+public class DeltaUtils {
+
+    private static final int ADLER_MOD = 65521;
+
+    // Pending literal bytes are written once there are this many, bounding the bytes kept in memory
+    private static final int MAX_LITERAL = 64 * 1024;
+    private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+    // Bits of the filter of weak checksums, most windows match none and skip the map lookup
+    private static final int FILTER_BITS = 20;
+
+    // Blocks of the server's version of a file
+    public static class Signature {
+        public final long baseSize;
+        public final int blockSize;
+        private final int[] weak;
+        private final byte[][] strong;
+        // Block index by weak checksum, one per distinct block
+        private final Map<Integer, List<Integer>> blocks = new HashMap<>();
+        private final long[] filter = new long[(1 << FILTER_BITS) / 64];
+
+        public Signature(long baseSize, int blockSize, int[] weak, byte[][] strong) {
+            this.baseSize = baseSize;
+            this.blockSize = blockSize;
+            this.weak = weak;
+            this.strong = strong;
+            for (int i = 0; i < weak.length; i++) {
+                List<Integer> candidates = blocks.computeIfAbsent(weak[i], k -> new ArrayList<>(1));
+                boolean duplicate = false;
+                for (int candidate : candidates) {
+                    duplicate |= Arrays.equals(strong[candidate], strong[i]);
+                }
+                if (!duplicate) candidates.add(i);
+                int bit = filterBit(weak[i]);
+                filter[bit >>> 6] |= 1L << bit;
+            }
+        }
+
+        public int blockCount() {
+            return weak.length;
+        }
+
+        // Length of the last block, shorter than the others unless the size is a multiple of them
+        int lastBlockLength() {
+            return (int) (baseSize - (long) (weak.length - 1) * blockSize);
+        }
+
+        // Index of a block with the bytes of the window, -1 if there's none. Of identical blocks,
+        // `preferred` is returned if it's one of them, continuing the previous copy.
+        int find(int weakChecksum, byte[] buffer, int offset, int length, MessageDigest digest, int preferred) {
+            int bit = filterBit(weakChecksum);
+            if ((filter[bit >>> 6] & (1L << bit)) == 0) return -1;
+            List<Integer> candidates = blocks.get(weakChecksum);
+            if (candidates == null) return -1;
+
+            digest.update(buffer, offset, length);
+            byte[] hash = digest.digest();
+            for (int candidate : candidates) {
+                if (Arrays.equals(strong[candidate], 0, Constants.DELTA_STRONG_HASH_SIZE,
+                        hash, 0, Constants.DELTA_STRONG_HASH_SIZE)) {
+                    boolean same = preferred >= 0 && preferred < weak.length && weak[preferred] == weakChecksum
+                            && Arrays.equals(strong[preferred], strong[candidate]);
+                    return same ? preferred : candidate;
+                }
+            }
+            return -1;
+        }
+
+        // Whether `length` bytes of the buffer are the last block, which only matches at the end
+        boolean isLastBlock(byte[] buffer, int offset, int length, MessageDigest digest) {
+            int last = weak.length - 1;
+            if (last < 0 || length != lastBlockLength()) return false;
+            if (weak[last] != adler32(buffer, offset, length)) return false;
+            digest.update(buffer, offset, length);
+            return Arrays.equals(strong[last], 0, Constants.DELTA_STRONG_HASH_SIZE,
+                    digest.digest(), 0, Constants.DELTA_STRONG_HASH_SIZE);
+        }
+
+        private static int filterBit(int weakChecksum) {
+            return (weakChecksum * 0x9E3779B1) >>> (32 - FILTER_BITS);
+        }
+    }
+
+    // Size and SHA-256 of the file a delta rebuilds, for the server to verify the result
+    public static class Delta {
+        public final long fileSize;
+        public final byte[] hash;
+
+        Delta(long fileSize, byte[] hash) {
+            this.fileSize = fileSize;
+            this.hash = hash;
+        }
+    }
+
+    public static int adler32(byte[] buffer, int offset, int length) {
+        Adler32 adler = new Adler32();
+        adler.update(buffer, offset, length);
+        return (int) adler.getValue();
+    }
+
+    // Adler-32 of the window moved one byte on: `out` leaves it and `in` enters it
+    public static int rollAdler32(int checksum, byte out, byte in, int length) {
+        int a = checksum & 0xFFFF;
+        int b = checksum >>> 16;
+        a = Math.floorMod(a - (out & 0xFF) + (in & 0xFF), ADLER_MOD);
+        b = Math.floorMod(b - length * (out & 0xFF) + a - 1, ADLER_MOD);
+        return (b << 16) | a;
+    }
+
+    // Reads the file once, writing the instructions that rebuild it from the base to `out`
+    public static Delta writeDelta(File file, Signature base, OutputStream out) throws IOException {
+        DeltaWriter writer = new DeltaWriter(out);
+        // Room for a window and the literal bytes pending before it
+        byte[] buffer = new byte[Math.max(READ_BUFFER_SIZE, 4 * base.blockSize)];
+
+        try (InputStream in = new FileInputStream(file)) {
+            if (base.blockCount() == 0) {
+                // Nothing to copy from, the whole file is literal
+                int n;
+                while ((n = fill(in, buffer, 0)) > 0) {
+                    writer.literal(buffer, 0, n);
+                }
+            } else {
+                writeBlocks(in, base, buffer, writer);
+            }
+        }
+        writer.finish();
+        return new Delta(writer.size, writer.digest.digest());
+    }
+
+    private static void writeBlocks(InputStream in, Signature base, byte[] buffer, DeltaWriter writer)
+            throws IOException {
+        MessageDigest blockDigest = sha256();
+        int blockSize = base.blockSize;
+        int end = fill(in, buffer, 0);
+        boolean eof = end < buffer.length;
+        // Window start, and start of the literal bytes before it not written yet
+        int position = 0;
+        int start = 0;
+        int weak = 0;
+        boolean rolling = false;
+        while (true) {
+            if (position + blockSize > end) {
+                if (eof) break;
+                // Keeps the pending bytes, at the front of the buffer, and reads on after them
+                System.arraycopy(buffer, start, buffer, 0, end - start);
+                position -= start;
+                end -= start;
+                start = 0;
+                end += fill(in, buffer, end);
+                eof = end < buffer.length;
+                continue;
+            }
+            if (!rolling) {
+                weak = adler32(buffer, position, blockSize);
+                rolling = true;
+            }
+
+            int block = base.find(weak, buffer, position, blockSize, blockDigest, writer.nextBlock());
+            if (block >= 0) {
+                writer.literal(buffer, start, position - start);
+                writer.copy(block, buffer, position, blockSize);
+                position += blockSize;
+                start = position;
+                rolling = false;
+                continue;
+            }
+
+            if (position - start >= MAX_LITERAL) {
+                writer.literal(buffer, start, position - start);
+                start = position;
+            }
+            // The checksum rolls on while the next window is in the buffer, after a read it's
+            // computed again
+            if (position + blockSize < end) {
+                weak = rollAdler32(weak, buffer[position], buffer[position + blockSize], blockSize);
+            } else {
+                rolling = false;
+            }
+            position++;
+        }
+
+        // The rest is shorter than a block, it may still be the base's last block
+        if (base.isLastBlock(buffer, position, end - position, blockDigest)) {
+            writer.literal(buffer, start, position - start);
+            writer.copy(base.blockCount() - 1, buffer, position, end - position);
+        } else {
+            writer.literal(buffer, start, end - start);
+        }
+    }
+
+    // Reads until the buffer is full or the file ends, returning the number of bytes read
+    private static int fill(InputStream in, byte[] buffer, int offset) throws IOException {
+        int total = 0;
+        while (offset + total < buffer.length) {
+            int n = in.read(buffer, offset + total, buffer.length - offset - total);
+            if (n == -1) break;
+            total += n;
+        }
+        return total;
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Writes the instructions, joining copies of consecutive blocks into one, and hashes the bytes
+    // they stand for in file order
+    private static class DeltaWriter {
+        private final OutputStream out;
+        private final MessageDigest digest = sha256();
+        private final byte[] header = new byte[9];
+        private long size;
+        private int copyStart = -1;
+        private int copyCount;
+
+        DeltaWriter(OutputStream out) {
+            this.out = out;
+        }
+
+        void literal(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) return;
+            flushCopy();
+            header[0] = Constants.DELTA_LITERAL;
+            putInt(header, 1, length);
+            out.write(header, 0, 5);
+            out.write(buffer, offset, length);
+            digest.update(buffer, offset, length);
+            size += length;
+        }
+
+        void copy(int block, byte[] buffer, int offset, int length) throws IOException {
+            if (copyStart >= 0 && block == copyStart + copyCount) {
+                copyCount++;
+            } else {
+                flushCopy();
+                copyStart = block;
+                copyCount = 1;
+            }
+            digest.update(buffer, offset, length);
+            size += length;
+        }
+
+        // Block that would extend the pending copy, -1 if there's none
+        int nextBlock() {
+            return copyStart >= 0 ? copyStart + copyCount : -1;
+        }
+
+        void finish() throws IOException {
+            flushCopy();
+            out.flush();
+        }
+
+        private void flushCopy() throws IOException {
+            if (copyStart < 0) return;
+            header[0] = Constants.DELTA_COPY;
+            putInt(header, 1, copyStart);
+            putInt(header, 5, copyCount);
+            out.write(header, 0, 9);
+            copyStart = -1;
+        }
+
+        private static void putInt(byte[] buffer, int offset, int value) {
+            for (int i = 0; i < 4; i++) {
+                buffer[offset + i] = (byte) (value >>> (8 * i));
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.moshe.client.utils;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class FileListUtils {
+
+    // Expands files, directories (their regular files, not recursive) and glob patterns
+    // such as "logs/*.csv" or "data/**.json" into a sorted list of file paths
+    public static List<String> expand(List<String> entries) throws IOException {
+        List<String> files = new ArrayList<>();
+        for (String entry : entries) {
+            Path path = Paths.get(entry);
+            if (isGlob(entry)) {
+                files.addAll(expandGlob(entry));
+            } else if (Files.isDirectory(path)) {
+                try (Stream<Path> list = Files.list(path)) {
+                    files.addAll(list.filter(Files::isRegularFile)
+                            .map(Path::toString)
+                            .sorted()
+                            .collect(Collectors.toList()));
+                }
+            } else if (Files.isRegularFile(path)) {
+                files.add(entry);
+            } else {
+                throw new NoSuchFileException(entry);
+            }
+        }
+        return files;
+    }
+
+    private static boolean isGlob(String entry) {
+        return entry.contains("*") || entry.contains("?") || entry.contains("[") || entry.contains("{");
+    }
+
+    // Walks the directory part before the first wildcard and keeps the files matching the pattern
+    private static List<String> expandGlob(String pattern) throws IOException {
+        int wildcard = 0;
+        while (!isGlob(pattern.substring(0, wildcard + 1))) wildcard++;
+        int separator = pattern.lastIndexOf('/', wildcard);
+        Path base = Paths.get(separator < 0 ? "" : pattern.substring(0, separator + 1));
+
+        PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        try (Stream<Path> walk = Files.walk(base.toString().isEmpty() ? Paths.get(".") : base)) {
+            return walk.filter(Files::isRegularFile)
+                    .map(p -> base.toString().isEmpty() ? Paths.get(".").relativize(p) : p)
+                    .filter(matcher::matches)
+                    .map(Path::toString)
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+}
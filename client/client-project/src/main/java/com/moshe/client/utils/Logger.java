@@ -1,8 +1,115 @@
 package com.moshe.client.utils;
 
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// Prints tagged progress lines. Lines below the level are dropped without being queued; a message that
+// takes work to build is passed as a Supplier, only called for a line that's printed. The others are
+// queued and printed in order by a background thread, so a transfer never waits on the console.
+// Queued lines are printed before the JVM exits.
 public class Logger {
+
+    public enum Level {
+        DEBUG, INFO, WARN, ERROR, OFF;
+
+        public static Level fromName(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Unknown log level: " + name + " (use debug, info, warn, error or off)");
+            }
+        }
+    }
+
+    // A full queue makes the logging thread wait, rather than losing lines
+    private static final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(8192);
+    private static volatile Level level = Level.INFO;
+    private static volatile Thread writer;
+
+    public static void setLevel(Level level) {
+        Logger.level = level;
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level != Level.OFF && level.compareTo(Logger.level) >= 0;
+    }
+
     public static void log(String tag, String message) {
-        System.out.println("[" + tag + "] : " + message);
+        log(Level.INFO, tag, message);
+    }
+
+    public static void log(String tag, Supplier<String> message) {
+        log(Level.INFO, tag, message);
+    }
+
+    public static void debug(String tag, String message) {
+        log(Level.DEBUG, tag, message);
     }
-}
 
+    public static void debug(String tag, Supplier<String> message) {
+        log(Level.DEBUG, tag, message);
+    }
+
+    public static void log(Level level, String tag, String message) {
+        if (!isEnabled(level)) return;
+        enqueue("[" + tag + "] : " + message);
+    }
+
+    public static void log(Level level, String tag, Supplier<String> message) {
+        if (!isEnabled(level)) return;
+        enqueue("[" + tag + "] : " + message.get());
+    }
+
+    // Waits until the lines logged so far are printed, e.g. before printing to System.out directly
+    public static void flush() {
+        if (writer == null) return;
+        CountDownLatch printed = new CountDownLatch(1);
+        enqueue(printed);
+        try {
+            printed.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void enqueue(Object entry) {
+        if (writer == null) startWriter();
+        try {
+            queue.put(entry);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static synchronized void startWriter() {
+        if (writer != null) return;
+        Thread thread = new Thread(Logger::printQueued, "logger");
+        thread.setDaemon(true);
+        thread.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Logger::flush, "logger-flush"));
+        writer = thread;
+    }
+
+    private static void printQueued() {
+        try {
+            while (true) {
+                Object entry = queue.take();
+                do {
+                    if (entry instanceof CountDownLatch) {
+                        System.out.flush();
+                        ((CountDownLatch) entry).countDown();
+                    } else {
+                        System.out.println(entry);
+                    }
+                } while ((entry = queue.poll()) != null);
+                System.out.flush();
+            }
+        } catch (InterruptedException e) {
+            // The JVM is going away
+        }
+    }
+}
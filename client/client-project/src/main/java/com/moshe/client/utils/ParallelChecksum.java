@@ -0,0 +1,159 @@
+package com.moshe.client.utils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.zip.Checksum;
+
+// CRC32 or CRC32C of a large file on several cores. The file is split into segments that are
+// checksummed independently on a ForkJoinPool, each through a memory-mapped window (or a direct
+// buffer where the file can't be mapped), and the partial CRCs are merged with combine(), as zlib's
+// crc32_combine does, so the result is the CRC of the whole file. Values are primitive ints,
+// CRCUtils.toHex formats them for the callers that print or compare hex strings.
+public class ParallelChecksum {
+
+    // Large enough to amortize a mapping and a task, small enough to keep every core busy
+    static final long SEGMENT_SIZE = 16L * 1024 * 1024;
+
+    private static final int CRC32_POLY = 0xEDB88320;
+    private static final int CRC32C_POLY = 0x82F63B78;
+
+    // x^(2^n) mod P for n = 0..31, the powers combine() shifts a CRC by
+    private static final int[] CRC32_POWERS = powers(CRC32_POLY);
+    private static final int[] CRC32C_POWERS = powers(CRC32C_POLY);
+
+    public static int checksum(Path file, boolean crc32c) throws IOException {
+        return checksum(file, crc32c, ForkJoinPool.commonPool());
+    }
+
+    public static int checksum(Path file, boolean crc32c, ForkJoinPool pool) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return checksum(channel, 0, channel.size(), crc32c, pool, SEGMENT_SIZE);
+        }
+    }
+
+    // Checksum of `length` bytes of the channel from `offset`, in segments of at most `segmentSize`
+    static int checksum(FileChannel channel, long offset, long length, boolean crc32c, ForkJoinPool pool,
+                        long segmentSize) throws IOException {
+        Segment task = new Segment(channel, offset, length, crc32c, segmentSize);
+        try {
+            // A file of one segment isn't worth the hand-off to the pool
+            return length <= segmentSize ? task.compute() : pool.invoke(task);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    // CRC of the concatenation of two byte sequences, from the CRC of the first, the CRC of the
+    // second and the length of the second: crc1 shifted by len2 bytes, i.e. multiplied by
+    // x^(8 * len2) mod P, xor crc2. Takes O(log len2) multiplications.
+    public static int combine(int crc1, int crc2, long len2, boolean crc32c) {
+        if (len2 <= 0) return crc1;
+        int poly = crc32c ? CRC32C_POLY : CRC32_POLY;
+        int[] powers = crc32c ? CRC32C_POWERS : CRC32_POWERS;
+
+        // x^(8 * len2): the bits of len2 pick the powers x^(2^(k+3))
+        int shift = 0x80000000;
+        int k = 3;
+        for (long n = len2; n != 0; n >>>= 1, k++) {
+            if ((n & 1) != 0) shift = multiply(powers[k & 31], shift, poly);
+        }
+        return multiply(shift, crc1, poly) ^ crc2;
+    }
+
+    // a * b mod P, both bit-reflected as CRCs are (x^0 in the top bit)
+    private static int multiply(int a, int b, int poly) {
+        int product = 0;
+        for (int m = 0x80000000; m != 0; m >>>= 1) {
+            if ((a & m) != 0) {
+                product ^= b;
+                if ((a & (m - 1)) == 0) break;
+            }
+            b = (b & 1) != 0 ? (b >>> 1) ^ poly : b >>> 1;
+        }
+        return product;
+    }
+
+    private static int[] powers(int poly) {
+        int[] powers = new int[32];
+        // x^1
+        int p = 0x40000000;
+        powers[0] = p;
+        for (int n = 1; n < 32; n++) {
+            powers[n] = p = multiply(p, p, poly);
+        }
+        return powers;
+    }
+
+    // Checksums its range directly or as two halves in parallel, combining their CRCs.
+    // Serializable only because ForkJoinTask is; it's never serialized, nor could its channel be.
+    @SuppressWarnings("serial")
+    private static class Segment extends RecursiveTask<Integer> {
+        private final FileChannel channel;
+        private final long offset;
+        private final long length;
+        private final boolean crc32c;
+        private final long segmentSize;
+
+        Segment(FileChannel channel, long offset, long length, boolean crc32c, long segmentSize) {
+            this.channel = channel;
+            this.offset = offset;
+            this.length = length;
+            this.crc32c = crc32c;
+            this.segmentSize = segmentSize;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (length <= segmentSize) return checksumRange();
+
+            // Split on a segment boundary, the halves are then checksummed at the same time
+            long half = (length / segmentSize + 1) / 2 * segmentSize;
+            Segment first = new Segment(channel, offset, half, crc32c, segmentSize);
+            Segment second = new Segment(channel, offset + half, length - half, crc32c, segmentSize);
+            second.fork();
+            int firstCrc = first.compute();
+            int secondCrc = second.join();
+            return combine(firstCrc, secondCrc, length - half, crc32c);
+        }
+
+        private int checksumRange() {
+            Checksum checksum = CRCUtils.newChecksum(crc32c);
+            try {
+                MappedByteBuffer window;
+                try {
+                    window = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+                } catch (IOException | UnsupportedOperationException e) {
+                    return checksumRead(checksum);
+                }
+                checksum.update(window);
+                return (int) checksum.getValue();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // Fallback for files that can't be mapped, read with positional reads, which don't
+        // interfere with the other segments
+        private int checksumRead(Checksum checksum) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocateDirect((int) Math.min(length, 1024 * 1024));
+            long position = offset;
+            long end = offset + length;
+            while (position < end) {
+                buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+                int read = channel.read(buffer, position);
+                if (read == -1) throw new IOException("File changed during checksum");
+                position += read;
+                buffer.flip();
+                checksum.update(buffer);
+            }
+            return (int) checksum.getValue();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.moshe.client.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.PosixFilePermissions;
+
+// Temporary files for plain content prepared before it's encrypted, such as a compressed file or a
+// delta. They're created in a directory of this process that only its owner may enter, rather than
+// straight in the shared temporary directory, and only the owner may read or write them.
+// Callers delete their files in a finally block; the directory goes when the process exits.
+public class TempFileUtils {
+
+    private static final boolean POSIX = FileSystems.getDefault().supportedFileAttributeViews().contains("posix");
+
+    private static Path directory;
+
+    private TempFileUtils() {
+    }
+
+    // Creates an empty temporary file in the process's private directory
+    public static File createPrivateTempFile(String prefix, String suffix) throws IOException {
+        return Files.createTempFile(privateDirectory(), prefix, suffix, permissions("rw-------")).toFile();
+    }
+
+    private static synchronized Path privateDirectory() throws IOException {
+        if (directory == null || !Files.isDirectory(directory)) {
+            directory = Files.createTempDirectory("transfer", permissions("rwx------"));
+            directory.toFile().deleteOnExit();
+        }
+        return directory;
+    }
+
+    private static FileAttribute<?>[] permissions(String permissions) {
+        if (!POSIX) return new FileAttribute<?>[0];
+        return new FileAttribute<?>[]{PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString(permissions))};
+    }
+}
@@ -0,0 +1,243 @@
+package com.moshe.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.stream.Stream;
+import junit.framework.TestCase;
+
+/**
+ * Downloaded ranges are written at their offset once each record authenticates as the server's,
+ * for this download and this position, and replace the target only once all of them did.
+ */
+public class FileReceiverTest
+    extends TestCase
+{
+    private static final int CHUNK_SIZE = Constants.STREAM_CHUNK_SIZE;
+    private static final int RECORD_OVERHEAD = Constants.GCM_NONCE_SIZE + Constants.GCM_TAG_SIZE;
+    private static final byte[] BINDING = "download-0123456".getBytes(StandardCharsets.US_ASCII);
+
+    private Crypt crypt;
+    private byte[] content;
+    private File file;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        byte[] key = new byte[16];
+        new Random(41).nextBytes(key);
+        crypt = new Crypt();
+        crypt.setEncodedAesKey(Base64.getEncoder().encodeToString(key));
+        content = new byte[3 * CHUNK_SIZE + 1234];
+        new Random(43).nextBytes(content);
+        file = File.createTempFile("receiver", ".bin");
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        file.delete();
+    }
+
+    public void testWholeFileIsWritten() throws Exception
+    {
+        byte[] records = seal(0, content.length, Constants.GCM_FROM_SERVER, BINDING);
+        assertEquals(FileReceiver.contentSize(content.length), records.length);
+
+        assertTrue(receive(records, 0, content.length));
+        assertTrue(Arrays.equals(content, Files.readAllBytes(file.toPath())));
+    }
+
+    public void testRangeIsWrittenAtItsOffset() throws Exception
+    {
+        int offset = CHUNK_SIZE - 100;
+        int length = CHUNK_SIZE + 200;
+
+        assertTrue(receive(seal(offset, length, Constants.GCM_FROM_SERVER, BINDING), offset, length));
+        byte[] written = Files.readAllBytes(file.toPath());
+        assertEquals(offset + length, written.length);
+        assertTrue(Arrays.equals(Arrays.copyOfRange(content, offset, offset + length),
+                Arrays.copyOfRange(written, offset, offset + length)));
+    }
+
+    public void testTamperedRecordStopsTheWritesButNotTheReads() throws Exception
+    {
+        byte[] records = seal(0, content.length, Constants.GCM_FROM_SERVER, BINDING);
+        records[CHUNK_SIZE + RECORD_OVERHEAD + 20] ^= 1;
+
+        ByteBufferTransport transport = new ByteBufferTransport(records);
+        assertFalse(receive(transport, 0, content.length));
+        // The whole range was read, the next response starts where the server expects it to
+        assertEquals(0, transport.source.remaining());
+        assertEquals(CHUNK_SIZE, Files.size(file.toPath()));
+    }
+
+    public void testRecordsOfAnotherDownloadAreRejected() throws Exception
+    {
+        byte[] other = "download-6543210".getBytes(StandardCharsets.US_ASCII);
+
+        assertFalse(receive(seal(0, content.length, Constants.GCM_FROM_SERVER, other), 0, content.length));
+    }
+
+    public void testRecordsSentByTheClientAreRejected() throws Exception
+    {
+        assertFalse(receive(seal(0, content.length, 0, BINDING), 0, content.length));
+    }
+
+    public void testCompleteDownloadReplacesTheTarget() throws Exception
+    {
+        Path directory = Files.createTempDirectory("download");
+        try {
+            Path target = directory.resolve("notes.bin");
+            Files.write(target, new byte[]{1, 2, 3});
+            byte[] records = seal(0, content.length, Constants.GCM_FROM_SERVER, BINDING);
+
+            assertTrue(download(target, records));
+            assertTrue(Arrays.equals(content, Files.readAllBytes(target)));
+            assertOnlyFile(directory, target);
+        } finally {
+            deleteAll(directory);
+        }
+    }
+
+    public void testFailedOrRefusedDownloadLeavesTheTargetAsItWas() throws Exception
+    {
+        Path directory = Files.createTempDirectory("download");
+        try {
+            Path target = directory.resolve("notes.bin");
+            byte[] previous = {1, 2, 3};
+            Files.write(target, previous);
+            byte[] records = seal(0, content.length, Constants.GCM_FROM_SERVER, BINDING);
+            records[CHUNK_SIZE + RECORD_OVERHEAD + 20] ^= 1;
+
+            // A record failed authentication after the ones before it were written
+            assertFalse(download(target, records));
+            assertTrue(Arrays.equals(previous, Files.readAllBytes(target)));
+            assertOnlyFile(directory, target);
+
+            // The connection was lost
+            try {
+                FileReceiver.downloadTo(target.toFile(), channel -> {
+                    channel.write(ByteBuffer.wrap(content));
+                    throw new EOFException();
+                });
+                fail("The download succeeded");
+            } catch (EOFException e) {
+                // Expected
+            }
+            assertTrue(Arrays.equals(previous, Files.readAllBytes(target)));
+            assertOnlyFile(directory, target);
+        } finally {
+            deleteAll(directory);
+        }
+    }
+
+    private boolean download(Path target, byte[] records) throws IOException
+    {
+        FileReceiver receiver = new FileReceiver(crypt, TransferMetrics.NONE);
+        return FileReceiver.downloadTo(target.toFile(), channel -> receiver.receive(new ByteBufferTransport(records),
+                channel, 0, content.length, BINDING));
+    }
+
+    // Nothing but the target is left in the directory
+    private static void assertOnlyFile(Path directory, Path target) throws IOException
+    {
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(Arrays.asList(target), Arrays.asList(files.toArray()));
+        }
+    }
+
+    private static void deleteAll(Path directory) throws IOException
+    {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    // Seals the range as the server does, one record per chunk from the offset, the last one marked
+    private byte[] seal(int offset, int length, int direction, byte[] binding) throws Exception
+    {
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        byte[] record = new byte[CHUNK_SIZE + RECORD_OVERHEAD];
+        byte[] aad = new byte[9 + binding.length];
+        int end = offset + length;
+        int position = offset;
+        boolean last;
+        do {
+            int n = Math.min(CHUNK_SIZE, end - position);
+            last = position + n == end;
+            HeaderCodec.putRecordAad(aad, position, (last ? 1 : 0) | direction, binding);
+            records.write(record, 0, crypt.sealAESGcm(content, position, n, aad, record));
+            position += n;
+        } while (!last);
+        return records.toByteArray();
+    }
+
+    private boolean receive(byte[] records, long offset, long length) throws IOException
+    {
+        return receive(new ByteBufferTransport(records), offset, length);
+    }
+
+    private boolean receive(Transport transport, long offset, long length) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            return new FileReceiver(crypt, TransferMetrics.NONE).receive(transport, channel, offset, length, BINDING);
+        }
+    }
+
+    // Responses of the server read from memory
+    private static class ByteBufferTransport
+        implements Transport
+    {
+        private final ByteBuffer source;
+
+        ByteBufferTransport(byte[] responses)
+        {
+            source = ByteBuffer.wrap(responses);
+        }
+
+        @Override
+        public void readFully(ByteBuffer dst) throws IOException
+        {
+            if (source.remaining() < dst.remaining()) throw new EOFException();
+            ByteBuffer slice = source.slice();
+            slice.limit(dst.remaining());
+            dst.put(slice);
+            source.position(source.position() + slice.limit());
+        }
+
+        @Override
+        public void write(ByteBuffer... buffers)
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public OutputStream outputStream()
+        {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void flush()
+        {
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.moshe.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import junit.framework.TestCase;
+
+/**
+ * GCM records sealed on a pool come out in file order, each authenticated with its position.
+ */
+public class FileStreamerTest
+    extends TestCase
+{
+    private static final int CHUNK_SIZE = 4096;
+    private static final int RECORD_OVERHEAD = Constants.GCM_NONCE_SIZE + Constants.GCM_TAG_SIZE;
+    private static final byte[] BINDING = "upload-012345678".getBytes(StandardCharsets.US_ASCII);
+
+    private Crypt crypt;
+    private ExecutorService pool;
+
+    @Override
+    protected void setUp()
+    {
+        byte[] key = new byte[16];
+        new Random(3).nextBytes(key);
+        crypt = new Crypt();
+        crypt.setEncodedAesKey(Base64.getEncoder().encodeToString(key));
+        pool = Executors.newFixedThreadPool(3);
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        pool.shutdownNow();
+    }
+
+    public void testParallelRecordsOpenInOrder() throws Exception
+    {
+        // No record and less than one are sealed by the sequential encryptor, the pool only takes more
+        // than a record: a whole number of them and a partial last one
+        for (int size : new int[]{0, 100, 8 * CHUNK_SIZE, 50 * CHUNK_SIZE + 17}) {
+            byte[] content = new byte[size];
+            new Random(size).nextBytes(content);
+            File file = File.createTempFile("streamer", ".bin");
+            try {
+                Files.write(file.toPath(), content);
+                FileStreamer streamer = new FileStreamer(crypt, false, CHUNK_SIZE);
+                streamer.setCipherMode(CipherMode.GCM);
+                streamer.setEncryptPool(pool, 3);
+                streamer.setRecordBinding(BINDING);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                streamer.stream(file, size, out);
+
+                assertEquals(streamer.contentSize(size), out.size());
+                assertTrue("size " + size, Arrays.equals(content, open(out.toByteArray(), 0, size)));
+            } finally {
+                file.delete();
+            }
+        }
+    }
+
+    public void testParallelRangeIsAuthenticatedAtItsOffset() throws Exception
+    {
+        byte[] content = new byte[30 * CHUNK_SIZE];
+        new Random(7).nextBytes(content);
+        int offset = 3 * CHUNK_SIZE + 5;
+        int length = 20 * CHUNK_SIZE + 3;
+        File file = File.createTempFile("streamer", ".bin");
+        try {
+            Files.write(file.toPath(), content);
+            FileStreamer streamer = new FileStreamer(crypt, false, CHUNK_SIZE);
+            streamer.setCipherMode(CipherMode.GCM);
+            streamer.setEncryptPool(pool, 3);
+            streamer.setRecordBinding(BINDING);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            streamer.stream(file, offset, length, out, null);
+
+            assertEquals(streamer.contentSize(length), out.size());
+            assertTrue(Arrays.equals(Arrays.copyOfRange(content, offset, offset + length),
+                    open(out.toByteArray(), offset, length)));
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testFailedRecordAbandonsTheRecordsAfterIt() throws Exception
+    {
+        byte[] content = new byte[50 * CHUNK_SIZE];
+        new Random(11).nextBytes(content);
+        // Sealing the third record fails, the ones after it wait until the stream has given up
+        TreeSet<Long> sealed = new TreeSet<>();
+        CountDownLatch failed = new CountDownLatch(1);
+        Crypt failing = new Crypt() {
+            @Override
+            public int sealAESGcm(byte[] plain, int off, int len, byte[] aad, byte[] out) throws Exception
+            {
+                long position = ByteBuffer.wrap(aad).order(ByteOrder.LITTLE_ENDIAN).getLong();
+                synchronized (sealed) {
+                    sealed.add(position);
+                }
+                if (position == 2 * CHUNK_SIZE) throw new GeneralSecurityException("seal failed");
+                if (position > 2 * CHUNK_SIZE) failed.await(10, TimeUnit.SECONDS);
+                return super.sealAESGcm(plain, off, len, aad, out);
+            }
+        };
+        failing.setEncodedAesKey(crypt.getEncodedAesKey());
+        // One thread seals the records in order, up to six of them pending
+        ExecutorService single = Executors.newSingleThreadExecutor();
+        File file = File.createTempFile("streamer", ".bin");
+        try {
+            Files.write(file.toPath(), content);
+            FileStreamer streamer = new FileStreamer(failing, false, CHUNK_SIZE);
+            streamer.setCipherMode(CipherMode.GCM);
+            streamer.setEncryptPool(single, 3);
+            streamer.setRecordBinding(BINDING);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try {
+                streamer.stream(file, content.length, out);
+                fail("stream() succeeded");
+            } catch (GeneralSecurityException e) {
+                assertEquals("seal failed", e.getMessage());
+            }
+            failed.countDown();
+            single.shutdown();
+            assertTrue(single.awaitTermination(10, TimeUnit.SECONDS));
+
+            // The records before the failed one went out. The thread may have taken the next one
+            // before the stream cancelled it; the ones after that were cancelled while it waited.
+            assertTrue(Arrays.equals(Arrays.copyOf(content, 2 * CHUNK_SIZE),
+                    open(out.toByteArray(), 0, 2 * CHUNK_SIZE, false)));
+            assertEquals(new TreeSet<>(Arrays.asList(0L, (long) CHUNK_SIZE, 2L * CHUNK_SIZE)),
+                    sealed.headSet(3L * CHUNK_SIZE));
+            assertTrue(sealed.toString(), sealed.size() <= 4);
+        } finally {
+            single.shutdownNow();
+            file.delete();
+        }
+    }
+
+    public void testCbcStreamKeepsItsCipherWhileTheThreadEncryptsOtherContent() throws Exception
+    {
+        byte[] content = new byte[10 * CHUNK_SIZE + 5];
+        new Random(5).nextBytes(content);
+        File file = File.createTempFile("streamer", ".bin");
+        try {
+            Files.write(file.toPath(), content);
+            FileStreamer streamer = new FileStreamer(crypt, false, CHUNK_SIZE);
+            // Encrypts a small message with the thread's cipher between two chunks of the stream
+            ByteArrayOutputStream out = new ByteArrayOutputStream() {
+                @Override
+                public synchronized void write(byte[] b, int off, int len)
+                {
+                    try {
+                        crypt.encryptAESBytes(new byte[7]);
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                    super.write(b, off, len);
+                }
+            };
+            streamer.stream(file, content.length, out);
+
+            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(Base64.getDecoder().decode(crypt.getEncodedAesKey()), "AES"),
+                    new IvParameterSpec(new byte[16]));
+            assertTrue(Arrays.equals(content, cipher.doFinal(out.toByteArray())));
+        } finally {
+            file.delete();
+        }
+    }
+
+    // Opens the records of `size` bytes from `start` one after the other as the server does, checking
+    // each one's AAD and binding
+    private byte[] open(byte[] sealed, long start, int size) throws Exception
+    {
+        return open(sealed, start, size, true);
+    }
+
+    // Same as above, the records may stop before the last one of the stream when `complete` is false
+    private byte[] open(byte[] sealed, long start, int size, boolean complete) throws Exception
+    {
+        ByteArrayOutputStream plain = new ByteArrayOutputStream();
+        byte[] buffer = new byte[CHUNK_SIZE];
+        byte[] aad = new byte[9 + BINDING.length];
+        int offset = 0;
+        long position = start;
+        long end = start + size;
+        do {
+            int length = (int) Math.min(CHUNK_SIZE, end - position);
+            boolean last = complete && position + length == end;
+            HeaderCodec.putRecordAad(aad, position, last ? 1 : 0, BINDING);
+            int n = crypt.openAESGcm(sealed, offset, length + RECORD_OVERHEAD, aad, buffer);
+            plain.write(buffer, 0, n);
+            offset += length + RECORD_OVERHEAD;
+            position += length;
+        } while (position < end);
+        assertEquals(sealed.length, offset);
+        return plain.toByteArray();
+    }
+}
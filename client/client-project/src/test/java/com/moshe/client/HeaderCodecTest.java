@@ -0,0 +1,98 @@
+package com.moshe.client;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import junit.framework.TestCase;
+
+/**
+ * Wire layout of the headers and fixed-layout payloads encoded by HeaderCodec.
+ */
+public class HeaderCodecTest
+    extends TestCase
+{
+    private static final byte[] CLIENT_ID = "0123456789abcdef".getBytes(StandardCharsets.UTF_8);
+
+    public void testRequestHeaderIsLittleEndianWhateverTheBufferOrder()
+    {
+        ByteBuffer little = ByteBuffer.allocate(HeaderCodec.REQUEST_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer big = ByteBuffer.allocate(HeaderCodec.REQUEST_HEADER_SIZE);
+        HeaderCodec.putRequestHeader(little, CLIENT_ID, 10, 1031, 0x01020304);
+        HeaderCodec.putRequestHeader(big, CLIENT_ID, 10, 1031, 0x01020304);
+
+        assertTrue(Arrays.equals(little.array(), big.array()));
+        byte[] bytes = big.array();
+        assertEquals(10, bytes[16]);
+        assertEquals((byte) (1031 & 0xFF), bytes[17]);
+        assertEquals((byte) (1031 >> 8), bytes[18]);
+        assertEquals(0x04, bytes[19]);
+        assertEquals(0x01, bytes[22]);
+
+        big.flip();
+        assertEquals(10, HeaderCodec.requestVersion(big));
+        assertEquals(1031, HeaderCodec.requestCode(big));
+        assertEquals(0x01020304, HeaderCodec.requestPayloadSize(big));
+        assertEquals(0, big.position());
+    }
+
+    public void testRespondHeaderRoundTrip()
+    {
+        RespondHeader header = new RespondHeader();
+        header.version = 10;
+        header.code = Constants.RESPOND_CHUNK_ACCEPTED;
+        header.payloadSize = 36;
+
+        byte[] bytes = header.toBytes();
+        assertEquals(HeaderCodec.RESPOND_HEADER_SIZE, bytes.length);
+        assertEquals(36, bytes[3]);
+
+        RespondHeader parsed = RespondHeader.fromBytes(bytes);
+        assertEquals(10, parsed.version);
+        assertEquals(Constants.RESPOND_CHUNK_ACCEPTED, parsed.code);
+        assertEquals(36, parsed.payloadSize);
+    }
+
+    public void testChunkPayloadAndAck()
+    {
+        ByteBuffer payload = ByteBuffer.allocate(Constants.CHUNK_PAYLOAD_SIZE);
+        HeaderCodec.putChunkPayload(payload, "abc".getBytes(StandardCharsets.UTF_8), 1L << 33, 7, 9,
+                Constants.FLAG_CRC32C);
+        assertFalse(payload.hasRemaining());
+
+        ByteBuffer expected = ByteBuffer.allocate(Constants.CHUNK_PAYLOAD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        expected.put("abc".getBytes(StandardCharsets.UTF_8)).position(16);
+        expected.putLong(1L << 33).putInt(7).putInt(9).putInt(Constants.FLAG_CRC32C);
+        assertTrue(Arrays.equals(expected.array(), payload.array()));
+
+        ByteBuffer ack = ByteBuffer.allocate(Constants.CHUNK_ACK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        ack.put(CLIENT_ID).putLong(1L << 33).putInt(Constants.CHUNK_STORED).putLong(5L << 30).flip();
+        assertEquals(1L << 33, HeaderCodec.chunkAckOffset(ack));
+        assertEquals(Constants.CHUNK_STORED, HeaderCodec.chunkAckStatus(ack));
+        assertEquals(5L << 30, HeaderCodec.chunkAckVerifiedOffset(ack));
+    }
+
+    public void testRecordAadEndsInTheBinding()
+    {
+        byte[] aad = new byte[9 + CLIENT_ID.length];
+        HeaderCodec.putRecordAad(aad, 1L << 33, 1 | Constants.GCM_FROM_SERVER, CLIENT_ID);
+
+        ByteBuffer expected = ByteBuffer.allocate(aad.length).order(ByteOrder.LITTLE_ENDIAN);
+        expected.putLong(1L << 33).put((byte) 3).put(CLIENT_ID);
+        assertTrue(Arrays.equals(expected.array(), aad));
+
+        // Without a binding, the layout of servers before BOUND_AAD_VERSION
+        byte[] unbound = new byte[9];
+        HeaderCodec.putRecordAad(unbound, 1L << 33, 3, new byte[0]);
+        assertTrue(Arrays.equals(Arrays.copyOf(expected.array(), 9), unbound));
+    }
+
+    public void testGetFixedStopsAtPadding()
+    {
+        byte[] field = new byte[16];
+        field[0] = 'i';
+        field[1] = 'd';
+        assertEquals("id", HeaderCodec.getFixed(field, 0, 16));
+        assertEquals("", HeaderCodec.getFixed(field, 2, 14));
+    }
+}
@@ -0,0 +1,152 @@
+package com.moshe.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import junit.framework.TestCase;
+
+/**
+ * Bytes go through the NIO transport's buffers unchanged, whether a read or a write fits in the
+ * buffer, straddles its end or is larger than it.
+ */
+public class NioTransportTest
+    extends TestCase
+{
+    private static final int CHUNK_SIZE = Constants.STREAM_CHUNK_SIZE;
+
+    private ServerSocket serverSocket;
+    private ExecutorService peer;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+        peer = Executors.newSingleThreadExecutor();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        peer.shutdownNow();
+        serverSocket.close();
+    }
+
+    public void testReadsStraddlingTheBufferEndAreComplete() throws Exception
+    {
+        byte[] content = randomBytes(5 * CHUNK_SIZE + 321);
+        Future<?> sent = peer.submit(() -> send(content));
+
+        // Reads smaller than the buffer, just over it and several times its size, in a fixed order
+        ByteBuffer received = ByteBuffer.allocate(content.length);
+        Random sizes = new Random(7);
+        try (NioTransport transport = NioTransport.connect("127.0.0.1", serverSocket.getLocalPort())) {
+            while (received.hasRemaining()) {
+                int size = Math.min(received.remaining(), 1 + sizes.nextInt(2 * CHUNK_SIZE + 100));
+                ByteBuffer dst = ByteBuffer.allocate(size);
+                transport.readFully(dst);
+                assertFalse(dst.hasRemaining());
+                received.put(dst.flip());
+            }
+        }
+        sent.get();
+        assertTrue(Arrays.equals(content, received.array()));
+    }
+
+    public void testReadsOfAByteAtATimeCrossTheBufferEnd() throws Exception
+    {
+        byte[] content = randomBytes(CHUNK_SIZE + 10);
+        Future<?> sent = peer.submit(() -> send(content));
+
+        byte[] received = new byte[content.length];
+        try (NioTransport transport = NioTransport.connect("127.0.0.1", serverSocket.getLocalPort())) {
+            // The first read fills the buffer, the rest are served from it and then refill it
+            ByteBuffer dst = ByteBuffer.allocate(1);
+            for (int i = 0; i < received.length; i++) {
+                dst.clear();
+                transport.readFully(dst);
+                received[i] = dst.get(0);
+            }
+        }
+        sent.get();
+        assertTrue(Arrays.equals(content, received));
+    }
+
+    public void testReadPastTheEndOfTheStreamFails() throws Exception
+    {
+        Future<?> sent = peer.submit(() -> send(randomBytes(100)));
+        try (NioTransport transport = NioTransport.connect("127.0.0.1", serverSocket.getLocalPort())) {
+            transport.readFully(ByteBuffer.allocate(101));
+            fail("Read more bytes than were sent");
+        } catch (EOFException e) {
+            // Expected
+        }
+        sent.get();
+    }
+
+    public void testWritesLargerThanTheBufferKeepTheOrderOfThePendingBytes() throws Exception
+    {
+        byte[] head = randomBytes(1000);
+        byte[] large = randomBytes(2 * CHUNK_SIZE + 17);
+        byte[] trailer = randomBytes(40);
+        byte[] tail = randomBytes(CHUNK_SIZE - 1);
+        int total = head.length + large.length + trailer.length + tail.length;
+        Future<byte[]> received = peer.submit(() -> receive(total));
+
+        try (NioTransport transport = NioTransport.connect("127.0.0.1", serverSocket.getLocalPort())) {
+            // Buffered, then sent with the next two in one gathering write, then buffered again
+            transport.write(ByteBuffer.wrap(head));
+            transport.write(ByteBuffer.wrap(large), ByteBuffer.wrap(trailer));
+            transport.outputStream().write(tail);
+            transport.flush();
+
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            expected.write(head);
+            expected.write(large);
+            expected.write(trailer);
+            expected.write(tail);
+            assertTrue(Arrays.equals(expected.toByteArray(), received.get()));
+        }
+    }
+
+    // Accepts the transport's connection and writes `content` to it in one go
+    private Void send(byte[] content) throws IOException
+    {
+        try (Socket socket = serverSocket.accept()) {
+            socket.getOutputStream().write(content);
+        }
+        return null;
+    }
+
+    // Accepts the transport's connection and reads `size` bytes from it
+    private byte[] receive(int size) throws IOException
+    {
+        try (Socket socket = serverSocket.accept()) {
+            InputStream in = socket.getInputStream();
+            byte[] bytes = new byte[size];
+            int read = 0;
+            while (read < size) {
+                int n = in.read(bytes, read, size - read);
+                if (n < 0) throw new EOFException();
+                read += n;
+            }
+            return bytes;
+        }
+    }
+
+    private static byte[] randomBytes(int size)
+    {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+}
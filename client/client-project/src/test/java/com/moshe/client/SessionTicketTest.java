@@ -0,0 +1,100 @@
+package com.moshe.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Comparator;
+import java.util.stream.Stream;
+import junit.framework.TestCase;
+
+/**
+ * A saved session ticket is read back as it was written, and only while it's there and complete.
+ */
+public class SessionTicketTest
+    extends TestCase
+{
+    private static final String KEY = "MDEyMzQ1Njc4OWFiY2RlZg==";
+
+    private Path directory;
+    private String path;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        directory = Files.createTempDirectory("ticket");
+        path = directory.resolve(Constants.TICKET_FILE).toString();
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    public void testSavedTicketIsLoadedBack() throws Exception
+    {
+        new SessionTicket("ticket-0123456789", System.currentTimeMillis() + 60_000, KEY).save(path);
+
+        SessionTicket loaded = SessionTicket.load(path);
+        assertNotNull(loaded);
+        assertEquals("ticket-0123456789", loaded.getId());
+        assertEquals(KEY, loaded.getEncodedAesKey());
+        assertTrue(loaded.isValid());
+    }
+
+    public void testTicketPastItsExpiryIsNotValid() throws Exception
+    {
+        SessionTicket expired = new SessionTicket("expired", System.currentTimeMillis() - 1, KEY);
+        assertFalse(expired.isValid());
+
+        expired.save(path);
+        assertFalse(SessionTicket.load(path).isValid());
+    }
+
+    public void testSaveReplacesTheTicketForTheOwnerOnly() throws Exception
+    {
+        new SessionTicket("first", System.currentTimeMillis() + 60_000, KEY).save(path);
+        new SessionTicket("second", System.currentTimeMillis() + 60_000, KEY).save(path);
+
+        assertEquals("second", SessionTicket.load(path).getId());
+        // The temporary file was moved over the ticket, nothing else is left next to it
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(1, files.count());
+        }
+        if (directory.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(Path.of(path))));
+        }
+    }
+
+    public void testMissingOrDamagedTicketIsNotLoaded() throws Exception
+    {
+        assertNull(SessionTicket.load(path));
+
+        write("ticket\n");
+        assertNull(SessionTicket.load(path));
+
+        write("ticket\nsoon\n" + KEY + "\n");
+        assertNull(SessionTicket.load(path));
+    }
+
+    public void testDeletedTicketIsGone() throws Exception
+    {
+        new SessionTicket("deleted", System.currentTimeMillis() + 60_000, KEY).save(path);
+
+        SessionTicket.delete(path);
+        assertFalse(new File(path).exists());
+        assertNull(SessionTicket.load(path));
+        // Deleting a ticket that isn't there is fine
+        SessionTicket.delete(path);
+    }
+
+    private void write(String content) throws IOException
+    {
+        Files.write(Path.of(path), content.getBytes(StandardCharsets.US_ASCII));
+    }
+}
@@ -0,0 +1,57 @@
+package com.moshe.client.metrics;
+
+import java.util.concurrent.TimeUnit;
+import junit.framework.TestCase;
+
+/**
+ * Prometheus text written by SimpleMetricsRegistry.
+ */
+public class SimpleMetricsRegistryTest
+    extends TestCase
+{
+    public void testCounterIsNamedAsMicrometerWouldAndAddsUp()
+    {
+        SimpleMetricsRegistry registry = new SimpleMetricsRegistry();
+        registry.counter("sft.client.bytes.sent", "Bytes written").increment(1000);
+        registry.counter("sft.client.bytes.sent", "Bytes written").increment(24);
+
+        String text = registry.scrape();
+        assertTrue(text.contains("# HELP sft_client_bytes_sent_total Bytes written\n"));
+        assertTrue(text.contains("# TYPE sft_client_bytes_sent_total counter\n"));
+        assertTrue(text.contains("\nsft_client_bytes_sent_total 1024\n"));
+    }
+
+    public void testTimerIsACumulativeHistogramInSeconds()
+    {
+        SimpleMetricsRegistry registry = new SimpleMetricsRegistry();
+        MetricsRegistry.Timer timer = registry.timer("sft.client.connect", "Connect time");
+        timer.record(300, TimeUnit.MICROSECONDS);
+        timer.record(2, TimeUnit.SECONDS);
+
+        String text = registry.scrape();
+        assertTrue(text.contains("# TYPE sft_client_connect_seconds histogram\n"));
+        assertTrue(text.contains("sft_client_connect_seconds_bucket{le=\"0.00025\"} 0\n"));
+        assertTrue(text.contains("sft_client_connect_seconds_bucket{le=\"0.0005\"} 1\n"));
+        assertTrue(text.contains("sft_client_connect_seconds_bucket{le=\"2.5\"} 2\n"));
+        assertTrue(text.contains("sft_client_connect_seconds_bucket{le=\"+Inf\"} 2\n"));
+        assertTrue(text.contains("sft_client_connect_seconds_sum 2.0003\n"));
+        assertTrue(text.contains("sft_client_connect_seconds_count 2\n"));
+    }
+
+    public void testSummaryUsesItsOwnBuckets()
+    {
+        SimpleMetricsRegistry registry = new SimpleMetricsRegistry();
+        MetricsRegistry.DistributionSummary retries = registry.summary("sft.client.file.retries", "Retries", 0, 1, 3);
+        retries.record(0);
+        retries.record(0);
+        retries.record(2);
+        retries.record(7);
+
+        String text = registry.scrape();
+        assertTrue(text.contains("sft_client_file_retries_bucket{le=\"0\"} 2\n"));
+        assertTrue(text.contains("sft_client_file_retries_bucket{le=\"1\"} 2\n"));
+        assertTrue(text.contains("sft_client_file_retries_bucket{le=\"3\"} 3\n"));
+        assertTrue(text.contains("sft_client_file_retries_bucket{le=\"+Inf\"} 4\n"));
+        assertTrue(text.contains("sft_client_file_retries_sum 9\n"));
+    }
+}
@@ -0,0 +1,88 @@
+package com.moshe.client.utils;
+
+import com.moshe.client.Constants;
+import java.io.File;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import junit.framework.TestCase;
+
+/**
+ * Content-defined chunks cover the file within the size limits, and survive an insertion.
+ */
+public class ChunkingUtilsTest
+    extends TestCase
+{
+    // Several read buffers, so boundaries fall across them
+    private static final int SIZE = 5 * 1024 * 1024 + 7;
+
+    private static List<ChunkingUtils.Chunk> split(byte[] content) throws Exception
+    {
+        File file = File.createTempFile("chunking", ".bin");
+        try {
+            Files.write(file.toPath(), content);
+            return ChunkingUtils.split(file);
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testChunksCoverTheFileWithinTheSizeLimits() throws Exception
+    {
+        byte[] content = new byte[SIZE];
+        new Random(13).nextBytes(content);
+        List<ChunkingUtils.Chunk> chunks = split(content);
+
+        MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+        long offset = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            ChunkingUtils.Chunk chunk = chunks.get(i);
+            assertEquals(offset, chunk.offset);
+            assertTrue("chunk " + i + " of " + chunk.length, chunk.length <= Constants.DEDUP_MAX_CHUNK);
+            if (i < chunks.size() - 1) {
+                assertTrue("chunk " + i + " of " + chunk.length, chunk.length >= Constants.DEDUP_MIN_CHUNK);
+            }
+            sha256.update(content, (int) chunk.offset, chunk.length);
+            assertTrue("hash of chunk " + i, Arrays.equals(sha256.digest(), chunk.hash));
+            offset += chunk.length;
+        }
+        assertEquals(SIZE, offset);
+        // Random content has its boundaries close to the average size, not at the limits
+        assertTrue(chunks.size() > SIZE / Constants.DEDUP_MAX_CHUNK);
+        assertTrue(chunks.size() < SIZE / Constants.DEDUP_MIN_CHUNK);
+    }
+
+    public void testInsertionOnlyChangesTheChunksAroundIt() throws Exception
+    {
+        byte[] content = new byte[SIZE];
+        new Random(17).nextBytes(content);
+        byte[] inserted = new byte[SIZE + 100];
+        int at = SIZE / 2;
+        System.arraycopy(content, 0, inserted, 0, at);
+        Arrays.fill(inserted, at, at + 100, (byte) 'x');
+        System.arraycopy(content, at, inserted, at + 100, SIZE - at);
+
+        List<ChunkingUtils.Chunk> before = split(content);
+        List<ChunkingUtils.Chunk> after = split(inserted);
+        Set<String> hashes = new HashSet<>();
+        for (ChunkingUtils.Chunk chunk : before) {
+            hashes.add(Base64.getEncoder().encodeToString(chunk.hash));
+        }
+        int changed = 0;
+        for (ChunkingUtils.Chunk chunk : after) {
+            if (!hashes.contains(Base64.getEncoder().encodeToString(chunk.hash))) changed++;
+        }
+        // The chunk holding the insertion, and at most one more before the boundaries line up again
+        assertTrue(changed + " of " + after.size() + " chunks changed", changed >= 1 && changed <= 2);
+    }
+
+    public void testEmptyFileHasNoChunks() throws Exception
+    {
+        assertTrue(split(new byte[0]).isEmpty());
+    }
+}
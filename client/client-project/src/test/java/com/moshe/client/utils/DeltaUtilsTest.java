@@ -0,0 +1,129 @@
+package com.moshe.client.utils;
+
+import com.moshe.client.Constants;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * The rolling Adler-32 follows its window, and deltas rebuild the new file from the base's blocks.
+ */
+public class DeltaUtilsTest
+    extends TestCase
+{
+    private static final int BLOCK_SIZE = 4096;
+
+    public void testRollingChecksumMatchesTheMovedWindow()
+    {
+        byte[] data = new byte[20_000];
+        new Random(23).nextBytes(data);
+        int window = 2048;
+        int checksum = DeltaUtils.adler32(data, 0, window);
+        for (int start = 1; start + window <= data.length; start++) {
+            checksum = DeltaUtils.rollAdler32(checksum, data[start - 1], data[start + window - 1], window);
+            assertEquals("window at " + start, DeltaUtils.adler32(data, start, window), checksum);
+        }
+    }
+
+    public void testDeltaOfAnEditedFileRebuildsIt() throws Exception
+    {
+        byte[] base = new byte[1_000_000];
+        new Random(29).nextBytes(base);
+        ByteArrayOutputStream edited = new ByteArrayOutputStream();
+        edited.write(base, 0, 300_000);
+        edited.write(new byte[777], 0, 777);
+        edited.write(base, 300_000, 400_000);
+        byte[] changed = Arrays.copyOfRange(base, 700_000, 1_000_000);
+        changed[5] ^= 1;
+        edited.write(changed, 0, changed.length);
+        edited.write(new byte[]{1, 2, 3}, 0, 3);
+        byte[] content = edited.toByteArray();
+
+        byte[] delta = writeDelta(content, signature(base));
+
+        assertTrue(Arrays.equals(content, apply(delta, base)));
+        // The insertion, the block with the changed byte and the appended bytes are sent, not the rest
+        assertTrue("delta of " + delta.length + " bytes", delta.length < 4 * BLOCK_SIZE);
+    }
+
+    public void testDeltaOfAnUnchangedFileIsOneCopy() throws Exception
+    {
+        byte[] base = new byte[10 * BLOCK_SIZE + 100];
+        new Random(31).nextBytes(base);
+
+        byte[] delta = writeDelta(base, signature(base));
+
+        assertEquals(9, delta.length);
+        assertEquals(Constants.DELTA_COPY, delta[0]);
+        assertTrue(Arrays.equals(base, apply(delta, base)));
+    }
+
+    public void testDeltaAgainstNoBaseIsAllLiteral() throws Exception
+    {
+        byte[] content = new byte[300_000];
+        new Random(37).nextBytes(content);
+
+        byte[] delta = writeDelta(content, signature(new byte[0]));
+
+        assertTrue(Arrays.equals(content, apply(delta, new byte[0])));
+    }
+
+    // Signs the base as the server does: Adler-32 and the truncated SHA-256 of every block
+    private static DeltaUtils.Signature signature(byte[] base) throws Exception
+    {
+        int count = (base.length + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int[] weak = new int[count];
+        byte[][] strong = new byte[count][];
+        MessageDigest sha256 = MessageDigest.getInstance("SHA-256");
+        for (int i = 0; i < count; i++) {
+            int length = Math.min(BLOCK_SIZE, base.length - i * BLOCK_SIZE);
+            weak[i] = DeltaUtils.adler32(base, i * BLOCK_SIZE, length);
+            sha256.update(base, i * BLOCK_SIZE, length);
+            strong[i] = Arrays.copyOf(sha256.digest(), Constants.DELTA_STRONG_HASH_SIZE);
+        }
+        return new DeltaUtils.Signature(base.length, BLOCK_SIZE, weak, strong);
+    }
+
+    // Writes the delta of the content, checking the size and hash it reports
+    private static byte[] writeDelta(byte[] content, DeltaUtils.Signature base) throws Exception
+    {
+        File file = File.createTempFile("delta", ".bin");
+        try {
+            Files.write(file.toPath(), content);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            DeltaUtils.Delta delta = DeltaUtils.writeDelta(file, base, out);
+            assertEquals(content.length, delta.fileSize);
+            assertTrue(Arrays.equals(MessageDigest.getInstance("SHA-256").digest(content), delta.hash));
+            return out.toByteArray();
+        } finally {
+            file.delete();
+        }
+    }
+
+    // Rebuilds the file from the instructions, as the server does
+    private static byte[] apply(byte[] delta, byte[] base)
+    {
+        ByteBuffer instructions = ByteBuffer.wrap(delta).order(ByteOrder.LITTLE_ENDIAN);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while (instructions.hasRemaining()) {
+            byte type = instructions.get();
+            if (type == Constants.DELTA_LITERAL) {
+                int length = instructions.getInt();
+                out.write(delta, instructions.position(), length);
+                instructions.position(instructions.position() + length);
+            } else {
+                assertEquals(Constants.DELTA_COPY, type);
+                int start = instructions.getInt() * BLOCK_SIZE;
+                int end = Math.min(base.length, start + instructions.getInt() * BLOCK_SIZE);
+                out.write(base, start, end - start);
+            }
+        }
+        return out.toByteArray();
+    }
+}
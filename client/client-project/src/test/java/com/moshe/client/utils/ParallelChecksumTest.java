@@ -0,0 +1,71 @@
+package com.moshe.client.utils;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Checksum;
+import junit.framework.TestCase;
+
+/**
+ * CRCs combined from parts, and computed in parallel segments, match the sequential ones.
+ */
+public class ParallelChecksumTest
+    extends TestCase
+{
+    private static int sequential(byte[] data, int offset, int length, boolean crc32c)
+    {
+        Checksum checksum = CRCUtils.newChecksum(crc32c);
+        checksum.update(data, offset, length);
+        return (int) checksum.getValue();
+    }
+
+    public void testCombineMatchesTheCrcOfTheConcatenation()
+    {
+        byte[] data = new byte[100_000];
+        new Random(7).nextBytes(data);
+        for (boolean crc32c : new boolean[]{false, true}) {
+            for (int split : new int[]{0, 1, 3, 4096, 65537, data.length}) {
+                int first = sequential(data, 0, split, crc32c);
+                int second = sequential(data, split, data.length - split, crc32c);
+                assertEquals("split at " + split + (crc32c ? ", CRC32C" : ", CRC32"),
+                        sequential(data, 0, data.length, crc32c),
+                        ParallelChecksum.combine(first, second, data.length - split, crc32c));
+            }
+        }
+    }
+
+    public void testSegmentedFileChecksumMatchesSequential() throws Exception
+    {
+        byte[] data = new byte[1_000_003];
+        new Random(11).nextBytes(data);
+        File file = File.createTempFile("parallel-crc", ".bin");
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Files.write(file.toPath(), data);
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                for (boolean crc32c : new boolean[]{false, true}) {
+                    // Segments that divide the file evenly or not, and a single one
+                    for (long segmentSize : new long[]{4096, 65_536, 333_334, data.length}) {
+                        assertEquals("segments of " + segmentSize,
+                                sequential(data, 0, data.length, crc32c),
+                                ParallelChecksum.checksum(channel, 0, data.length, crc32c, pool, segmentSize));
+                    }
+                }
+            }
+            assertEquals(CRCUtils.calculateFileChecksum(file.getPath(), false),
+                    CRCUtils.toHex(ParallelChecksum.checksum(file.toPath(), false, pool)));
+        } finally {
+            pool.shutdown();
+            file.delete();
+        }
+    }
+
+    public void testHexIsEightDigits()
+    {
+        assertEquals("0000abcd", CRCUtils.toHex(0xabcd));
+        assertEquals("ffffffff", CRCUtils.toHex(-1));
+    }
+}
@@ -0,0 +1,202 @@
+package com.moshe.client.load;
+
+import com.moshe.client.server.ReferenceServer;
+import com.moshe.client.utils.Logger;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+
+// Simulates many users of the client at once against a server, to see how it holds up at a given
+// number of concurrent uploaders. Each virtual client runs sessions of register or login and
+// uploads with think time in between (see VirtualClient). Prints throughput, latency percentiles
+// and error rates per protocol phase, and writes the latencies of every interval to an HdrHistogram
+// log, one tag per phase, for HistogramLogAnalyzer or HdrHistogram's log processor.
+//
+// Run: java -jar target/load-generator.jar --server=HOST:PORT --clients=1000 [options]
+//      --embedded                  load an in-process ReferenceServer instead of --server
+//      --ramp-up=10 --duration=60  seconds
+//      --sizes=lognormal:256KB:1.5 file sizes, see SizeDistribution
+//      --pool=64                   sample files generated from the size distribution
+//      --register-ratio=0.1        fraction of sessions that register a new identity
+//      --files-per-session=1 --think=1000 (mean milliseconds)
+//      --cipher=cbc|gcm --resume --no-ticket
+//      --interval=5 --hlog=load.hlog --seed=N
+public final class LoadGenerator {
+
+    private final LoadOptions options;
+    private final PhaseStats stats = new PhaseStats();
+
+    private LoadGenerator(LoadOptions options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadOptions options;
+        try {
+            options = LoadOptions.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        ReferenceServer server = null;
+        Path storage = null;
+        if (options.embedded) {
+            storage = Files.createTempDirectory("load-server");
+            server = new ReferenceServer(storage);
+            server.start(0);
+            options.host = "127.0.0.1";
+            options.port = server.port();
+        }
+        try {
+            new LoadGenerator(options).run();
+        } finally {
+            if (server != null) {
+                server.close();
+                deleteAll(storage);
+            }
+        }
+    }
+
+    private void run() throws Exception {
+        Path pool = Files.createTempDirectory("load-files");
+        try {
+            List<File> files = createFiles(pool);
+            Logger.log("LOAD", String.format("%d clients against %s:%d, ramp-up %d s, duration %d s, sizes %s",
+                    options.clients, options.host, options.port, options.rampUpSeconds,
+                    options.durationSeconds, options.sizesSpec));
+
+            long start = System.currentTimeMillis() + 1000;
+            long deadline = start + TimeUnit.SECONDS.toMillis(options.rampUpSeconds + options.durationSeconds);
+            // Names are unique per run, a persistent server rejects names registered before
+            String runName = "load-" + Long.toString(start, 36);
+            Random seeds = new Random(options.seed);
+
+            ExecutorService executor = newExecutor(options.clients);
+            for (int i = 0; i < options.clients; i++) {
+                long startAt = start + TimeUnit.SECONDS.toMillis(options.rampUpSeconds) * i / options.clients;
+                executor.execute(new VirtualClient(options, stats, files, runName + "-" + i,
+                        startAt, deadline, seeds.nextLong()));
+            }
+            executor.shutdown();
+
+            try (PrintStream log = new PrintStream(options.histogramLog)) {
+                HistogramLogWriter writer = new HistogramLogWriter(log);
+                writer.outputComment("Latencies of the protocol phases in microseconds, one tag per phase");
+                writer.outputLogFormatVersion();
+                writer.outputStartTime(start);
+                writer.setBaseTime(start);
+                writer.outputLegend();
+                report(executor, writer, start);
+            }
+            printSummary(System.currentTimeMillis() - start);
+        } finally {
+            deleteAll(pool);
+        }
+    }
+
+    // Sample files drawn from the size distribution, picked at random for each upload
+    private List<File> createFiles(Path directory) throws IOException {
+        Random random = new Random(options.seed);
+        List<File> files = new ArrayList<>();
+        byte[] block = new byte[1024 * 1024];
+        long total = 0;
+        for (int i = 0; i < options.poolSize; i++) {
+            long size = options.sizes.sample(random);
+            File file = directory.resolve("load-" + i + ".bin").toFile();
+            try (OutputStream out = Files.newOutputStream(file.toPath())) {
+                for (long written = 0; written < size; written += block.length) {
+                    random.nextBytes(block);
+                    out.write(block, 0, (int) Math.min(block.length, size - written));
+                }
+            }
+            files.add(file);
+            total += size;
+        }
+        Logger.log("LOAD", String.format("Generated %d files, %.1f MB in total.", files.size(), total / 1048576.0));
+        return files;
+    }
+
+    // Writes every interval to the histogram log and prints a progress line, until all clients finished
+    private void report(ExecutorService executor, HistogramLogWriter writer, long start) throws InterruptedException {
+        long files = 0;
+        long bytes = 0;
+        boolean finished = false;
+        while (!finished) {
+            finished = executor.awaitTermination(options.intervalSeconds, TimeUnit.SECONDS);
+
+            Histogram send = null;
+            for (Phase phase : Phase.values()) {
+                Histogram interval = stats.nextInterval(phase);
+                interval.setTag(phase.tag);
+                if (interval.getTotalCount() > 0) writer.outputIntervalHistogram(interval);
+                if (phase == Phase.SEND) send = interval;
+            }
+
+            long intervalFiles = stats.files() - files;
+            long intervalBytes = stats.bytes() - bytes;
+            files += intervalFiles;
+            bytes += intervalBytes;
+            Logger.log("LOAD", String.format("%6.0f s: %6.1f files/s, %8.2f MB/s, send p99 %8.1f ms, %d errors",
+                    (System.currentTimeMillis() - start) / 1000.0,
+                    intervalFiles / (double) options.intervalSeconds,
+                    intervalBytes / 1048576.0 / options.intervalSeconds,
+                    send.getValueAtPercentile(99) / 1000.0, stats.errors()));
+        }
+    }
+
+    private void printSummary(long elapsedMillis) {
+        double seconds = elapsedMillis / 1000.0;
+        Logger.log("SUMMARY", String.format("%d files, %.1f MB in %.1f s: %.1f files/s, %.2f MB/s",
+                stats.files(), stats.bytes() / 1048576.0, seconds,
+                stats.files() / seconds, stats.bytes() / 1048576.0 / seconds));
+        Logger.log("SUMMARY", String.format("%-12s %9s %8s %7s %10s %10s %10s %10s",
+                "phase", "count", "errors", "error%", "p50 ms", "p99 ms", "p999 ms", "max ms"));
+        for (Phase phase : Phase.values()) {
+            Histogram total = stats.total(phase);
+            long errors = stats.errors(phase);
+            long attempts = total.getTotalCount() + errors;
+            Logger.log("SUMMARY", String.format("%-12s %9d %8d %6.2f%% %10.2f %10.2f %10.2f %10.2f",
+                    phase.tag, total.getTotalCount(), errors, attempts == 0 ? 0 : 100.0 * errors / attempts,
+                    total.getValueAtPercentile(50) / 1000.0, total.getValueAtPercentile(99) / 1000.0,
+                    total.getValueAtPercentile(99.9) / 1000.0, total.getMaxValue() / 1000.0));
+        }
+        Logger.log("SUMMARY", "Interval histograms written to " + options.histogramLog);
+    }
+
+    // A virtual thread per client when available, looked up reflectively to keep building for Java 11.
+    // Otherwise a platform thread per client, with a small stack so thousands of them fit.
+    private static ExecutorService newExecutor(int clients) {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(clients, runnable -> {
+                Thread thread = new Thread(null, runnable, "virtual-client", 256 * 1024);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private static void deleteAll(Path directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.moshe.client.load;
+
+import com.moshe.client.CipherMode;
+
+// Command line options of LoadGenerator
+final class LoadOptions {
+    // Server to load, or an in-process reference server with --embedded
+    String host = "127.0.0.1";
+    int port = 1357;
+    boolean embedded = false;
+
+    // Number of virtual clients, each a loop of sessions on its own connection
+    int clients = 100;
+    // Seconds over which the clients start, evenly spread
+    int rampUpSeconds = 10;
+    // Seconds the run lasts after the ramp-up
+    int durationSeconds = 60;
+
+    // Sizes of the uploaded files, and how many sample files are generated from it
+    String sizesSpec = "lognormal:256KB:1.5";
+    SizeDistribution sizes = SizeDistribution.parse(sizesSpec);
+    int poolSize = 64;
+
+    // Fraction of sessions after a client's first that register a new identity instead of logging in
+    double registerRatio = 0.1;
+    // Files uploaded in each session
+    int filesPerSession = 1;
+    // Mean pause between files and between sessions, drawn from an exponential distribution
+    long thinkMillis = 1000;
+
+    CipherMode cipher = CipherMode.CBC;
+    boolean resume = false;
+    boolean tickets = true;
+
+    // Seconds between progress lines and between the intervals of the histogram log
+    int intervalSeconds = 5;
+    String histogramLog = "load.hlog";
+    long seed = System.nanoTime();
+
+    static LoadOptions parse(String[] args) {
+        LoadOptions options = new LoadOptions();
+        for (String arg : args) {
+            if (arg.startsWith("--server=")) {
+                String server = valueOf(arg);
+                int colon = server.lastIndexOf(':');
+                if (colon < 0) throw new IllegalArgumentException("Expected --server=HOST:PORT, got " + arg);
+                options.host = server.substring(0, colon);
+                options.port = Integer.parseInt(server.substring(colon + 1));
+            } else if (arg.equals("--embedded")) {
+                options.embedded = true;
+            } else if (arg.startsWith("--clients=")) {
+                options.clients = positive(arg);
+            } else if (arg.startsWith("--ramp-up=")) {
+                options.rampUpSeconds = Integer.parseInt(valueOf(arg));
+            } else if (arg.startsWith("--duration=")) {
+                options.durationSeconds = positive(arg);
+            } else if (arg.startsWith("--sizes=")) {
+                options.sizesSpec = valueOf(arg);
+                options.sizes = SizeDistribution.parse(options.sizesSpec);
+            } else if (arg.startsWith("--pool=")) {
+                options.poolSize = positive(arg);
+            } else if (arg.startsWith("--register-ratio=")) {
+                options.registerRatio = Double.parseDouble(valueOf(arg));
+                if (options.registerRatio < 0 || options.registerRatio > 1) {
+                    throw new IllegalArgumentException("--register-ratio must be between 0 and 1");
+                }
+            } else if (arg.startsWith("--files-per-session=")) {
+                options.filesPerSession = positive(arg);
+            } else if (arg.startsWith("--think=")) {
+                options.thinkMillis = Long.parseLong(valueOf(arg));
+            } else if (arg.startsWith("--cipher=")) {
+                options.cipher = CipherMode.fromName(valueOf(arg));
+            } else if (arg.equals("--resume")) {
+                options.resume = true;
+            } else if (arg.equals("--no-ticket")) {
+                options.tickets = false;
+            } else if (arg.startsWith("--interval=")) {
+                options.intervalSeconds = positive(arg);
+            } else if (arg.startsWith("--hlog=")) {
+                options.histogramLog = valueOf(arg);
+            } else if (arg.startsWith("--seed=")) {
+                options.seed = Long.parseLong(valueOf(arg));
+            } else {
+                throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        return options;
+    }
+
+    // Value of a --name=value option
+    private static String valueOf(String arg) {
+        return arg.substring(arg.indexOf('=') + 1);
+    }
+
+    private static int positive(String arg) {
+        int value = Integer.parseInt(valueOf(arg));
+        if (value < 1) throw new IllegalArgumentException(arg.substring(0, arg.indexOf('=')) + " must be at least 1");
+        return value;
+    }
+}
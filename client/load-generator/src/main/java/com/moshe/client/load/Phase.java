@@ -0,0 +1,21 @@
+package com.moshe.client.load;
+
+// Protocol phases timed by the load generator, each with its own latency histogram
+enum Phase {
+    CONNECT("connect"),
+    REGISTER("register"),
+    SHARE_KEY("share-key"),
+    LOGIN("login"),
+    // Whole upload of one file, up to the server's checksum or its confirmation for GCM and
+    // resumable uploads
+    SEND("send"),
+    // Confirmation of the CRC the client checked, CBC uploads only
+    CRC_CONFIRM("crc-confirm");
+
+    // Tag of the phase's histograms in the HdrHistogram log
+    final String tag;
+
+    Phase(String tag) {
+        this.tag = tag;
+    }
+}
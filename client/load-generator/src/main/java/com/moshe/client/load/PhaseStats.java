@@ -0,0 +1,81 @@
+package com.moshe.client.load;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+
+// Latencies and errors of every phase. Virtual clients record into lock-free recorders; the
+// reporting thread takes a histogram of each interval from them, for the log, and adds it to the
+// totals of the run. Latencies are kept in microseconds.
+final class PhaseStats {
+
+    private static final long HIGHEST_LATENCY_MICROS = TimeUnit.HOURS.toMicros(1);
+    private static final int SIGNIFICANT_DIGITS = 3;
+
+    private static final class Entry {
+        final Recorder recorder = new Recorder(HIGHEST_LATENCY_MICROS, SIGNIFICANT_DIGITS);
+        final Histogram total = new Histogram(HIGHEST_LATENCY_MICROS, SIGNIFICANT_DIGITS);
+        final LongAdder errors = new LongAdder();
+        Histogram interval;
+    }
+
+    private final Map<Phase, Entry> entries = new EnumMap<>(Phase.class);
+    private final LongAdder files = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+
+    PhaseStats() {
+        for (Phase phase : Phase.values()) {
+            entries.put(phase, new Entry());
+        }
+    }
+
+    void recordSuccess(Phase phase, long nanos) {
+        long micros = Math.min(TimeUnit.NANOSECONDS.toMicros(nanos), HIGHEST_LATENCY_MICROS);
+        entries.get(phase).recorder.recordValue(micros);
+    }
+
+    void recordError(Phase phase) {
+        entries.get(phase).errors.increment();
+    }
+
+    void fileUploaded(long size) {
+        files.increment();
+        bytes.add(size);
+    }
+
+    long files() {
+        return files.sum();
+    }
+
+    long bytes() {
+        return bytes.sum();
+    }
+
+    long errors() {
+        long errors = 0;
+        for (Entry entry : entries.values()) {
+            errors += entry.errors.sum();
+        }
+        return errors;
+    }
+
+    long errors(Phase phase) {
+        return entries.get(phase).errors.sum();
+    }
+
+    // Takes the latencies recorded since the last call, adds them to the totals and returns them.
+    // Only called by the reporting thread.
+    Histogram nextInterval(Phase phase) {
+        Entry entry = entries.get(phase);
+        entry.interval = entry.recorder.getIntervalHistogram(entry.interval);
+        entry.total.add(entry.interval);
+        return entry.interval;
+    }
+
+    Histogram total(Phase phase) {
+        return entries.get(phase).total;
+    }
+}
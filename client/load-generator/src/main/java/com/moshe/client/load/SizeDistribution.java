@@ -0,0 +1,115 @@
+package com.moshe.client.load;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+// File sizes the virtual clients upload, parsed from --sizes:
+//   64KB                       every file the same size
+//   1KB-10MB                   uniform between the two sizes
+//   lognormal:256KB:1.5        log-normal with the given median and sigma, the usual shape of real files
+//   64KB*70,1MB*25,100MB*5     a weighted mix of the other forms
+abstract class SizeDistribution {
+
+    abstract long sample(Random random);
+
+    static SizeDistribution parse(String spec) {
+        if (spec.contains(",") || spec.contains("*")) return Mix.parse(spec);
+        if (spec.startsWith("lognormal:")) {
+            String[] parts = spec.split(":");
+            if (parts.length != 3) throw new IllegalArgumentException("Expected lognormal:MEDIAN:SIGMA, got " + spec);
+            return new LogNormal(parseSize(parts[1]), Double.parseDouble(parts[2]));
+        }
+        int dash = spec.indexOf('-');
+        if (dash > 0) return new Uniform(parseSize(spec.substring(0, dash)), parseSize(spec.substring(dash + 1)));
+        return new Fixed(parseSize(spec));
+    }
+
+    // A size like 512, 64KB, 1.5MB or 2GB, in powers of 1024
+    static long parseSize(String size) {
+        String value = size.trim().toUpperCase(Locale.ROOT);
+        long unit = 1;
+        if (value.endsWith("KB")) unit = 1024L;
+        else if (value.endsWith("MB")) unit = 1024L * 1024;
+        else if (value.endsWith("GB")) unit = 1024L * 1024 * 1024;
+        if (unit > 1) value = value.substring(0, value.length() - 2);
+        else if (value.endsWith("B")) value = value.substring(0, value.length() - 1);
+        long bytes = (long) (Double.parseDouble(value) * unit);
+        if (bytes < 0) throw new IllegalArgumentException("Negative size: " + size);
+        return bytes;
+    }
+
+    static final class Fixed extends SizeDistribution {
+        private final long size;
+
+        Fixed(long size) {
+            this.size = size;
+        }
+
+        @Override
+        long sample(Random random) {
+            return size;
+        }
+    }
+
+    static final class Uniform extends SizeDistribution {
+        private final long min;
+        private final long max;
+
+        Uniform(long min, long max) {
+            if (max < min) throw new IllegalArgumentException("Empty size range " + min + "-" + max);
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        long sample(Random random) {
+            return min + (long) (random.nextDouble() * (max - min + 1));
+        }
+    }
+
+    static final class LogNormal extends SizeDistribution {
+        private final double mu;
+        private final double sigma;
+
+        LogNormal(long median, double sigma) {
+            this.mu = Math.log(Math.max(1, median));
+            this.sigma = sigma;
+        }
+
+        @Override
+        long sample(Random random) {
+            return (long) Math.exp(mu + sigma * random.nextGaussian());
+        }
+    }
+
+    static final class Mix extends SizeDistribution {
+        private final List<SizeDistribution> parts = new ArrayList<>();
+        // Running sum of the weights, one per part
+        private final List<Double> cumulative = new ArrayList<>();
+
+        static Mix parse(String spec) {
+            Mix mix = new Mix();
+            double total = 0;
+            for (String part : spec.split(",")) {
+                int star = part.lastIndexOf('*');
+                double weight = star < 0 ? 1 : Double.parseDouble(part.substring(star + 1));
+                if (weight <= 0) throw new IllegalArgumentException("Weights must be positive: " + part);
+                total += weight;
+                mix.parts.add(SizeDistribution.parse(star < 0 ? part : part.substring(0, star)));
+                mix.cumulative.add(total);
+            }
+            return mix;
+        }
+
+        @Override
+        long sample(Random random) {
+            double pick = random.nextDouble() * cumulative.get(cumulative.size() - 1);
+            for (int i = 0; i < parts.size(); i++) {
+                if (pick < cumulative.get(i)) return parts.get(i).sample(random);
+            }
+            return parts.get(parts.size() - 1).sample(random);
+        }
+    }
+}
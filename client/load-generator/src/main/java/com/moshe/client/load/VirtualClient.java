@@ -0,0 +1,126 @@
+package com.moshe.client.load;
+
+import com.moshe.client.Client;
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+
+// One simulated user: a loop of sessions, each a new connection that registers a new identity or
+// logs in as the current one, uploads a few files and disconnects, with think time in between.
+// Every phase is timed into PhaseStats; a failed phase ends its session.
+final class VirtualClient implements Runnable {
+
+    private interface Step {
+        boolean run() throws Exception;
+    }
+
+    private final LoadOptions options;
+    private final PhaseStats stats;
+    private final List<File> files;
+    private final String namePrefix;
+    private final long startAt;
+    private final long deadline;
+    private final Random random;
+    private final Client client = new Client();
+    private boolean registered = false;
+    private int identities = 0;
+
+    VirtualClient(LoadOptions options, PhaseStats stats, List<File> files, String namePrefix,
+                  long startAt, long deadline, long seed) {
+        this.options = options;
+        this.stats = stats;
+        this.files = files;
+        this.namePrefix = namePrefix;
+        this.startAt = startAt;
+        this.deadline = deadline;
+        this.random = new Random(seed);
+
+        client.setServer(options.host, options.port);
+        client.setPersistent(false);
+        client.setLogging(false);
+        client.setCipherMode(options.cipher);
+        client.setResumable(options.resume);
+        client.setUseTickets(options.tickets);
+    }
+
+    @Override
+    public void run() {
+        try {
+            sleepUntil(startAt);
+            while (System.currentTimeMillis() < deadline) {
+                // A client that couldn't register yet has no identity to log in with
+                boolean register = !registered || random.nextDouble() < options.registerRatio;
+                try {
+                    session(register);
+                } finally {
+                    client.close();
+                }
+                think();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void session(boolean register) throws InterruptedException {
+        if (!timed(Phase.CONNECT, client::connectToServer)) return;
+
+        if (register) {
+            client.setClientName(namePrefix + "-" + identities++);
+            if (!timed(Phase.REGISTER, client::registerClient)) return;
+            if (!timed(Phase.SHARE_KEY, client::shareKey)) return;
+            registered = true;
+        } else if (!timed(Phase.LOGIN, client::login)) {
+            return;
+        }
+
+        for (int i = 0; i < options.filesPerSession && System.currentTimeMillis() < deadline; i++) {
+            if (i > 0) think();
+            File file = files.get(random.nextInt(files.size()));
+            client.setTransferFileName(file.getPath());
+            if (!upload()) return;
+            stats.fileUploaded(file.length());
+        }
+    }
+
+    // Uploads the current file once, without the client's own retries, so every failure counts
+    private boolean upload() {
+        if (client.supportsResume()) {
+            return timed(Phase.SEND, client::transferFile);
+        }
+        boolean gcm = client.usesGcm();
+        boolean sent = timed(Phase.SEND, () -> client.sendFile()
+                && (gcm ? client.checkAuthenticated() : client.checkAccept(1)));
+        if (!sent || gcm) return sent;
+        return timed(Phase.CRC_CONFIRM, () -> client.confirmCRC(1));
+    }
+
+    private boolean timed(Phase phase, Step step) {
+        long start = System.nanoTime();
+        boolean success;
+        try {
+            success = step.run();
+        } catch (Exception e) {
+            success = false;
+        }
+        if (success) {
+            stats.recordSuccess(phase, System.nanoTime() - start);
+        } else {
+            stats.recordError(phase);
+        }
+        return success;
+    }
+
+    // Pauses for an exponentially distributed time around the mean think time, as independent
+    // users would, but not past the end of the run
+    private void think() throws InterruptedException {
+        if (options.thinkMillis <= 0) return;
+        long pause = (long) (-options.thinkMillis * Math.log(1 - random.nextDouble()));
+        sleepUntil(Math.min(System.currentTimeMillis() + pause, deadline));
+    }
+
+    private static void sleepUntil(long time) throws InterruptedException {
+        long pause = time - System.currentTimeMillis();
+        if (pause > 0) Thread.sleep(pause);
+    }
+}
@@ -0,0 +1,54 @@
+package com.moshe.client.load;
+
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * Parsing and sampling of the --sizes forms.
+ */
+public class SizeDistributionTest
+    extends TestCase
+{
+    public void testSizeUnits()
+    {
+        assertEquals(512, SizeDistribution.parseSize("512"));
+        assertEquals(512, SizeDistribution.parseSize("512B"));
+        assertEquals(64 * 1024, SizeDistribution.parseSize("64KB"));
+        assertEquals(1536 * 1024, SizeDistribution.parseSize("1.5mb"));
+        assertEquals(2L * 1024 * 1024 * 1024, SizeDistribution.parseSize("2GB"));
+    }
+
+    public void testFixedAndUniform()
+    {
+        Random random = new Random(1);
+        assertEquals(65536, SizeDistribution.parse("64KB").sample(random));
+
+        SizeDistribution uniform = SizeDistribution.parse("1KB-2KB");
+        for (int i = 0; i < 1000; i++) {
+            long size = uniform.sample(random);
+            assertTrue(size >= 1024 && size <= 2048);
+        }
+    }
+
+    public void testMixFollowsWeights()
+    {
+        Random random = new Random(2);
+        SizeDistribution mix = SizeDistribution.parse("1KB*90,1MB*10");
+        int large = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (mix.sample(random) == 1024 * 1024) large++;
+        }
+        assertTrue("large files: " + large, large > 800 && large < 1200);
+    }
+
+    public void testLogNormalMedian()
+    {
+        Random random = new Random(3);
+        SizeDistribution logNormal = SizeDistribution.parse("lognormal:256KB:1.5");
+        int below = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (logNormal.sample(random) < 256 * 1024) below++;
+        }
+        assertTrue("below the median: " + below, below > 4700 && below < 5300);
+    }
+}
@@ -0,0 +1,525 @@
+package com.moshe.client.server;
+
+import com.moshe.client.Constants;
+import com.moshe.client.HeaderCodec;
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.SecureRandom;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+// One client connection: reads requests one after another and answers them, as the Python server
+// does, until the client disconnects or sends something it doesn't understand.
+final class Connection implements Runnable {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final byte[] NO_PAYLOAD = new byte[0];
+
+    private final ReferenceServer server;
+    private final Registry registry;
+    private final Socket socket;
+    private final DataInputStream in;
+    private final OutputStream out;
+    private final ContentReceiver receiver;
+
+    private final ByteBuffer requestHeader = ByteBuffer.allocate(HeaderCodec.REQUEST_HEADER_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer respondHeader = ByteBuffer.allocate(HeaderCodec.RESPOND_HEADER_SIZE)
+            .order(ByteOrder.LITTLE_ENDIAN);
+
+    // Protocol version agreed with the client, echoed in every response header
+    private int version = ReferenceServer.VERSION;
+    private String requestClientId = "";
+    private Registry.ClientRecord client;
+    private String aesKey;
+    private SecretKeySpec aesKeySpec;
+    // Challenge the next session resumption must seal, issued for one attempt
+    private byte[] resumeChallenge;
+    // Files received but not yet confirmed by the client, by name, and the last one received
+    private final Map<String, Boolean> pendingFiles = new HashMap<>();
+    private String lastFileName = "";
+
+    Connection(ReferenceServer server, Socket socket) throws IOException, GeneralSecurityException {
+        this.server = server;
+        this.registry = server.registry();
+        this.socket = socket;
+        socket.setTcpNoDelay(true);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), Constants.STREAM_CHUNK_SIZE));
+        this.out = new BufferedOutputStream(socket.getOutputStream(), 1024);
+        this.receiver = new ContentReceiver(in);
+    }
+
+    @Override
+    public void run() {
+        try (Socket s = socket) {
+            while (true) {
+                try {
+                    in.readFully(requestHeader.array());
+                } catch (EOFException e) {
+                    return;
+                }
+                requestClientId = HeaderCodec.getFixed(requestHeader.array(), 0, HeaderCodec.CLIENT_ID_SIZE);
+                version = Math.min(HeaderCodec.requestVersion(requestHeader), ReferenceServer.VERSION);
+                int code = HeaderCodec.requestCode(requestHeader);
+                byte[] payload = new byte[HeaderCodec.requestPayloadSize(requestHeader)];
+                in.readFully(payload);
+
+                if (!handle(code, payload)) {
+                    server.log("CONNECTION", "Unsupported request " + code + ", closing.");
+                    return;
+                }
+                out.flush();
+            }
+        } catch (Exception e) {
+            server.log("CONNECTION", "Closed: " + e);
+        } finally {
+            receiver.close();
+            server.connectionClosed(this);
+        }
+    }
+
+    void close() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // Already closed
+        }
+    }
+
+    private boolean handle(int code, byte[] payload) throws Exception {
+        ByteBuffer request = ByteBuffer.wrap(payload).order(ByteOrder.LITTLE_ENDIAN);
+        switch (code) {
+            case Constants.REQUEST_REGISTER:
+                register(payload);
+                return true;
+            case Constants.REQUEST_SENDING_PUBKEY:
+                shareKey(payload);
+                return true;
+            case Constants.REQUEST_LOGIN:
+                login(payload);
+                return true;
+            case Constants.REQUEST_RESUME_CHALLENGE:
+                resumeChallenge = new byte[Constants.RESUME_CHALLENGE_SIZE];
+                RANDOM.nextBytes(resumeChallenge);
+                respond(Constants.RESPOND_RESUME_CHALLENGE, resumeChallenge);
+                return true;
+            case Constants.REQUEST_RESUME_SESSION:
+                resumeSession(payload);
+                return true;
+            case Constants.REQUEST_SENDING_FILE:
+                receiveFile(request);
+                return true;
+            case Constants.REQUEST_SENDING_FILE_STREAM:
+                receiveFileStream(request);
+                return true;
+            case Constants.REQUEST_SENDING_FILE_RANGE:
+                receiveFileRange(request);
+                return true;
+            case Constants.REQUEST_COMMIT_FILE:
+                commitFile(request);
+                return true;
+            case Constants.REQUEST_RESUME_FILE:
+                resumeFile(request);
+                return true;
+            case Constants.REQUEST_SENDING_FILE_CHUNK:
+                receiveFileChunk(request);
+                return true;
+            case Constants.REQUEST_VALID_CRC:
+                pendingFiles.remove(confirmedFileName(payload));
+                respond(Constants.RESPOND_MESSAGE_CONFIRMED, clientIdBytes());
+                return true;
+            case Constants.REQUEST_INVALID_CRC:
+                // The file stays pending, the client sends it again
+                return true;
+            case Constants.REQUEST_LAST_INVALID_CRC:
+                pendingFiles.remove(confirmedFileName(payload));
+                respond(Constants.RESPOND_MESSAGE_CONFIRMED, NO_PAYLOAD);
+                return true;
+            default:
+                // Deduplicated and delta uploads are past VERSION, clients don't send them
+                return false;
+        }
+    }
+
+    // Registers the name with a new client ID, unless it's taken
+    private void register(byte[] payload) throws IOException {
+        Registry.ClientRecord registered = registry.register(HeaderCodec.getFixed(payload, 0, payload.length));
+        if (registered == null) {
+            respond(Constants.RESPOND_REGISTER_FAIL, NO_PAYLOAD);
+            return;
+        }
+        client = registered;
+        respond(Constants.RESPOND_REGISTER_SUCCESS, clientIdBytes());
+        server.log("REGISTER", client.name + " as " + client.id);
+    }
+
+    // Keeps the client's public key and sends it a new AES key encrypted with it
+    private void shareKey(byte[] payload) throws Exception {
+        String name = HeaderCodec.getFixed(payload, 0, 255);
+        Registry.ClientRecord record = client != null ? client : registry.client(name);
+        if (record == null) {
+            respond(Constants.RESPOND_LOGIN_REJECTED, fixed(requestClientId, 16));
+            return;
+        }
+        String publicKey = new String(payload, 255, payload.length - 255, StandardCharsets.UTF_8).trim();
+        record.publicKey = KeyFactory.getInstance("RSA")
+                .generatePublic(new X509EncodedKeySpec(Base64.getDecoder().decode(publicKey)));
+        client = record;
+        sendNewAesKey(Constants.RESPOND_SENDING_ENCKEY);
+    }
+
+    // Sends a registered client a new AES key encrypted with its public key
+    private void login(byte[] payload) throws Exception {
+        Registry.ClientRecord record = registry.client(HeaderCodec.getFixed(payload, 0, payload.length));
+        if (record == null || record.publicKey == null) {
+            respond(Constants.RESPOND_LOGIN_REJECTED, fixed(requestClientId, 16));
+            return;
+        }
+        client = record;
+        sendNewAesKey(Constants.RESPOND_LOGIN_CONFIRMED);
+    }
+
+    // [16B clientId], from TICKET_VERSION [16B ticket][4B lifetime], then the Base64 RSA-encrypted key
+    private void sendNewAesKey(int code) throws Exception {
+        byte[] key = new byte[16];
+        RANDOM.nextBytes(key);
+        setAesKey(Base64.getEncoder().encodeToString(key));
+
+        Cipher rsa = Cipher.getInstance("RSA/ECB/PKCS1Padding");
+        rsa.init(Cipher.ENCRYPT_MODE, client.publicKey);
+        byte[] encryptedKey = Base64.getEncoder().encode(rsa.doFinal(aesKey.getBytes(StandardCharsets.UTF_8)));
+
+        ByteBuffer payload = ByteBuffer.allocate(16 + Constants.TICKET_SIZE + 4 + encryptedKey.length)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        payload.put(clientIdBytes());
+        if (version >= Constants.TICKET_VERSION) {
+            int lifetime = server.ticketLifetime();
+            String ticket = lifetime > 0 ? registry.issueTicket(client.id, aesKey, lifetime * 1000L) : "";
+            payload.put(fixed(ticket, Constants.TICKET_SIZE)).putInt(lifetime);
+        }
+        payload.put(encryptedKey);
+        respond(code, payload.array(), payload.position());
+    }
+
+    // Continues with the AES key of a session ticket; the client proves it holds the key with a
+    // GCM tag over [ticket][client ID][challenge], the challenge good for this attempt only
+    private void resumeSession(byte[] payload) throws Exception {
+        byte[] challenge = resumeChallenge;
+        resumeChallenge = null;
+        String ticketId = HeaderCodec.getFixed(payload, 0, Constants.TICKET_SIZE);
+        String name = HeaderCodec.getFixed(payload, Constants.TICKET_SIZE, 255);
+        Registry.Ticket ticket = registry.ticket(ticketId);
+        Registry.ClientRecord record = registry.client(name);
+
+        boolean resumed = false;
+        if (challenge != null && ticket != null && record != null && ticket.clientId.equals(record.id)
+                && ticket.clientId.equals(requestClientId)
+                && payload.length == Constants.RESUME_SESSION_PAYLOAD_SIZE) {
+            byte[] aad = ByteBuffer.allocate(32 + challenge.length).put(payload, 0, Constants.TICKET_SIZE)
+                    .put(fixed(requestClientId, 16)).put(challenge).array();
+            int proofOffset = Constants.TICKET_SIZE + 255;
+            Cipher gcm = Cipher.getInstance("AES/GCM/NoPadding");
+            gcm.init(Cipher.DECRYPT_MODE, new SecretKeySpec(Base64.getDecoder().decode(ticket.aesKey), "AES"),
+                    new GCMParameterSpec(Constants.GCM_TAG_SIZE * 8, payload, proofOffset, Constants.GCM_NONCE_SIZE));
+            gcm.updateAAD(aad);
+            try {
+                gcm.doFinal(payload, proofOffset + Constants.GCM_NONCE_SIZE, Constants.GCM_TAG_SIZE);
+                resumed = true;
+            } catch (AEADBadTagException e) {
+                // Not the ticket's key
+            }
+        }
+
+        if (!resumed) {
+            respond(Constants.RESPOND_LOGIN_REJECTED, fixed(requestClientId, 16));
+            return;
+        }
+        client = record;
+        setAesKey(ticket.aesKey);
+        respond(Constants.RESPOND_SESSION_RESUMED, clientIdBytes());
+        server.sessionResumed();
+    }
+
+    // Whole file in the payload: [4B fileSize][255B fileName][ciphertext]
+    private void receiveFile(ByteBuffer request) throws Exception {
+        long dataSize = Integer.toUnsignedLong(request.getInt(0));
+        String fileName = fileName(request.array(), 4);
+        byte[] content = request.array();
+        int contentOffset = 4 + 255;
+        if (version < Constants.RAW_CONTENT_VERSION) {
+            content = Base64.getDecoder().decode(new String(content, contentOffset, content.length - contentOffset,
+                    StandardCharsets.US_ASCII).trim());
+            contentOffset = 0;
+        }
+
+        int crc = 0;
+        byte[] plain = null;
+        try {
+            Cipher cbc = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cbc.init(Cipher.DECRYPT_MODE, aesKeySpec, new IvParameterSpec(new byte[16]));
+            plain = cbc.doFinal(content, contentOffset, content.length - contentOffset);
+        } catch (GeneralSecurityException e) {
+            server.log("RECEIVE FILE", "Fail. " + e.getMessage());
+        }
+        try (FileChannel channel = FileChannel.open(storedFile(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (plain != null) {
+                int length = (int) Math.min(plain.length, dataSize);
+                CRC32 checksum = new CRC32();
+                checksum.update(plain, 0, length);
+                crc = (int) checksum.getValue();
+                ByteBuffer bytes = ByteBuffer.wrap(plain, 0, length);
+                while (bytes.hasRemaining()) {
+                    channel.write(bytes);
+                }
+            }
+        }
+        acceptFile(fileName, dataSize, crc, 0);
+    }
+
+    // Streamed file: [8B fileSize][8B contentSize][4B flags][255B fileName], then the content
+    private void receiveFileStream(ByteBuffer request) throws Exception {
+        long dataSize = request.getLong(0);
+        long contentSize = request.getLong(8);
+        int flags = request.getInt(16);
+        String fileName = fileName(request.array(), 20);
+
+        try (FileChannel channel = FileChannel.open(storedFile(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if ((flags & Constants.FLAG_AES_GCM) != 0) {
+                boolean authenticated = receiver.receiveGcm(aesKeySpec, channel, 0, dataSize, contentSize, flags);
+                authenticateFile(fileName, authenticated);
+                return;
+            }
+            int crc = receiver.receiveCbc(aesKeySpec, channel, 0, dataSize, contentSize, flags,
+                    (flags & Constants.FLAG_CRC32C) != 0, version < Constants.RAW_CONTENT_VERSION);
+            acceptFile(fileName, dataSize, crc, flags & (Constants.FLAG_CRC32C | Constants.COMPRESSION_MASK));
+        }
+    }
+
+    // One range of a file uploaded over several connections:
+    // [8B fileSize][8B offset][8B rangeSize][8B contentSize][4B flags][255B fileName]
+    private void receiveFileRange(ByteBuffer request) throws Exception {
+        long dataSize = request.getLong(0);
+        long offset = request.getLong(8);
+        long rangeSize = request.getLong(16);
+        long contentSize = request.getLong(24);
+        int flags = request.getInt(32);
+        String fileName = fileName(request.array(), 36);
+
+        // Other connections may be writing other ranges of the same file, it's never truncated
+        // below its final size
+        int crc;
+        try (FileChannel channel = FileChannel.open(storedFile(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE)) {
+            if (channel.size() > dataSize) channel.truncate(dataSize);
+            crc = receiver.receiveCbc(aesKeySpec, channel, offset, rangeSize, contentSize, flags,
+                    (flags & Constants.FLAG_CRC32C) != 0, version < Constants.RAW_CONTENT_VERSION);
+        }
+
+        ByteBuffer payload = ByteBuffer.allocate(40).order(ByteOrder.LITTLE_ENDIAN);
+        payload.put(clientIdBytes()).putLong(offset).putLong(rangeSize).putInt(crc)
+                .putInt(flags & Constants.FLAG_CRC32C);
+        respond(Constants.RESPOND_RANGE_ACCEPTED, payload.array());
+    }
+
+    // A file uploaded in ranges or chunks is complete: [8B fileSize][255B fileName]
+    private void commitFile(ByteBuffer request) throws IOException {
+        if (client == null) {
+            respond(Constants.RESPOND_INTERNAL_ERROR, NO_PAYLOAD);
+            return;
+        }
+        long dataSize = request.getLong(0);
+        String fileName = fileName(request.array(), 8);
+        Path file = storedFile(fileName);
+        boolean verified = Files.exists(file) && Files.size(file) == dataSize;
+
+        Registry.Upload upload = registry.uploadOf(client.id, fileName);
+        if (upload != null) {
+            verified &= upload.verifiedOffset() == dataSize;
+            if (verified) registry.finishUpload(upload);
+        }
+
+        if (verified) {
+            respond(Constants.RESPOND_MESSAGE_CONFIRMED, clientIdBytes());
+            server.fileStored(dataSize);
+        } else {
+            respond(Constants.RESPOND_INTERNAL_ERROR, NO_PAYLOAD);
+        }
+    }
+
+    // Tells the client how many verified bytes of a file it holds:
+    // [8B fileSize][8B lastModified][4B flags][255B fileName]
+    private void resumeFile(ByteBuffer request) throws IOException {
+        if (client == null) {
+            respond(Constants.RESPOND_INTERNAL_ERROR, NO_PAYLOAD);
+            return;
+        }
+        long dataSize = request.getLong(0);
+        long modified = request.getLong(8);
+        int flags = request.getInt(16);
+        String fileName = fileName(request.array(), 20);
+        Path file = storedFile(fileName);
+
+        Registry.Upload upload = registry.resumableUpload(client.id, fileName, dataSize, modified);
+        if (upload == null || !Files.exists(file)) {
+            upload = registry.startUpload(client.id, fileName, dataSize, modified);
+            try (RandomAccessFile out = new RandomAccessFile(file.toFile(), "rw")) {
+                out.setLength(dataSize);
+            }
+        }
+
+        // CRC32C is always available in Java, deflate is the only codec
+        int honoredFlags = flags & (Constants.FLAG_AES_GCM | Constants.FLAG_CRC32C);
+        if ((flags & Constants.COMPRESSION_MASK) == Constants.COMPRESSION_DEFLATE) {
+            honoredFlags |= Constants.COMPRESSION_DEFLATE;
+        }
+
+        // [16B clientId][16B uploadId][8B offset][4B flags]
+        ByteBuffer payload = ByteBuffer.allocate(44).order(ByteOrder.LITTLE_ENDIAN);
+        payload.put(clientIdBytes()).put(fixed(upload.id, 16)).putLong(upload.verifiedOffset()).putInt(honoredFlags);
+        respond(Constants.RESPOND_RESUME_OFFSET, payload.array());
+    }
+
+    // One chunk of a resumable upload: [16B uploadId][8B offset][4B length][4B contentSize][4B flags],
+    // then the content and, unless it's GCM, the checksum of the plain chunk
+    private void receiveFileChunk(ByteBuffer request) throws Exception {
+        String uploadId = HeaderCodec.getFixed(request.array(), 0, 16);
+        long offset = request.getLong(16);
+        int length = request.getInt(24);
+        int contentSize = request.getInt(28);
+        int flags = request.getInt(32);
+        boolean gcm = (flags & Constants.FLAG_AES_GCM) != 0;
+
+        Registry.Upload upload = registry.upload(uploadId);
+        if (upload == null || client == null || !upload.clientId.equals(client.id)
+                || offset < 0 || offset + length > upload.size) {
+            // Not resumed by this client, skip the chunk to stay in sync with it
+            skipFully(contentSize + (gcm ? 0 : 4));
+            respond(Constants.RESPOND_INTERNAL_ERROR, NO_PAYLOAD);
+            return;
+        }
+
+        boolean valid;
+        try (FileChannel channel = FileChannel.open(storedFile(upload.fileName), StandardOpenOption.WRITE)) {
+            if (gcm) {
+                valid = receiver.receiveGcm(aesKeySpec, channel, offset, length, contentSize, flags);
+            } else {
+                int crc = receiver.receiveCbc(aesKeySpec, channel, offset, length, contentSize, flags,
+                        (flags & Constants.FLAG_CRC32C) != 0, false);
+                valid = crc == Integer.reverseBytes(in.readInt());
+            }
+        }
+
+        long verifiedOffset = valid ? upload.chunkVerified(offset, length) : upload.verifiedOffset();
+        ByteBuffer ack = ByteBuffer.allocate(Constants.CHUNK_ACK_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        ack.put(fixed(uploadId, 16)).putLong(offset)
+                .putInt(valid ? Constants.CHUNK_STORED : Constants.CHUNK_REJECTED).putLong(verifiedOffset);
+        respond(Constants.RESPOND_CHUNK_ACCEPTED, ack.array());
+    }
+
+    // Sends back the checksum of a received file for the client to compare:
+    // [16B clientId][4B fileSize][255B fileName][4B checksum, big-endian][4B flags]
+    private void acceptFile(String fileName, long dataSize, int crc, int flags) throws IOException {
+        pendingFiles.put(fileName, Boolean.TRUE);
+        lastFileName = fileName;
+
+        ByteBuffer payload = ByteBuffer.allocate(16 + 4 + 255 + 4 + 4).order(ByteOrder.LITTLE_ENDIAN);
+        payload.put(clientIdBytes()).putInt((int) dataSize).put(fixed(fileName, 255));
+        payload.order(ByteOrder.BIG_ENDIAN).putInt(crc);
+        payload.order(ByteOrder.LITTLE_ENDIAN).putInt(flags);
+        respond(Constants.RESPOND_FILE_ACCEPTED, payload.array());
+        server.fileStored(dataSize);
+    }
+
+    // Tells the client whether a file received as GCM records was authenticated
+    private void authenticateFile(String fileName, boolean authenticated) throws IOException {
+        lastFileName = fileName;
+        if (authenticated) {
+            pendingFiles.remove(fileName);
+            respond(Constants.RESPOND_MESSAGE_CONFIRMED, clientIdBytes());
+            server.fileStored(Files.size(storedFile(fileName)));
+        } else {
+            pendingFiles.put(fileName, Boolean.TRUE);
+            respond(Constants.RESPOND_FILE_REJECTED, NO_PAYLOAD);
+        }
+    }
+
+    // Skips `count` bytes of the request. InputStream.skip may skip fewer, or none before the end.
+    private void skipFully(long count) throws IOException {
+        while (count > 0) {
+            long skipped = in.skip(count);
+            if (skipped <= 0) {
+                if (in.read() < 0) throw new EOFException("Connection closed within a request");
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    // File a CRC confirmation refers to, the last received one if the request doesn't name one
+    private String confirmedFileName(byte[] payload) {
+        String fileName = payload.length > 0 ? HeaderCodec.getFixed(payload, 0, Math.min(255, payload.length)) : "";
+        return fileName.isEmpty() ? lastFileName : fileName;
+    }
+
+    private void setAesKey(String encodedKey) {
+        aesKey = encodedKey;
+        aesKeySpec = new SecretKeySpec(Base64.getDecoder().decode(encodedKey), "AES");
+    }
+
+    // Where a file of the logged in client is stored
+    private Path storedFile(String fileName) throws IOException {
+        if (client == null || aesKeySpec == null) throw new IOException("Not logged in");
+        return server.clientDirectory(client.id).resolve(fileName);
+    }
+
+    // The file name field of a payload, without any directories in it
+    private static String fileName(byte[] payload, int offset) throws IOException {
+        String name = HeaderCodec.getFixed(payload, offset, 255);
+        String base = Path.of(name).getFileName() == null ? "" : Path.of(name).getFileName().toString();
+        if (base.isEmpty() || base.equals("..") || !base.equals(name)) {
+            throw new IOException("Invalid file name: " + name);
+        }
+        return base;
+    }
+
+    private byte[] clientIdBytes() {
+        return fixed(client != null ? client.id : requestClientId, 16);
+    }
+
+    private static byte[] fixed(String value, int size) {
+        byte[] bytes = new byte[size];
+        byte[] valueBytes = value.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(valueBytes, 0, bytes, 0, Math.min(valueBytes.length, size));
+        return bytes;
+    }
+
+    private void respond(int code, byte[] payload) throws IOException {
+        respond(code, payload, payload.length);
+    }
+
+    private void respond(int code, byte[] payload, int length) throws IOException {
+        respondHeader.clear();
+        HeaderCodec.putRespondHeader(respondHeader, version, code, length);
+        out.write(respondHeader.array());
+        out.write(payload, 0, length);
+    }
+}
@@ -0,0 +1,207 @@
+package com.moshe.client.server;
+
+import com.moshe.client.Constants;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.util.Base64;
+import java.util.zip.CRC32;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+// Reads encrypted content off a connection one piece at a time, decrypts it, inflates compressed
+// content and writes the plain bytes straight to their place in a file, so no upload is ever held
+// in memory. One per connection, its buffers and ciphers are reused from one upload to the next.
+final class ContentReceiver {
+
+    private static final int RECORD_OVERHEAD = Constants.GCM_NONCE_SIZE + Constants.GCM_TAG_SIZE;
+    private static final IvParameterSpec ZERO_IV = new IvParameterSpec(new byte[16]);
+
+    private final DataInputStream in;
+    private final Cipher cbc;
+    private final Cipher gcm;
+    private final byte[] input = new byte[Constants.STREAM_CHUNK_SIZE + RECORD_OVERHEAD];
+    private final byte[] plain = new byte[Constants.STREAM_CHUNK_SIZE + 32];
+    private final byte[] inflated = new byte[Constants.STREAM_CHUNK_SIZE];
+    private final byte[] aad = new byte[9];
+
+    // Where the plain bytes go, reset for every piece of content
+    private FileChannel channel;
+    private long position;
+    private long remaining;
+    private Checksum checksum;
+    private Inflater inflater;
+    private boolean damaged;
+
+    ContentReceiver(DataInputStream in) throws GeneralSecurityException {
+        this.in = in;
+        this.cbc = Cipher.getInstance("AES/CBC/PKCS5Padding");
+        this.gcm = Cipher.getInstance("AES/GCM/NoPadding");
+    }
+
+    // Reads `contentSize` bytes of CBC ciphertext, Base64-encoded if `base64`, and writes the
+    // first `dataSize` plain bytes to the channel at `offset`. Returns their checksum, CRC32C if
+    // `crc32c`. Damaged content stops being written, its checksum won't match the client's.
+    int receiveCbc(SecretKeySpec key, FileChannel channel, long offset, long dataSize, long contentSize,
+                   int flags, boolean crc32c, boolean base64) throws IOException, GeneralSecurityException {
+        start(channel, offset, dataSize, flags, crc32c ? new CRC32C() : new CRC32());
+        cbc.init(Cipher.DECRYPT_MODE, key, ZERO_IV);
+
+        BoundedInputStream bounded = new BoundedInputStream(in, contentSize);
+        InputStream content = base64 ? Base64.getDecoder().wrap(bounded) : bounded;
+        int n;
+        while ((n = content.read(input, 0, Constants.STREAM_CHUNK_SIZE)) != -1) {
+            write(plain, 0, cbc.update(input, 0, n, plain));
+        }
+        // The Base64 decoder stops at padding, whatever follows it is skipped
+        while (bounded.read(input, 0, input.length) != -1) {
+            damaged = true;
+        }
+        try {
+            write(plain, 0, cbc.doFinal(plain, 0));
+        } catch (GeneralSecurityException e) {
+            damaged = true;
+        }
+        return (int) checksum.getValue();
+    }
+
+    // Reads the GCM records of `dataSize` plain bytes that start at `offset` in the file and writes
+    // each one to the channel once it's authenticated. Compressed content is inflated as it's
+    // written; its records hold the compressed bytes, their number follows from `contentSize`.
+    // Returns false if any record fails; the rest are still read, to stay in sync with the client.
+    boolean receiveGcm(SecretKeySpec key, FileChannel channel, long offset, long dataSize, long contentSize,
+                       int flags) throws IOException, GeneralSecurityException {
+        start(channel, offset, dataSize, flags, null);
+        long sealedSize = dataSize;
+        if (inflater != null) {
+            long records = (contentSize + Constants.STREAM_CHUNK_SIZE + RECORD_OVERHEAD - 1)
+                    / (Constants.STREAM_CHUNK_SIZE + RECORD_OVERHEAD);
+            sealedSize = contentSize - records * RECORD_OVERHEAD;
+        }
+
+        boolean authenticated = true;
+        long end = offset + sealedSize;
+        long recordOffset = offset;
+        while (true) {
+            int length = (int) Math.min(Constants.STREAM_CHUNK_SIZE, end - recordOffset);
+            if (length < 0) throw new IOException("Content size doesn't match the data size");
+            in.readFully(input, 0, length + RECORD_OVERHEAD);
+            boolean last = recordOffset + length == end;
+            if (authenticated) {
+                ByteBuffer.wrap(aad).order(ByteOrder.LITTLE_ENDIAN).putLong(recordOffset).put((byte) (last ? 1 : 0));
+                gcm.init(Cipher.DECRYPT_MODE, key,
+                        new GCMParameterSpec(Constants.GCM_TAG_SIZE * 8, input, 0, Constants.GCM_NONCE_SIZE));
+                gcm.updateAAD(aad);
+                try {
+                    int n = gcm.doFinal(input, Constants.GCM_NONCE_SIZE, length + Constants.GCM_TAG_SIZE, plain);
+                    write(plain, 0, n);
+                } catch (AEADBadTagException e) {
+                    authenticated = false;
+                }
+            }
+            recordOffset += length;
+            if (last) return authenticated && !damaged && remaining == 0;
+        }
+    }
+
+    private void start(FileChannel channel, long offset, long dataSize, int flags, Checksum checksum)
+            throws IOException {
+        this.channel = channel;
+        this.position = offset;
+        this.remaining = dataSize;
+        this.checksum = checksum;
+        this.damaged = false;
+        close();
+        int codec = flags & Constants.COMPRESSION_MASK;
+        if (codec == 0) {
+            inflater = null;
+        } else if (codec == Constants.COMPRESSION_DEFLATE) {
+            inflater = new Inflater();
+        } else {
+            throw new IOException("Unsupported compression " + Integer.toHexString(codec));
+        }
+    }
+
+    // Releases the inflater of the last compressed content
+    void close() {
+        if (inflater != null) inflater.end();
+        inflater = null;
+    }
+
+    // Writes decrypted bytes, inflating them first if the content is compressed
+    private void write(byte[] buffer, int off, int len) throws IOException {
+        if (damaged || len == 0) return;
+        if (inflater == null) {
+            writePlain(buffer, off, (int) Math.min(len, remaining));
+            return;
+        }
+
+        inflater.setInput(buffer, off, len);
+        try {
+            while (true) {
+                int n = inflater.inflate(inflated);
+                if (n == 0) {
+                    if (inflater.needsDictionary()) damaged = true;
+                    return;
+                }
+                // A small upload can't inflate into an arbitrarily large one
+                if (n > remaining) {
+                    damaged = true;
+                    return;
+                }
+                writePlain(inflated, 0, n);
+            }
+        } catch (DataFormatException e) {
+            damaged = true;
+        }
+    }
+
+    private void writePlain(byte[] buffer, int off, int len) throws IOException {
+        if (checksum != null) checksum.update(buffer, off, len);
+        ByteBuffer bytes = ByteBuffer.wrap(buffer, off, len);
+        while (bytes.hasRemaining()) {
+            position += channel.write(bytes, position);
+        }
+        remaining -= len;
+    }
+
+    // Reads at most `limit` bytes of the underlying stream
+    private static final class BoundedInputStream extends InputStream {
+        private final InputStream in;
+        private long limit;
+
+        BoundedInputStream(InputStream in, long limit) {
+            this.in = in;
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (limit <= 0) return -1;
+            int b = in.read();
+            if (b == -1) throw new IOException("Connection closed while receiving content");
+            limit--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (limit <= 0) return -1;
+            int n = in.read(b, off, (int) Math.min(len, limit));
+            if (n == -1) throw new IOException("Connection closed while receiving content");
+            limit -= n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.moshe.client.server;
+
+import com.moshe.client.Constants;
+import com.moshe.client.utils.Logger;
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A server for the client's protocol written in Java, for tests, benchmarks and load runs that need
+// a server faster than the Python one. It speaks the same protocol up to compression; clients fall
+// back from deduplicated and delta uploads on their own. Session tickets are only accepted with
+// the challenge of RESUME_CHALLENGE_VERSION, like the Python server does. Clients, tickets and
+// uploads are kept in memory, files are stored under a directory per client.
+//
+// Run: java -jar target/reference-server.jar [--port=1357] [--storage=DIR] [--verbose]
+public final class ReferenceServer implements Closeable {
+
+    // Highest protocol version served, negotiated down per request like the Python server does
+    public static final int VERSION = Constants.COMPRESSION_VERSION;
+    public static final int DEFAULT_PORT = 1357;
+    public static final int TICKET_LIFETIME = 3600;
+
+    private final Path storage;
+    private final Registry registry = new Registry();
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicLong filesStored = new AtomicLong();
+    private final AtomicLong bytesStored = new AtomicLong();
+    private final AtomicLong sessionsResumed = new AtomicLong();
+    private volatile int ticketLifetime = TICKET_LIFETIME;
+    private volatile boolean verbose;
+    private ServerSocket serverSocket;
+    private ExecutorService executor;
+    private Thread acceptor;
+
+    public ReferenceServer(Path storage) {
+        this.storage = storage;
+    }
+
+    // Session ticket lifetime in seconds, 0 disables tickets
+    public void setTicketLifetime(int seconds) {
+        this.ticketLifetime = seconds;
+    }
+
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    // Starts accepting connections on `port`, an ephemeral one if 0
+    public void start(int port) throws IOException {
+        Files.createDirectories(storage);
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(port), 128);
+        executor = newExecutor();
+        acceptor = new Thread(this::accept, "reference-server-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    public long filesStored() {
+        return filesStored.get();
+    }
+
+    public long bytesStored() {
+        return bytesStored.get();
+    }
+
+    // Connections that continued with a session ticket instead of logging in with RSA
+    public long sessionsResumed() {
+        return sessionsResumed.get();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (serverSocket == null) return;
+        serverSocket.close();
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        executor.shutdown();
+    }
+
+    private void accept() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                try {
+                    Connection connection = new Connection(this, socket);
+                    connections.add(connection);
+                    executor.execute(connection);
+                } catch (Exception e) {
+                    socket.close();
+                    log("ACCEPT", "Fail. " + e);
+                }
+            } catch (IOException e) {
+                if (!serverSocket.isClosed()) log("ACCEPT", "Fail. " + e);
+            }
+        }
+    }
+
+    // A virtual thread per connection when available, looked up reflectively to keep building for Java 11
+    private static ExecutorService newExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, "reference-server-connection");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    Registry registry() {
+        return registry;
+    }
+
+    int ticketLifetime() {
+        return ticketLifetime;
+    }
+
+    // The directory a client's files are stored in
+    Path clientDirectory(String clientId) throws IOException {
+        return Files.createDirectories(storage.resolve(clientId));
+    }
+
+    void fileStored(long size) {
+        filesStored.incrementAndGet();
+        bytesStored.addAndGet(size);
+    }
+
+    void sessionResumed() {
+        sessionsResumed.incrementAndGet();
+    }
+
+    void connectionClosed(Connection connection) {
+        connections.remove(connection);
+    }
+
+    void log(String tag, String message) {
+        if (verbose) Logger.log(tag, message);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = DEFAULT_PORT;
+        Path storage = Paths.get("transfer_files");
+        boolean verbose = false;
+        for (String arg : args) {
+            if (arg.startsWith("--port=")) {
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            } else if (arg.startsWith("--storage=")) {
+                storage = Paths.get(arg.substring("--storage=".length()));
+            } else if (arg.equals("--verbose")) {
+                verbose = true;
+            } else {
+                System.err.println("Usage: ReferenceServer [--port=N] [--storage=DIR] [--verbose]");
+                System.exit(2);
+            }
+        }
+
+        ReferenceServer server = new ReferenceServer(storage);
+        server.setVerbose(verbose);
+        server.start(port);
+        Logger.log("SERVER", "Listening on port " + server.port() + ", storing files in " + storage.toAbsolutePath());
+        Thread.currentThread().join();
+    }
+}
@@ -0,0 +1,141 @@
+package com.moshe.client.server;
+
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// State shared by all connections of a server: registered clients, session tickets and resumable
+// uploads. Kept in memory only, a restarted server starts empty.
+final class Registry {
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final char[] ID_ALPHABET =
+            "23456789ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz".toCharArray();
+
+    static final class ClientRecord {
+        final String id;
+        final String name;
+        volatile PublicKey publicKey;
+
+        ClientRecord(String id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    static final class Ticket {
+        final String clientId;
+        final String aesKey;
+        final long expiresAt;
+
+        Ticket(String clientId, String aesKey, long expiresAt) {
+            this.clientId = clientId;
+            this.aesKey = aesKey;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    // A resumable upload, identified by client, file name, size and modification time. Chunks may
+    // arrive out of order; the verified offset only moves over contiguous verified bytes.
+    static final class Upload {
+        final String id;
+        final String clientId;
+        final String fileName;
+        final long size;
+        final long modified;
+        private long verifiedOffset;
+        // End offsets of chunks verified beyond the verified offset, by start offset
+        private final Map<Long, Long> chunks = new HashMap<>();
+
+        Upload(String id, String clientId, String fileName, long size, long modified) {
+            this.id = id;
+            this.clientId = clientId;
+            this.fileName = fileName;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        synchronized long verifiedOffset() {
+            return verifiedOffset;
+        }
+
+        synchronized long chunkVerified(long offset, long length) {
+            if (offset >= verifiedOffset) chunks.put(offset, offset + length);
+            Long end;
+            while ((end = chunks.remove(verifiedOffset)) != null) {
+                verifiedOffset = end;
+            }
+            return verifiedOffset;
+        }
+    }
+
+    private final Map<String, ClientRecord> clientsByName = new ConcurrentHashMap<>();
+    private final Map<String, Ticket> tickets = new ConcurrentHashMap<>();
+    private final Map<String, Upload> uploadsById = new ConcurrentHashMap<>();
+    // Latest upload of every file, by client ID and file name
+    private final Map<String, Upload> uploadsByFile = new ConcurrentHashMap<>();
+
+    // Registers a new client, null if the name is taken
+    ClientRecord register(String name) {
+        ClientRecord client = new ClientRecord(newId(16), name);
+        return clientsByName.putIfAbsent(name, client) == null ? client : null;
+    }
+
+    ClientRecord client(String name) {
+        return clientsByName.get(name);
+    }
+
+    String issueTicket(String clientId, String aesKey, long lifetimeMillis) {
+        String id = newId(16);
+        tickets.put(id, new Ticket(clientId, aesKey, System.currentTimeMillis() + lifetimeMillis));
+        return id;
+    }
+
+    // The ticket if it's known and still valid
+    Ticket ticket(String id) {
+        Ticket ticket = tickets.get(id);
+        if (ticket != null && ticket.expiresAt <= System.currentTimeMillis()) {
+            tickets.remove(id, ticket);
+            return null;
+        }
+        return ticket;
+    }
+
+    // The upload of the file to continue, or null if there's none or the file changed since
+    Upload resumableUpload(String clientId, String fileName, long size, long modified) {
+        Upload upload = uploadsByFile.get(clientId + "/" + fileName);
+        return upload != null && upload.size == size && upload.modified == modified ? upload : null;
+    }
+
+    Upload startUpload(String clientId, String fileName, long size, long modified) {
+        Upload upload = new Upload(newId(16), clientId, fileName, size, modified);
+        Upload previous = uploadsByFile.put(clientId + "/" + fileName, upload);
+        if (previous != null) uploadsById.remove(previous.id);
+        uploadsById.put(upload.id, upload);
+        return upload;
+    }
+
+    Upload upload(String id) {
+        return uploadsById.get(id);
+    }
+
+    // The client's upload of the file, null if there's none
+    Upload uploadOf(String clientId, String fileName) {
+        return uploadsByFile.get(clientId + "/" + fileName);
+    }
+
+    void finishUpload(Upload upload) {
+        uploadsById.remove(upload.id);
+        uploadsByFile.remove(upload.clientId + "/" + upload.fileName, upload);
+    }
+
+    static String newId(int length) {
+        char[] id = new char[length];
+        for (int i = 0; i < length; i++) {
+            id[i] = ID_ALPHABET[RANDOM.nextInt(ID_ALPHABET.length)];
+        }
+        return new String(id);
+    }
+}
@@ -0,0 +1,410 @@
+package com.moshe.client.server;
+
+import com.moshe.client.CipherMode;
+import com.moshe.client.Client;
+import com.moshe.client.Compression;
+import com.moshe.client.ConcurrentUploader;
+import com.moshe.client.Constants;
+import com.moshe.client.HeaderCodec;
+import com.moshe.client.PipelinedUploader;
+import com.moshe.client.TransferStats;
+import com.moshe.client.TransportType;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Stream;
+import junit.framework.TestCase;
+
+/**
+ * Uploads through the client to a ReferenceServer on an ephemeral port, in each content mode.
+ */
+public class ReferenceServerTest
+    extends TestCase
+{
+    private Path storage;
+    private Path files;
+    private ReferenceServer server;
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        storage = Files.createTempDirectory("reference-server");
+        files = Files.createTempDirectory("reference-files");
+        server = new ReferenceServer(storage);
+        server.start(0);
+    }
+
+    @Override
+    protected void tearDown() throws Exception
+    {
+        server.close();
+        deleteAll(storage);
+        deleteAll(files);
+    }
+
+    public void testResumableGcmUpload() throws Exception
+    {
+        Client client = newClient("gcm");
+        client.setChunkSize(100_000);
+        byte[] content = randomBytes(1_000_003);
+        assertUploaded(client, "random.bin", content);
+    }
+
+    public void testStreamedCbcUpload() throws Exception
+    {
+        Client client = newClient("cbc");
+        client.setCipherMode(CipherMode.CBC);
+        client.setResumable(false);
+        client.setStreaming(true);
+        byte[] content = randomBytes(300_001);
+        assertUploaded(client, "streamed.bin", content);
+    }
+
+    public void testStreamedUploadOverNio() throws Exception
+    {
+        Client client = newClient("nio");
+        client.setTransportType(TransportType.NIO);
+        client.setResumable(false);
+        // Not a whole number of buffers, the last write and the responses straddle the buffer end
+        byte[] content = randomBytes(3 * Constants.STREAM_CHUNK_SIZE + 4321);
+        assertUploaded(client, "nio.bin", content);
+    }
+
+    public void testCompressedUpload() throws Exception
+    {
+        try (TamperingProxy proxy = new TamperingProxy(server.port())) {
+            Client client = newClient("deflate", proxy.port());
+            client.setCompressor(Compression.forName("deflate"));
+            assertCompressedUpload(client, proxy);
+        }
+    }
+
+    public void testStreamedCompressedUpload() throws Exception
+    {
+        try (TamperingProxy proxy = new TamperingProxy(server.port())) {
+            Client client = newClient("deflate-cbc", proxy.port());
+            client.setCompressor(Compression.forName("deflate"));
+            client.setCipherMode(CipherMode.CBC);
+            client.setResumable(false);
+            assertCompressedUpload(client, proxy);
+        }
+    }
+
+    public void testIncompressibleFileIsSentAsItIs() throws Exception
+    {
+        try (TamperingProxy proxy = new TamperingProxy(server.port())) {
+            Client client = newClient("incompressible", proxy.port());
+            client.setCompressor(Compression.forName("deflate"));
+            assertTrue(client.usesCompression());
+            byte[] content = randomBytes(500_003);
+
+            long before = proxy.bytesFromClients();
+            assertUploaded(client, "random.bin", content);
+            assertTrue(proxy.bytesFromClients() - before >= content.length);
+        }
+    }
+
+    public void testNewSessionResumesWithTheTicket() throws Exception
+    {
+        Client primary = newClient("ticket");
+        try {
+            Client session = primary.openSession();
+            assertEquals(1, server.sessionsResumed());
+            assertUploaded(session, "resumed.bin", randomBytes(200_001));
+        } finally {
+            primary.close();
+        }
+    }
+
+    public void testExpiredTicketFallsBackToRsa() throws Exception
+    {
+        server.setTicketLifetime(1);
+        Client primary = newClient("expired");
+        try {
+            Thread.sleep(1_100);
+            Client session = primary.openSession();
+            assertEquals(0, server.sessionsResumed());
+            assertUploaded(session, "rsa.bin", randomBytes(200_002));
+        } finally {
+            primary.close();
+        }
+    }
+
+    public void testTicketIsNotPresentedWhenTicketsAreOff() throws Exception
+    {
+        Client primary = newClient("no-tickets");
+        primary.setUseTickets(false);
+        try {
+            primary.openSession().close();
+            assertEquals(0, server.sessionsResumed());
+        } finally {
+            primary.close();
+        }
+    }
+
+    public void testTakenNameIsRejected() throws Exception
+    {
+        newClient("taken").close();
+        Client other = new Client();
+        other.setServer("127.0.0.1", server.port());
+        other.setClientName("taken");
+        other.setPersistent(false);
+        assertTrue(other.connectToServer());
+        assertFalse(other.registerClient());
+        other.close();
+    }
+
+    public void testPipelinedCbcFileWithAWrongCrcIsSentAgain() throws Exception
+    {
+        try (TamperingProxy proxy = new TamperingProxy(server.port())) {
+            Client client = newClient("pipeline-cbc", proxy.port());
+            client.setCipherMode(CipherMode.CBC);
+            assertPipelinedUpload(client, proxy);
+        }
+    }
+
+    public void testPipelinedGcmFileThatFailsAuthenticationIsSentAgain() throws Exception
+    {
+        try (TamperingProxy proxy = new TamperingProxy(server.port())) {
+            assertPipelinedUpload(newClient("pipeline-gcm", proxy.port()), proxy);
+        }
+    }
+
+    public void testConcurrentUploadGoesOnAfterAFileThatCantBeRead() throws Exception
+    {
+        Map<String, byte[]> contents = contents("concurrent", 6);
+        List<String> paths = writeFiles(contents);
+        String missing = files.resolve("missing.bin").toString();
+        paths.add(1, missing);
+
+        Client client = newClient("concurrent");
+        client.setResumable(false);
+        RecordedStats stats = new RecordedStats();
+        try (ConcurrentUploader uploader = new ConcurrentUploader(client, 2)) {
+            uploader.upload(paths, stats);
+        } finally {
+            client.close();
+        }
+
+        assertEquals(Boolean.FALSE, stats.outcomes.remove(missing));
+        assertAllUploaded(contents, stats);
+    }
+
+    public void testConcurrentUploadGoesOnAfterASessionIsCut() throws Exception
+    {
+        Map<String, byte[]> contents = contents("cut", 6);
+        List<String> paths = writeFiles(contents);
+
+        RecordedStats stats = new RecordedStats();
+        try (TamperingProxy proxy = new TamperingProxy(server.port())) {
+            Client client = newClient("cut", proxy.port());
+            client.setResumable(false);
+            proxy.cutAt(150_000);
+            try (ConcurrentUploader uploader = new ConcurrentUploader(client, 2)) {
+                uploader.upload(paths, stats);
+            } finally {
+                client.close();
+            }
+            assertTrue(proxy.tampered());
+        }
+
+        // Only the file whose session was cut failed, the ones after it went over a new session
+        assertEquals(paths.size(), stats.outcomes.size());
+        String failed = null;
+        for (Map.Entry<String, Boolean> outcome : stats.outcomes.entrySet()) {
+            if (outcome.getValue()) continue;
+            assertNull("More than one file failed", failed);
+            failed = outcome.getKey();
+        }
+        assertNotNull(failed);
+        contents.remove(Path.of(failed).getFileName().toString());
+        stats.outcomes.remove(failed);
+        assertAllUploaded(contents, stats);
+    }
+
+    public void testUploadRequestsBeforeLoginAreAnsweredWithAnError() throws Exception
+    {
+        try (Socket socket = new Socket("127.0.0.1", server.port())) {
+            OutputStream out = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            // A chunk of an upload that was never resumed, followed by its content and CRC
+            ByteBuffer chunk = ByteBuffer.allocate(Constants.CHUNK_PAYLOAD_SIZE);
+            HeaderCodec.putChunkPayload(chunk, new byte[16], 0, 100_000, 100_000, 0);
+            request(out, Constants.REQUEST_SENDING_FILE_CHUNK, chunk.array());
+            out.write(new byte[100_000 + 4]);
+            assertEquals(Constants.RESPOND_INTERNAL_ERROR, respondCode(in));
+
+            // The content was skipped, the next requests are read from their headers
+            request(out, Constants.REQUEST_RESUME_FILE, new byte[Constants.RESUME_PAYLOAD_SIZE]);
+            assertEquals(Constants.RESPOND_INTERNAL_ERROR, respondCode(in));
+            request(out, Constants.REQUEST_COMMIT_FILE, new byte[Constants.COMMIT_PAYLOAD_SIZE]);
+            assertEquals(Constants.RESPOND_INTERNAL_ERROR, respondCode(in));
+        }
+    }
+
+    private static void request(OutputStream out, int code, byte[] payload) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(HeaderCodec.REQUEST_HEADER_SIZE);
+        HeaderCodec.putRequestHeader(header, new byte[HeaderCodec.CLIENT_ID_SIZE], Constants.CLIENT_VERSION, code,
+                payload.length);
+        out.write(header.array());
+        out.write(payload);
+        out.flush();
+    }
+
+    // Reads a response, returning its code
+    private static int respondCode(DataInputStream in) throws IOException
+    {
+        ByteBuffer header = ByteBuffer.allocate(HeaderCodec.RESPOND_HEADER_SIZE);
+        in.readFully(header.array());
+        in.readFully(new byte[HeaderCodec.respondPayloadSize(header)]);
+        return HeaderCodec.respondCode(header);
+    }
+
+    // Sends six files four at a time while the second one is corrupted on its way, each file's
+    // response must still be matched to it and the corrupted one sent again
+    private void assertPipelinedUpload(Client client, TamperingProxy proxy) throws Exception
+    {
+        Map<String, byte[]> contents = contents("pipelined", 6);
+        List<String> paths = writeFiles(contents);
+
+        RecordedStats stats = new RecordedStats();
+        proxy.tamperAt(150_000);
+        try {
+            new PipelinedUploader(client, 4).upload(paths, stats);
+        } finally {
+            client.close();
+        }
+
+        assertTrue(proxy.tampered());
+        assertAllUploaded(contents, stats);
+    }
+
+    // Files of about 100 KB, each with different content
+    private static Map<String, byte[]> contents(String prefix, int count)
+    {
+        Map<String, byte[]> contents = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            contents.put(prefix + "-" + i + ".bin", randomBytes(100_000 + i));
+        }
+        return contents;
+    }
+
+    // Each file was reported once as sent and is stored as it was
+    private void assertAllUploaded(Map<String, byte[]> contents, RecordedStats stats) throws IOException
+    {
+        assertEquals(contents.size(), stats.outcomes.size());
+        for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+            assertEquals(Boolean.TRUE, stats.outcomes.get(files.resolve(entry.getKey()).toString()));
+            assertStored(entry.getKey(), entry.getValue());
+        }
+    }
+
+    // The server honors deflate, so text that shrinks a lot goes over in a fraction of its size
+    private void assertCompressedUpload(Client client, TamperingProxy proxy) throws Exception
+    {
+        assertTrue(client.usesCompression());
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 50_000; i++) {
+            text.append("line ").append(i).append(",some,repeated,columns\n");
+        }
+        byte[] content = text.toString().getBytes(StandardCharsets.UTF_8);
+
+        long before = proxy.bytesFromClients();
+        assertUploaded(client, "lines.csv", content);
+        assertTrue(proxy.bytesFromClients() - before < content.length / 4);
+    }
+
+    private Client newClient(String name) throws Exception
+    {
+        return newClient(name, server.port());
+    }
+
+    private Client newClient(String name, int port) throws Exception
+    {
+        Client client = new Client();
+        client.setServer("127.0.0.1", port);
+        client.setClientName(name);
+        client.setPersistent(false);
+        assertTrue(client.connectToServer());
+        assertTrue(client.registerClient());
+        assertTrue(client.shareKey());
+        return client;
+    }
+
+    private void assertUploaded(Client client, String name, byte[] content) throws Exception
+    {
+        File file = files.resolve(name).toFile();
+        Files.write(file.toPath(), content);
+        client.setTransferFileName(file.getPath());
+        try {
+            assertTrue(client.transferFile());
+        } finally {
+            client.close();
+        }
+        assertStored(name, content);
+    }
+
+    private List<String> writeFiles(Map<String, byte[]> contents) throws IOException
+    {
+        List<String> paths = new ArrayList<>();
+        for (Map.Entry<String, byte[]> entry : contents.entrySet()) {
+            Path file = files.resolve(entry.getKey());
+            Files.write(file, entry.getValue());
+            paths.add(file.toString());
+        }
+        return paths;
+    }
+
+    private void assertStored(String name, byte[] content) throws IOException
+    {
+        Path stored;
+        try (Stream<Path> paths = Files.walk(storage)) {
+            stored = paths.filter(path -> path.getFileName().toString().equals(name)).findFirst().orElse(null);
+        }
+        assertNotNull(stored);
+        assertTrue(Arrays.equals(content, Files.readAllBytes(stored)));
+    }
+
+    // The outcome of each file, by path
+    private static class RecordedStats
+        extends TransferStats
+    {
+        final Map<String, Boolean> outcomes = new LinkedHashMap<>();
+
+        @Override
+        public synchronized void add(String fileName, long bytes, long nanos, boolean success)
+        {
+            super.add(fileName, bytes, nanos, success);
+            assertNull("Recorded twice: " + fileName, outcomes.put(fileName, success));
+        }
+    }
+
+    private static byte[] randomBytes(int size)
+    {
+        byte[] bytes = new byte[size];
+        new Random(size).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void deleteAll(Path directory) throws IOException
+    {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
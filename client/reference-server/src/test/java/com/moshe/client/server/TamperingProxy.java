@@ -0,0 +1,151 @@
+package com.moshe.client.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Forwards connections to a server on this host, flipping one byte sent by a client or closing the
+ * connection at that byte once armed, so the server sees corrupted or cut content at a known point
+ * of an upload. Counts the bytes clients send, to tell how much of an upload went over the wire.
+ */
+final class TamperingProxy
+    implements Closeable
+{
+    private final ServerSocket serverSocket;
+    private final int target;
+    private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+
+    // Bytes a client sends before the one flipped or cut at, -1 when not armed
+    private long countdown = -1;
+    private boolean cut;
+    private boolean tampered;
+    private long forwarded;
+
+    TamperingProxy(int target) throws IOException
+    {
+        this.target = target;
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::accept, "tampering-proxy-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    int port()
+    {
+        return serverSocket.getLocalPort();
+    }
+
+    // Flips the byte a client sends `offset` bytes from now, on whichever connection it's sent
+    synchronized void tamperAt(long offset)
+    {
+        arm(offset, false);
+    }
+
+    // Closes the connection a client sends its byte `offset` bytes from now on, instead of sending it
+    synchronized void cutAt(long offset)
+    {
+        arm(offset, true);
+    }
+
+    private void arm(long offset, boolean cut)
+    {
+        countdown = offset;
+        this.cut = cut;
+        tampered = false;
+    }
+
+    synchronized boolean tampered()
+    {
+        return tampered;
+    }
+
+    // Bytes forwarded from clients to the server so far
+    synchronized long bytesFromClients()
+    {
+        return forwarded;
+    }
+
+    private void accept()
+    {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket client = serverSocket.accept();
+                Socket server = new Socket(InetAddress.getLoopbackAddress(), target);
+                sockets.add(client);
+                sockets.add(server);
+                pump(client, server, true);
+                pump(server, client, false);
+            } catch (IOException e) {
+                // Closed
+            }
+        }
+    }
+
+    // Copies one direction of a connection until either side closes, then closes both
+    private void pump(Socket from, Socket to, boolean fromClient)
+    {
+        Thread thread = new Thread(() -> {
+            byte[] buffer = new byte[64 * 1024];
+            try (InputStream in = from.getInputStream(); OutputStream out = to.getOutputStream()) {
+                int n;
+                while ((n = in.read(buffer)) > 0) {
+                    int forwarded = fromClient ? tamper(buffer, n) : n;
+                    out.write(buffer, 0, forwarded);
+                    if (forwarded < n) break;
+                }
+            } catch (IOException e) {
+                // The other direction closed the sockets
+            } finally {
+                closeQuietly(from);
+                closeQuietly(to);
+            }
+        }, "tampering-proxy-pump");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Returns how many bytes of the buffer are forwarded, fewer than its length if the connection is cut
+    private synchronized int tamper(byte[] buffer, int length)
+    {
+        int n = length;
+        if (countdown >= length) {
+            countdown -= length;
+        } else if (countdown >= 0) {
+            int at = (int) countdown;
+            countdown = -1;
+            tampered = true;
+            if (cut) {
+                n = at;
+            } else {
+                buffer[at] ^= 1;
+            }
+        }
+        forwarded += n;
+        return n;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        serverSocket.close();
+        for (Socket socket : sockets) {
+            closeQuietly(socket);
+        }
+    }
+
+    private static void closeQuietly(Socket socket)
+    {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already closed
+        }
+    }
+}
@@ -0,0 +1,44 @@
+import zlib
+
+from define import *
+
+
+class DeflateDecompressor:
+    """
+    Inflates zlib-wrapped Deflate content piece by piece.
+    """
+
+    def __init__(self):
+        self.inflater = zlib.decompressobj()
+
+    def decompress(self, data, limit):
+        """
+        Returns the plain bytes of the next piece of compressed data. Raises
+        ValueError if the data is damaged or holds more than limit bytes, so
+        a small upload can't inflate into an arbitrarily large one.
+        """
+        try:
+            plain = self.inflater.decompress(data, limit + 1)
+        except zlib.error as e:
+            raise ValueError(str(e))
+        if len(plain) > limit or self.inflater.unconsumed_tail:
+            raise ValueError("Content larger than announced")
+        return plain
+
+
+# Decompressors by codec ID, other formats (LZ4, Zstd) plug in here with an ID of their own
+DECOMPRESSORS = {
+    COMPRESSION_DEFLATE: DeflateDecompressor,
+}
+
+
+def new_decompressor(flags):
+    """
+    Decompressor for the codec in the stream flags, None for uncompressed content.
+    """
+    codec = flags & COMPRESSION_MASK
+    if not codec:
+        return None
+    if codec not in DECOMPRESSORS:
+        raise ValueError(f"Unsupported compression {codec:#x}")
+    return DECOMPRESSORS[codec]()
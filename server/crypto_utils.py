@@ -35,11 +35,26 @@ def aes_decrypt(encoded_aes_key, cipher_text):
     Base64-encoded AES key, assuming CBC mode with a zero IV.
     Removes PKCS#7 padding.
     """
+    return aes_decrypt_bytes(encoded_aes_key, b64decode(cipher_text))
+
+
+def aes_decrypt_bytes(encoded_aes_key, cipher_bytes):
+    """
+    Decrypts raw AES-CBC ciphertext (zero IV) with the given
+    Base64-encoded AES key and removes the padding.
+    """
     aes_key = b64decode(encoded_aes_key)
     iv = AES.block_size * b'\x00'
     cipher = AES.new(aes_key, AES.MODE_CBC, iv)
-    decrypted = cipher.decrypt(b64decode(cipher_text))
+    decrypted = cipher.decrypt(cipher_bytes)
 
+    return remove_padding(decrypted)
+
+
+def remove_padding(decrypted):
+    """
+    Removes PKCS#7 padding from the last decrypted block.
+    """
     pad_len = decrypted[-1]
     if pad_len < 1 or pad_len > AES.block_size:
         raise ValueError("Invalid padding length")
@@ -48,3 +63,59 @@ def aes_decrypt(encoded_aes_key, cipher_text):
         raise ValueError("Invalid padding bytes")
 
     return decrypted[:-pad_len]
+
+
+class AesStreamDecryptor:
+    """
+    Decrypts an AES-CBC stream (zero IV) piece by piece, either raw or
+    Base64-encoded. Every piece must hold whole blocks (a multiple of 4
+    Base64 characters when encoded), padding is removed from the final one.
+    """
+
+    def __init__(self, encoded_aes_key, base64):
+        aes_key = b64decode(encoded_aes_key)
+        iv = AES.block_size * b'\x00'
+        self.cipher = AES.new(aes_key, AES.MODE_CBC, iv)
+        self.base64 = base64
+
+    def decrypt(self, cipher_text, final):
+        if self.base64:
+            cipher_text = b64decode(cipher_text)
+        decrypted = self.cipher.decrypt(cipher_text)
+        if final:
+            return remove_padding(decrypted)
+        return decrypted
+
+
+class AesGcmRecordDecryptor:
+    """
+    Opens AES-GCM records, [12B nonce][ciphertext][16B tag], sealed with the
+    given Base64-encoded AES key. Raises ValueError for a record that fails
+    authentication.
+    """
+
+    def __init__(self, encoded_aes_key):
+        self.aes_key = b64decode(encoded_aes_key)
+
+    def open(self, record, aad):
+        nonce, cipher_text, tag = record[:12], record[12:-16], record[-16:]
+        cipher = AES.new(self.aes_key, AES.MODE_GCM, nonce=bytes(nonce))
+        cipher.update(aad)
+        return cipher.decrypt_and_verify(bytes(cipher_text), bytes(tag))
+
+
+class AesGcmRecordEncryptor:
+    """
+    Seals AES-GCM records, [12B nonce][ciphertext][16B tag], with the given
+    Base64-encoded AES key and a random nonce for every record.
+    """
+
+    def __init__(self, encoded_aes_key):
+        self.aes_key = b64decode(encoded_aes_key)
+
+    def seal(self, plain, aad):
+        nonce = os.urandom(12)
+        cipher = AES.new(self.aes_key, AES.MODE_GCM, nonce=nonce)
+        cipher.update(aad)
+        cipher_text, tag = cipher.encrypt_and_digest(bytes(plain))
+        return nonce + cipher_text + tag
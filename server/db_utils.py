@@ -1,13 +1,39 @@
 import datetime
+import sqlite3
+import time
 
 
 def create_tables(db_connection):
+    # Write-ahead logging: clients connected at the same time don't block each other's reads,
+    # and a commit appends to the log instead of rewriting the database file
+    db_connection.execute('pragma journal_mode=wal')
     db_connection.execute('create table if not exists client\
      (ID char(16) primary key not NULL, Name varchar(255) not NULL,\
      PublicKey varchar(160), LastSeen datetime, AESKey char(16));')
     db_connection.execute('create table if not exists files\
      (ID char(16) primary key not NULL, FileName varchar(255) not NULL,\
-     PathName varchar(255), Verified boolean);')
+     PathName varchar(255), Verified boolean, ClientID char(16));')
+    # Files stored before their owner was recorded have none, they're no longer sent to any client
+    if 'ClientID' not in [column[1] for column in db_connection.execute('pragma table_info(files)')]:
+        try:
+            db_connection.execute('alter table files add column ClientID char(16)')
+        except sqlite3.OperationalError:
+            # Added meanwhile by another connection
+            pass
+    db_connection.execute('create table if not exists uploads\
+     (ID char(16) primary key not NULL, ClientID char(16) not NULL, FileName varchar(255) not NULL,\
+     FileSize integer, Modified integer, VerifiedOffset integer);')
+    # Byte ranges of files uploaded over parallel connections, received in full and checksummed
+    db_connection.execute('create table if not exists ranges\
+     (ClientID char(16) not NULL, FileName varchar(255) not NULL, FileSize integer, Offset integer, Size integer,\
+     primary key (ClientID, FileName, Offset));')
+    db_connection.execute('create table if not exists tickets\
+     (ID char(16) primary key not NULL, ClientID char(16) not NULL, AESKey char(24), Expires integer);')
+    # Chunks of deduplicated uploads in the chunk store, by SHA-256, and the chunks each file is made of
+    db_connection.execute('create table if not exists chunks\
+     (Hash char(64) not NULL, ClientID char(16) not NULL, Size integer, primary key (Hash, ClientID));')
+    db_connection.execute('create table if not exists file_chunks\
+     (FileID char(16) not NULL, Seq integer not NULL, Hash char(64) not NULL, primary key (FileID, Seq));')
 
 
 def is_exist_client(db_connection, client_name):
@@ -37,13 +63,94 @@ def update_client(db_connection, client_id, name, public_key, aes_key):
     db_connection.commit()
 
 
-def add_file(db_connection, file_id, file_name, file_path, verified):
-    db_connection.execute('insert into files(ID,FileName,PathName,Verified) VALUES(?,?,?,?)',
-                          (file_id, file_name, file_path, verified))
+def add_file(db_connection, file_id, client_id, file_name, file_path, verified):
+    db_connection.execute('insert into files(ID,ClientID,FileName,PathName,Verified) VALUES(?,?,?,?,?)',
+                          (file_id, client_id, file_name, file_path, verified))
     db_connection.commit()
 
 
+def get_file_owner(db_connection, file_name):
+    # Files share the storage directory, the copy held under a name is the last one stored
+    cursor = db_connection.execute('select ClientID from files where FileName=? order by rowid desc limit 1',
+                                   (file_name,))
+    row = cursor.fetchone()
+    return row[0] if row else None
+
+
 def update_file(db_connection, file_id, file_name, path_name, verified):
     db_connection.execute('update files set FileName=?, PathName=?, Verified=? where ID=?',
                           (file_name, path_name, verified, file_id))
     db_connection.commit()
+
+
+def get_upload(db_connection, client_id, file_name):
+    cursor = db_connection.execute('select ID,FileSize,Modified,VerifiedOffset from uploads\
+     where ClientID=? and FileName=?', (client_id, file_name))
+    return cursor.fetchone()
+
+
+def add_upload(db_connection, upload_id, client_id, file_name, file_size, modified):
+    db_connection.execute('insert into uploads(ID,ClientID,FileName,FileSize,Modified,VerifiedOffset)\
+     values(?,?,?,?,?,0)', (upload_id, client_id, file_name, file_size, modified))
+    db_connection.commit()
+
+
+def update_upload_offset(db_connection, upload_id, verified_offset):
+    db_connection.execute('update uploads set VerifiedOffset=? where ID=?', (verified_offset, upload_id))
+    db_connection.commit()
+
+
+def delete_upload(db_connection, upload_id):
+    db_connection.execute('delete from uploads where ID=?', (upload_id,))
+    db_connection.commit()
+
+
+def add_range(db_connection, client_id, file_name, file_size, offset, size):
+    db_connection.execute('insert or replace into ranges(ClientID,FileName,FileSize,Offset,Size) values(?,?,?,?,?)',
+                          (client_id, file_name, file_size, offset, size))
+    db_connection.commit()
+
+
+def get_ranges(db_connection, client_id, file_name, file_size):
+    cursor = db_connection.execute('select Offset,Size from ranges where ClientID=? and FileName=? and FileSize=?\
+     order by Offset', (client_id, file_name, file_size))
+    return cursor.fetchall()
+
+
+def delete_ranges(db_connection, client_id, file_name):
+    db_connection.execute('delete from ranges where ClientID=? and FileName=?', (client_id, file_name))
+    db_connection.commit()
+
+
+def add_ticket(db_connection, ticket_id, client_id, aes_key, expires):
+    db_connection.execute('delete from tickets where Expires<=?', (int(time.time()),))
+    db_connection.execute('insert into tickets(ID,ClientID,AESKey,Expires) values(?,?,?,?)',
+                          (ticket_id, client_id, aes_key, expires))
+    db_connection.commit()
+
+
+def get_ticket(db_connection, ticket_id):
+    cursor = db_connection.execute('select ClientID,AESKey,Expires from tickets where ID=?', (ticket_id,))
+    return cursor.fetchone()
+
+
+def get_client_chunks(db_connection, client_id, hashes, batch_size):
+    hashes = list(hashes)
+    found = set()
+    for start in range(0, len(hashes), batch_size):
+        batch = hashes[start:start + batch_size]
+        cursor = db_connection.execute('select Hash from chunks where ClientID=? and Hash in (%s)'
+                                       % ','.join('?' * len(batch)), [client_id] + batch)
+        found.update(row[0] for row in cursor)
+    return found
+
+
+def add_chunks(db_connection, chunks):
+    db_connection.executemany('insert or ignore into chunks(Hash,ClientID,Size) values(?,?,?)', chunks)
+    db_connection.commit()
+
+
+def add_file_chunks(db_connection, file_id, hashes):
+    db_connection.executemany('insert into file_chunks(FileID,Seq,Hash) values(?,?,?)',
+                              [(file_id, seq, digest) for seq, digest in enumerate(hashes)])
+    db_connection.commit()
@@ -1,13 +1,92 @@
 INFO_FILE_NAME = "port.info"
+# Optional, holds the session ticket lifetime in seconds instead of TICKET_LIFETIME
+TICKET_LIFETIME_FILE_NAME = "ticket_lifetime.info"
 OUT_FILE_PATH = "../transfer_files/"
+# Chunks of deduplicated uploads, stored once under their SHA-256
+CHUNK_STORE_PATH = "../chunk_store/"
 DB_FILE_NAME = "defensive.db"
+# Seconds a connection waits for another client's write to the database to finish
+DB_TIMEOUT = 30
 
 SERVER_IP = "127.0.0.1"
 SERVER_PORT = 1357
 
 REQUEST_HDR_SIZE = 23
 
-VERSION = 3
+STREAM_CHUNK_SIZE = 65536
+
+# Status of a chunk of a resumable upload, sent back in RESPOND_CHUNK_ACCEPTED
+CHUNK_STORED = 0
+CHUNK_REJECTED = 1
+# Verified offsets of resumable uploads are saved in the database at least this often
+CHECKPOINT_INTERVAL = 8 * 1024 * 1024
+
+# Stream flags, the honored ones are echoed back in RESPOND_FILE_ACCEPTED
+FLAG_CRC32C = 0x1
+# Content is a series of AES-GCM records instead of one CBC ciphertext
+FLAG_AES_GCM = 0x2
+# Codec the content was compressed with before it was encrypted, none if zero.
+# The content size in the payload is the size of the encrypted compressed bytes.
+COMPRESSION_MASK = 0xF0
+COMPRESSION_DEFLATE = 0x10
+
+# Every STREAM_CHUNK_SIZE plain bytes of GCM content (the last ones fewer, an empty
+# content one empty record) arrive as [12B nonce][ciphertext][16B tag], authenticated
+# along with [8B offset in the file][1B final]. From BOUND_AAD_VERSION the authenticated data
+# ends in the [16B binding] of the transfer, so under one key a record of a file can't pass
+# for the same offset of another: the upload, manifest or delta ID issued here, the ID the
+# client sent with a download, or the first 16 bytes of the SHA-256 of the [255B file name]
+# field of a whole-file upload, which has no round trip to get an ID
+GCM_NONCE_SIZE = 12
+GCM_TAG_SIZE = 16
+RECORD_BINDING_SIZE = 16
+# Set in the final byte of the authenticated data of the records the server sends,
+# so a record sent by the client can't be played back to it
+GCM_FROM_SERVER = 0x2
+
+VERSION = 13
+# First protocol version that sends the encrypted file body as raw bytes instead of Base64
+RAW_CONTENT_VERSION = 4
+# First protocol version that accepts AES-GCM content
+GCM_VERSION = 6
+# First protocol version that issues session tickets with the AES key
+TICKET_VERSION = 7
+# First protocol version that accepts compressed content
+COMPRESSION_VERSION = 8
+# First protocol version that accepts deduplicated uploads
+DEDUP_VERSION = 9
+# First protocol version that accepts delta uploads
+DELTA_VERSION = 10
+# First protocol version that sends stored files back to their clients
+DOWNLOAD_VERSION = 11
+# First protocol version that binds GCM records to the transfer they belong to
+BOUND_AAD_VERSION = 12
+# First protocol version whose session tickets are presented in answer to a challenge.
+# No other proof is accepted, older clients fall back to logging in with RSA.
+RESUME_CHALLENGE_VERSION = 13
+
+# Seconds a session ticket lets a client continue with its AES key without RSA, 0 issues none
+TICKET_LIFETIME = 3600
+TICKET_SIZE = 16
+# Random bytes a client seals along with its ticket, issued for one resumption attempt
+RESUME_CHALLENGE_SIZE = 16
+
+# Largest content-defined chunk of a deduplicated upload, and the number of
+# chunk hashes looked up in the database per query
+DEDUP_MAX_CHUNK = 256 * 1024
+DEDUP_LOOKUP_BATCH = 500
+
+# Delta uploads rebuild a file from instructions, [DELTA_LITERAL][4B length][bytes]
+# or [DELTA_COPY][4B block][4B count] of the server's copy, split in blocks of
+# about the square root of its size, each signed with its Adler-32 and the first
+# DELTA_STRONG_HASH_SIZE bytes of its SHA-256
+DELTA_LITERAL = 0
+DELTA_COPY = 1
+DELTA_STRONG_HASH_SIZE = 16
+DELTA_MIN_BLOCK = 2048
+DELTA_MAX_BLOCK = 65536
+# Signatures a connection keeps waiting for their delta, the oldest are dropped beyond it
+DELTA_MAX_PENDING = 16
 
 REQUEST_REGISTER = 1025
 REQUEST_KEY_SHARE = 1026
@@ -16,6 +95,19 @@ REQUEST_SEND_FILE = 1028
 REQUEST_VALID_CRC = 1029
 REQUEST_INVALID_CRC = 1030
 REQUEST_LAST_INVALID_CRC = 1031
+REQUEST_SEND_FILE_STREAM = 1032
+REQUEST_SEND_FILE_RANGE = 1033
+REQUEST_COMMIT_FILE = 1034
+REQUEST_RESUME_FILE = 1035
+REQUEST_SEND_FILE_CHUNK = 1036
+REQUEST_RESUME_SESSION = 1037
+REQUEST_DEDUP_MANIFEST = 1038
+REQUEST_SEND_DEDUP_CHUNK = 1039
+REQUEST_COMMIT_DEDUP = 1040
+REQUEST_DELTA_SIGNATURES = 1041
+REQUEST_SEND_DELTA = 1042
+REQUEST_DOWNLOAD_FILE = 1043
+REQUEST_RESUME_CHALLENGE = 1044
 
 RESPOND_REGISTER_SUCCESS = 2100
 RESPOND_REGISTER_FAIL = 2101
@@ -24,4 +116,14 @@ RESPOND_FILE_ACCEPTED = 2103
 RESPOND_MESSAGE_CONFIRMED = 2104
 RESPOND_LOGIN_CONFIRMED = 2105
 RESPOND_LOGIN_REJECTED = 2106
+RESPOND_RANGE_ACCEPTED = 2107
+RESPOND_RESUME_OFFSET = 2108
+RESPOND_CHUNK_ACCEPTED = 2109
+RESPOND_FILE_REJECTED = 2110
+RESPOND_SESSION_RESUMED = 2111
+RESPOND_MISSING_CHUNKS = 2112
+RESPOND_DELTA_SIGNATURES = 2113
+RESPOND_FILE_CONTENT = 2114
+RESPOND_FILE_NOT_FOUND = 2115
+RESPOND_RESUME_CHALLENGE = 2116
 RESPOND_INTERNAL_ERROR = 2200
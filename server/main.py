@@ -8,20 +8,48 @@ def handle_request(server:Server, request_header:RequestHeader, payload:bytes):
     Checks the type of the client's request and
     calls the corresponding method on the server object to handle it.
     """
+    server.version = min(request_header.version, VERSION)
+
     if request_header.code == REQUEST_REGISTER:
         return server.register_client(request_header, payload)
     elif request_header.code == REQUEST_KEY_SHARE:
         return server.share_key(request_header, payload)
     elif request_header.code == REQUEST_LOGIN:
         return server.login(request_header, payload)
+    elif request_header.code == REQUEST_RESUME_CHALLENGE:
+        return server.send_resume_challenge(request_header, payload)
+    elif request_header.code == REQUEST_RESUME_SESSION:
+        return server.resume_session(request_header, payload)
     elif request_header.code == REQUEST_SEND_FILE:
         return server.receive_file(request_header, payload)
+    elif request_header.code == REQUEST_SEND_FILE_STREAM:
+        return server.receive_file_stream(request_header, payload)
+    elif request_header.code == REQUEST_SEND_FILE_RANGE:
+        return server.receive_file_range(request_header, payload)
+    elif request_header.code == REQUEST_COMMIT_FILE:
+        return server.commit_file(request_header, payload)
+    elif request_header.code == REQUEST_RESUME_FILE:
+        return server.resume_file(request_header, payload)
+    elif request_header.code == REQUEST_SEND_FILE_CHUNK:
+        return server.receive_file_chunk(request_header, payload)
+    elif request_header.code == REQUEST_DEDUP_MANIFEST:
+        return server.receive_dedup_manifest(request_header, payload)
+    elif request_header.code == REQUEST_SEND_DEDUP_CHUNK:
+        return server.receive_dedup_chunk(request_header, payload)
+    elif request_header.code == REQUEST_COMMIT_DEDUP:
+        return server.commit_dedup(request_header, payload)
+    elif request_header.code == REQUEST_DELTA_SIGNATURES:
+        return server.send_delta_signatures(request_header, payload)
+    elif request_header.code == REQUEST_SEND_DELTA:
+        return server.receive_delta(request_header, payload)
+    elif request_header.code == REQUEST_DOWNLOAD_FILE:
+        return server.send_file(request_header, payload)
     elif request_header.code == REQUEST_VALID_CRC:
         return server.confirm_valid_crc(request_header, payload)
     elif request_header.code == REQUEST_INVALID_CRC:
         return server.confirm_invalid_crc(request_header, payload)
     elif request_header.code == REQUEST_LAST_INVALID_CRC:
-        return server.confirm_last_invalid_crc()
+        return server.confirm_last_invalid_crc(request_header, payload)
     else:
         return False
 
@@ -31,11 +59,35 @@ def handle_client(sock, address):
     them safely, and keeps the connection open until the client or server ends it.
     """
     print(f"[NEW CONNECTION] : {address} connected.")
+    # Responses are sent as a header and a payload, without this the payload
+    # waits for the client's delayed ACK of the header on every round trip
+    sock.setsockopt(socket.IPPROTO_TCP, socket.TCP_NODELAY, 1)
     server = Server(sock)
 
+    try:
+        serve_requests(server, sock, address)
+    finally:
+        try:
+            server.close()
+        except Exception as e:
+            print(f"*** EXCEPTION: {e}")
+        sock.close()
+
+def serve_requests(server:Server, sock, address):
+    """
+    Reads the client's requests one after another and handles them, until
+    the client disconnects, a request can't be handled or fails.
+    """
     while True:
         try:
             request_header_buf = sock.recv(REQUEST_HDR_SIZE)
+            if not request_header_buf:
+                print(f"[DISCONNECTED] : {address}")
+                break
+            # Pipelined requests arrive back-to-back, a header may be split across reads
+            if len(request_header_buf) < REQUEST_HDR_SIZE:
+                request_header_buf += server.recv_exactly(REQUEST_HDR_SIZE - len(request_header_buf))
+
             request_header = RequestHeader()
             request_header.parse_from_bytes(request_header_buf)
             payload = bytes()
@@ -56,13 +108,13 @@ def handle_client(sock, address):
         except Exception as e:
             print(f"*** EXCEPTION: {e}")
             break
-    server.db_connection.close()
-    sock.close()
 
 
 def main():
     if not os.path.exists(OUT_FILE_PATH):
         os.makedirs(OUT_FILE_PATH)
+    if not os.path.exists(CHUNK_STORE_PATH):
+        os.makedirs(CHUNK_STORE_PATH)
 
     port = SERVER_PORT
     try:
@@ -72,6 +124,12 @@ def main():
     except FileNotFoundError as e:
         pass
 
+    try:
+        with open(TICKET_LIFETIME_FILE_NAME, "r") as lifetime_file:
+            Server.ticket_lifetime = int(lifetime_file.read())
+    except FileNotFoundError:
+        pass
+
     address = (SERVER_IP, port)
 
     """We're creating here a new socket object"""
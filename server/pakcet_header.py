@@ -17,8 +17,8 @@ class RequestHeader:
 
 class RespondHeader:
 
-    def __init__(self):
-        self.version = VERSION
+    def __init__(self, version=VERSION):
+        self.version = version
         self.code = 0
         self.payload_size = 0
 
@@ -1,14 +1,32 @@
 import binascii
+import hashlib
+import io
+import math
+import os
+import shutil
 import sqlite3
 import struct
+import tempfile
+import time
+import zlib
 import shortuuid
 
+try:
+    # Optional, CRC32C is only offered to clients when it's installed
+    from crc32c import crc32c
+except ImportError:
+    crc32c = None
+
+from compression_utils import *
 from crypto_utils import *
 from db_utils import *
 from pakcet_header import *
 
 
 class Server:
+    # Seconds a session ticket is accepted for, 0 issues none
+    ticket_lifetime = TICKET_LIFETIME
+
     def __init__(self, sock):
         self.client_id = ""
         self.client_name = ""
@@ -17,12 +35,33 @@ class Server:
         self.file_id = ""
         self.file_name = ""
 
-        self.db_connection = sqlite3.connect(DB_FILE_NAME)
+        self.db_connection = sqlite3.connect(DB_FILE_NAME, timeout=DB_TIMEOUT)
         create_tables(self.db_connection)
 
-        self.retry = False
         self.socket = sock
 
+        # Files received but not yet confirmed by the client, by name. A pipelining
+        # client may send the next files before confirming the CRC of earlier ones.
+        self.pending_files = {}
+
+        # Resumable uploads started on this connection, by upload ID
+        self.uploads = {}
+
+        # Deduplicated uploads announced on this connection, by manifest ID, and the
+        # stored chunks not yet recorded in the database
+        self.manifests = {}
+        self.pending_chunks = []
+        self.pending_chunk_bytes = 0
+
+        # Challenge the next session resumption must seal, issued for one attempt
+        self.resume_challenge = None
+
+        # Signatures sent for delta uploads, by delta ID
+        self.deltas = {}
+
+        # Protocol version agreed with the client, echoed in every response header.
+        self.version = VERSION
+
     def register_client(self, request_header, request_payload):
         """
         This method handles a client's registration request:
@@ -30,7 +69,7 @@ class Server:
         and if not-generates a new client ID, stores it, and sends
         a success response. If it already exists, it sends a failure response.
         """
-        respond = RespondHeader()
+        respond = RespondHeader(self.version)
 
         name = request_payload.decode("utf-8").replace('\x00', '')
         exists = is_exist_client(self.db_connection, name)
@@ -67,7 +106,7 @@ class Server:
         using the public key, stores both in the database, and sends the encrypted
         AES key back to the client.
         """
-        respond = RespondHeader()
+        respond = RespondHeader(self.version)
         name = request_payload[0:255].decode("utf-8").replace('\x00', '')
         pubkey = request_payload[255:].decode("utf-8").replace('\x00', '')
 
@@ -80,6 +119,7 @@ class Server:
         encrypted_key = rsa_encrypt(pubkey, self.aes_key)
 
         respond_payload = self.client_id.encode()
+        respond_payload += self.issue_ticket()
         respond_payload += encrypted_key
 
         respond.code = RESPOND_KEY_SHARE
@@ -108,7 +148,7 @@ class Server:
         else:
             registered = False
 
-        respond = RespondHeader()
+        respond = RespondHeader(self.version)
         if not registered:
             respond.code = RESPOND_LOGIN_REJECTED
             respond.payload_size = 16
@@ -127,6 +167,7 @@ class Server:
             encrypted_key = rsa_encrypt(self.public_key, self.aes_key)
 
             respond_payload = self.client_id.encode()
+            respond_payload += self.issue_ticket()
             respond_payload += encrypted_key
 
             respond.payload_size = len(respond_payload)
@@ -136,6 +177,83 @@ class Server:
             print("[LOGIN] : Success. Aes key sent.")
             return True
 
+    def issue_ticket(self):
+        """
+        Issues a session ticket for the AES key just sent, returned as
+        [16B ticket][4B lifetime in seconds] for the key response. Empty for
+        clients before TICKET_VERSION, all zero when tickets are disabled.
+        """
+        if self.version < TICKET_VERSION:
+            return b""
+        if self.ticket_lifetime <= 0:
+            return bytes(TICKET_SIZE + 4)
+
+        ticket_id = shortuuid.ShortUUID().random(length=TICKET_SIZE)
+        add_ticket(self.db_connection, ticket_id, self.client_id, self.aes_key,
+                   int(time.time()) + self.ticket_lifetime)
+        return struct.pack("<16sI", ticket_id.encode(), self.ticket_lifetime)
+
+    def send_resume_challenge(self, request_header, request_payload):
+        """
+        Sends the random challenge the next session resumption on this
+        connection must seal with its ticket's key, so a resumption seen
+        on the network can't be played again.
+        """
+        self.resume_challenge = os.urandom(RESUME_CHALLENGE_SIZE)
+
+        respond = RespondHeader(self.version)
+        respond.code = RESPOND_RESUME_CHALLENGE
+        respond.payload_size = RESUME_CHALLENGE_SIZE
+        self.socket.send(respond.pack_to_bytes())
+        self.socket.send(self.resume_challenge)
+        return True
+
+    def resume_session(self, request_header, request_payload):
+        """
+        Continues a client's session with the AES key of the ticket it
+        presents, without generating and RSA-encrypting a new one. The
+        client proves it holds the key with a GCM tag over the ticket, its
+        ID and the challenge just sent, which is good for one attempt. A
+        rejected client may still log in on the same connection.
+        """
+        challenge = self.resume_challenge
+        self.resume_challenge = None
+        ticket_id = request_payload[0:TICKET_SIZE].decode("utf-8").rstrip('\x00')
+        name = request_payload[TICKET_SIZE:TICKET_SIZE + 255].decode("utf-8").replace('\x00', '')
+        proof = request_payload[TICKET_SIZE + 255:]
+
+        ticket = get_ticket(self.db_connection, ticket_id)
+        resumed = False
+        if challenge is not None and ticket is not None and ticket[0] == request_header.id \
+                and ticket[2] > time.time() and is_exist_client(self.db_connection, name):
+            client = get_client(self.db_connection, name)
+            aad = request_payload[0:TICKET_SIZE] + request_header.id.encode() + challenge
+            try:
+                AesGcmRecordDecryptor(ticket[1]).open(proof, aad)
+                resumed = client[0] == ticket[0]
+            except ValueError:
+                pass
+
+        respond = RespondHeader(self.version)
+        if not resumed:
+            respond.code = RESPOND_LOGIN_REJECTED
+            respond.payload_size = 16
+            self.socket.send(respond.pack_to_bytes())
+            self.socket.send(request_header.id.encode())
+            print("[RESUME SESSION] : Fail. Ticket rejected.")
+            return True
+
+        self.client_id, self.client_name, self.public_key = client[0:3]
+        self.aes_key = ticket[1]
+
+        respond.code = RESPOND_SESSION_RESUMED
+        respond.payload_size = 16
+        self.socket.send(respond.pack_to_bytes())
+        self.socket.send(struct.pack("=16s", str.encode(self.client_id)))
+
+        print("[RESUME SESSION] : Success.")
+        return True
+
     def receive_file(self, request_header, request_payload):
         """
         Receives a file from the client: decrypts it using the AES key,
@@ -143,13 +261,18 @@ class Server:
         and sends back the checksum and metadata.
         """
 
-        data_size = struct.unpack("<I", request_payload[0:4])[0]
+        if self.reject_without_session():
+            return True
 
-        file_name = struct.unpack("=255s", request_payload[4:259])[0].decode("utf-8").rstrip('\x00')
+        data_size = struct.unpack("<I", request_payload[0:4])[0]
 
-        encrypted_base64 = request_payload[259:].decode("ascii").rstrip('\x00')
+        file_name = stored_file_name(request_payload[4:259])
 
-        decrypted_bytes = bytearray(aes_decrypt(self.aes_key, encrypted_base64))
+        if self.version >= RAW_CONTENT_VERSION:
+            decrypted_bytes = bytearray(aes_decrypt_bytes(self.aes_key, request_payload[259:]))
+        else:
+            encrypted_base64 = request_payload[259:].decode("ascii").rstrip('\x00')
+            decrypted_bytes = bytearray(aes_decrypt(self.aes_key, encrypted_base64))
 
         crc = binascii.crc32(decrypted_bytes[0:data_size])
 
@@ -157,16 +280,705 @@ class Server:
         with open(file_path, "wb") as out_file:
             out_file.write(decrypted_bytes[0:data_size])
 
+        return self.accept_file(file_name, data_size, crc)
+
+    def receive_file_stream(self, request_header, request_payload):
+        """
+        Receives a file streamed in chunks: the ciphertext that follows the
+        payload is read, decrypted and written to disk one chunk at a time,
+        so the file is never held in memory whatever its size. GCM content
+        is authenticated as it arrives instead of checked by the client.
+        """
+        data_size, content_size, flags = struct.unpack("<QQI", request_payload[0:20])
+        if self.reject_without_session(content_size):
+            return True
+
+        file_name = stored_file_name(request_payload[20:275])
+
+        file_path = OUT_FILE_PATH + file_name
+        with open(file_path, "wb") as out_file:
+            if flags & FLAG_AES_GCM:
+                binding = hashlib.sha256(request_payload[20:275]).digest()[0:RECORD_BINDING_SIZE]
+                authenticated = self.receive_authenticated_content(out_file, data_size, 0, content_size, flags,
+                                                                   self.record_binding(binding))
+            else:
+                crc, honored_flags = self.receive_content(out_file, data_size, content_size, flags)
+
+        if flags & FLAG_AES_GCM:
+            return self.authenticate_file(file_name, authenticated)
+        return self.accept_file(file_name, data_size, crc, honored_flags)
+
+    def receive_file_range(self, request_header, request_payload):
+        """
+        Receives one byte range of a file uploaded over several connections
+        and writes it in place at its offset. Sends back the checksum of the
+        range; the file is recorded once the client commits it.
+        """
+        data_size, offset, range_size, content_size, flags = struct.unpack("<QQQQI", request_payload[0:36])
+        if self.reject_without_session(content_size):
+            return True
+
+        file_name = stored_file_name(request_payload[36:291])
+
+        # Other connections may be writing other ranges of the same file, so it's
+        # opened without truncating and only resized to its final length.
+        file_path = OUT_FILE_PATH + file_name
+        with os.fdopen(os.open(file_path, os.O_RDWR | os.O_CREAT, 0o644), "r+b") as out_file:
+            out_file.truncate(data_size)
+            out_file.seek(offset)
+            crc, honored_flags = self.receive_content(out_file, range_size, content_size, flags)
+        # The client commits the file once the checksum of every range matched, so only the
+        # ranges that reached this point count towards it
+        add_range(self.db_connection, self.client_id, file_name, data_size, offset, range_size)
+
+        respond_payload = struct.pack("<16sQQII", self.client_id.encode(), offset, range_size, crc, honored_flags)
+
+        respond = RespondHeader(self.version)
+        respond.code = RESPOND_RANGE_ACCEPTED
+        respond.payload_size = len(respond_payload)
+        self.socket.send(respond.pack_to_bytes())
+        self.socket.send(respond_payload)
+
+        print(f"[RECEIVE RANGE] : Success. {file_name} at {offset}, CRC sent.")
+        return True
+
+    def commit_file(self, request_header, request_payload):
+        """
+        Records a file uploaded in ranges once the client verified every range,
+        after checking the ranges received cover all of it.
+        """
+        if self.reject_without_session():
+            return True
+
+        data_size = struct.unpack("<Q", request_payload[0:8])[0]
+
+        file_name = stored_file_name(request_payload[8:263])
+
+        file_path = OUT_FILE_PATH + file_name
+        verified = os.path.exists(file_path) and os.path.getsize(file_path) == data_size
+
+        # A resumable upload is complete once every byte of it was verified
+        resumed = [upload_id for upload_id, upload in self.uploads.items() if upload["file_name"] == file_name]
+        for upload_id in resumed:
+            verified = verified and self.uploads[upload_id]["verified_offset"] == data_size
+            if verified:
+                delete_upload(self.db_connection, upload_id)
+                del self.uploads[upload_id]
+        # A ranged one once its ranges leave no gap; the file was sized up front, a range that
+        # never arrived would be zeros
+        if not resumed:
+            covered = 0
+            for offset, size in get_ranges(self.db_connection, self.client_id, file_name, data_size):
+                if offset > covered:
+                    break
+                covered = max(covered, offset + size)
+            verified = verified and covered == data_size
+            if verified:
+                delete_ranges(self.db_connection, self.client_id, file_name)
+
+        self.file_name = file_name
+        self.file_id = shortuuid.ShortUUID().random(length=16)
+        add_file(self.db_connection, self.file_id, self.client_id, self.file_name, OUT_FILE_PATH, verified)
+
+        respond = RespondHeader(self.version)
+        if verified:
+            respond.code = RESPOND_MESSAGE_CONFIRMED
+            respond.payload_size = 16
+            self.socket.send(respond.pack_to_bytes())
+            self.socket.send(struct.pack("=16s", str.encode(self.client_id)))
+            print("[COMMIT] : Success. File transfer success\n")
+        else:
+            respond.code = RESPOND_INTERNAL_ERROR
+            self.socket.send(respond.pack_to_bytes())
+            print("[COMMIT] : Fail. File incomplete\n")
+        return True
+
+    def resume_file(self, request_header, request_payload):
+        """
+        Tells the client how many bytes of a file were already received and
+        verified, so an interrupted upload continues from there instead of
+        from the start. A file whose size or modification time changed since
+        starts over.
+        """
+        if self.reject_without_session():
+            return True
+
+        data_size, modified, flags = struct.unpack("<QQI", request_payload[0:20])
+
+        file_name = stored_file_name(request_payload[20:275])
+
+        file_path = OUT_FILE_PATH + file_name
+        upload = get_upload(self.db_connection, self.client_id, file_name)
+        if upload is not None and upload[1:3] == (data_size, modified) and os.path.exists(file_path):
+            upload_id, verified_offset = upload[0], upload[3]
+        else:
+            if upload is not None:
+                delete_upload(self.db_connection, upload[0])
+            upload_id = shortuuid.ShortUUID().random(length=16)
+            verified_offset = 0
+            add_upload(self.db_connection, upload_id, self.client_id, file_name, data_size, modified)
+            with open(file_path, "wb") as out_file:
+                out_file.truncate(data_size)
+
+        # Chunks verified beyond the checkpoint, by offset, until the bytes before them are too
+        self.uploads[upload_id] = {"file_name": file_name, "data_size": data_size, "verified_offset": verified_offset,
+                                   "saved_offset": verified_offset, "chunks": {}}
+
+        honored_flags = flags & FLAG_AES_GCM
+        if flags & FLAG_CRC32C and crc32c is not None:
+            honored_flags |= FLAG_CRC32C
+        if (flags & COMPRESSION_MASK) in DECOMPRESSORS:
+            honored_flags |= flags & COMPRESSION_MASK
+
+        respond_payload = struct.pack("<16s16sQI", self.client_id.encode(), upload_id.encode(),
+                                      verified_offset, honored_flags)
+
+        respond = RespondHeader(self.version)
+        respond.code = RESPOND_RESUME_OFFSET
+        respond.payload_size = len(respond_payload)
+        self.socket.send(respond.pack_to_bytes())
+        self.socket.send(respond_payload)
+
+        print(f"[RESUME] : {file_name} from {verified_offset} of {data_size} bytes.")
+        return True
+
+    def receive_file_chunk(self, request_header, request_payload):
+        """
+        Receives one chunk of a resumable upload, followed by the checksum of
+        its plain bytes, or as GCM records. A matching or authenticated chunk
+        is kept and the verified offset of the upload advances over it; a
+        damaged one is rejected so the client sends only that chunk again.
+        """
+        upload_id = request_payload[0:16].decode("utf-8").rstrip('\x00')
+        offset, length, content_size, flags = struct.unpack("<QIII", request_payload[16:36])
+        gcm = flags & FLAG_AES_GCM
+
+        upload = self.uploads.get(upload_id)
+        respond = RespondHeader(self.version)
+        if upload is None:
+            # Not resumed on this connection, skip the chunk to stay in sync with the client
+            self.recv_exactly(content_size + (0 if gcm else 4))
+            respond.code = RESPOND_INTERNAL_ERROR
+            self.socket.send(respond.pack_to_bytes())
+            print("[RECEIVE CHUNK] : Fail. Unknown upload.")
+            return True
+
+        file_path = OUT_FILE_PATH + upload["file_name"]
+        with open(file_path, "r+b") as out_file:
+            out_file.seek(offset)
+            if gcm:
+                valid = self.receive_authenticated_content(out_file, length, offset, content_size, flags,
+                                                           self.record_binding(request_payload[0:16]))
+            else:
+                crc, honored_flags = self.receive_content(out_file, length, content_size, flags)
+        if not gcm:
+            valid = crc == struct.unpack("<I", self.recv_exactly(4))[0]
+
+        if valid:
+            status = CHUNK_STORED
+            chunks = upload["chunks"]
+            verified_offset = upload["verified_offset"]
+            if offset >= verified_offset:
+                chunks[offset] = offset + length
+            # The checkpoint only moves over contiguous verified bytes
+            while verified_offset in chunks:
+                verified_offset = chunks.pop(verified_offset)
+            upload["verified_offset"] = verified_offset
+            # Saving the checkpoint is a database commit, it's not done for every chunk
+            if verified_offset - upload["saved_offset"] >= CHECKPOINT_INTERVAL or verified_offset == upload["data_size"]:
+                upload["saved_offset"] = verified_offset
+                update_upload_offset(self.db_connection, upload_id, verified_offset)
+        else:
+            status = CHUNK_REJECTED
+            print(f"[RECEIVE CHUNK] : Fail. {'Authentication failed' if gcm else 'CRC mismatch'} at {offset}.")
+
+        respond_payload = struct.pack("<16sQIQ", upload_id.encode(), offset, status, upload["verified_offset"])
+
+        respond.code = RESPOND_CHUNK_ACCEPTED
+        respond.payload_size = len(respond_payload)
+        self.socket.send(respond.pack_to_bytes())
+        self.socket.send(respond_payload)
+        return True
+
+    def receive_dedup_manifest(self, request_header, request_payload):
+        """
+        Receives the list of content-defined chunks a file is made of and
+        replies with the positions of those missing from the chunk store,
+        the only ones the client sends. Chunks are shared by all files of
+        the same client, never between clients: whether a chunk is known
+        would tell a client what others uploaded.
+        """
+        if self.reject_without_session():
+            return True
+
+        data_size, count = struct.unpack("<QI", request_payload[0:12])
+
+        file_name = stored_file_name(request_payload[12:267])
+
+        entries = request_payload[267:]
+        hashes = []
+        lengths = []
+        offsets = []
+        offset = 0
+        for digest, length in struct.iter_unpack("<32sI", entries[0:count * 36]):
+            hashes.append(digest.hex())
+            lengths.append(length)
+            offsets.append(offset)
+            offset += length
+
+        if len(entries) != count * 36 or offset != data_size or any(length > DEDUP_MAX_CHUNK for length in lengths):
+            respond = RespondHeader(self.version)
+            respond.code = RESPOND_INTERNAL_ERROR
+            self.socket.send(respond.pack_to_bytes())
+            print(f"[DEDUP] : Fail. Malformed manifest of {file_name}.")
+            return True
+
+        manifest_id = shortuuid.ShortUUID().random(length=16)
+        manifest = {"file_name": file_name, "hashes": hashes, "lengths": lengths, "offsets": offsets,
+                    "stored": set()}
+        self.manifests[manifest_id] = manifest
+
+        missing = self.missing_chunks(manifest)
+        self.send_missing_chunks(manifest_id, missing)
+        print(f"[DEDUP] : {file_name}, {len(missing)} of {count} chunks missing.")
+        return True
+
+    def receive_dedup_chunk(self, request_header, request_payload):
+        """
+        Receives one missing chunk of a deduplicated upload and adds it to
+        the chunk store if its plain bytes match the hash in the manifest.
+        Nothing is sent back, a chunk that doesn't match is reported missing
+        again when the client commits the file.
+        """
+        manifest_id = request_payload[0:16].decode("utf-8").rstrip('\x00')
+        index, content_size, flags = struct.unpack("<III", request_payload[16:28])
+
+        manifest = self.manifests.get(manifest_id)
+        if manifest is None or index >= len(manifest["hashes"]):
+            # Not announced on this connection, skip the chunk to stay in sync with the client
+            self.recv_exactly(content_size)
+            print("[DEDUP] : Fail. Unknown chunk.")
+            return True
+
+        digest = manifest["hashes"][index]
+        length = manifest["lengths"][index]
+        plain = io.BytesIO()
+        if flags & FLAG_AES_GCM:
+            valid = self.receive_authenticated_content(plain, length, manifest["offsets"][index], content_size, flags,
+                                                       self.record_binding(request_payload[0:16]))
+        else:
+            self.receive_content(plain, length, content_size, flags)
+            valid = True
+        data = plain.getvalue()
+
+        if not valid or hashlib.sha256(data).hexdigest() != digest:
+            print(f"[DEDUP] : Fail. Chunk {index} of {manifest['file_name']} doesn't match its hash.")
+            return True
+
+        self.store_chunk(digest, data)
+        manifest["stored"].add(digest)
+        # Recording chunks is a database commit, it's not done for every chunk
+        self.pending_chunks.append((digest, self.client_id, length))
+        self.pending_chunk_bytes += length
+        if self.pending_chunk_bytes >= CHECKPOINT_INTERVAL:
+            self.save_chunks()
+        return True
+
+    def commit_dedup(self, request_header, request_payload):
+        """
+        Assembles a deduplicated upload from the chunk store once all its
+        chunks are there, and records the file along with its chunks.
+        Otherwise replies with the chunks still missing.
+        """
+        manifest_id = request_payload[0:16].decode("utf-8").rstrip('\x00')
+
+        manifest = self.manifests.get(manifest_id)
+        respond = RespondHeader(self.version)
+        if manifest is None:
+            respond.code = RESPOND_INTERNAL_ERROR
+            self.socket.send(respond.pack_to_bytes())
+            print("[COMMIT] : Fail. Unknown manifest\n")
+            return True
+
+        self.save_chunks()
+        missing = self.missing_chunks(manifest)
+        if missing:
+            self.send_missing_chunks(manifest_id, missing)
+            print(f"[COMMIT] : {len(missing)} chunks of {manifest['file_name']} still missing.")
+            return True
+
+        file_name = manifest["file_name"]
+        with open(OUT_FILE_PATH + file_name, "wb") as out_file:
+            for digest in manifest["hashes"]:
+                with open(chunk_path(digest), "rb") as chunk_file:
+                    shutil.copyfileobj(chunk_file, out_file)
+        del self.manifests[manifest_id]
+
+        self.file_name = file_name
+        self.file_id = shortuuid.ShortUUID().random(length=16)
+        add_file(self.db_connection, self.file_id, self.client_id, self.file_name, OUT_FILE_PATH, True)
+        add_file_chunks(self.db_connection, self.file_id, manifest["hashes"])
+
+        respond.code = RESPOND_MESSAGE_CONFIRMED
+        respond.payload_size = 16
+        self.socket.send(respond.pack_to_bytes())
+        self.socket.send(struct.pack("=16s", str.encode(self.client_id)))
+        print("[COMMIT] : Success. File transfer success\n")
+        return True
+
+    def missing_chunks(self, manifest):
+        """
+        Positions in the manifest of the chunks neither in the chunk store
+        for this client nor received on this connection. A chunk that
+        appears several times in the file is asked for once.
+        """
+        known = manifest["stored"] | {digest for digest in get_client_chunks(
+            self.db_connection, self.client_id, set(manifest["hashes"]), DEDUP_LOOKUP_BATCH)
+            if os.path.exists(chunk_path(digest))}
+        missing = []
+        for index, digest in enumerate(manifest["hashes"]):
+            if digest not in known:
+                known.add(digest)
+                missing.append(index)
+        return missing
+
+    def send_missing_chunks(self, manifest_id, missing):
+        respond_payload = struct.pack("<16sI", manifest_id.encode(), len(missing))
+        respond_payload += struct.pack(f"<{len(missing)}I", *missing)
+
+        respond = RespondHeader(self.version)
+        respond.code = RESPOND_MISSING_CHUNKS
+        respond.payload_size = len(respond_payload)
+        self.socket.send(respond.pack_to_bytes())
+        self.socket.send(respond_payload)
+
+    def store_chunk(self, digest, data):
+        """
+        Writes a chunk to the chunk store, unless it's there already. It's
+        written under a temporary name first, so a connection storing the
+        same chunk at the same time never sees it half written.
+        """
+        path = chunk_path(digest)
+        if os.path.exists(path):
+            return
+        os.makedirs(os.path.dirname(path), exist_ok=True)
+        temp_path = f"{path}.{shortuuid.ShortUUID().random(length=8)}.tmp"
+        with open(temp_path, "wb") as chunk_file:
+            chunk_file.write(data)
+        os.replace(temp_path, path)
+
+    def close(self):
+        """
+        Ends the connection's session: records the chunks stored since the
+        last checkpoint, so a client that disconnects before committing
+        finds them in the chunk store when it retries, and closes the
+        database connection.
+        """
+        try:
+            self.save_chunks()
+        finally:
+            self.db_connection.close()
+
+    def save_chunks(self):
+        if self.pending_chunks:
+            add_chunks(self.db_connection, self.pending_chunks)
+        self.pending_chunks = []
+        self.pending_chunk_bytes = 0
+
+    def send_delta_signatures(self, request_header, request_payload):
+        """
+        Sends the signature of the copy of a file held under the given name,
+        for the client to send only the changes against it. Without a copy
+        the signature has no blocks and the delta is the whole file.
+        """
+        if self.reject_without_session():
+            return True
+
+        file_name = stored_file_name(request_payload[0:255])
+
+        file_path = OUT_FILE_PATH + file_name
+        # A copy stored by another client is no base, its blocks aren't this client's to see
+        owned = self.is_file_owner(file_name)
+        base_size = os.path.getsize(file_path) if owned and os.path.isfile(file_path) else 0
+        block_size = min(max(math.isqrt(base_size) // 1024 * 1024, DELTA_MIN_BLOCK), DELTA_MAX_BLOCK)
+
+        signatures = bytearray()
+        block_count = 0
+        if base_size > 0:
+            with open(file_path, "rb") as base_file:
+                while block := base_file.read(block_size):
+                    signatures += struct.pack("<I", zlib.adler32(block))
+                    signatures += hashlib.sha256(block).digest()[0:DELTA_STRONG_HASH_SIZE]
+                    block_count += 1
+
+        # A client sends its delta against the last signature of a file it asked for, or none at
+        # all when there's no copy, so the earlier ones of the file and the oldest are dropped
+        for pending_id in [pending_id for pending_id, pending in self.deltas.items()
+                           if pending["file_name"] == file_name]:
+            del self.deltas[pending_id]
+        while len(self.deltas) >= DELTA_MAX_PENDING:
+            del self.deltas[next(iter(self.deltas))]
+
+        delta_id = shortuuid.ShortUUID().random(length=16)
+        # The delta refers to blocks of this version, it's rejected if the copy changes meanwhile
+        self.deltas[delta_id] = {"file_name": file_name, "base_size": base_size, "block_size": block_size,
+                                 "block_count": block_count,
+                                 "base_modified": os.stat(file_path).st_mtime_ns if base_size > 0 else None}
+
+        respond_payload = struct.pack("<16sQII", delta_id.encode(), base_size, block_size, block_count) + signatures
+
+        respond = RespondHeader(self.version)
+        respond.code = RESPOND_DELTA_SIGNATURES
+        respond.payload_size = len(respond_payload)
+        self.socket.send(respond.pack_to_bytes())
+        self.socket.send(respond_payload)
+
+        print(f"[DELTA] : {file_name}, {block_count} blocks of {block_size} bytes.")
+        return True
+
+    def receive_delta(self, request_header, request_payload):
+        """
+        Receives a delta against the signed copy of a file, rebuilds the new
+        version next to it and replaces the copy once the result matches the
+        client's SHA-256. The delta is authenticated (GCM) or not, the hash
+        of the result verifies it either way.
+        """
+        delta_id = request_payload[0:16].decode("utf-8").rstrip('\x00')
+        data_size, delta_size, content_size, flags = struct.unpack("<QQQI", request_payload[16:44])
+        file_digest = bytes(request_payload[44:76])
+
+        delta = self.deltas.pop(delta_id, None)
+        if delta is None:
+            # Not signed on this connection, skip the delta to stay in sync with the client
+            self.recv_exactly(content_size)
+            respond = RespondHeader(self.version)
+            respond.code = RESPOND_INTERNAL_ERROR
+            self.socket.send(respond.pack_to_bytes())
+            print("[DELTA] : Fail. Unknown delta.")
+            return True
+
+        with tempfile.TemporaryFile() as delta_file:
+            if flags & FLAG_AES_GCM:
+                valid = self.receive_authenticated_content(delta_file, delta_size, 0, content_size, flags,
+                                                           self.record_binding(request_payload[0:16]))
+            else:
+                self.receive_content(delta_file, delta_size, content_size, flags)
+                valid = True
+            if valid:
+                delta_file.seek(0)
+                valid = apply_delta(delta_file, delta, data_size, file_digest)
+
+        return self.authenticate_file(delta["file_name"], valid)
+
+    def send_file(self, request_header, request_payload):
+        """
+        Sends a stored file, or a byte range of it, back to the client as GCM
+        records under the session key, read and encrypted one chunk at a time.
+        The range is cut at the end of the file, a negative length asks for
+        all of it. Answers RESPOND_FILE_NOT_FOUND for a file it doesn't hold,
+        or one that another client stored.
+        """
+        offset, length, flags = struct.unpack("<QqI", request_payload[0:20])
+
+        file_name = struct.unpack("=255s", request_payload[20:275])[0].decode("utf-8").rstrip('\x00')
+        binding = self.record_binding(request_payload[275:275 + RECORD_BINDING_SIZE])
+
+        # Only files stored by clients are sent, never a path outside the storage directory
+        file_path = OUT_FILE_PATH + os.path.basename(file_name)
+        respond = RespondHeader(self.version)
+        if not self.aes_key or not self.is_file_owner(os.path.basename(file_name)) \
+                or not os.path.isfile(file_path) or offset > os.path.getsize(file_path):
+            respond.code = RESPOND_FILE_NOT_FOUND
+            self.socket.send(respond.pack_to_bytes())
+            print(f"[DOWNLOAD] : Fail. No file named {file_name}.")
+            return True
+
+        file_size = os.path.getsize(file_path)
+        length = file_size - offset if length < 0 else min(length, file_size - offset)
+        # An empty range is still one empty record
+        records = max(1, -(-length // STREAM_CHUNK_SIZE))
+        content_size = length + records * (GCM_NONCE_SIZE + GCM_TAG_SIZE)
+
+        respond_payload = struct.pack("<QQQQI", file_size, offset, length, content_size, FLAG_AES_GCM)
+        respond.code = RESPOND_FILE_CONTENT
+        respond.payload_size = len(respond_payload)
+        self.socket.sendall(respond.pack_to_bytes() + respond_payload)
+
+        encryptor = AesGcmRecordEncryptor(self.aes_key)
+        end = offset + length
+        position = offset
+        sent = 0
+        with open(file_path, "rb") as in_file:
+            in_file.seek(offset)
+            while True:
+                chunk = in_file.read(min(STREAM_CHUNK_SIZE, end - position))
+                if position + len(chunk) < end and len(chunk) < STREAM_CHUNK_SIZE:
+                    # The file was cut short meanwhile, the rest of the announced content is
+                    # sent as zeros that fail authentication
+                    self.socket.sendall(bytes(content_size - sent))
+                    print(f"[DOWNLOAD] : Fail. {file_name} changed while it was sent.")
+                    return True
+                final = position + len(chunk) == end
+                record = encryptor.seal(chunk, struct.pack("<QB", position, int(final) | GCM_FROM_SERVER) + binding)
+                self.socket.sendall(record)
+                sent += len(record)
+                position += len(chunk)
+                if final:
+                    break
+
+        print(f"[DOWNLOAD] : Success. {file_name}, {length} bytes from {offset}.")
+        return True
+
+    def receive_content(self, out_file, data_size, content_size, flags):
+        """
+        Reads content_size bytes of ciphertext from the socket in chunks,
+        decrypts them, decompressing compressed content, and writes the first
+        data_size plain bytes to out_file. Returns their checksum and the
+        flags that were honored. Damaged compressed content stops being
+        written, its checksum won't match the client's.
+        """
+        decryptor = AesStreamDecryptor(self.aes_key, self.version < RAW_CONTENT_VERSION)
+        decompressor = new_decompressor(flags)
+
+        honored_flags = flags & COMPRESSION_MASK
+        checksum = binascii.crc32
+        if flags & FLAG_CRC32C and crc32c is not None:
+            honored_flags |= FLAG_CRC32C
+            checksum = crc32c
+        crc = 0
+        written = 0
+        damaged = False
+
+        remaining = content_size
+        while remaining > 0:
+            chunk = self.recv_exactly(min(STREAM_CHUNK_SIZE, remaining))
+            remaining -= len(chunk)
+
+            decrypted = decryptor.decrypt(chunk, remaining == 0)
+            if decompressor is None:
+                decrypted = decrypted[0:data_size - written]
+            elif damaged:
+                continue
+            else:
+                try:
+                    decrypted = decompressor.decompress(decrypted, data_size - written)
+                except ValueError:
+                    damaged = True
+                    continue
+            crc = checksum(decrypted, crc)
+            out_file.write(decrypted)
+            written += len(decrypted)
+
+        return crc, honored_flags
+
+    def is_file_owner(self, file_name):
+        """
+        Whether the copy held under the file name was stored by this client.
+        """
+        return bool(self.client_id) and get_file_owner(self.db_connection, file_name) == self.client_id
+
+    def record_binding(self, transfer_id):
+        """
+        What the GCM records of the transfer with this ID are bound to,
+        nothing for clients before BOUND_AAD_VERSION.
+        """
+        return bytes(transfer_id) if self.version >= BOUND_AAD_VERSION else b""
+
+    def receive_authenticated_content(self, out_file, data_size, offset, content_size, flags, binding):
+        """
+        Reads the GCM records of data_size plain bytes starting at offset in
+        the file, writing each one to out_file once it's authenticated along
+        with its position and the binding of the transfer.
+        Compressed content is decompressed as it's written; its records hold
+        the compressed bytes, their number follows from content_size.
+        Returns False if any record fails; the rest are still read, to stay
+        in sync with the client, but not written.
+        """
+        decryptor = AesGcmRecordDecryptor(self.aes_key)
+        decompressor = new_decompressor(flags)
+        sealed_size = data_size
+        if decompressor is not None:
+            records = -(-content_size // (STREAM_CHUNK_SIZE + GCM_NONCE_SIZE + GCM_TAG_SIZE))
+            sealed_size = content_size - records * (GCM_NONCE_SIZE + GCM_TAG_SIZE)
+
+        authenticated = True
+        written = 0
+        end = offset + sealed_size
+        position = offset
+        while True:
+            length = min(STREAM_CHUNK_SIZE, end - position)
+            record = self.recv_exactly(GCM_NONCE_SIZE + length + GCM_TAG_SIZE)
+            final = position + length == end
+            if authenticated:
+                try:
+                    plain = decryptor.open(record, struct.pack("<Q?", position, final) + binding)
+                    if decompressor is not None:
+                        plain = decompressor.decompress(plain, data_size - written)
+                    out_file.write(plain)
+                    written += len(plain)
+                except ValueError:
+                    authenticated = False
+            position += length
+            if final:
+                return authenticated and written == data_size
+
+    def reject_without_session(self, content_size=0):
+        """
+        Answers a file request with an error if the client hasn't logged in
+        on this connection, before any file is touched, skipping the
+        content_size bytes sent after the request to stay in sync with the
+        client. Returns whether the request was rejected.
+        """
+        if self.aes_key:
+            return False
+        self.skip_exactly(content_size)
+        respond = RespondHeader(self.version)
+        respond.code = RESPOND_INTERNAL_ERROR
+        self.socket.send(respond.pack_to_bytes())
+        print("[SESSION] : Fail. File request before login.")
+        return True
+
+    def skip_exactly(self, size):
+        """
+        Reads and drops exactly size bytes from the socket, a chunk at a time.
+        """
+        while size > 0:
+            size -= len(self.recv_exactly(min(STREAM_CHUNK_SIZE, size)))
+
+    def recv_exactly(self, size):
+        """
+        Reads exactly size bytes from the socket.
+        """
+        data = bytearray()
+        while len(data) < size:
+            packet = self.socket.recv(size - len(data))
+            if not packet:
+                raise ConnectionError("Connection closed while receiving file")
+            data += packet
+        return data
+
+    def accept_file(self, file_name, data_size, crc, flags=0):
+        """
+        Records the received file in the database and sends back
+        its size, name and checksum for the client to verify, followed
+        by the stream flags that were honored (e.g. CRC32C).
+        """
         self.file_name = file_name
         verified = False
-        if not self.retry:
+        # A file resent after a CRC error keeps its ID
+        self.file_id = self.pending_files.get(file_name)
+        if self.file_id is None:
             self.file_id = shortuuid.ShortUUID().random(length=16)
-            add_file(self.db_connection, self.file_id, self.file_name, OUT_FILE_PATH, verified)
+            self.pending_files[file_name] = self.file_id
+            add_file(self.db_connection, self.file_id, self.client_id, self.file_name, OUT_FILE_PATH, verified)
 
-        respond_payload = struct.pack("<16sI255s", self.client_id.encode(), data_size, file_name.encode())
+        # The size field is 32 bits wide, streamed files may be larger
+        respond_payload = struct.pack("<16sI255s", self.client_id.encode(), data_size & 0xFFFFFFFF,
+                                      file_name.encode())
         respond_payload += struct.pack(">I", crc)
+        respond_payload += struct.pack("<I", flags)
 
-        respond = RespondHeader()
+        respond = RespondHeader(self.version)
         respond.code = RESPOND_FILE_ACCEPTED
         respond.payload_size = len(respond_payload)
         self.socket.send(respond.pack_to_bytes())
@@ -176,18 +988,48 @@ class Server:
 
         return True
 
+    def authenticate_file(self, file_name, authenticated):
+        """
+        Records a file received as GCM records and tells the client whether
+        all of it was authenticated. A rejected file stays pending, so it
+        keeps its ID when it's sent again.
+        """
+        self.file_name = file_name
+        file_id = self.pending_files.get(file_name)
+        if file_id is None:
+            file_id = shortuuid.ShortUUID().random(length=16)
+            add_file(self.db_connection, file_id, self.client_id, file_name, OUT_FILE_PATH, authenticated)
+        elif authenticated:
+            update_file(self.db_connection, file_id, file_name, OUT_FILE_PATH, authenticated)
+        self.file_id = file_id
+
+        respond = RespondHeader(self.version)
+        if authenticated:
+            self.pending_files.pop(file_name, None)
+            respond.code = RESPOND_MESSAGE_CONFIRMED
+            respond.payload_size = 16
+            self.socket.send(respond.pack_to_bytes())
+            self.socket.send(struct.pack("=16s", str.encode(self.client_id)))
+            print("[RECEIVE FILE] : Success. File authenticated\n")
+        else:
+            self.pending_files[file_name] = file_id
+            respond.code = RESPOND_FILE_REJECTED
+            self.socket.send(respond.pack_to_bytes())
+            print("[RECEIVE FILE] : Fail. File failed authentication")
+        return True
+
     def confirm_valid_crc(self, request_header, request_payload):
         """
         Marks the file as verified in the database after the client confirms
         the CRC check passed, and sends back a confirmation response.
         """
-        verified = True
-        update_file(self.db_connection, self.file_id, self.file_name, OUT_FILE_PATH, verified)
+        file_name = self.confirmed_file_name(request_payload)
+        file_id = self.pending_files.pop(file_name, self.file_id)
 
-        # Reset retry state.
-        self.retry = False
+        verified = True
+        update_file(self.db_connection, file_id, file_name, OUT_FILE_PATH, verified)
 
-        respond = RespondHeader()
+        respond = RespondHeader(self.version)
         respond.code = RESPOND_MESSAGE_CONFIRMED
         respond.payload_size = 16
 
@@ -199,28 +1041,123 @@ class Server:
 
         print("[CHECK CRC] : Success. File transfer success\n")
 
-        return False
+        # Keep the session open, the client may send more files.
+        return True
 
     def confirm_invalid_crc(self, request_header, request_payload):
         """
         Triggered when the client reports a CRC failure.
-        Prepares the server to retry the file transfer by setting a retry flag.
+        The file stays pending, so it keeps its ID when it's received again.
         """
-        # Logs failure, sets retry flag, and keeps connection open.
+        # Logs failure and keeps connection open.
         print("[CHECK CRC] : Fail. Retry to receive.")
-        self.retry = True
         return True
 
-    def confirm_last_invalid_crc(self):
+    def confirm_last_invalid_crc(self, request_header, request_payload):
         """
         Handles the final CRC failure after all retries. Sends a confirmation
         that the server is ending the transfer due to persistent errors.
         """
-        respond = RespondHeader()
-        self.retry = False
+        self.pending_files.pop(self.confirmed_file_name(request_payload), None)
+
+        respond = RespondHeader(self.version)
         respond.code = RESPOND_MESSAGE_CONFIRMED
         self.socket.send(respond.pack_to_bytes())
 
         print("[CHECK CRC] : Fail. Last CRC error. Ending transfer\n")
 
-        return False
+        return True
+
+    def confirmed_file_name(self, request_payload):
+        """
+        Name of the file a CRC confirmation refers to, the last received
+        file if the request doesn't carry one.
+        """
+        file_name = request_payload[0:255].decode("utf-8").rstrip('\x00')
+        return file_name if file_name else self.file_name
+
+
+def stored_file_name(field):
+    """
+    Name a client's file is stored under, from the 255-byte name field of
+    its request. Only the last component of the name is kept, so a request
+    never reaches a file outside OUT_FILE_PATH.
+    """
+    return os.path.basename(field.decode("utf-8").rstrip('\x00'))
+
+
+def chunk_path(digest):
+    """
+    Path of a chunk in the chunk store, spread over directories by the
+    first two hex digits of its SHA-256.
+    """
+    return os.path.join(CHUNK_STORE_PATH, digest[0:2], digest)
+
+
+def apply_delta(delta_file, delta, data_size, file_digest):
+    """
+    Rebuilds a file from the instructions in delta_file and the copy they
+    refer to, into a temporary file that replaces the copy only if the
+    result has data_size bytes and the given SHA-256.
+    """
+    file_path = OUT_FILE_PATH + delta["file_name"]
+    temp_path = f"{file_path}.{shortuuid.ShortUUID().random(length=8)}.tmp"
+    block_size = delta["block_size"]
+    digest = hashlib.sha256()
+    written = 0
+    base_file = None
+    try:
+        if delta["block_count"] > 0:
+            base_file = open(file_path, "rb")
+            if os.fstat(base_file.fileno()).st_mtime_ns != delta["base_modified"]:
+                raise ValueError("File changed since it was signed")
+        with open(temp_path, "wb") as out_file:
+            while op := delta_file.read(1):
+                if op[0] == DELTA_LITERAL:
+                    length = struct.unpack("<I", read_exactly(delta_file, 4))[0]
+                    written += copy_exactly(delta_file, out_file, length, digest)
+                elif op[0] == DELTA_COPY:
+                    block, count = struct.unpack("<II", read_exactly(delta_file, 8))
+                    if count == 0 or block + count > delta["block_count"]:
+                        raise ValueError("Copy beyond the signed blocks")
+                    base_file.seek(block * block_size)
+                    length = min(count * block_size, delta["base_size"] - block * block_size)
+                    written += copy_exactly(base_file, out_file, length, digest)
+                else:
+                    raise ValueError("Unknown delta instruction")
+                if written > data_size:
+                    raise ValueError("Delta rebuilds more than the file")
+        valid = written == data_size and digest.digest() == file_digest
+    except (OSError, ValueError) as e:
+        print(f"[DELTA] : Fail. {e}.")
+        valid = False
+    finally:
+        if base_file is not None:
+            base_file.close()
+
+    if valid:
+        os.replace(temp_path, file_path)
+    else:
+        os.remove(temp_path)
+    return valid
+
+
+def read_exactly(in_file, size):
+    data = in_file.read(size)
+    if len(data) != size:
+        raise ValueError("Delta truncated")
+    return data
+
+
+def copy_exactly(in_file, out_file, size, digest):
+    """
+    Copies size bytes between files in STREAM_CHUNK_SIZE pieces, feeding
+    them to digest. Returns size.
+    """
+    remaining = size
+    while remaining > 0:
+        data = read_exactly(in_file, min(STREAM_CHUNK_SIZE, remaining))
+        digest.update(data)
+        out_file.write(data)
+        remaining -= len(data)
+    return size
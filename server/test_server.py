@@ -0,0 +1,376 @@
+import binascii
+import hashlib
+import os
+import socket
+import sqlite3
+import struct
+import tempfile
+import threading
+import unittest
+from base64 import b64decode, b64encode
+
+from Crypto.Cipher import AES
+
+import server
+from server import *
+
+OWNER_ID = "owner-0123456789"
+OTHER_ID = "other-0123456789"
+BINDING = b"download-0123456"
+
+
+class ServerTest(unittest.TestCase):
+    """
+    Sessions of a server whose database is in the working directory and
+    whose files are stored in the storage directory next to it.
+    """
+
+    def setUp(self):
+        self.cwd = os.getcwd()
+        self.directory = tempfile.TemporaryDirectory()
+        os.mkdir(self.directory.name + "/server")
+        os.mkdir(self.directory.name + "/storage")
+        os.chdir(self.directory.name + "/server")
+        self.out_file_path = server.OUT_FILE_PATH
+        server.OUT_FILE_PATH = self.directory.name + "/storage/"
+        self.aes_key = b64encode(os.urandom(16)).decode()
+        self.sessions = []
+        self.sockets = []
+
+    def tearDown(self):
+        for session in self.sessions:
+            session.db_connection.close()
+        for sock in self.sockets:
+            sock.close()
+        server.OUT_FILE_PATH = self.out_file_path
+        os.chdir(self.cwd)
+        self.directory.cleanup()
+
+    def connect(self, client_id):
+        """
+        A logged-in session of the client, and the client's end of its socket.
+        """
+        server_socket, client_socket = socket.socketpair()
+        self.sockets += [server_socket, client_socket]
+        session = Server(server_socket)
+        self.sessions.append(session)
+        session.client_id = client_id
+        session.aes_key = self.aes_key
+        session.version = VERSION
+        return session, client_socket
+
+
+class UploadTest(ServerTest):
+    """
+    Uploaded files are stored under the last component of the name the
+    client sent, in the storage directory whatever the name.
+    """
+
+    def test_streamed_upload_stays_in_the_storage_directory(self):
+        session, client_socket = self.connect(OWNER_ID)
+        content = os.urandom(1000)
+        field = struct.pack("255s", b"../escape.bin")
+        binding = hashlib.sha256(field).digest()[0:RECORD_BINDING_SIZE]
+        records = seal(self.aes_key, content, 0, binding)
+        client_socket.sendall(records)
+
+        session.receive_file_stream(None, struct.pack("<QQI", len(content), len(records), FLAG_AES_GCM) + field)
+
+        self.assertEqual(RESPOND_MESSAGE_CONFIRMED, respond(client_socket)[0])
+        self.assertFalse(os.path.exists(self.directory.name + "/escape.bin"))
+        with open(server.OUT_FILE_PATH + "escape.bin", "rb") as in_file:
+            self.assertEqual(content, in_file.read())
+
+    def test_ranged_upload_is_committed_once_its_ranges_cover_the_file(self):
+        session, client_socket = self.connect(OWNER_ID)
+        content = os.urandom(3000)
+        self.send_range(session, client_socket, b"ranged.bin", content, 0, 1000)
+        self.send_range(session, client_socket, b"ranged.bin", content, 2000, 1000)
+
+        # The file already has its full size, the missing range is zeros
+        self.assertEqual(RESPOND_INTERNAL_ERROR, self.commit(session, client_socket, b"ranged.bin", len(content)))
+
+        self.send_range(session, client_socket, b"ranged.bin", content, 1000, 1000)
+        self.assertEqual(RESPOND_MESSAGE_CONFIRMED, self.commit(session, client_socket, b"ranged.bin", len(content)))
+        with open(server.OUT_FILE_PATH + "ranged.bin", "rb") as in_file:
+            self.assertEqual(content, in_file.read())
+
+    def test_ranged_upload_stays_in_the_storage_directory(self):
+        session, client_socket = self.connect(OWNER_ID)
+        content = os.urandom(1000)
+        self.send_range(session, client_socket, b"../escape.bin", content, 0, len(content))
+
+        self.assertEqual(RESPOND_MESSAGE_CONFIRMED, self.commit(session, client_socket, b"../escape.bin", len(content)))
+        self.assertFalse(os.path.exists(self.directory.name + "/escape.bin"))
+        self.assertTrue(os.path.exists(server.OUT_FILE_PATH + "escape.bin"))
+
+    def test_resumed_upload_leaves_files_outside_the_storage_directory_alone(self):
+        with open(self.directory.name + "/escape.bin", "wb") as out_file:
+            out_file.write(b"not the server's")
+        session, client_socket = self.connect(OWNER_ID)
+        content = os.urandom(1000)
+
+        session.resume_file(None, struct.pack("<QQI255s", len(content), 1, FLAG_AES_GCM, b"../escape.bin"))
+        code, payload = respond(client_socket)
+        self.assertEqual(RESPOND_RESUME_OFFSET, code)
+        upload_id = struct.unpack("<16s16sQI", payload)[1]
+        records = seal(self.aes_key, content, 0, upload_id)
+        client_socket.sendall(records)
+        session.receive_file_chunk(None, upload_id + struct.pack("<QIII", 0, len(content), len(records),
+                                                                 FLAG_AES_GCM))
+        code, payload = respond(client_socket)
+        self.assertEqual(RESPOND_CHUNK_ACCEPTED, code)
+        self.assertEqual(CHUNK_STORED, struct.unpack("<16sQIQ", payload)[2])
+
+        with open(self.directory.name + "/escape.bin", "rb") as in_file:
+            self.assertEqual(b"not the server's", in_file.read())
+        with open(server.OUT_FILE_PATH + "escape.bin", "rb") as in_file:
+            self.assertEqual(content, in_file.read())
+
+    def test_deduplicated_upload_stays_in_the_storage_directory(self):
+        session, client_socket = self.connect(OWNER_ID)
+        content = os.urandom(1000)
+        session.receive_dedup_manifest(None, struct.pack("<QI255s32sI", len(content), 1, b"../escape.bin",
+                                                         hashlib.sha256(content).digest(), len(content)))
+        code, payload = respond(client_socket)
+        self.assertEqual(RESPOND_MISSING_CHUNKS, code)
+        manifest_id, count, index = struct.unpack("<16sII", payload)
+        records = seal(self.aes_key, content, 0, manifest_id)
+        client_socket.sendall(records)
+        session.receive_dedup_chunk(None, manifest_id + struct.pack("<III", index, len(records), FLAG_AES_GCM))
+
+        session.commit_dedup(None, manifest_id)
+
+        self.assertEqual(RESPOND_MESSAGE_CONFIRMED, respond(client_socket)[0])
+        self.assertFalse(os.path.exists(self.directory.name + "/escape.bin"))
+        with open(server.OUT_FILE_PATH + "escape.bin", "rb") as in_file:
+            self.assertEqual(content, in_file.read())
+
+    def test_delta_upload_stays_in_the_storage_directory(self):
+        session, client_socket = self.connect(OWNER_ID)
+        content = os.urandom(1000)
+        session.send_delta_signatures(None, struct.pack("255s", b"../escape.bin"))
+        code, payload = respond(client_socket)
+        self.assertEqual(RESPOND_DELTA_SIGNATURES, code)
+        delta_id, base_size, block_size, block_count = struct.unpack("<16sQII", payload)
+        self.assertEqual(0, block_count)
+
+        # Without a copy to refer to, the delta is the whole content as one literal
+        delta = struct.pack("<BI", DELTA_LITERAL, len(content)) + content
+        records = seal(self.aes_key, delta, 0, delta_id)
+        client_socket.sendall(records)
+        session.receive_delta(None, delta_id + struct.pack("<QQQI", len(content), len(delta), len(records),
+                                                           FLAG_AES_GCM) + hashlib.sha256(content).digest())
+
+        self.assertEqual(RESPOND_MESSAGE_CONFIRMED, respond(client_socket)[0])
+        self.assertFalse(os.path.exists(self.directory.name + "/escape.bin"))
+        with open(server.OUT_FILE_PATH + "escape.bin", "rb") as in_file:
+            self.assertEqual(content, in_file.read())
+
+    def send_range(self, session, client_socket, name, content, offset, size):
+        """
+        Uploads the range of the content as AES-CBC ciphertext, checking the
+        checksum the server sends back.
+        """
+        plain = content[offset:offset + size]
+        padding = AES.block_size - len(plain) % AES.block_size
+        cipher_text = AES.new(b64decode(self.aes_key), AES.MODE_CBC, bytes(AES.block_size)) \
+            .encrypt(plain + bytes([padding]) * padding)
+        client_socket.sendall(cipher_text)
+
+        session.receive_file_range(None, struct.pack("<QQQQI255s", len(content), offset, size, len(cipher_text), 0,
+                                                     name))
+        code, payload = respond(client_socket)
+        self.assertEqual(RESPOND_RANGE_ACCEPTED, code)
+        self.assertEqual(binascii.crc32(plain), struct.unpack("<16sQQII", payload)[3])
+
+    def commit(self, session, client_socket, name, size):
+        session.commit_file(None, struct.pack("<Q255s", size, name))
+        return respond(client_socket)[0]
+
+
+class SessionTest(ServerTest):
+    """
+    Requests about files are answered with an error until the client logs
+    in, and leave the storage directory alone.
+    """
+
+    def connect_without_login(self):
+        server_socket, client_socket = socket.socketpair()
+        self.sockets += [server_socket, client_socket]
+        session = Server(server_socket)
+        self.sessions.append(session)
+        session.version = VERSION
+        return session, client_socket
+
+    def test_file_requests_before_login_are_answered_with_an_error(self):
+        session, client_socket = self.connect_without_login()
+        name = struct.pack("255s", b"notes.bin")
+        requests = [
+            (session.receive_file, struct.pack("<I", 16) + name + bytes(16)),
+            (session.commit_file, struct.pack("<Q", 16) + name),
+            (session.resume_file, struct.pack("<QQI", 16, 1, FLAG_AES_GCM) + name),
+            (session.receive_dedup_manifest, struct.pack("<QI", 0, 0) + name),
+            (session.send_delta_signatures, name),
+        ]
+        for handle, payload in requests:
+            self.assertTrue(handle(None, payload))
+            self.assertEqual(RESPOND_INTERNAL_ERROR, respond(client_socket)[0])
+        self.assertEqual([], os.listdir(server.OUT_FILE_PATH))
+
+    def test_content_sent_before_login_is_skipped(self):
+        session, client_socket = self.connect_without_login()
+        name = struct.pack("255s", b"notes.bin")
+        content = os.urandom(3 * STREAM_CHUNK_SIZE + 100)
+        # More than the socket buffers hold, the client sends while the server skips
+        sender = threading.Thread(target=client_socket.sendall, args=(content + content,))
+        sender.start()
+        session.receive_file_stream(None, struct.pack("<QQI", len(content), len(content), 0) + name)
+        self.assertEqual(RESPOND_INTERNAL_ERROR, respond(client_socket)[0])
+        session.receive_file_range(None, struct.pack("<QQQQI", len(content), 0, len(content), len(content), 0)
+                                   + name)
+        self.assertEqual(RESPOND_INTERNAL_ERROR, respond(client_socket)[0])
+        sender.join()
+        self.assertEqual([], os.listdir(server.OUT_FILE_PATH))
+
+        # Logged in, the next upload is read from where the skipped content ended
+        session.client_id = OWNER_ID
+        session.aes_key = self.aes_key
+        binding = hashlib.sha256(name).digest()[0:RECORD_BINDING_SIZE]
+        records = seal(self.aes_key, content, 0, binding)
+        threading.Thread(target=client_socket.sendall, args=(records,)).start()
+        session.receive_file_stream(None, struct.pack("<QQI", len(content), len(records), FLAG_AES_GCM) + name)
+        self.assertEqual(RESPOND_MESSAGE_CONFIRMED, respond(client_socket)[0])
+        with open(server.OUT_FILE_PATH + "notes.bin", "rb") as in_file:
+            self.assertEqual(content, in_file.read())
+
+
+class DownloadTest(ServerTest):
+    """
+    Stored files go back, as GCM records bound to the download, only to the
+    client that stored them.
+    """
+
+    def setUp(self):
+        super().setUp()
+        self.content = os.urandom(STREAM_CHUNK_SIZE + 1000)
+        with open(server.OUT_FILE_PATH + "notes.bin", "wb") as out_file:
+            out_file.write(self.content)
+
+    def download(self, session, client_socket, offset, length):
+        """
+        Requests the range of notes.bin and returns its content, None when the
+        server answers that it has no such file.
+        """
+        session.send_file(None, struct.pack("<QqI255s16s", offset, length, 0, b"notes.bin", BINDING))
+        code, payload = respond(client_socket)
+        if code == RESPOND_FILE_NOT_FOUND:
+            return None
+        self.assertEqual(RESPOND_FILE_CONTENT, code)
+        file_size, offset, length, content_size, flags = struct.unpack("<QQQQI", payload)
+        self.assertEqual(len(self.content), file_size)
+
+        decryptor = AesGcmRecordDecryptor(self.aes_key)
+        plain = bytearray()
+        end = offset + length
+        position = offset
+        while True:
+            size = min(STREAM_CHUNK_SIZE, end - position)
+            final = position + size == end
+            aad = struct.pack("<QB", position, int(final) | GCM_FROM_SERVER) + BINDING
+            plain += decryptor.open(receive(client_socket, size + GCM_NONCE_SIZE + GCM_TAG_SIZE), aad)
+            position += size
+            if final:
+                return bytes(plain)
+
+    def test_owner_downloads_the_file(self):
+        session, client_socket = self.connect(OWNER_ID)
+        add_file(session.db_connection, "file-0123456789a", OWNER_ID, "notes.bin", server.OUT_FILE_PATH, True)
+
+        self.assertEqual(self.content, self.download(session, client_socket, 0, -1))
+
+    def test_owner_downloads_a_range_across_records(self):
+        session, client_socket = self.connect(OWNER_ID)
+        add_file(session.db_connection, "file-0123456789a", OWNER_ID, "notes.bin", server.OUT_FILE_PATH, True)
+
+        offset = STREAM_CHUNK_SIZE - 100
+        self.assertEqual(self.content[offset:offset + 600], self.download(session, client_socket, offset, 600))
+
+    def test_other_client_gets_no_file(self):
+        session, client_socket = self.connect(OTHER_ID)
+        add_file(session.db_connection, "file-0123456789a", OWNER_ID, "notes.bin", server.OUT_FILE_PATH, True)
+
+        self.assertIsNone(self.download(session, client_socket, 0, -1))
+
+    def test_file_stored_again_by_another_client_changes_owner(self):
+        owner, owner_socket = self.connect(OWNER_ID)
+        add_file(owner.db_connection, "file-0123456789a", OWNER_ID, "notes.bin", server.OUT_FILE_PATH, True)
+        other, other_socket = self.connect(OTHER_ID)
+        add_file(other.db_connection, "file-0123456789b", OTHER_ID, "notes.bin", server.OUT_FILE_PATH, True)
+
+        self.assertIsNone(self.download(owner, owner_socket, 0, -1))
+        self.assertEqual(self.content, self.download(other, other_socket, 0, -1))
+
+    def test_file_stored_without_an_owner_is_not_sent(self):
+        # A database from before the files' owners were recorded
+        db_connection = sqlite3.connect(DB_FILE_NAME)
+        db_connection.execute('create table files\
+         (ID char(16) primary key not NULL, FileName varchar(255) not NULL,\
+         PathName varchar(255), Verified boolean);')
+        db_connection.execute("insert into files values('file-0123456789a', 'notes.bin', ?, 1)",
+                              (server.OUT_FILE_PATH,))
+        db_connection.commit()
+        db_connection.close()
+
+        session, client_socket = self.connect(OWNER_ID)
+
+        self.assertIsNone(self.download(session, client_socket, 0, -1))
+
+    def test_other_client_gets_no_delta_signatures(self):
+        session, client_socket = self.connect(OTHER_ID)
+        add_file(session.db_connection, "file-0123456789a", OWNER_ID, "notes.bin", server.OUT_FILE_PATH, True)
+
+        session.send_delta_signatures(None, struct.pack("255s", b"notes.bin"))
+        delta_id, base_size, block_size, block_count = struct.unpack("<16sQII", respond(client_socket)[1])
+        self.assertEqual(0, base_size)
+        self.assertEqual(0, block_count)
+
+
+def seal(aes_key, content, offset, binding):
+    """
+    The content as the client's GCM records, authenticated from the offset.
+    """
+    encryptor = AesGcmRecordEncryptor(aes_key)
+    records = bytearray()
+    end = offset + len(content)
+    position = offset
+    while True:
+        size = min(STREAM_CHUNK_SIZE, end - position)
+        final = position + size == end
+        records += encryptor.seal(content[position - offset:position - offset + size],
+                                  struct.pack("<QB", position, int(final)) + binding)
+        position += size
+        if final:
+            return bytes(records)
+
+
+def respond(sock):
+    """
+    Code and payload of the next response.
+    """
+    version, code, payload_size = struct.unpack("<BHI", receive(sock, 7))
+    return code, receive(sock, payload_size)
+
+
+def receive(sock, size):
+    data = bytearray()
+    while len(data) < size:
+        chunk = sock.recv(size - len(data))
+        if not chunk:
+            raise EOFError()
+        data += chunk
+    return bytes(data)
+
+
+if __name__ == '__main__':
+    unittest.main()